@@ -5,4 +5,6 @@
  */
 module tlIITools {
 	exports tlIItools;
+
+	requires jdk.httpserver;
 }
\ No newline at end of file
@@ -1,5 +1,7 @@
 package tlIItools;
 
+import java.io.*;
+
 import java.util.*;
 
 /** Represents a Torchlight II affix.
@@ -20,12 +22,12 @@ public class Affix {
 		ENCHANTMENT
 	}
 
-	/** Whether or not to record timing info. */
-	public static boolean doTiming;
-
 	/** Internal name of the affix. */
 	public String intName;
 
+	/** Where the affix came from, or null if it wasn't loaded from a file. */
+	public Provenance source;
+
 	/* The prefix/suffix attached to the affix.
 	 *
 	 * In general, only one of these is set for a given affix.
@@ -151,6 +153,54 @@ public class Affix {
 	    return group;
 	}
 
+	/** Get a key for the contents of this affix.
+	 *
+	 * Two affixes have the same key if they do the same thing, no matter what
+	 * they are called or which file they came from.
+	 *
+	 * @return The content key for this affix. */
+	public String contentKey() {
+		StringBuilder sb = new StringBuilder();
+
+		sb.append(type).append('|').append(affixPrefix).append('|').append(affixSuffix);
+		sb.append('|').append(spawnRange.minLevel).append('|').append(spawnRange.maxLevel);
+		sb.append('|').append(weight).append('|').append(slots);
+		sb.append('|').append(equipTypes).append('|').append(nonequipTypes);
+		sb.append('|').append(enchantSources).append('|').append(socketableTypes);
+
+		// The effects are ordered by a hash that includes the file name, so sort
+		// them to get the same key for the same effects.
+		List<String> effectKeys = new ArrayList<>(effects.size());
+		for (Effect eft : effects) effectKeys.add(eft.contentKey());
+		Collections.sort(effectKeys);
+
+		for (String effectKey : effectKeys) sb.append("|[").append(effectKey).append(']');
+
+		return sb.toString();
+	}
+
+	/** Get a fingerprint of the contents of this affix.
+	 *
+	 * This is a hash of {@link #contentKey()}.
+	 *
+	 * @return The content fingerprint of this affix. */
+	public long fingerprint() {
+		return fnv1a(contentKey());
+	}
+
+	/* Hash some text with 64-bit FNV-1a. This is used wherever a hash has to
+	 * be the same from one run to the next. */
+	static long fnv1a(CharSequence text) {
+		long hash = 0xcbf29ce484222325L;
+
+		for (int i = 0; i < text.length(); i++) {
+			hash ^= text.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+
+		return hash;
+	}
+
 	/* Are invalid equip types being added?
 	 * 
 	 * NOTE: This is kinda bad practice. It should really be handled via two
@@ -167,6 +217,15 @@ public class Affix {
 		effects         = new ArrayList<>();
 	}
 
+	/** Get the name of the file this affix came from.
+	 *
+	 * @return The name of the file, or null if it wasn't loaded from one. */
+	public String fileName() {
+		if (source == null) return null;
+
+		return source.fileName();
+	}
+
 	/** Sets the set of equip types that is added to.
 	 *
 	 * @param nonequip True if the equip types being added are prohibited, or false
@@ -205,48 +264,20 @@ public class Affix {
 	 *
 	 * @return The short form of this affix. */
 	public String toShortString() {
-		StringBuilder sb = new StringBuilder();
-
-		sb.append(intName);
-		sb.append("\n");
-
-		if (affixSuffix != null) {
-			sb.append("\tSuffix: ");
-			sb.append(affixSuffix);
-			sb.append("\n");
-		}
-
-		if (affixPrefix != null) {
-			sb.append("\tPrefix: ");
-			sb.append(affixPrefix);
-			sb.append("\n");
-
-		}
-
-		sb.append("\t");
-		sb.append(spawnRange.toString());
-		sb.append("\n");
-
-		sb.append("\tSpawn Weight: ");
-		sb.append(weight);
-		sb.append("\t");
+		return toShortString(RunContext.defaults());
+	}
 
-		if (slots == 0) {
-			sb.append("\tOccupies no slots\n");
-		} else {
-			sb.append("\tSlots: ");
-			sb.append(slots);
-			sb.append("\n");
-		}
+	/** Print out a 'short-form' of this affix.
+	 *
+	 * @param ctx The run to print the affix for.
+	 *
+	 * @return The short form of this affix. */
+	public String toShortString(RunContext ctx) {
+		StringBuilder sb = new StringBuilder();
 
-		if (effects.size() != 0) {
-			sb.append("\tEffects: ");
-			for (Effect eft : effects) {
-				if (effects.size() > 1) sb.append("\n\t\t");
-				sb.append(eft.toString());
-			}
-			sb.append("\n");
-		}
+		AffixWriter out = AffixWriter.forBuilder(ctx, sb);
+		out.writeShortAffix(this);
+		out.flush();
 
 		return sb.toString();
 	}
@@ -255,105 +286,21 @@ public class Affix {
 	 * 
 	 * @return The full details of the affix. */
 	public String toLongString() {
-		StringBuilder sb = new StringBuilder();
-
-		if (type == AffixType.SOCKETABLE) {
-			sb.append("Socketable ");
-		} else if (type == AffixType.PERSONAL || (intName != null && intName.startsWith("HERO_"))) {
-			sb.append("Personal ");
-		} else if (intName != null & intName.startsWith("MAP_")) {
-			sb.append("Area ");
-		}
-
-		if (type == AffixType.ENCHANTMENT) {
-			sb.append("Enchantment: ");
-		} else {
-			sb.append("Affix: ");
-		}
-
-		sb.append(intName);
-		sb.append("\n");
-
-		if (affixSuffix != null) {
-			sb.append("\tSuffix: ");
-			sb.append(affixSuffix);
-			sb.append("\n");
-		}
-
-		if (affixPrefix != null) {
-			sb.append("\tPrefix: ");
-			sb.append(affixPrefix);
-			sb.append("\n");
-
-		}
-
-		sb.append("\t");
-		sb.append(spawnRange);
-		sb.append("\n");
-
-		sb.append("\tSpawn Weight: ");
-		sb.append(weight);
-		sb.append("\n");
-
-		if (slots == 0) {
-			sb.append("\tOccupies no slots\n");
-		} else {
-			sb.append("\tSlots: ");
-			sb.append(slots);
-			sb.append("\n");
-		}
-
-		if (equipTypes.size() != 0) {
-			if (type == AffixType.SOCKETABLE) {
-				sb.append("\tSocketable Into: ");
-			} else if (type == AffixType.ENCHANTMENT) {
-				sb.append("\tEnchants Onto: ");
-			} else {
-				sb.append("\tSpawns On: ");
-			}
-
-			sb.append(equipTypes);
-			sb.append("\n");
-		}
-
-		// Socketables & enchantments use this as a duplicate.
-		if (type != AffixType.SOCKETABLE && type != AffixType.ENCHANTMENT && nonequipTypes.size() != 0) {
-			sb.append("\tCan't Spawn On: ");
-			sb.append(nonequipTypes);
-			sb.append("\n");
-		}
+		return toLongString(RunContext.defaults());
+	}
 
-		if (enchantSources.size() != 0) {
-			sb.append("\tEnchantment Sources: ");
-			sb.append(enchantSources);
-			sb.append("\n");
-		}
+	/** Print out the full details of this affix.
+	 *
+	 * @param ctx The run to print the affix for.
+	 *
+	 * @return The full details of the affix. */
+	public String toLongString(RunContext ctx) {
+		StringBuilder sb = new StringBuilder();
 
-		if (socketableTypes.size() != 0) {
-			sb.append("\tSocketable Types: ");
-			sb.append(socketableTypes);
-			sb.append("\n");
-		}
+		AffixWriter out = AffixWriter.forBuilder(ctx, sb);
+		out.writeLongAffix(this);
+		out.flush();
 
-		if (effects.size() != 0) {
-			sb.append("\tEffects: ");
-			for (Effect eft : effects) {
-				sb.append("\n\t\t");
-				sb.append(eft.toString());
-			}
-			sb.append("\n");
-		}
-		
-		/*
-		sb.append("Affix Group: ");
-		String afxGroupName = getAffixGroupName();
-		sb.append(afxGroupName);
-		sb.append(" (ID: ");
-		sb.append(afxGroupName.hashCode());
-		sb.append(")");
-		sb.append("\n");
-		*/
-		
 		return sb.toString();
 	}
 
@@ -365,7 +312,7 @@ public class Affix {
 	 *
 	 * @return The loaded affix. */
 	public static Affix loadAffix(Scanner scn, String fName) {
-		return loadAffix(scn, fName, new ArrayList<>());
+		return loadAffix(RunContext.defaults(), scn, fName, Diagnostics.IGNORE);
 	}
 
 	/** Load an affix from an input source.
@@ -376,13 +323,96 @@ public class Affix {
 	 *
 	 * @return The affix, loaded from the file. */
 	public static Affix loadAffix(Scanner scn, String scnName, List<String> errors) {
+		Diagnostics diags = new Diagnostics(Diagnostics.DEFAULT_CAPACITY);
+
+		Affix afx = loadAffix(RunContext.defaults(), scn, scnName, diags);
+
+		diags.formatInto(errors);
+
+		return afx;
+	}
+
+	/** Load an affix from an input source.
+	 * 
+	 * @param ctx The run the affix is being loaded for.
+	 * @param scn The input source to read from.
+	 * @param scnName The name of the input source.
+	 * @param diags The place to record problems encountered loading the affix.
+	 *
+	 * @return The affix, loaded from the file. */
+	public static Affix loadAffix(RunContext ctx, Scanner scn, String scnName,
+			Diagnostics diags)
+	{
+		return loadAffix(ctx, new LineSource(scn), scnName, diags);
+	}
+
+	/** Read and parse a single affix again, from where it came from.
+	 *
+	 * This is what to use to refresh one affix, without loading every file again.
+	 *
+	 * @param ctx The run the affix is being loaded for.
+	 * @param nfr The name reader to read the file with.
+	 * @param source Where the affix came from.
+	 * @param diags The place to record problems encountered loading the affix.
+	 *
+	 * @return The affix, loaded again.
+	 *
+	 * @throws IOException If something goes wrong reading the file. */
+	public static Affix reread(RunContext ctx, NameFileReader nfr, Provenance source,
+			Diagnostics diags) throws IOException
+	{
+		return loadAffix(ctx, source.open(nfr), source.fileName(), diags);
+	}
+
+	/** Load an affix from a source of lines.
+	 * 
+	 * @param ctx The run the affix is being loaded for.
+	 * @param src The lines to read from.
+	 * @param scnName The name of the input source.
+	 * @param diags The place to record problems encountered loading the affix.
+	 *
+	 * @return The affix, loaded from the lines. */
+	public static Affix loadAffix(RunContext ctx, LineSource src, String scnName,
+			Diagnostics diags)
+	{
+		return load(ctx, src, scnName, diags, null);
+	}
+
+	/** Load just the header of an affix from a source of lines.
+	 *
+	 * Everything but the effects is loaded as usual. The effect blocks are
+	 * skipped over, and only parsed the first time that one of them is used.
+	 * Their number is known without parsing them.
+	 *
+	 * @param ctx The run the affix is being loaded for.
+	 * @param nfr The name reader to read the effects with later.
+	 * @param src The lines to read from.
+	 * @param scnName The name of the input source.
+	 * @param diags The place to record problems encountered loading the affix.
+	 *
+	 * @return The affix, with its effects not yet parsed. */
+	public static Affix loadHeader(RunContext ctx, NameFileReader nfr, LineSource src,
+			String scnName, Diagnostics diags)
+	{
+		return load(ctx, src, scnName, diags, nfr);
+	}
+
+	/* Load an affix, leaving the effects to be read with lazyFrom if it isn't null. */
+	private static Affix load(RunContext ctx, LineSource src, String scnName,
+			Diagnostics diags, NameFileReader lazyFrom)
+	{
 		Affix afx = new Affix();
 
+		List<Provenance> effectBlocks = lazyFrom == null ? null : new ArrayList<>();
+
+		int  startLine   = src.lineNumber() + 1;
+		long startOffset = src.offset();
+
 		long startTime = System.nanoTime();
 
-		while (scn.hasNextLine()) {
-			String ln = scn.nextLine();
-			ln = ln.replaceAll("\\p{Cntrl}", "");
+		while (src.hasNextLine()) {
+			String ln = src.nextLine();
+			ln = LineSource.stripControls(ln);
 
 			if (ln.contains("[NOT_UNITTYPES]")) {
 				afx.setEquipType(true);
@@ -404,10 +434,8 @@ public class Affix {
 					afx.affixPrefix = splits[1];
 					break;
 				default:
-					String msg = String.format(
-							"Misformed affix translation: (%s) (%s) (%s)\n",
-							splits[0], splits[1], scnName);
-					errors.add(msg);
+					diags.add(Diagnostic.Code.MISFORMED_TRANSLATION, scnName, src.lineNumber(),
+							afx.intName, splits[0], splits[1], scnName);
 				}
 			} else if (ln.contains("MIN_SPAWN_RANGE")) {
 				afx.spawnRange.minLevel = Integer.parseInt(splits[1]);
@@ -419,40 +447,48 @@ public class Affix {
 				afx.weight = Integer.parseInt(splits[1]);
 			} else if (ln.contains("UNITTYPE") && !ln.contains("/")) {
 				if (splits.length == 1)
-					errors.add(String.format(
-							"Malformed equip type: (%s) (%s)\n",
-							splits[0], scnName));
+					diags.add(Diagnostic.Code.MALFORMED_EQUIP_TYPE, scnName, src.lineNumber(),
+							afx.intName, splits[0], scnName);
 
 				afx.addEquipType(splits[1]);
 			} else if (splits[0].equals("<STRING>NAME")) {
 				if (splits.length == 1)
-					errors.add(String.format(
-							"Malformed name: (%s) (%s)\n",
-							splits[0], scnName));
+					diags.add(Diagnostic.Code.MALFORMED_NAME, scnName, src.lineNumber(),
+							afx.intName, splits[0], scnName);
 
 				afx.intName = splits[1];
 			} else if (ln.contains("[EFFECT]")) {
-				List<String> eftErrs = new ArrayList<>();
+				if (effectBlocks != null) {
+					effectBlocks.add(Effect.skipEffect(ctx, src, scnName));
+				} else {
+					Effect eft = Effect.parseEffect(ctx, afx, src, scnName, diags);
 
-				Effect eft = Effect.parseEffect(afx, scn, scnName, errors);
-				errors.addAll(eftErrs);
-
-				afx.effects.add(eft);
+					afx.effects.add(eft);
+				}
 			}
 		}
 
-		// Sort effects, so that they are in a stable order, even if specified out of
-		// order
-		afx.effects.sort(Comparator.comparingInt((val) -> val.hashCode()));
+		if (effectBlocks != null) {
+			afx.effects = new LazyEffectList(ctx, lazyFrom, afx, effectBlocks, diags);
+		} else {
+			// Sort effects, so that they are in a stable order, even if specified out of
+			// order
+			afx.effects.sort(Comparator.comparingInt((val) -> val.hashCode()));
+		}
+
+		afx.source = new Provenance(ctx.sources, ctx.sources.idFor(scnName),
+				startLine, src.lineNumber(), startOffset, (int) (src.offset() - startOffset));
 
 		long endTime = System.nanoTime();
-		if (doTiming) {
-			String fmt = "\tProcessed affix %s from %s in %d nanoseconds (%.2f seconds)\n\n";
+
+		ctx.affixesParsed.increment();
+		ctx.parseNanos.add(endTime - startTime);
+
+		if (ctx.doTiming) {
 			double seconds = ((double) (endTime - startTime) / 1000000000);
 
-			errors.add(String.format(
-					fmt,
-					afx.intName, scnName, endTime - startTime, seconds));
+			diags.add(Diagnostic.Code.AFFIX_TIMING, scnName, -1, afx.intName,
+					afx.intName, scnName, endTime - startTime, seconds);
 		}
 
 		return afx;
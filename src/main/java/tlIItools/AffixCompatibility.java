@@ -0,0 +1,229 @@
+package tlIItools;
+
+import java.io.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/** Precomputed matrix of which affixes can appear on which unit types.
+ *
+ * Each affix gets an integer ID (its position in the list the matrix was
+ * built from), and each concrete unit type gets a bitset of the IDs of the
+ * affixes that are eligible for it. This makes questions such as 'what can
+ * spawn on NECKLACE' into bitset operations.
+ *
+ * An affix is eligible for a type if that type (or one of its ancestors) is
+ * one of the equip/socketable types for the affix, and neither the type nor
+ * any of its ancestors is one of the affixes prohibited types.
+ *
+ * @author Ben Culkin */
+public class AffixCompatibility {
+	/** The internal names of the affixes, indexed by ID. */
+	public List<String> affixNames;
+
+	/** The eligible affixes for each concrete unit type. */
+	public SortedMap<String, BitSet> matrix;
+
+	/* Affix IDs, indexed by internal name. */
+	private Map<String, Integer> affixIds;
+
+	/* Create a new blank matrix. */
+	private AffixCompatibility(List<String> affixNames) {
+		this.affixNames = affixNames;
+		this.matrix     = new TreeMap<>();
+
+		this.affixIds = new HashMap<>();
+		for (int i = 0; i < affixNames.size(); i++) {
+			// Where names are duplicated, the first affix wins.
+			affixIds.putIfAbsent(affixNames.get(i), i);
+		}
+	}
+
+	/** Build the compatibility matrix for a set of affixes.
+	 *
+	 * The bitsets for each unit type are computed in parallel.
+	 *
+	 * @param affixes The affixes to build the matrix for.
+	 * @param types The unit type hierarchy to use.
+	 *
+	 * @return The compatibility matrix. */
+	public static AffixCompatibility build(List<Affix> affixes, UnitTypeRepo types) {
+		List<String> names = new ArrayList<>(affixes.size());
+		for (Affix afx : affixes) names.add(afx.intName);
+
+		AffixCompatibility compat = new AffixCompatibility(names);
+
+		// Invert the per-affix type lists, so that each type only has to look
+		// at the types in its lineage, not every affix.
+		Map<String, BitSet> allowedBy = new HashMap<>();
+		Map<String, BitSet> deniedBy  = new HashMap<>();
+
+		for (int i = 0; i < affixes.size(); i++) {
+			Affix afx = affixes.get(i);
+
+			for (String type : afx.equipTypes) {
+				allowedBy.computeIfAbsent(type, (key) -> new BitSet()).set(i);
+			}
+
+			for (String type : afx.socketableTypes) {
+				allowedBy.computeIfAbsent(type, (key) -> new BitSet()).set(i);
+			}
+
+			for (String type : afx.nonequipTypes) {
+				deniedBy.computeIfAbsent(type, (key) -> new BitSet()).set(i);
+			}
+		}
+
+		// Types that only show up in affixes are treated as concrete.
+		SortedSet<String> concrete = types.concreteTypes();
+		for (String type : allowedBy.keySet()) {
+			if (!types.parents.containsKey(type)) concrete.add(type);
+		}
+
+		Map<String, BitSet> rows = new ConcurrentHashMap<>();
+
+		concrete.parallelStream().forEach((type) -> {
+			BitSet row    = new BitSet(affixes.size());
+			BitSet denied = new BitSet(affixes.size());
+
+			for (String ancestor : types.lineage(type)) {
+				BitSet allow = allowedBy.get(ancestor);
+				BitSet deny  = deniedBy.get(ancestor);
+
+				if (allow != null) row.or(allow);
+				if (deny  != null) denied.or(deny);
+			}
+
+			row.andNot(denied);
+
+			rows.put(type, row);
+		});
+
+		compat.matrix.putAll(rows);
+
+		return compat;
+	}
+
+	/** Get the ID for an affix.
+	 *
+	 * @param affixName The internal name of the affix.
+	 *
+	 * @return The ID of the affix, or -1 if it isn't in the matrix. */
+	public int affixId(String affixName) {
+		return affixIds.getOrDefault(affixName, -1);
+	}
+
+	/** Get all of the affixes that can appear on a unit type.
+	 *
+	 * @param type The unit type to check.
+	 *
+	 * @return The IDs of the eligible affixes. */
+	public BitSet affixesFor(String type) {
+		BitSet row = matrix.get(type);
+
+		if (row == null) return new BitSet();
+		return (BitSet) row.clone();
+	}
+
+	/** Get the names of all of the affixes that can appear on a unit type.
+	 *
+	 * @param type The unit type to check.
+	 *
+	 * @return The names of the eligible affixes. */
+	public List<String> affixNamesFor(String type) {
+		return namesOf(affixesFor(type));
+	}
+
+	/** Get all of the unit types that an affix can appear on.
+	 *
+	 * @param affixName The internal name of the affix.
+	 *
+	 * @return The unit types the affix is eligible for. */
+	public List<String> typesFor(String affixName) {
+		List<String> res = new ArrayList<>();
+
+		int id = affixId(affixName);
+		if (id == -1) return res;
+
+		for (Map.Entry<String, BitSet> row : matrix.entrySet()) {
+			if (row.getValue().get(id)) res.add(row.getKey());
+		}
+
+		return res;
+	}
+
+	/** Get the affixes that can appear on both of two unit types.
+	 *
+	 * @param left The first unit type.
+	 * @param right The second unit type.
+	 *
+	 * @return The IDs of the affixes that are eligible for both types. */
+	public BitSet overlap(String left, String right) {
+		BitSet res = affixesFor(left);
+		res.and(affixesFor(right));
+
+		return res;
+	}
+
+	/** Convert a set of affix IDs into affix names.
+	 *
+	 * @param ids The affix IDs.
+	 *
+	 * @return The names for the affixes. */
+	public List<String> namesOf(BitSet ids) {
+		List<String> res = new ArrayList<>(ids.cardinality());
+
+		for (int i = ids.nextSetBit(0); i >= 0; i = ids.nextSetBit(i + 1)) {
+			res.add(affixNames.get(i));
+		}
+
+		return res;
+	}
+
+	/** Write this matrix out.
+	 *
+	 * @param out The destination to write to.
+	 *
+	 * @throws IOException If something goes wrong writing the matrix. */
+	public void write(DataOutputStream out) throws IOException {
+		out.writeInt(affixNames.size());
+		for (String name : affixNames) AffixStore.writeString(out, name);
+
+		out.writeInt(matrix.size());
+		for (Map.Entry<String, BitSet> row : matrix.entrySet()) {
+			out.writeUTF(row.getKey());
+
+			long[] words = row.getValue().toLongArray();
+			out.writeInt(words.length);
+			for (long word : words) out.writeLong(word);
+		}
+	}
+
+	/** Read a matrix that was written out by {@link #write(DataOutputStream)}.
+	 *
+	 * @param in The source to read from.
+	 *
+	 * @return The matrix that was read.
+	 *
+	 * @throws IOException If something goes wrong reading the matrix. */
+	public static AffixCompatibility read(DataInputStream in) throws IOException {
+		int numNames = in.readInt();
+
+		List<String> names = new ArrayList<>(numNames);
+		for (int i = 0; i < numNames; i++) names.add(AffixStore.readString(in));
+
+		AffixCompatibility compat = new AffixCompatibility(names);
+
+		int numRows = in.readInt();
+		for (int i = 0; i < numRows; i++) {
+			String type = in.readUTF();
+
+			long[] words = new long[in.readInt()];
+			for (int j = 0; j < words.length; j++) words[j] = in.readLong();
+
+			compat.matrix.put(type, BitSet.valueOf(words));
+		}
+
+		return compat;
+	}
+}
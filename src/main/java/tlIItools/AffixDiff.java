@@ -0,0 +1,547 @@
+package tlIItools;
+
+import java.io.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/** The differences between two sets of affixes, such as two versions of a mod.
+ *
+ * Affixes are matched up by internal name first. Affixes that are left over
+ * are then matched up by their content fingerprint, to catch ones that were
+ * renamed. Everything is matched using hash maps, so diffing takes time
+ * proportional to the number of affixes.
+ *
+ * Affixes and groups are compared by their contents, leaving out where they
+ * were loaded from, so two copies of the same files in different places have
+ * no differences.
+ *
+ * @author Ben Culkin */
+public class AffixDiff {
+	/** The ways an affix can differ between the two sets.
+	 *
+	 * @author Ben Culkin */
+	public static enum Kind {
+		/** The affix is only in the new set. */
+		ADDED,
+		/** The affix is only in the old set. */
+		REMOVED,
+		/** The affix has the same name in both sets, but different contents. */
+		MODIFIED,
+		/** The affix has the same contents in both sets, but a different name. */
+		RENAMED;
+	}
+
+	/** A single field that differs between two versions of an affix.
+	 *
+	 * @author Ben Culkin */
+	public static class FieldChange {
+		/** The name of the field. */
+		public final String field;
+
+		/** The old value of the field. */
+		public final String oldValue;
+		/** The new value of the field. */
+		public final String newValue;
+
+		/** Create a new field change.
+		 *
+		 * @param field The name of the field.
+		 * @param oldValue The old value of the field.
+		 * @param newValue The new value of the field. */
+		public FieldChange(String field, Object oldValue, Object newValue) {
+			this.field    = field;
+			this.oldValue = String.valueOf(oldValue);
+			this.newValue = String.valueOf(newValue);
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s: %s -> %s", field, oldValue, newValue);
+		}
+	}
+
+	/** An affix that differs between the two sets.
+	 *
+	 * @author Ben Culkin */
+	public static class AffixChange {
+		/** How the affix differs. */
+		public final Kind kind;
+
+		/** The affix in the old set, or null if it was added. */
+		public final Affix oldAffix;
+		/** The affix in the new set, or null if it was removed. */
+		public final Affix newAffix;
+
+		/** The fields that changed. */
+		public final List<FieldChange> fields = new ArrayList<>();
+
+		/** The effects that are only in the old affix. */
+		public final List<Effect> removedEffects = new ArrayList<>();
+		/** The effects that are only in the new affix. */
+		public final List<Effect> addedEffects = new ArrayList<>();
+
+		/** The affix group the old affix was in, or null if it wasn't in one. */
+		public AffixGroup oldGroup;
+		/** The affix group the new affix is in, or null if it isn't in one. */
+		public AffixGroup newGroup;
+
+		/** Create a new affix change.
+		 *
+		 * @param kind How the affix differs.
+		 * @param oldAffix The old affix, or null.
+		 * @param newAffix The new affix, or null. */
+		public AffixChange(Kind kind, Affix oldAffix, Affix newAffix) {
+			this.kind     = kind;
+			this.oldAffix = oldAffix;
+			this.newAffix = newAffix;
+		}
+
+		/** Get the name of the affix that changed.
+		 *
+		 * @return The name of the new affix, or the old one if it was removed. */
+		public String name() {
+			return newAffix != null ? newAffix.intName : oldAffix.intName;
+		}
+
+		/** Check if the affix moved to a different affix group.
+		 *
+		 * @return Whether the affix is in a group with different contents now. */
+		public boolean movedGroup() {
+			return oldGroup != null && newGroup != null
+				&& !oldGroup.contentKey().equals(newGroup.contentKey());
+		}
+
+		/** Get the change in spawn weight.
+		 *
+		 * @return The new weight minus the old weight, or 0 if the affix was
+		 * added or removed. */
+		public int weightShift() {
+			if (oldAffix == null || newAffix == null) return 0;
+
+			return newAffix.weight - oldAffix.weight;
+		}
+	}
+
+	/* Orders changes by name, with unnamed affixes first. */
+	private static final Comparator<AffixChange> BY_NAME = Comparator.comparing(
+			AffixChange::name, Comparator.nullsFirst(Comparator.naturalOrder()));
+
+	/** Every affix that differs, ordered by name. */
+	public final List<AffixChange> changes = new ArrayList<>();
+
+	/** The affix groups that are only in the new set. */
+	public final Set<AffixGroup> addedGroups = new TreeSet<>();
+	/** The affix groups that are only in the old set. */
+	public final Set<AffixGroup> removedGroups = new TreeSet<>();
+
+	/** The number of affixes that are the same in both sets. */
+	public int unchangedCount;
+
+	/** The number of affixes in the old set. */
+	public int oldCount;
+	/** The number of affixes in the new set. */
+	public int newCount;
+
+	/** Compare two sets of affixes.
+	 *
+	 * @param oldCorpus The old set of affixes.
+	 * @param newCorpus The new set of affixes.
+	 *
+	 * @return The differences between the two sets. */
+	public static AffixDiff compare(Corpus oldCorpus, Corpus newCorpus) {
+		AffixDiff diff = new AffixDiff();
+
+		diff.oldCount = oldCorpus.affixes.size();
+		diff.newCount = newCorpus.affixes.size();
+
+		// Fingerprints are needed more than once, so only work them out once.
+		Map<Affix, Long> fingerprints = new IdentityHashMap<>();
+		for (Affix afx : oldCorpus.affixes) fingerprints.put(afx, afx.fingerprint());
+		for (Affix afx : newCorpus.affixes) fingerprints.put(afx, afx.fingerprint());
+
+		List<Affix> oldLeft = new ArrayList<>();
+		Set<Affix>  matched = Collections.newSetFromMap(new IdentityHashMap<>());
+
+		for (Map.Entry<String, List<Affix>> entry : oldCorpus.byName.entrySet()) {
+			List<Affix> newAffixes = newCorpus.named(entry.getKey());
+
+			matchByName(diff, entry.getValue(), newAffixes, fingerprints, oldLeft, matched);
+		}
+
+		for (Affix afx : oldCorpus.affixes) {
+			if (afx.intName == null) oldLeft.add(afx);
+		}
+
+		// Match what is left over by content, to find renamed affixes.
+		Map<Long, Deque<Affix>> newByPrint = new HashMap<>();
+		for (Affix afx : newCorpus.affixes) {
+			if (matched.contains(afx)) continue;
+
+			newByPrint.computeIfAbsent(fingerprints.get(afx), (key) -> new ArrayDeque<>()).add(afx);
+		}
+
+		for (Affix oldAfx : oldLeft) {
+			Deque<Affix> candidates = newByPrint.get(fingerprints.get(oldAfx));
+
+			Affix newAfx = candidates == null ? null : takeSame(oldAfx, candidates);
+			if (newAfx == null) {
+				diff.changes.add(new AffixChange(Kind.REMOVED, oldAfx, null));
+				continue;
+			}
+
+			matched.add(newAfx);
+
+			if (Objects.equals(oldAfx.intName, newAfx.intName)) {
+				diff.unchangedCount += 1;
+			} else {
+				diff.changes.add(describe(Kind.RENAMED, oldAfx, newAfx));
+			}
+		}
+
+		for (Affix afx : newCorpus.affixes) {
+			if (!matched.contains(afx)) diff.changes.add(new AffixChange(Kind.ADDED, null, afx));
+		}
+
+		diff.changes.sort(BY_NAME);
+
+		Map<String, AffixGroup> oldGroups = groupsByContent(oldCorpus);
+		Map<String, AffixGroup> newGroups = groupsByContent(newCorpus);
+
+		for (Map.Entry<String, AffixGroup> entry : newGroups.entrySet()) {
+			if (!oldGroups.containsKey(entry.getKey())) diff.addedGroups.add(entry.getValue());
+		}
+
+		for (Map.Entry<String, AffixGroup> entry : oldGroups.entrySet()) {
+			if (!newGroups.containsKey(entry.getKey())) diff.removedGroups.add(entry.getValue());
+		}
+
+		return diff;
+	}
+
+	/* Index the groups in a corpus by their contents.
+	 *
+	 * Groups that only differ in the order of their effects are the same group
+	 * here, so only the first of them is kept. */
+	private static Map<String, AffixGroup> groupsByContent(Corpus corpus) {
+		Map<String, AffixGroup> res = new HashMap<>();
+
+		for (AffixGroup group : corpus.affixSet.affixGroups.keySet()) {
+			res.putIfAbsent(group.contentKey(), group);
+		}
+
+		return res;
+	}
+
+	/* Take the first affix with the same contents as another out of a list of
+	 * affixes with the same fingerprint.
+	 *
+	 * The fingerprint is only a hash, so the contents are checked as well. */
+	private static Affix takeSame(Affix afx, Collection<Affix> candidates) {
+		String key = afx.contentKey();
+
+		Iterator<Affix> itr = candidates.iterator();
+		while (itr.hasNext()) {
+			Affix candidate = itr.next();
+
+			if (candidate.contentKey().equals(key)) {
+				itr.remove();
+
+				return candidate;
+			}
+		}
+
+		return null;
+	}
+
+	/* Match up the affixes with the same name on both sides.
+	 *
+	 * Usually there is only one on each side. If there are more, identical
+	 * affixes are matched up first, and then the rest in order. */
+	private static void matchByName(AffixDiff diff, List<Affix> oldAffixes, List<Affix> newAffixes,
+			Map<Affix, Long> fingerprints, List<Affix> oldLeft, Set<Affix> matched)
+	{
+		List<Affix> newLeft = new ArrayList<>(newAffixes);
+		List<Affix> oldRest = new ArrayList<>();
+
+		for (Affix oldAfx : oldAffixes) {
+			long oldPrint = fingerprints.get(oldAfx);
+
+			List<Affix> candidates = new ArrayList<>(1);
+			for (Affix newAfx : newLeft) {
+				if (fingerprints.get(newAfx) == oldPrint) candidates.add(newAfx);
+			}
+
+			Affix same = takeSame(oldAfx, candidates);
+			if (same == null) {
+				oldRest.add(oldAfx);
+			} else {
+				newLeft.remove(same);
+				matched.add(same);
+
+				diff.unchangedCount += 1;
+			}
+		}
+
+		int idx = 0;
+		for (Affix oldAfx : oldRest) {
+			if (idx >= newLeft.size()) {
+				oldLeft.add(oldAfx);
+				continue;
+			}
+
+			Affix newAfx = newLeft.get(idx++);
+			matched.add(newAfx);
+
+			diff.changes.add(describe(Kind.MODIFIED, oldAfx, newAfx));
+		}
+	}
+
+	/* Work out what changed between two versions of an affix. */
+	private static AffixChange describe(Kind kind, Affix oldAfx, Affix newAfx) {
+		AffixChange change = new AffixChange(kind, oldAfx, newAfx);
+
+		compareField(change, "name",      oldAfx.intName,              newAfx.intName);
+		compareField(change, "type",      oldAfx.type,                 newAfx.type);
+		compareField(change, "prefix",    oldAfx.affixPrefix,          newAfx.affixPrefix);
+		compareField(change, "suffix",    oldAfx.affixSuffix,          newAfx.affixSuffix);
+		compareField(change, "min level", oldAfx.spawnRange.minLevel,  newAfx.spawnRange.minLevel);
+		compareField(change, "max level", oldAfx.spawnRange.maxLevel,  newAfx.spawnRange.maxLevel);
+		compareField(change, "weight",    oldAfx.weight,               newAfx.weight);
+		compareField(change, "slots",     oldAfx.slots,                newAfx.slots);
+
+		compareField(change, "spawns on",       oldAfx.equipTypes,      newAfx.equipTypes);
+		compareField(change, "doesn't spawn on", oldAfx.nonequipTypes,  newAfx.nonequipTypes);
+		compareField(change, "enchant sources", oldAfx.enchantSources,  newAfx.enchantSources);
+		compareField(change, "socketables",     oldAfx.socketableTypes, newAfx.socketableTypes);
+
+		// Effects are compared as multisets, since their order doesn't matter.
+		Map<String, Deque<Effect>> oldEffects = new HashMap<>();
+		for (Effect eft : oldAfx.effects) {
+			oldEffects.computeIfAbsent(eft.contentKey(), (key) -> new ArrayDeque<>()).add(eft);
+		}
+
+		for (Effect eft : newAfx.effects) {
+			Deque<Effect> same = oldEffects.get(eft.contentKey());
+
+			if (same == null || same.isEmpty()) change.addedEffects.add(eft);
+			else                                same.poll();
+		}
+
+		Set<Effect> unmatched = Collections.newSetFromMap(new IdentityHashMap<>());
+		for (Deque<Effect> left : oldEffects.values()) unmatched.addAll(left);
+
+		for (Effect eft : oldAfx.effects) {
+			if (unmatched.contains(eft)) change.removedEffects.add(eft);
+		}
+
+		change.oldGroup = groupFor(oldAfx);
+		change.newGroup = groupFor(newAfx);
+
+		return change;
+	}
+
+	private static AffixGroup groupFor(Affix afx) {
+		AffixGroup group = afx.toAffixGroup();
+		if (group.toString().equals("")) return null;
+
+		return group;
+	}
+
+	private static void compareField(AffixChange change, String field, Object oldVal, Object newVal) {
+		if (!Objects.equals(oldVal, newVal)) change.fields.add(new FieldChange(field, oldVal, newVal));
+	}
+
+	/** Count the changes of a given kind.
+	 *
+	 * @param kind The kind of change.
+	 *
+	 * @return The number of changes of that kind. */
+	public int count(Kind kind) {
+		int count = 0;
+		for (AffixChange change : changes) if (change.kind == kind) count += 1;
+
+		return count;
+	}
+
+	/** Write out a report of the differences.
+	 *
+	 * @param ctx The run to describe effects for.
+	 * @param out The place to write the report to. */
+	public void writeTo(RunContext ctx, AffixWriter out) {
+		for (AffixChange change : changes) {
+			switch (change.kind) {
+			case ADDED:
+				out.write("Added affix ").write(String.valueOf(change.name()));
+				if (change.newAffix.fileName() != null) out.write(" (").write(change.newAffix.fileName()).write(")");
+				out.newline();
+				continue;
+			case REMOVED:
+				out.write("Removed affix ").write(String.valueOf(change.name()));
+				if (change.oldAffix.fileName() != null) out.write(" (").write(change.oldAffix.fileName()).write(")");
+				out.newline();
+				continue;
+			case RENAMED:
+				out.write("Renamed affix ").write(String.valueOf(change.oldAffix.intName))
+					.write(" to ").write(String.valueOf(change.name())).newline();
+				break;
+			case MODIFIED:
+				out.write("Modified affix ").write(String.valueOf(change.name())).newline();
+				break;
+			default:
+				break;
+			}
+
+			out.indent();
+
+			for (FieldChange field : change.fields) {
+				if (change.kind == Kind.RENAMED && field.field.equals("name")) continue;
+
+				out.write(field.toString());
+				if (field.field.equals("weight")) {
+					out.write(String.format(" (%+d)", change.weightShift()));
+				}
+				out.newline();
+			}
+
+			for (Effect eft : change.removedEffects) {
+				out.write("- ").write(eft.describe(ctx)).newline();
+			}
+
+			for (Effect eft : change.addedEffects) {
+				out.write("+ ").write(eft.describe(ctx)).newline();
+			}
+
+			if (change.movedGroup()) {
+				out.write("group: ").write(Long.toHexString(change.oldGroup.contentFingerprint()))
+					.write(" -> ").write(Long.toHexString(change.newGroup.contentFingerprint())).newline();
+			} else if (change.oldGroup == null && change.newGroup != null) {
+				out.write("group: none -> ")
+					.write(Long.toHexString(change.newGroup.contentFingerprint())).newline();
+			} else if (change.oldGroup != null && change.newGroup == null) {
+				out.write("group: ").write(Long.toHexString(change.oldGroup.contentFingerprint()))
+					.write(" -> none").newline();
+			}
+
+			out.dedent();
+		}
+
+		for (AffixGroup group : addedGroups) {
+			out.write("Added affix group ").write(Long.toHexString(group.contentFingerprint())).newline();
+			out.indent();
+			out.writeGroupSummary(group);
+			out.dedent();
+		}
+
+		for (AffixGroup group : removedGroups) {
+			out.write("Removed affix group ").write(Long.toHexString(group.contentFingerprint())).newline();
+			out.indent();
+			out.writeGroupSummary(group);
+			out.dedent();
+		}
+
+		out.flush();
+	}
+
+	/** Write out a summary of the differences.
+	 *
+	 * @param dest The place to write the summary to. */
+	public void summarizeTo(PrintStream dest) {
+		int groupMoves   = 0;
+		int weightShifts = 0;
+
+		for (AffixChange change : changes) {
+			if (change.movedGroup())          groupMoves   += 1;
+			if (change.weightShift() != 0) weightShifts += 1;
+		}
+
+		dest.printf("Compared %,d old affixes to %,d new affixes: %,d added, %,d removed, %,d modified, %,d renamed, %,d unchanged\n",
+				oldCount, newCount, count(Kind.ADDED), count(Kind.REMOVED),
+				count(Kind.MODIFIED), count(Kind.RENAMED), unchangedCount);
+		dest.printf("\t%,d group moves, %,d spawn-weight shifts, %,d affix groups added, %,d affix groups removed\n",
+				groupMoves, weightShifts, addedGroups.size(), removedGroups.size());
+	}
+
+	/** Main method.
+	 *
+	 * The old affixes are given after --old, and the new ones after --new. Each
+	 * side takes files, directories and globs, along with -r, -g,
+	 * --guess-groups and --guess-regex.
+	 *
+	 * @param args The options for the diff, and the affixes to compare. */
+	public static void main(String[] args) {
+		RunContext ctx = new RunContext();
+
+		List<String> oldArgs = new ArrayList<>();
+		List<String> newArgs = new ArrayList<>();
+
+		List<String> curArgs = oldArgs;
+
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+
+			try {
+				switch (arg) {
+				case "--old":
+					curArgs = oldArgs;
+					break;
+				case "--new":
+					curArgs = newArgs;
+					break;
+				case "--output":
+				case "-o":
+					ctx.normOut = new PrintStream(args[++i]);
+					break;
+				case "--output-errors":
+				case "-e":
+					ctx.errOut = new PrintStream(args[++i]);
+					break;
+				default:
+					curArgs.add(arg);
+					if (NameFileReader.takesValue(arg)) curArgs.add(args[++i]);
+				}
+			} catch (ArrayIndexOutOfBoundsException aioobex) {
+				ctx.errOut.printf("ERROR: %s argument requires a value to be specified\n", arg);
+				return;
+			} catch (IOException ioex) {
+				ctx.errOut.printf("ERROR: Could not open output file %s\n", args[i]);
+				return;
+			}
+		}
+
+		if (oldArgs.isEmpty() || newArgs.isEmpty()) {
+			ctx.errOut.printf("ERROR: Both --old and --new affixes must be specified\n");
+			return;
+		}
+
+		long startTime = System.nanoTime();
+
+		// Load both sides at once.
+		CompletableFuture<Corpus> oldLoad = CompletableFuture.supplyAsync(() -> load(ctx, oldArgs, 1));
+		CompletableFuture<Corpus> newLoad = CompletableFuture.supplyAsync(() -> load(ctx, newArgs, 2));
+
+		Corpus oldCorpus = oldLoad.join();
+		Corpus newCorpus = newLoad.join();
+
+		long loadTime = System.nanoTime();
+
+		AffixDiff diff = compare(oldCorpus, newCorpus);
+
+		long diffTime = System.nanoTime();
+
+		diff.writeTo(ctx, new AffixWriter(ctx, ctx.normOut));
+
+		ctx.diagnostics.printTo(ctx.errOut);
+
+		ctx.errOut.println();
+		diff.summarizeTo(ctx.errOut);
+		ctx.errOut.printf("\tLoaded in %.2f seconds, compared in %.2f seconds\n",
+				(loadTime - startTime) / 1000000000.0, (diffTime - loadTime) / 1000000000.0);
+	}
+
+	private static Corpus load(RunContext ctx, List<String> sourceArgs, long generation) {
+		try (NameFileReader nfr = NameFileReader.fromArgs(sourceArgs, ctx.errOut)) {
+			return Corpus.load(ctx, nfr, generation);
+		}
+	}
+}
@@ -0,0 +1,371 @@
+package tlIItools;
+
+import java.io.*;
+
+import java.util.*;
+import java.util.Map.Entry;
+import java.util.concurrent.*;
+
+/** Writes affixes, effects and affix groups out as JSON Lines or CSV.
+ *
+ * Every affix, effect or group is one line or row, written straight from the
+ * loaded affixes, so nothing has to parse the text listing to get at them.
+ * The fields are named the same as the ones the affix server uses.
+ *
+ * The rows are split into chunks, and the chunks are written in parallel, each
+ * into a buffer of its own. The buffers are then written out in order, so the
+ * output is the same as if it was written by one thread. Only a few chunks
+ * are waiting to be written at any time, so the whole document is never held
+ * in memory.
+ *
+ * In CSV, lists such as the equipment types are written as one field, with
+ * the items separated by semicolons.
+ *
+ * @author Ben Culkin */
+public class AffixExport {
+	/** The default number of rows in each chunk. */
+	public static final int DEFAULT_CHUNK_SIZE = 256;
+
+	/** The formats that can be exported to.
+	 *
+	 * @author Ben Culkin */
+	public static enum Format {
+		/** One JSON object per line. */
+		JSONL,
+		/** Comma-separated values, with a header row. */
+		CSV;
+
+		/** Guess the format to use for a file, from its extension.
+		 *
+		 * @param fName The name of the file.
+		 *
+		 * @return CSV if the file ends with '.csv', and JSON Lines otherwise. */
+		public static Format forFile(String fName) {
+			if (fName.toLowerCase().endsWith(".csv")) return CSV;
+
+			return JSONL;
+		}
+	}
+
+	/* Writes a single row, in one format or the other. */
+	@FunctionalInterface
+	private static interface RowWriter<T, W> {
+		void write(W out, T row);
+	}
+
+	private static final String[] AFFIX_COLUMNS = {
+		"name", "file", "source", "type", "prefix", "suffix", "minLevel", "maxLevel",
+		"weight", "slots", "equipTypes", "nonequipTypes", "socketableTypes",
+		"enchantSources", "effects", "group"
+	};
+
+	private static final String[] EFFECT_COLUMNS = {
+		"affix", "file", "source", "index", "type", "name", "damageType", "min", "max",
+		"duration", "level", "minPer", "maxPer", "range", "statName", "statPercent",
+		"graph", "timed", "transfer", "description"
+	};
+
+	private static final String[] GROUP_COLUMNS = {
+		"id", "type", "size", "equipTypes", "nonequipTypes", "socketableTypes",
+		"enchantSources", "effects", "affixes"
+	};
+
+	/* An effect, and where it is in its affix. */
+	private static class EffectRow {
+		public final Affix  afx;
+		public final Effect eft;
+		public final int    index;
+
+		public EffectRow(Affix afx, Effect eft, int index) {
+			this.afx   = afx;
+			this.eft   = eft;
+			this.index = index;
+		}
+	}
+
+	private final RunContext ctx;
+
+	/** The format to write in. */
+	public final Format format;
+
+	/** The number of rows in each chunk. */
+	public int chunkSize = DEFAULT_CHUNK_SIZE;
+
+	/** Create a new exporter.
+	 *
+	 * @param ctx The run to describe effects for.
+	 * @param format The format to write in. */
+	public AffixExport(RunContext ctx, Format format) {
+		this.ctx    = ctx;
+		this.format = format;
+	}
+
+	/** Write out a set of affixes, one per row.
+	 *
+	 * @param affixes The affixes to write, in order.
+	 * @param dest The place to write to.
+	 *
+	 * @throws IOException If something goes wrong writing. */
+	public void writeAffixes(List<Affix> affixes, Writer dest) throws IOException {
+		writeChunked(affixes, AFFIX_COLUMNS, this::writeAffix, this::writeAffix, dest);
+	}
+
+	/** Write out the effects of a set of affixes, one per row.
+	 *
+	 * Each row says which affix the effect belongs to, and where in the affix
+	 * it is.
+	 *
+	 * @param affixes The affixes to write the effects of, in order.
+	 * @param dest The place to write to.
+	 *
+	 * @throws IOException If something goes wrong writing. */
+	public void writeEffects(List<Affix> affixes, Writer dest) throws IOException {
+		List<EffectRow> rows = new ArrayList<>();
+
+		for (Affix afx : affixes) {
+			int index = 0;
+			for (Effect eft : afx.effects) rows.add(new EffectRow(afx, eft, index++));
+		}
+
+		writeChunked(rows, EFFECT_COLUMNS, this::writeEffect, this::writeEffect, dest);
+	}
+
+	/** Write out a set of affix groups, one per row.
+	 *
+	 * Groups are identified by their content fingerprint, which doesn't depend
+	 * on where the affixes in them were loaded from, so it is the same from one
+	 * run to the next and from one install to another.
+	 *
+	 * @param groups The affix groups to write, along with the affixes in them.
+	 * @param dest The place to write to.
+	 *
+	 * @throws IOException If something goes wrong writing. */
+	public void writeGroups(Map<AffixGroup, Set<Affix>> groups, Writer dest) throws IOException {
+		writeChunked(new ArrayList<>(groups.entrySet()), GROUP_COLUMNS,
+				AffixExport::writeGroup, AffixExport::writeGroup, dest);
+	}
+
+	/* Write out rows in parallel chunks, keeping them in order. */
+	private <T> void writeChunked(List<T> rows, String[] columns,
+			RowWriter<T, JsonWriter> jsonRow, RowWriter<T, CsvWriter> csvRow, Writer dest)
+			throws IOException
+	{
+		if (format == Format.CSV) new CsvWriter(dest).row(columns);
+
+		// Enough chunks to keep every thread busy, without buffering too many.
+		int window = Math.max(2, 2 * ForkJoinPool.getCommonPoolParallelism());
+
+		Deque<CompletableFuture<CharArrayWriter>> pending = new ArrayDeque<>();
+
+		for (int start = 0; start < rows.size(); start += chunkSize) {
+			List<T> chunk = rows.subList(start, Math.min(start + chunkSize, rows.size()));
+
+			pending.add(CompletableFuture.supplyAsync(() -> writeChunk(chunk, jsonRow, csvRow)));
+
+			if (pending.size() >= window) awaitChunk(pending.poll()).writeTo(dest);
+		}
+
+		while (!pending.isEmpty()) awaitChunk(pending.poll()).writeTo(dest);
+
+		dest.flush();
+	}
+
+	/* Write a chunk of rows into a buffer of its own. */
+	private <T> CharArrayWriter writeChunk(List<T> chunk, RowWriter<T, JsonWriter> jsonRow,
+			RowWriter<T, CsvWriter> csvRow)
+	{
+		CharArrayWriter buf = new CharArrayWriter(chunk.size() * 256);
+
+		if (format == Format.CSV) {
+			CsvWriter out = new CsvWriter(buf);
+
+			for (T row : chunk) {
+				csvRow.write(out, row);
+				out.endRow();
+			}
+		} else {
+			JsonWriter out = new JsonWriter(buf);
+
+			for (T row : chunk) {
+				jsonRow.write(out, row);
+				out.newline();
+			}
+		}
+
+		return buf;
+	}
+
+	/* Wait for a chunk to be written. */
+	private static CharArrayWriter awaitChunk(CompletableFuture<CharArrayWriter> chunk)
+			throws IOException
+	{
+		try {
+			return chunk.join();
+		} catch (CompletionException cex) {
+			Throwable cause = cex.getCause();
+
+			if (cause instanceof UncheckedIOException) throw ((UncheckedIOException) cause).getCause();
+			if (cause instanceof RuntimeException)     throw (RuntimeException) cause;
+			if (cause instanceof Error)                throw (Error) cause;
+
+			throw cex;
+		}
+	}
+
+	private void writeAffix(JsonWriter out, Affix afx) {
+		out.beginObject();
+
+		out.field("name",     afx.intName);
+		out.field("file",     afx.fileName());
+		out.field("source",   location(afx.source));
+		out.field("type",     String.valueOf(afx.type));
+		out.field("prefix",   afx.affixPrefix);
+		out.field("suffix",   afx.affixSuffix);
+		out.field("minLevel", afx.spawnRange.minLevel);
+		out.field("maxLevel", afx.spawnRange.maxLevel);
+		out.field("weight",   afx.weight);
+		out.field("slots",    afx.slots);
+
+		writeList(out, "equipTypes",      afx.equipTypes);
+		writeList(out, "nonequipTypes",   afx.nonequipTypes);
+		writeList(out, "socketableTypes", afx.socketableTypes);
+		writeList(out, "enchantSources",  afx.enchantSources);
+
+		out.name("effects").beginArray();
+		for (Effect eft : afx.effects) {
+			out.beginObject();
+			out.field("type",        eft.group.type);
+			out.field("name",        eft.group.name);
+			out.field("damageType",  eft.group.damageType);
+			out.field("min",         eft.minValue);
+			out.field("max",         eft.maxValue);
+			out.field("duration",    eft.duration);
+			out.field("level",       eft.level);
+			out.field("description", eft.describe(ctx));
+			out.endObject();
+		}
+		out.endArray();
+
+		out.field("group", groupId(afx.toAffixGroup()));
+
+		out.endObject();
+	}
+
+	private void writeAffix(CsvWriter out, Affix afx) {
+		out.field(afx.intName).field(afx.fileName()).field(location(afx.source));
+		out.field(String.valueOf(afx.type)).field(afx.affixPrefix).field(afx.affixSuffix);
+		out.field(afx.spawnRange.minLevel).field(afx.spawnRange.maxLevel);
+		out.field(afx.weight).field(afx.slots);
+
+		out.field(joined(afx.equipTypes)).field(joined(afx.nonequipTypes));
+		out.field(joined(afx.socketableTypes)).field(joined(afx.enchantSources));
+
+		out.field(afx.effects.size()).field(groupId(afx.toAffixGroup()));
+	}
+
+	private void writeEffect(JsonWriter out, EffectRow row) {
+		Effect eft = row.eft;
+
+		out.beginObject();
+
+		out.field("affix",       row.afx.intName);
+		out.field("file",        row.afx.fileName());
+		out.field("source",      eft.location());
+		out.field("index",       row.index);
+		out.field("type",        eft.group.type);
+		out.field("name",        eft.group.name);
+		out.field("damageType",  eft.group.damageType);
+		out.field("min",         eft.minValue);
+		out.field("max",         eft.maxValue);
+		out.field("duration",    eft.duration);
+		out.field("level",       eft.level);
+		out.field("minPer",      eft.minPer);
+		out.field("maxPer",      eft.maxPer);
+		out.field("range",       eft.range);
+		out.field("statName",    eft.group.statName);
+		out.field("statPercent", eft.statPercent);
+		out.field("graph",       eft.group.graphOverride);
+		out.field("timed",       eft.group.hasDuration);
+		out.field("transfer",    eft.group.isTransfer);
+		out.field("description", eft.describe(ctx));
+
+		out.endObject();
+	}
+
+	private void writeEffect(CsvWriter out, EffectRow row) {
+		Effect eft = row.eft;
+
+		out.field(row.afx.intName).field(row.afx.fileName()).field(eft.location());
+		out.field(row.index).field(eft.group.type).field(eft.group.name);
+		out.field(eft.group.damageType).field(eft.minValue).field(eft.maxValue);
+		out.field(eft.duration).field(eft.level).field(eft.minPer).field(eft.maxPer);
+		out.field(eft.range).field(eft.group.statName).field(eft.statPercent);
+		out.field(eft.group.graphOverride).field(eft.group.hasDuration);
+		out.field(eft.group.isTransfer).field(eft.describe(ctx));
+	}
+
+	private static void writeGroup(JsonWriter out, Entry<AffixGroup, Set<Affix>> ent) {
+		AffixGroup group = ent.getKey();
+
+		out.beginObject();
+
+		out.field("id",   groupId(group));
+		out.field("type", String.valueOf(group.type));
+		out.field("size", ent.getValue().size());
+
+		writeList(out, "equipTypes",      group.equipTypes);
+		writeList(out, "nonequipTypes",   group.nonequipTypes);
+		writeList(out, "socketableTypes", group.socketableTypes);
+		writeList(out, "enchantSources",  group.enchantSources);
+
+		out.name("effects").beginArray();
+		for (EffectGroup effect : group.effects) out.value(effect.summary());
+		out.endArray();
+
+		out.name("affixes").beginArray();
+		for (Affix afx : ent.getValue()) out.value(afx.intName);
+		out.endArray();
+
+		out.endObject();
+	}
+
+	private static void writeGroup(CsvWriter out, Entry<AffixGroup, Set<Affix>> ent) {
+		AffixGroup group = ent.getKey();
+
+		out.field(groupId(group)).field(String.valueOf(group.type)).field(ent.getValue().size());
+
+		out.field(joined(group.equipTypes)).field(joined(group.nonequipTypes));
+		out.field(joined(group.socketableTypes)).field(joined(group.enchantSources));
+
+		StringJoiner effects = new StringJoiner(";");
+		for (EffectGroup effect : group.effects) effects.add(effect.summary());
+		out.field(effects.toString());
+
+		StringJoiner names = new StringJoiner(";");
+		for (Affix afx : ent.getValue()) names.add(String.valueOf(afx.intName));
+		out.field(names.toString());
+	}
+
+	/* Write a list field, which may be null. */
+	private static void writeList(JsonWriter out, String name, List<String> vals) {
+		if (vals == null) out.name(name).nullValue();
+		else              out.field(name, vals);
+	}
+
+	private static String joined(List<String> vals) {
+		if (vals == null) return null;
+
+		return String.join(";", vals);
+	}
+
+	private static String location(Provenance source) {
+		if (source == null) return null;
+
+		return source.location();
+	}
+
+	/* Get the ID of a group, which is its content fingerprint in hex. */
+	private static String groupId(AffixGroup group) {
+		return String.format("%016x", group.contentFingerprint());
+	}
+}
@@ -61,40 +61,69 @@ public class AffixGroup implements Comparable<AffixGroup> {
 	public String groupSummary() {
 		StringBuilder sb = new StringBuilder();
 
-		sb.append("Affix Type: ");
-		sb.append(type);
-		sb.append("\n");
-		sb.append("Effects: ");
-		if (effects.size() > 1) sb.append("\n");
-		for (EffectGroup group : effects) {
-			if (effects.size() > 1) sb.append("\t");
-			sb.append(group.summary());
-			sb.append("\n");
-		}
-
-		if (type == AffixType.SOCKETABLE) {
-			sb.append("Affix can be socketed into: ");
-			sb.append(String.join(", ", equipTypes));
-			sb.append("\nAffix can spawn on: ");
-			sb.append(String.join(", ", socketableTypes));
-			sb.append("\n");
-		} else {
-			sb.append("Affix can spawn on: ");
-			sb.append(String.join(", ", equipTypes));
-			sb.append("\nAffix can't spawn on: ");
-			sb.append(String.join(", ", nonequipTypes));
-			sb.append("\n");
-		} 
-
-		if (type == AffixType.ENCHANTMENT) {
-			sb.append("Affix can be enchanted by: ");
-			sb.append(String.join(", ", socketableTypes));
-			sb.append("\n");
-		}
+		AffixWriter out = AffixWriter.forBuilder(RunContext.defaults(), sb);
+		out.writeGroupSummary(this);
+		out.flush();
 
 		return sb.toString();
 	}
 
+    /**
+     * Get a fingerprint for this group.
+     * 
+     * Unlike {@link #hashCode()}, this is 64 bits wide, and is the same from one
+     * run to the next, so it can be used to identify a group outside of a single
+     * run.
+     * 
+     * @return The fingerprint for this group.
+     */
+	public long fingerprint() {
+		return Affix.fnv1a(type + ":" + toString());
+	}
+
+    /**
+     * Get a key for the contents of this group.
+     * 
+     * Unlike {@link #toString()}, this doesn't depend on the order of the
+     * effects or the types. The effects of an affix are ordered by a hash that
+     * includes the file they came from, so the same group loaded from two
+     * different places can have its effects in a different order.
+     * 
+     * @return The content key for this group.
+     */
+	public String contentKey() {
+		List<String> effectKeys = new ArrayList<>(effects.size());
+		for (EffectGroup group : effects) effectKeys.add(group.toString());
+		Collections.sort(effectKeys);
+
+		StringBuilder sb = new StringBuilder();
+
+		sb.append(type).append('|').append(effectKeys);
+		sb.append('|').append(sorted(enchantSources)).append('|').append(sorted(equipTypes));
+		sb.append('|').append(sorted(nonequipTypes)).append('|').append(sorted(socketableTypes));
+
+		return sb.toString();
+	}
+
+    /**
+     * Get a fingerprint of the contents of this group.
+     * 
+     * This is a hash of {@link #contentKey()}, so it is the same for the same
+     * group no matter where it was loaded from.
+     * 
+     * @return The content fingerprint for this group.
+     */
+	public long contentFingerprint() {
+		return Affix.fnv1a(contentKey());
+	}
+
+	private static List<String> sorted(List<String> strs) {
+		List<String> res = new ArrayList<>(strs);
+		Collections.sort(res);
+
+		return res;
+	}
+
     @Override
 	public int compareTo(AffixGroup other) {
 		return toString().compareTo(other.toString());
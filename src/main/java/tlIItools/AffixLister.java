@@ -2,31 +2,17 @@ package tlIItools;
 
 import java.io.*;
 
+import java.nio.file.*;
+
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 
 /** Lists randomly generated affixes for Torchlight II gear.
  *
  * @author Ben Culkin */
 public class AffixLister {
-	/* Count of effects this class has loaded. */
-	private static int effectCount = 0;
-
-	/** Should the class record timing data? */
-	public static boolean doTiming = false;
-
-	/** Should the file name be attached to things? */
-	public static boolean addFileName = false;
-
-	/* Output streams to use. */
-
-	/** The normal output to use. */
-	public static PrintStream normOut = System.out;
-	/** The error output to use. */
-	public static PrintStream errOut = System.err;
-	/** The output to write affix groups to. */
-	public static PrintStream affixGroupDest = null;
-
 	/** Indicates how to treat affixes with regards to their names. */
 	public static enum NameMode {
 		/** Show all affixes. */
@@ -37,6 +23,908 @@ public class AffixLister {
 		NAMED;
 	}
 
+	/* The summary kept for an affix group while streaming. */
+	private static class StreamedGroup {
+		public final int    id;
+		public final String summary;
+
+		public int count;
+
+		public StreamedGroup(int id, String summary) {
+			this.id      = id;
+			this.summary = summary;
+		}
+	}
+
+	/* How an affix should be shown in the listing. */
+	private static enum Shown {
+		NOTHING,
+		ZERO_NOTE,
+		AFFIX;
+	}
+
+	/* The options from the command line that aren't kept in the run context,
+	 * name reader or listing. */
+	private static class Options {
+		public boolean outputAffixGroups = false;
+
+		public String unitTypeDir = null;
+		public String storeFile   = null;
+
+		public String gemGroupFile = null;
+		public String conflictFile = null;
+
+		public String similarFile = null;
+		public double similarity  = AffixSimilarity.DEFAULT_THRESHOLD;
+
+		public String  statsFile = null;
+		public Boolean statsCsv  = null;
+
+		public String             exportAffixFile  = null;
+		public String             exportEffectFile = null;
+		public String             exportGroupFile  = null;
+		public AffixExport.Format exportFormat     = null;
+
+		public String reportDir      = null;
+		public int    reportPageSize = AffixReport.DEFAULT_PAGE_SIZE;
+
+		public String effectIndexFile = null;
+
+		public String checkpointFile = null;
+		public String quarantineFile = null;
+
+		public int    shardCount = 1;
+		public String shardDir   = null;
+		public String shardHeap  = null;
+
+		public boolean streaming = false;
+
+		public boolean watching = false;
+		public long    debounce = AffixWatcher.DEFAULT_DEBOUNCE;
+
+		public String outputFile = null;
+		public String groupFile  = null;
+
+		public boolean pipelined    = false;
+		public int     readThreads  = 2;
+		public int     parseThreads = Runtime.getRuntime().availableProcessors();
+		public int     queueDepth   = 256;
+	}
+
+	/* The state for a single run of the affix lister. */
+	private static class Listing {
+		/* Marks the end of the discovered files. */
+		private static final NameFileReader.FileBatch END_OF_FILES
+			= new NameFileReader.FileBatch(null, Collections.emptyList());
+
+		public boolean omitZeros    = false;
+		public boolean listZeros    = false;
+		public boolean parallelLoad = false;
+		public boolean keepAffixes  = false;
+		public boolean streaming    = false;
+		public boolean outputGroups = false;
+		public boolean headersOnly  = false;
+
+		/* The number of bytes of group members to keep in memory when streaming. */
+		public long heapBudget = 64L * 1024 * 1024;
+
+		public NameMode nameMode = NameMode.ALL;
+
+		public int namedCount   = 0;
+		public int unnamedCount = 0;
+		public int zeroCount    = 0;
+		public int groupCount   = 0;
+		public int effectCount  = 0;
+
+		public Map<String, Set<Affix>> groupContents    = new HashMap<>();
+		public Set<Affix>              nonGroupContents = new HashSet<>();
+
+		public AffixSet    affixSet   = new AffixSet();
+		public List<Affix> allAffixes = new ArrayList<>();
+
+		public SocketableIndex socketIndex = null;
+
+		/* Where affixes are recorded to find conflicts, if that is being done. */
+		public ConflictIndex conflicts = null;
+
+		/* The HTML report the listing is also written to, if there is one. */
+		public AffixReport report = null;
+
+		/* Where effects are recorded by name and type, if that is being done. */
+		public EffectIndex effectIndex = null;
+
+		/* Where finished files are recorded, if the run can be resumed. */
+		public Checkpoint checkpoint   = null;
+		/* The number of files to load between saving the checkpoint. */
+		public int        batchSize    = 500;
+		/* How long to wait for a file to load, in milliseconds, or 0 to wait forever. */
+		public long       parseTimeout = 0;
+
+		/* The worker processes that loaded the files, if they were sharded. */
+		public AffixShards shards = null;
+
+		public int restoredCount = 0;
+		public int mergedCount   = 0;
+
+		/* Why each quarantined file was quarantined, including earlier runs. */
+		public Map<String, String> quarantined = new LinkedHashMap<>();
+
+		/* Loads files in batch mode, with one thread per processor. A file that
+		 * times out keeps its thread, so the pool gets an extra thread until that
+		 * file gives up. */
+		private ThreadPoolExecutor loader;
+		private int                loaderThreads;
+
+		/* Compact summaries that are kept instead of affixes when streaming. */
+		public Set<String> actualGroups  = new HashSet<>();
+		public int         nonGroupCount = 0;
+
+		public Map<Long, StreamedGroup> streamedGroups = new HashMap<>();
+
+		public SpillingGroupMap nameGroupMembers;
+		public SpillingGroupMap affixGroupMembers;
+
+		/* The names of every file group that has been seen. */
+		public Set<String> fileGroups;
+
+		private final RunContext ctx;
+
+		private NameFileReader nfr;
+
+		/* The pipeline files are being sent through, if there is one. */
+		private AffixPipeline pipeline;
+
+		/* The group currently being listed from discovered files. */
+		private String discoveredGroup;
+
+		/* The group that files are currently being loaded for. */
+		private String loadGroup;
+
+		/* Buffered writer for the normal output. */
+		private AffixWriter out;
+
+		public Listing(RunContext ctx, NameFileReader nfr) {
+			this.ctx = ctx;
+			this.nfr = nfr;
+
+			this.fileGroups = new HashSet<>();
+		}
+
+		/* List all of the files in a file group. */
+		public void listGroup(String groupName, List<String> files) {
+			fileGroups.add(groupName);
+
+			if (files.size() == 0) return;
+
+			startLoadGroup(groupName);
+
+			printGroupMarker(groupName, "starting");
+			listFiles(files);
+			printGroupMarker(groupName, "ending");
+		}
+
+		/* List all of the files found in directories/globs.
+		 *
+		 * The files are listed as they are discovered, instead of waiting for
+		 * discovery to finish. */
+		public void listDiscovered() {
+			BlockingQueue<NameFileReader.FileBatch> batches = new ArrayBlockingQueue<>(64);
+
+			Thread discoverer = new Thread(() -> {
+				try {
+					nfr.discover((batch) -> {
+						try {
+							batches.put(batch);
+						} catch (InterruptedException iex) {
+							Thread.currentThread().interrupt();
+						}
+					});
+				} finally {
+					try {
+						batches.put(END_OF_FILES);
+					} catch (InterruptedException iex) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			}, "file-discovery");
+
+			discoverer.setDaemon(true);
+			discoverer.start();
+
+			try {
+				while (true) {
+					NameFileReader.FileBatch batch = batches.take();
+					if (batch == END_OF_FILES) break;
+
+					// Consecutive batches for the same group are listed together.
+					if (!batch.group.equals(discoveredGroup)) {
+						endDiscoveredGroup();
+
+						discoveredGroup = batch.group;
+						fileGroups.add(discoveredGroup);
+
+						if (pipeline != null) {
+							pipeline.submitGroupStart(discoveredGroup);
+						} else {
+							startLoadGroup(discoveredGroup);
+							printGroupMarker(discoveredGroup, "starting");
+						}
+					}
+
+					nfr.fCount += batch.files.size();
+
+					if (pipeline != null) {
+						for (String fName : batch.files) pipeline.submitFile(fName);
+					} else {
+						listFiles(batch.files);
+					}
+				}
+
+				endDiscoveredGroup();
+			} catch (InterruptedException iex) {
+				ctx.errOut.printf("Interrupted while waiting for files to be discovered\n");
+
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		private void endDiscoveredGroup() throws InterruptedException {
+			if (discoveredGroup == null) return;
+
+			if (pipeline != null) pipeline.submitGroupEnd(discoveredGroup);
+			else printGroupMarker(discoveredGroup, "ending");
+
+			discoveredGroup = null;
+		}
+
+		/* Note which group the next files are loaded for. */
+		private void startLoadGroup(String groupName) {
+			loadGroup = groupName;
+
+			if (conflicts != null) conflicts.declareGroup(groupName);
+		}
+
+		/* Load an affix, recording it in the indexes as part of loading. */
+		private Affix loadFile(String group, String fName) throws IOException {
+			Affix afx;
+			if (headersOnly) afx = loadAffixHeader(ctx, nfr, fName);
+			else             afx = loadAffixFile(ctx, nfr, fName);
+
+			recordLoaded(group, afx);
+
+			return afx;
+		}
+
+		/* Record a loaded affix in the indexes that are built while loading. */
+		private void recordLoaded(String group, Affix afx) {
+			if (conflicts   != null) conflicts.record(group, afx);
+			if (effectIndex != null) effectIndex.record(afx);
+		}
+
+		/* List all of the affixes in a set of files. */
+		private void listFiles(List<String> files) {
+			if (checkpoint != null || parseTimeout > 0 || shards != null) {
+				listBatched(files);
+				return;
+			}
+
+			String group = loadGroup;
+
+			// Start loading every file, so that they get parsed while the earlier
+			// ones are being printed.
+			List<CompletableFuture<Affix>> pending = null;
+			if (parallelLoad) {
+				pending = new ArrayList<>(files.size());
+
+				for (String fName : files) {
+					pending.add(CompletableFuture.supplyAsync(() -> {
+						try {
+							return loadFile(group, fName);
+						} catch (IOException ioex) {
+							throw new UncheckedIOException(ioex);
+						}
+					}));
+				}
+			}
+
+			int fileIdx = 0;
+
+			for (String fName : files) {
+				try {
+					Affix afx;
+					if (pending != null) afx = awaitAffix(pending.get(fileIdx++));
+					else                 afx = loadFile(group, fName);
+
+					listAffix(afx);
+				} catch (Exception ex) {
+					reportFileError(ctx, fName, ex, true);
+				}
+			}
+		}
+
+		/* List the affixes in a set of files a batch at a time, saving the
+		 * checkpoint after each batch. Files that were finished in an earlier run
+		 * are taken from the checkpoint instead of being loaded again, and files
+		 * that fail or take too long to load are quarantined. */
+		private void listBatched(List<String> files) {
+			String group = loadGroup;
+
+			for (int start = 0; start < files.size(); start += batchSize) {
+				List<String> batch = files.subList(start, Math.min(files.size(), start + batchSize));
+
+				List<LoadTask> pending = new ArrayList<>(batch.size());
+				for (String fName : batch) {
+					if (parallelLoad && finished(fName) == null) pending.add(startLoading(fName));
+					else                                         pending.add(null);
+				}
+
+				for (int idx = 0; idx < batch.size(); idx++) {
+					String fName = batch.get(idx);
+
+					Checkpoint.Entry entry = restore(fName);
+					if (entry != null) {
+						if (entry.status == Checkpoint.Status.DONE) listLoaded(group, fName, entry.afx);
+						else                                        quarantined.put(fName, entry.reason);
+						continue;
+					}
+
+					LoadTask loading = pending.get(idx);
+					if (loading == null) loading = startLoading(fName);
+
+					try {
+						Affix afx = awaitLoading(loading);
+
+						if (checkpoint != null) checkpoint.completed(fName, afx);
+
+						listLoaded(group, fName, afx);
+					} catch (TimeoutException tex) {
+						loading.cancel(true);
+
+						// The thread is still stuck in the file, so it is replaced.
+						if (loading.settled.compareAndSet(false, true)) resizeLoader(1);
+
+						quarantine(fName, String.format("took longer than %,d ms to load", parseTimeout));
+					} catch (ExecutionException eex) {
+						quarantine(fName, String.valueOf(eex.getCause()));
+					} catch (InterruptedException iex) {
+						ctx.errOut.printf("Interrupted while loading file %s\n", fName);
+
+						Thread.currentThread().interrupt();
+						return;
+					}
+				}
+
+				saveCheckpoint();
+			}
+		}
+
+		/* Get what happened to a file in an earlier run or a shard worker, if anything. */
+		private Checkpoint.Entry finished(String fName) {
+			Checkpoint.Entry entry = null;
+
+			if (checkpoint != null)              entry = checkpoint.get(fName);
+			if (entry == null && shards != null) entry = shards.get(fName);
+
+			return entry;
+		}
+
+		/* Get what happened to a file, counting where it came from. Files that
+		 * came from a shard worker are added to the checkpoint, if there is one. */
+		private Checkpoint.Entry restore(String fName) {
+			if (checkpoint != null) {
+				Checkpoint.Entry entry = checkpoint.get(fName);
+
+				if (entry != null) {
+					restoredCount += 1;
+					return entry;
+				}
+			}
+
+			if (shards == null) return null;
+
+			Checkpoint.Entry entry = shards.get(fName);
+			if (entry == null) return null;
+
+			mergedCount += 1;
+
+			if (checkpoint != null) {
+				if (entry.status == Checkpoint.Status.DONE) checkpoint.completed(fName, entry.afx);
+				else                                        checkpoint.quarantined(fName, entry.reason);
+			}
+
+			return entry;
+		}
+
+		/* A file being loaded on a loader thread, which notes when it started
+		 * loading so that a timeout doesn't count time spent waiting in the
+		 * queue. */
+		private class LoadTask extends FutureTask<Affix> {
+			/* Opened once the file starts loading. */
+			public final CountDownLatch started = new CountDownLatch(1);
+
+			/* Set when the loading finishes or times out, whichever is first. */
+			public final AtomicBoolean settled = new AtomicBoolean();
+
+			public volatile long startNanos;
+
+			public LoadTask(String fName) {
+				super(() -> {
+					if (headersOnly) return loadAffixHeader(ctx, nfr, fName);
+
+					return loadAffixFile(ctx, nfr, fName);
+				});
+			}
+
+			@Override
+			public void run() {
+				startNanos = System.nanoTime();
+				started.countDown();
+
+				super.run();
+
+				// If the file timed out, its replacement thread isn't needed anymore.
+				if (!settled.compareAndSet(false, true)) resizeLoader(-1);
+			}
+		}
+
+		/* Start loading a file on a loader thread. */
+		private LoadTask startLoading(String fName) {
+			if (loader == null) {
+				AtomicInteger threadNo = new AtomicInteger();
+
+				loaderThreads = Runtime.getRuntime().availableProcessors();
+
+				loader = new ThreadPoolExecutor(loaderThreads, loaderThreads,
+						0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), (run) -> {
+					Thread thread = new Thread(run, "affix-loader-" + threadNo.incrementAndGet());
+					thread.setDaemon(true);
+
+					return thread;
+				});
+			}
+
+			LoadTask task = new LoadTask(fName);
+			loader.execute(task);
+
+			return task;
+		}
+
+		/* Wait for a file to load. The timeout counts from when the file started
+		 * loading, not from when it was queued. */
+		private Affix awaitLoading(LoadTask loading)
+				throws InterruptedException, ExecutionException, TimeoutException
+		{
+			if (parseTimeout <= 0) return loading.get();
+
+			loading.started.await();
+
+			long deadline = loading.startNanos + TimeUnit.MILLISECONDS.toNanos(parseTimeout);
+
+			return loading.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+		}
+
+		/* Change the number of loader threads. */
+		private synchronized void resizeLoader(int delta) {
+			loaderThreads += delta;
+
+			// The maximum can't go below the core size, so the order matters.
+			if (delta > 0) {
+				loader.setMaximumPoolSize(loaderThreads);
+				loader.setCorePoolSize(loaderThreads);
+			} else {
+				loader.setCorePoolSize(loaderThreads);
+				loader.setMaximumPoolSize(loaderThreads);
+			}
+		}
+
+		/* Record and print an affix that was loaded, or restored from the checkpoint. */
+		private void listLoaded(String group, String fName, Affix afx) {
+			try {
+				recordLoaded(group, afx);
+
+				listAffix(afx);
+			} catch (Exception ex) {
+				reportFileError(ctx, fName, ex, true);
+			}
+		}
+
+		/* Note that a file couldn't be loaded, so that it isn't tried again. */
+		private void quarantine(String fName, String reason) {
+			ctx.errOut.printf("WARN: Quarantined file %s: %s\n", fName, reason);
+
+			quarantined.put(fName, reason);
+
+			if (checkpoint != null) checkpoint.quarantined(fName, reason);
+		}
+
+		/* Save the checkpoint, if there is one. */
+		private void saveCheckpoint() {
+			if (checkpoint == null) return;
+
+			try {
+				checkpoint.save();
+			} catch (IOException ioex) {
+				ctx.errOut.printf("ERROR: Couldn't save checkpoint to file %s\n", checkpoint.file);
+
+				ioex.printStackTrace(ctx.errOut);
+			}
+		}
+
+		/* Finish with the checkpoint once every file has been listed. */
+		public void finishBatches(String quarantineFile) {
+			if (loader != null) loader.shutdownNow();
+
+			if (shards != null) {
+				ctx.errOut.printf("Shards: %,d files merged from %,d shards\n", mergedCount, shards.count);
+
+				try {
+					shards.close();
+				} catch (IOException ioex) {
+					ctx.errOut.printf("ERROR: Couldn't clean up shard directory %s\n", shards.dir);
+
+					ioex.printStackTrace(ctx.errOut);
+				}
+			}
+
+			if (checkpoint == null && parseTimeout <= 0 && shards == null) return;
+
+			if (checkpoint != null || parseTimeout > 0 || !quarantined.isEmpty()) {
+				ctx.errOut.printf("Batches: %,d files restored from checkpoint, %,d files quarantined\n",
+						restoredCount, quarantined.size());
+			}
+
+			if (quarantineFile != null) {
+				try (PrintStream qout = new PrintStream(new FileOutputStream(quarantineFile))) {
+					for (Entry<String, String> file : quarantined.entrySet()) {
+						qout.printf("%s\t%s\n", file.getKey(), file.getValue());
+					}
+				} catch (IOException ioex) {
+					ctx.errOut.printf("ERROR: Couldn't write quarantined files to file %s\n", quarantineFile);
+
+					ioex.printStackTrace(ctx.errOut);
+				}
+			}
+
+			if (checkpoint == null) return;
+
+			if (Thread.currentThread().isInterrupted()) {
+				ctx.errOut.printf("Keeping checkpoint %s to resume from\n", checkpoint.file);
+				return;
+			}
+
+			// The run finished, so there's nothing left to resume.
+			try {
+				checkpoint.discard();
+			} catch (IOException ioex) {
+				ctx.errOut.printf("ERROR: Couldn't remove checkpoint file %s\n", checkpoint.file);
+
+				ioex.printStackTrace(ctx.errOut);
+			}
+		}
+
+		/* Record and print a single affix. */
+		private void listAffix(Affix afx) throws IOException {
+			printAffix(afx, indexAffix(afx));
+		}
+
+		/* Record a single affix, and work out how it should be printed. */
+		private Shown indexAffix(Affix afx) throws IOException {
+			if (streaming) {
+				summarizeAffix(afx);
+			} else {
+				// Grouping by contents needs the effects, so only do it if the groups
+				// are wanted when the effects aren't being parsed.
+				if (!headersOnly || outputGroups) affixSet.addAffixByContents(afx);
+
+				if (keepAffixes) allAffixes.add(afx);
+				if (socketIndex != null) socketIndex.addAffix(afx);
+			}
+
+			effectCount += afx.effects.size();
+
+			if (streaming) {
+				summarizeNameGroup(afx);
+			} else if (afx.intName != null && afx.weight != 0) {
+				String groupRx = "(.*_?)\\d+\\Z";
+				boolean hasGroup = afx.intName.matches(groupRx);
+				String groupName = afx.intName.replaceAll(groupRx, "$1");
+
+				if (!groupContents.containsKey(groupName)) {
+					groupCount += 1;
+					// ctx.errOut.printf("\tTRACE: Counted distinct group %s from
+					// %s\n", groupName, afx.intName);
+
+					if (hasGroup) {
+						// ctx.errOut.printf("\tTRACE: Counted actual group %s from
+						// %s\n", groupName, afx.intName);
+
+						groupContents.put(groupName, new HashSet<>());
+					} else {
+						nonGroupContents.add(afx);
+					}
+				} else if (hasGroup) {
+					groupContents.get(groupName).add(afx);
+				} else {
+					nonGroupContents.add(afx);
+				}
+			}
+
+			if (afx.weight == 0) zeroCount += 1;
+
+			if (afx.weight == 0 && !listZeros) {
+				if (omitZeros) return Shown.NOTHING;
+				return Shown.ZERO_NOTE;
+			}
+
+			boolean isNamed = 
+				(afx.affixSuffix != null) || (afx.affixPrefix != null);
+
+			if (isNamed) namedCount += 1;
+			else         unnamedCount += 1;
+
+			if (nameMode == NameMode.UNNAMED && isNamed)  return Shown.NOTHING;
+			if (nameMode == NameMode.NAMED   && !isNamed) return Shown.NOTHING;
+
+			return Shown.AFFIX;
+		}
+
+		/* Print an affix, in the way that indexAffix said to. */
+		private void printAffix(Affix afx, Shown shown) {
+			switch (shown) {
+			case ZERO_NOTE:
+				output().write("\nAffix ").write(String.valueOf(afx.intName))
+					.write(" has zero spawn weight\n");
+
+				if (report != null) report.addZeroNote(afx);
+				break;
+			case AFFIX:
+				output().newline();
+				if (headersOnly) output().writeAffixHeader(afx);
+				else             output().writeLongAffix(afx);
+				output().newline();
+
+				if (report != null) report.addAffix(afx);
+				break;
+			default:
+				break;
+			}
+		}
+
+		/* Print the start or end of a file group. */
+		private void printGroupMarker(String groupName, String action) {
+			output().write("\nFile Group '").write(groupName).write("' ")
+				.write(action).newline();
+
+			if (report != null && action.equals("starting")) report.startGroup(groupName);
+		}
+
+		/* Get the writer for the normal output.
+		 *
+		 * This isn't created until it is first used, so that it picks up any
+		 * change to the normal output made by the arguments. */
+		private AffixWriter output() {
+			if (out == null) out = new AffixWriter(ctx, ctx.normOut);
+
+			return out;
+		}
+
+		/* Write out anything still buffered for the normal output. */
+		public void flushOutput() {
+			if (out != null) out.flush();
+		}
+
+		/* List all of the files in the file groups through the pipeline. */
+		public void listPipelined(int readThreads, int parseThreads, int queueDepth) {
+			pipeline = new AffixPipeline(
+					nfr::readBytes, this::parseAffix,
+					this::indexItem, this::outputItem,
+					readThreads, parseThreads, queueDepth, ctx.errOut);
+
+			try {
+				for (Entry<String, List<String>> fGroup : nfr.fNames.entrySet()) {
+					fileGroups.add(fGroup.getKey());
+
+					if (fGroup.getValue().size() == 0) continue;
+
+					pipeline.submitGroupStart(fGroup.getKey());
+					for (String fName : fGroup.getValue()) pipeline.submitFile(fName);
+					pipeline.submitGroupEnd(fGroup.getKey());
+				}
+
+				if (nfr.hasRoots()) listDiscovered();
+
+				pipeline.finish();
+			} catch (InterruptedException iex) {
+				ctx.errOut.printf("Interrupted while listing affixes\n");
+
+				Thread.currentThread().interrupt();
+			}
+
+			ctx.errOut.println("\nPipeline stages:");
+			for (AffixPipeline.Stage stage : pipeline.stages) {
+				ctx.errOut.printf("\t%s\n", stage);
+			}
+		}
+
+		/* Parse an affix from the contents of a file. */
+		private Affix parseAffix(String fName, byte[] data) {
+			Reader rdr = LineSource.decode(data);
+
+			if (headersOnly) {
+				return Affix.loadHeader(ctx, nfr, new LineSource(new Scanner(rdr)), fName,
+						ctx.diagnostics);
+			}
+
+			return Affix.loadAffix(ctx, new Scanner(rdr), fName, ctx.diagnostics);
+		}
+
+		/* The indexing stage of the pipeline. */
+		private void indexItem(AffixPipeline.Item item) {
+			if (item.kind == AffixPipeline.ItemKind.GROUP_START) startLoadGroup(item.name);
+
+			if (item.kind != AffixPipeline.ItemKind.FILE) return;
+
+			if (item.afx != null) recordLoaded(loadGroup, item.afx);
+
+			try {
+				item.tag = indexAffix(item.afx);
+			} catch (IOException ioex) {
+				throw new UncheckedIOException(ioex);
+			}
+
+			// Nothing else needs the affix unless it is going to be printed.
+			if (item.tag == Shown.NOTHING) item.afx = null;
+		}
+
+		/* The output stage of the pipeline. */
+		private void outputItem(AffixPipeline.Item item) {
+			switch (item.kind) {
+			case GROUP_START:
+				printGroupMarker(item.name, "starting");
+				break;
+			case GROUP_END:
+				printGroupMarker(item.name, "ending");
+				break;
+			case FILE:
+				if (item.error != null) {
+					reportFileError(ctx, item.name, item.error, true);
+				} else {
+					printAffix(item.afx, (Shown) item.tag);
+				}
+				break;
+			default:
+				break;
+			}
+		}
+
+		/* Start streaming mode, where affixes are discarded after printing. */
+		public void startStreaming() {
+			streaming = true;
+
+			nameGroupMembers  = new SpillingGroupMap(heapBudget / 2, 16);
+			affixGroupMembers = new SpillingGroupMap(heapBudget / 2, 16);
+		}
+
+		/* Keep only what is needed to summarize an affix when streaming. */
+		private void summarizeAffix(Affix afx) throws IOException {
+			if (socketIndex != null && afx.intName != null
+					&& !socketIndex.unitsFor(afx.intName).isEmpty()) {
+				socketIndex.addAffix(afx);
+			}
+
+			if (!outputGroups) return;
+
+			AffixGroup group = afx.toAffixGroup();
+			if (group.toString().equals("")) return;
+
+			long fingerprint = group.fingerprint();
+
+			StreamedGroup summary = streamedGroups.get(fingerprint);
+			if (summary == null) {
+				summary = new StreamedGroup(group.hashCode(), group.groupSummary());
+
+				streamedGroups.put(fingerprint, summary);
+			}
+
+			summary.count += 1;
+
+			String member = afx.spawnRange.minLevel + "\t" + afx.spawnRange.maxLevel
+					+ "\t" + afx.toShortString(ctx);
+			affixGroupMembers.add(Long.toHexString(fingerprint), member);
+		}
+
+		/* Count the name group for an affix when streaming.
+		 *
+		 * This follows the same rules as the non-streaming case. */
+		private void summarizeNameGroup(Affix afx) throws IOException {
+			if (afx.intName == null || afx.weight == 0) return;
+
+			String groupRx = "(.*_?)\\d+\\Z";
+			boolean hasGroup = afx.intName.matches(groupRx);
+			String groupName = afx.intName.replaceAll(groupRx, "$1");
+
+			if (!actualGroups.contains(groupName)) {
+				groupCount += 1;
+
+				if (hasGroup) actualGroups.add(groupName);
+				else          nonGroupCount += 1;
+			} else if (hasGroup) {
+				nameGroupMembers.add(groupName, afx.intName);
+			} else {
+				nonGroupCount += 1;
+			}
+		}
+
+		/* Print the contents of the name groups. */
+		public void printNameGroups() throws IOException {
+			if (!streaming) {
+				for (Entry<String, Set<Affix>> ent : groupContents.entrySet()) {
+					ctx.errOut.printf("\t%s: %s\n", ent.getKey(), ent.getValue());
+				}
+
+				return;
+			}
+
+			// Groups whose first member was the only one never get added.
+			Set<String> printed = new HashSet<>();
+			nameGroupMembers.forEachGroup((groupName, members) -> {
+				printed.add(groupName);
+
+				ctx.errOut.printf("\t%s: %s\n", groupName, members);
+			});
+
+			for (String groupName : actualGroups) {
+				if (!printed.contains(groupName)) ctx.errOut.printf("\t%s: []\n", groupName);
+			}
+		}
+
+		/* Print the affix groups that were summarized while streaming. */
+		public void printStreamedGroups(PrintStream dest) throws IOException {
+			AffixWriter groupOut = new AffixWriter(ctx, dest);
+
+			affixGroupMembers.forEachGroup((key, members) -> {
+				StreamedGroup summary = streamedGroups.get(Long.parseUnsignedLong(key, 16));
+
+				// Skip one-affix groups
+				if (members.size() == 1) return;
+
+				List<String[]> memberList = new ArrayList<>(members.size());
+				for (String member : members) memberList.add(member.split("\t", 3));
+
+				memberList.sort((lhs, rhs) -> {
+					LevelRange lhsRange = new LevelRange(
+							Integer.parseInt(lhs[0]), Integer.parseInt(lhs[1]));
+					LevelRange rhsRange = new LevelRange(
+							Integer.parseInt(rhs[0]), Integer.parseInt(rhs[1]));
+
+					return lhsRange.compareTo(rhsRange);
+				});
+
+				List<String> shortForms = new ArrayList<>(memberList.size());
+				for (String[] member : memberList) shortForms.add(member[2]);
+
+				groupOut.writeAffixGroup(summary.id, summary.summary, shortForms);
+			});
+
+			groupOut.flush();
+		}
+
+		public int actualGroupCount() {
+			if (streaming) return actualGroups.size();
+			return groupContents.size();
+		}
+
+		public int nonGroupCount() {
+			if (streaming) return nonGroupCount;
+			return nonGroupContents.size();
+		}
+
+		public void close() throws IOException {
+			if (nameGroupMembers  != null) nameGroupMembers.close();
+			if (affixGroupMembers != null) affixGroupMembers.close();
+		}
+	}
+
 	/** Main method.
 	 *
 	 * @param args The names of the files to read affix data from. */
@@ -49,29 +937,73 @@ public class AffixLister {
 	 * @param args The names of the files to read affix data from.
 	 * 
 	 * @return The listed affix set. */
-	@SuppressWarnings("unused")
 	public static AffixSet listAffixes(String[] args) {
-	    boolean doingArgs = true;
+		return listAffixes(new RunContext(), args);
+	}
+
+	/** Main method that actually does stuff.
+	 *
+	 * @param ctx The context to run in.
+	 * @param args The names of the files to read affix data from.
+	 * 
+	 * @return The listed affix set. */
+	public static AffixSet listAffixes(RunContext ctx, String[] args) {
+		NameFileReader nfr = new NameFileReader(false);
+		nfr.groupRx = ".*/mods/([^/]+)/*";
 
-		boolean omitZeros = false;
-		boolean listZeros = false;
+		Listing listing = new Listing(ctx, nfr);
 
-		NameMode nameMode = NameMode.ALL;
+		long startTime = System.nanoTime();
 
-		int namedCount   = 0;
-		int unnamedCount = 0;
-		int zeroCount    = 0;
-		int groupCount   = 0;
+		Options opts = parseArgs(ctx, nfr, listing, args);
 
-		boolean outputAffixGroups   = false;
+		if (opts.watching) {
+			return watchAffixes(ctx, nfr, listing, opts.outputFile, opts.groupFile, opts.debounce);
+		}
 
-		Map<String, Set<Affix>> groupContents    = new HashMap<>();
-		Set<Affix>              nonGroupContents = new HashSet<>();
+		openCheckpoint(ctx, listing, opts.checkpointFile);
 
-		NameFileReader nfr = new NameFileReader(false);
-		nfr.groupRx = ".*/mods/([^/]+)/*";
+		if (opts.shardCount > 1) runShards(ctx, nfr, listing, opts);
 
-		long startTime = System.nanoTime();
+		checkOptions(ctx, listing, opts);
+
+		if (opts.reportDir != null) openReport(ctx, listing, opts.reportDir, opts.reportPageSize);
+
+		listFiles(nfr, listing, opts);
+
+		if (listing.report != null) finishReport(ctx, listing, opts.reportDir);
+
+		printGroups(ctx, listing, opts.outputAffixGroups);
+
+		if (listing.socketIndex != null) checkSocketables(ctx, listing, opts.gemGroupFile);
+		if (listing.conflicts   != null) writeConflicts(ctx, listing, opts.conflictFile);
+
+		if (opts.similarFile != null) writeSimilar(ctx, listing, opts.similarFile, opts.similarity);
+		if (opts.statsFile   != null) writeStats(ctx, listing, opts.statsFile, opts.statsCsv);
+
+		exportListing(ctx, listing, opts.exportFormat, opts.exportAffixFile, opts.exportEffectFile, opts.exportGroupFile);
+
+		if (listing.effectIndex != null) writeEffectIndex(ctx, listing, opts.effectIndexFile);
+
+		writeStore(ctx, listing, opts.unitTypeDir, opts.storeFile);
+
+		// Effects that weren't parsed yet may still need to read from archives.
+		nfr.close();
+
+		printSummary(ctx, nfr, listing, startTime);
+
+		return listing.affixSet;
+	}
+
+	/* Read the command line into the run context, name reader and listing,
+	 * returning the rest of the options. */
+	@SuppressWarnings("unused")
+	private static Options parseArgs(RunContext ctx, NameFileReader nfr, Listing listing,
+			String[] args)
+	{
+	    boolean doingArgs = true;
+
+		Options opts = new Options();
 
 		for (int i = 0; i < args.length; i++) {
 			String fName = args[i];
@@ -84,51 +1016,238 @@ public class AffixLister {
 					break;
 				case "--omit-zero":
 				case "-z":
-					omitZeros = true;
+					listing.omitZeros = true;
 					break;
 				case "--no-omit-zero":
 				case "-Z":
-					omitZeros = false;
+					listing.omitZeros = false;
 					break;
 				case "--list-zero":
 				case "-l":
-					listZeros = true;
+					listing.listZeros = true;
 					break;
 				case "--no-list-zero":
 				case "-L":
-					listZeros = false;
+					listing.listZeros = false;
 					break;
 				case "--timing":
 				case "-t":
-					doTiming = true;
-					Effect.doTiming = true;
+					ctx.doTiming = true;
 					break;
 				case "--no-timing":
 				case "-T":
-					doTiming = false;
-					Effect.doTiming = false;
+					ctx.doTiming = false;
+					break;
+				case "--parallel":
+				case "-p":
+					listing.parallelLoad = true;
+					break;
+				case "--no-parallel":
+				case "-P":
+					listing.parallelLoad = false;
+					break;
+				case "--streaming":
+				case "-s":
+					opts.streaming = true;
+					break;
+				case "--no-streaming":
+				case "-S":
+					opts.streaming = false;
+					break;
+				case "--headers-only":
+				case "-H":
+					listing.headersOnly = true;
+					break;
+				case "--no-headers-only":
+					listing.headersOnly = false;
+					break;
+				case "--heap-budget":
+					if (i + 1 >= args.length) {
+						ctx.errOut.printf("ERROR: heap budget argument requires the budget to use be specified\n");
+						break;
+					}
+
+					try {
+						listing.heapBudget = parseSize(args[++i]);
+					} catch (NumberFormatException nfex) {
+						ctx.errOut.printf("ERROR: Invalid heap budget %s\n", args[i]);
+					}
+					break;
+				case "--watch":
+				case "-w":
+					opts.watching = true;
+					break;
+				case "--no-watch":
+				case "-W":
+					opts.watching = false;
+					break;
+				case "--debounce":
+					if (i + 1 >= args.length) {
+						ctx.errOut.printf("ERROR: debounce argument requires the number of milliseconds to be specified\n");
+						break;
+					}
+
+					try {
+						opts.debounce = Long.parseLong(args[++i]);
+					} catch (NumberFormatException nfex) {
+						ctx.errOut.printf("ERROR: Invalid debounce time %s\n", args[i]);
+					}
+					break;
+				case "--checkpoint":
+					if (i + 1 >= args.length) {
+						ctx.errOut.printf("ERROR: to checkpoint the run, must specify a file to keep the checkpoint in\n");
+						break;
+					}
+
+					opts.checkpointFile = args[++i];
+					break;
+				case "--batch-size":
+					if (i + 1 >= args.length) {
+						ctx.errOut.printf("ERROR: batch size argument requires the number of files to be specified\n");
+						break;
+					}
+
+					try {
+						int num = Integer.parseInt(args[++i]);
+
+						if (num < 1) ctx.errOut.printf("ERROR: --batch-size must be at least 1\n");
+						else         listing.batchSize = num;
+					} catch (NumberFormatException nfex) {
+						ctx.errOut.printf("ERROR: Invalid batch size %s\n", args[i]);
+					}
+					break;
+				case "--parse-timeout":
+					if (i + 1 >= args.length) {
+						ctx.errOut.printf("ERROR: parse timeout argument requires the number of milliseconds to be specified\n");
+						break;
+					}
+
+					try {
+						listing.parseTimeout = Long.parseLong(args[++i]);
+					} catch (NumberFormatException nfex) {
+						ctx.errOut.printf("ERROR: Invalid parse timeout %s\n", args[i]);
+					}
+					break;
+				case "--quarantine":
+					if (i + 1 >= args.length) {
+						ctx.errOut.printf("ERROR: to output quarantined files, must specify a file to output them to\n");
+						break;
+					}
+
+					opts.quarantineFile = args[++i];
+					break;
+				case "--shards":
+					if (i + 1 >= args.length) {
+						ctx.errOut.printf("ERROR: shards argument requires the number of shards to be specified\n");
+						break;
+					}
+
+					try {
+						int num = Integer.parseInt(args[++i]);
+
+						if (num < 1) ctx.errOut.printf("ERROR: --shards must be at least 1\n");
+						else         opts.shardCount = num;
+					} catch (NumberFormatException nfex) {
+						ctx.errOut.printf("ERROR: Invalid number of shards %s\n", args[i]);
+					}
+					break;
+				case "--shard-dir":
+				case "--shard-heap":
+					if (i + 1 >= args.length) {
+						ctx.errOut.printf("ERROR: %s argument requires a value to be specified\n", fName);
+						break;
+					}
+
+					if (fName.equals("--shard-dir")) opts.shardDir  = args[++i];
+					else                             opts.shardHeap = args[++i];
+					break;
+				case "--pipeline":
+					opts.pipelined = true;
+					break;
+				case "--no-pipeline":
+					opts.pipelined = false;
+					break;
+				case "--read-threads":
+				case "--parse-threads":
+				case "--queue-depth":
+					if (i + 1 >= args.length) {
+						ctx.errOut.printf("ERROR: %s argument requires the number to use be specified\n", fName);
+						break;
+					}
+
+					try {
+						int num = Integer.parseInt(args[++i]);
+
+						if (num < 1) {
+							ctx.errOut.printf("ERROR: %s must be at least 1\n", fName);
+						} else if (fName.equals("--read-threads")) {
+							opts.readThreads = num;
+						} else if (fName.equals("--parse-threads")) {
+							opts.parseThreads = num;
+						} else {
+							opts.queueDepth = num;
+						}
+					} catch (NumberFormatException nfex) {
+						ctx.errOut.printf("ERROR: Invalid number %s for %s\n", args[i], fName);
+					}
+					break;
+				case "--effect-cache":
+					if (i + 1 >= args.length) {
+						ctx.errOut.printf("ERROR: effect cache argument requires the size to use be specified\n");
+						break;
+					}
+
+					try {
+						int size = Integer.parseInt(args[++i]);
+
+						if (size < 0) {
+							ctx.errOut.printf("ERROR: effect cache size must not be negative\n");
+						} else {
+							ctx.renderCache = new EffectRenderCache(ctx, size);
+						}
+					} catch (NumberFormatException nfex) {
+						ctx.errOut.printf("ERROR: Invalid effect cache size %s\n", args[i]);
+					}
+					break;
+				case "--max-diagnostics":
+					if (i + 1 >= args.length) {
+						ctx.errOut.printf("ERROR: max diagnostics argument requires the number to use be specified\n");
+						break;
+					}
+
+					try {
+						int max = Integer.parseInt(args[++i]);
+
+						if (max < 0) {
+							ctx.errOut.printf("ERROR: max diagnostics must not be negative\n");
+						} else {
+							ctx.diagnostics = new Diagnostics(max);
+						}
+					} catch (NumberFormatException nfex) {
+						ctx.errOut.printf("ERROR: Invalid max diagnostics %s\n", args[i]);
+					}
 					break;
 				case "--file-names":
 				case "-f":
-					addFileName = true;
+					ctx.addFileName = true;
 					break;
 				case "--no-file-names":
 				case "-F":
-					addFileName = true;
+					ctx.addFileName = false;
 					break;
 				case "--name-mode":
 				case "-n":
 					if (i + 1 >= args.length) {
-						errOut.printf("ERROR: name mode argument requires the mode to use be specified (all, unnamed or named)\n");
+						ctx.errOut.printf("ERROR: name mode argument requires the mode to use be specified (all, unnamed or named)\n");
 						break;
 					}
 
-					nameMode = NameMode.valueOf(args[++i].toUpperCase());
+					listing.nameMode = NameMode.valueOf(args[++i].toUpperCase());
 					break;
 				case "--file-group":
 				case "-g":
 					if (i + 1 >= args.length) {
-						errOut.printf("ERROR: file group argument requires the group name to use be specified\n");
+						ctx.errOut.printf("ERROR: file group argument requires the group name to use be specified\n");
 						break;
 					}
 
@@ -143,7 +1262,7 @@ public class AffixLister {
 				case "--read-names-from-file":
 				case "-r":
 					if (i + 1 >= args.length) {
-						errOut.printf("ERROR: read name file argument requires the file to use be specified\n");
+						ctx.errOut.printf("ERROR: read name file argument requires the file to use be specified\n");
 						break;
 					}
 
@@ -152,38 +1271,39 @@ public class AffixLister {
 				case "--output":
 				case "-o":
 					if (i + 1 >= args.length) {
-						errOut.printf("ERROR: output file argument requires the file to use be specified\n");
+						ctx.errOut.printf("ERROR: output file argument requires the file to use be specified\n");
 						break;
 					}
 
 					try {
-						normOut = new PrintStream(args[++i]);
-						nfr.normOut = normOut;
+						opts.outputFile  = args[++i];
+						ctx.normOut = new PrintStream(opts.outputFile);
+						nfr.normOut = ctx.normOut;
 					} catch (IOException ioex) {
-						errOut.printf("Could not open output file %s\n", args[i]);
+						ctx.errOut.printf("Could not open output file %s\n", args[i]);
 
-						ioex.printStackTrace(errOut);
+						ioex.printStackTrace(ctx.errOut);
 					}
 					break;
 				case "--output-errors":
 				case "-e":
 					if (i + 1 >= args.length) {
-						errOut.printf("ERROR: error output file argument requires the file to use be specified\n");
+						ctx.errOut.printf("ERROR: error output file argument requires the file to use be specified\n");
 						break;
 					}
 
 					try {
-						errOut = new PrintStream(args[++i]);
-						nfr.errOut = errOut;
+						ctx.errOut = new PrintStream(args[++i]);
+						nfr.errOut = ctx.errOut;
 					} catch (IOException ioex) {
-						errOut.printf("Could not open error output file %s\n", args[i]);
+						ctx.errOut.printf("Could not open error output file %s\n", args[i]);
 
-						ioex.printStackTrace(errOut);
+						ioex.printStackTrace(ctx.errOut);
 					}
 					break;
 				case "--guess-regex":
 					if (i + 1 >= args.length) {
-						errOut.printf("ERROR: group regex argument requires the regex to use be specified\n");
+						ctx.errOut.printf("ERROR: group regex argument requires the regex to use be specified\n");
 						break;
 					}
 
@@ -191,19 +1311,167 @@ public class AffixLister {
 					break;
 				case "--output-affix-groups":
 					if (i + 1 >= args.length) {
-						errOut.printf(
+						ctx.errOut.printf(
 								"ERROR: to output affix-groups, must specify a file to output them to");
 						break;
 					}
 
 					try {
-						affixGroupDest = new PrintStream(args[++i]);
-						outputAffixGroups = true;
+						opts.groupFile = args[++i];
+						ctx.affixGroupDest = new PrintStream(opts.groupFile);
+						opts.outputAffixGroups = true;
 					} catch (IOException ioex) {
-						errOut.printf(
+						ctx.errOut.printf(
 								"ERROR: Couldn't open file %s to write affix groups to\n",
-								affixGroupDest);
+								ctx.affixGroupDest);
+					}
+					break;
+				case "--unit-types":
+					if (i + 1 >= args.length) {
+						ctx.errOut.printf("ERROR: unit types argument requires the directory to use be specified\n");
+						break;
+					}
+
+					opts.unitTypeDir = args[++i];
+					break;
+				case "--output-store":
+					if (i + 1 >= args.length) {
+						ctx.errOut.printf("ERROR: output store argument requires the file to use be specified\n");
+						break;
+					}
+
+					opts.storeFile = args[++i];
+					break;
+				case "--socketable-units":
+					if (i + 1 >= args.length) {
+						ctx.errOut.printf("ERROR: socketable units argument requires the directory to use be specified\n");
+						break;
+					}
+
+					listing.socketIndex = SocketableIndex.loadFrom(ctx, args[++i]);
+
+					for (String err : listing.socketIndex.errors) ctx.errOut.print(err);
+					break;
+				case "--output-conflicts":
+					if (i + 1 >= args.length) {
+						ctx.errOut.printf("ERROR: to output conflicts, must specify a file to output them to\n");
+						break;
+					}
+
+					opts.conflictFile = args[++i];
+					listing.conflicts = new ConflictIndex();
+					break;
+				case "--output-similar":
+					if (i + 1 >= args.length) {
+						ctx.errOut.printf("ERROR: to output similar affixes, must specify a file to output them to\n");
+						break;
+					}
+
+					opts.similarFile = args[++i];
+					break;
+				case "--similarity":
+					if (i + 1 >= args.length) {
+						ctx.errOut.printf("ERROR: similarity argument requires the threshold to be specified\n");
+						break;
+					}
+
+					try {
+						double num = Double.parseDouble(args[++i]);
+
+						if (num <= 0 || num > 1) ctx.errOut.printf("ERROR: --similarity must be above 0 and at most 1\n");
+						else                     opts.similarity = num;
+					} catch (NumberFormatException nfex) {
+						ctx.errOut.printf("ERROR: Invalid similarity %s\n", args[i]);
+					}
+					break;
+				case "--output-stats":
+					if (i + 1 >= args.length) {
+						ctx.errOut.printf("ERROR: to output statistics, must specify a file to output them to\n");
+						break;
+					}
+
+					opts.statsFile = args[++i];
+					break;
+				case "--stats-format":
+					if (i + 1 >= args.length) {
+						ctx.errOut.printf("ERROR: stats format argument requires the format to use be specified (json or csv)\n");
+						break;
+					}
+
+					switch (args[++i].toLowerCase()) {
+					case "json":
+						opts.statsCsv = false;
+						break;
+					case "csv":
+						opts.statsCsv = true;
+						break;
+					default:
+						ctx.errOut.printf("ERROR: Invalid stats format %s (expected json or csv)\n", args[i]);
+					}
+					break;
+				case "--export-affixes":
+				case "--export-effects":
+				case "--export-groups":
+					if (i + 1 >= args.length) {
+						ctx.errOut.printf("ERROR: %s argument requires the file to export to be specified\n", fName);
+						break;
+					}
+
+					if      (fName.equals("--export-affixes")) opts.exportAffixFile  = args[++i];
+					else if (fName.equals("--export-effects")) opts.exportEffectFile = args[++i];
+					else                                       opts.exportGroupFile  = args[++i];
+					break;
+				case "--export-format":
+					if (i + 1 >= args.length) {
+						ctx.errOut.printf("ERROR: export format argument requires the format to use be specified (jsonl or csv)\n");
+						break;
+					}
+
+					try {
+						opts.exportFormat = AffixExport.Format.valueOf(args[++i].toUpperCase());
+					} catch (IllegalArgumentException iaex) {
+						ctx.errOut.printf("ERROR: Invalid export format %s (expected jsonl or csv)\n", args[i]);
+					}
+					break;
+				case "--output-report":
+					if (i + 1 >= args.length) {
+						ctx.errOut.printf("ERROR: to output a report, must specify a directory to output it to\n");
+						break;
+					}
+
+					opts.reportDir = args[++i];
+					break;
+				case "--report-page-size":
+					if (i + 1 >= args.length) {
+						ctx.errOut.printf("ERROR: report page size argument requires the number of affixes to be specified\n");
+						break;
+					}
+
+					try {
+						int num = Integer.parseInt(args[++i]);
+
+						if (num < 1) ctx.errOut.printf("ERROR: --report-page-size must be at least 1\n");
+						else         opts.reportPageSize = num;
+					} catch (NumberFormatException nfex) {
+						ctx.errOut.printf("ERROR: Invalid report page size %s\n", args[i]);
+					}
+					break;
+				case "--output-effect-index":
+					if (i + 1 >= args.length) {
+						ctx.errOut.printf("ERROR: to output the effect index, must specify a file to output it to\n");
+						break;
+					}
+
+					opts.effectIndexFile = args[++i];
+					listing.effectIndex = new EffectIndex();
+					break;
+				case "--output-gem-groups":
+					if (i + 1 >= args.length) {
+						ctx.errOut.printf("ERROR: to output gem affix-groups, must specify a file to output them to\n");
+						break;
 					}
+
+					opts.gemGroupFile = args[++i];
 					break;
 				default:
 					isArg = false;
@@ -216,131 +1484,518 @@ public class AffixLister {
 			}
 		}
 
-		AffixSet affixSetByContents = new AffixSet();
+		listing.keepAffixes  = opts.unitTypeDir != null || opts.storeFile != null
+				|| opts.similarFile != null || opts.statsFile != null
+				|| opts.exportAffixFile != null || opts.exportEffectFile != null;
+		// Exporting groups needs them worked out, even if they aren't printed.
+		listing.outputGroups = opts.outputAffixGroups || opts.exportGroupFile != null;
 
-		for (Entry<String, List<String>> fGroup : nfr.fNames.entrySet()) {
-			if (fGroup.getValue().size() == 0) continue;
+		return opts;
+	}
 
-			normOut.printf("\nFile Group '%s' starting\n", fGroup.getKey());
-			for (String fName : fGroup.getValue()) {
-				try (FileReader fr = new FileReader(fName)) {
-					Scanner sc = new Scanner(fr);
+	/* Open the checkpoint to resume from, if one was asked for. */
+	private static void openCheckpoint(RunContext ctx, Listing listing, String checkpointFile) {
+		if (checkpointFile == null) return;
 
-					Affix afx = Affix.loadAffix(sc, fName);
-					affixSetByContents.addAffixByContents(afx);
+		try {
+			listing.checkpoint = Checkpoint.open(Paths.get(checkpointFile));
 
-					effectCount += afx.effects.size();
+			if (listing.checkpoint.droppedPartial) {
+				ctx.errOut.printf("WARN: Dropped a half-written batch from checkpoint %s\n", checkpointFile);
+			}
 
-					if (afx.intName != null && afx.weight != 0) {
-						String groupRx = "(.*_?)\\d+\\Z";
-						boolean hasGroup = afx.intName.matches(groupRx);
-						String groupName = afx.intName.replaceAll(groupRx, "$1");
+			if (listing.checkpoint.restoredCount > 0) {
+				ctx.errOut.printf("Resuming from checkpoint %s (%,d files already finished)\n",
+						checkpointFile, listing.checkpoint.restoredCount);
+			}
+		} catch (IOException ioex) {
+			ctx.errOut.printf("ERROR: Couldn't open checkpoint file %s\n", checkpointFile);
 
-						if (!groupContents.containsKey(groupName)) {
-							groupCount += 1;
-							// errOut.printf("\tTRACE: Counted distinct group %s from
-							// %s\n", groupName, afx.intName);
+			ioex.printStackTrace(ctx.errOut);
+		}
+	}
 
-							if (hasGroup) {
-								// errOut.printf("\tTRACE: Counted actual group %s from
-								// %s\n", groupName, afx.intName);
+	/* Load the files in shard worker processes, so that the listing only has to
+	 * merge what they loaded. */
+	private static void runShards(RunContext ctx, NameFileReader nfr, Listing listing,
+			Options opts)
+	{
+		try {
+			AffixShards shards = new AffixShards(opts.shardCount,
+					opts.shardDir == null ? null : Paths.get(opts.shardDir));
+			shards.workerHeap   = opts.shardHeap;
+			shards.parseTimeout = listing.parseTimeout;
 
-								groupContents.put(groupName, new HashSet<>());
-							} else {
-								nonGroupContents.add(afx);
-							}
-						} else if (hasGroup) {
-							groupContents.get(groupName).add(afx);
-						} else {
-							nonGroupContents.add(afx);
-						}
-					}
+			listing.shards = shards;
 
-					if (afx.weight == 0) zeroCount += 1;
+			shards.run(ctx, nfr);
+		} catch (IOException ioex) {
+			ctx.errOut.printf("ERROR: Couldn't run shard workers; loading every file here instead\n");
 
-					if (afx.weight == 0 && !listZeros) {
-						if (!omitZeros) normOut.printf(
-								"\nAffix %s has zero spawn weight\n",
-								afx.intName);
-					} else {
-						boolean isNamed = 
-							(afx.affixSuffix != null) || (afx.affixPrefix != null);
+			ioex.printStackTrace(ctx.errOut);
+		} catch (InterruptedException iex) {
+			ctx.errOut.printf("Interrupted while waiting for shard workers\n");
 
-						if (isNamed) namedCount += 1;
-						else         unnamedCount += 1;
+			Thread.currentThread().interrupt();
+		}
+	}
 
-						if (nameMode == NameMode.UNNAMED && isNamed)  continue;
-						if (nameMode == NameMode.NAMED   && !isNamed) continue;
+	/* Turn off the options that can't be used with the way files are being
+	 * loaded, and start streaming if that was asked for. */
+	private static void checkOptions(RunContext ctx, Listing listing, Options opts) {
+		if (opts.pipelined && (listing.checkpoint != null || listing.parseTimeout > 0 || listing.shards != null)) {
+			ctx.errOut.printf("WARN: --checkpoint, --parse-timeout and --shards load files in batches, so --pipeline is ignored\n");
 
-						normOut.printf("\n%s\n", afx.toLongString());
-					}
-				} catch (Exception ex) {
-					errOut.printf(
-						"Something bad happened for file %s:%s\n",
-						fName, ex.getMessage());
+			opts.pipelined = false;
+		}
 
-					ex.printStackTrace(errOut);
-					errOut.println();
-				}
-			}
+		if (!opts.streaming) return;
 
-			normOut.printf("\nFile Group '%s' ending\n", fGroup.getKey());
+		if (listing.effectIndex != null) {
+			ctx.errOut.printf("WARN: --output-effect-index needs every affix, so it is ignored when streaming\n");
+
+			listing.effectIndex = null;
 		}
 
-		errOut.println("\nGroup Contents: ");
+		if (listing.keepAffixes) {
+			ctx.errOut.printf("WARN: --unit-types, --output-store, --output-similar, --output-stats and --export-affixes/effects need every affix, so they are ignored when streaming\n");
+
+			opts.unitTypeDir = null;
+			opts.storeFile   = null;
+			opts.similarFile = null;
+			opts.statsFile   = null;
 
-		for (Entry<String, Set<Affix>> ent : groupContents.entrySet()) {
-			errOut.printf("\t%s: %s\n", ent.getKey(), ent.getValue());
+			opts.exportAffixFile  = null;
+			opts.exportEffectFile = null;
+
+			listing.keepAffixes = false;
 		}
 
-		errOut.println();
-		errOut.println();
+		if (opts.exportGroupFile != null) {
+			ctx.errOut.printf("WARN: --export-groups needs every affix group, so it is ignored when streaming\n");
 
-		if (outputAffixGroups) {
-		    for (Entry<AffixGroup, Set<Affix>> entry 
-		            : affixSetByContents.affixGroups.entrySet())
-		    {
-		        AffixGroup group   = entry.getKey();
-			Set<Affix> affixes = entry.getValue();
+			opts.exportGroupFile = null;
 
-			// Skip one-affix groups
-			if (affixes.size() == 1) continue;
+			listing.outputGroups = opts.outputAffixGroups;
+		}
 
-			List<Affix> affixList = new ArrayList<>(affixes);
-			Collections.sort(affixList, (lhs, rhs) -> lhs.spawnRange.compareTo(rhs.spawnRange));
+		listing.startStreaming();
+	}
 
-			boolean isFirstAfx = true;
-			for (Affix afx : affixList) {
-				// @TODO actually implement this -bculkin, 12/29/2020
+	/* Start the report, so that pages can be written as affixes are listed. */
+	private static void openReport(RunContext ctx, Listing listing, String reportDir, int pageSize) {
+		try {
+			listing.report = new AffixReport(ctx, Paths.get(reportDir));
 
-				// Print the header for this group
-				if (isFirstAfx) {
-					isFirstAfx = false;
-					affixGroupDest.printf("Group ID %s (%d affixes)\t",
-						group.hashCode(), affixes.size());
-					affixGroupDest.print(group.groupSummary());
-				}
+			listing.report.pageSize    = pageSize;
+			listing.report.headersOnly = listing.headersOnly;
+		} catch (IOException ioex) {
+			ctx.errOut.printf("ERROR: Couldn't create report directory %s\n", reportDir);
+		}
+	}
+
+	/* List every file, through the pipeline or a group at a time. */
+	private static void listFiles(NameFileReader nfr, Listing listing, Options opts) {
+		if (opts.pipelined) {
+			listing.listPipelined(opts.readThreads, opts.parseThreads, opts.queueDepth);
+		} else {
+			for (Entry<String, List<String>> fGroup : nfr.fNames.entrySet()) {
+				listing.listGroup(fGroup.getKey(), fGroup.getValue());
+			}
+
+			if (nfr.hasRoots()) listing.listDiscovered();
+		}
+
+		listing.flushOutput();
+
+		listing.finishBatches(opts.quarantineFile);
+	}
+
+	/* Write out the index and group pages of the report. */
+	private static void finishReport(RunContext ctx, Listing listing, String reportDir) {
+		long reportStart = System.nanoTime();
+
+		try {
+			listing.report.finish(listing.affixSet.affixGroups);
+		} catch (IOException ioex) {
+			ctx.errOut.printf("ERROR: Couldn't write report to directory %s\n", reportDir);
+
+			ioex.printStackTrace(ctx.errOut);
+		} finally {
+			listing.report.close();
+		}
 
-				affixGroupDest.print("\t");
-				affixGroupDest.print(afx.toShortString().replaceAll("\n(?=.)", "\n\t"));
-				// print this affix in the group format
+		long reportEnd = System.nanoTime();
+
+		ctx.errOut.printf("Finished report with %,d pages in %s in %.2f seconds\n",
+				listing.report.pageCount(), reportDir,
+				((double) (reportEnd - reportStart) / 1000000000));
+	}
+
+	/* Print the name groups, and the affix groups if they were asked for. */
+	private static void printGroups(RunContext ctx, Listing listing, boolean outputAffixGroups) {
+		ctx.errOut.println("\nGroup Contents: ");
+
+		try {
+			listing.printNameGroups();
+
+			ctx.errOut.println();
+			ctx.errOut.println();
+
+			if (outputAffixGroups) {
+				if (listing.streaming) listing.printStreamedGroups(ctx.affixGroupDest);
+				else                   printAffixGroups(ctx, ctx.affixGroupDest, listing.affixSet);
 			}
-			affixGroupDest.println();
-		    }
+
+			listing.close();
+		} catch (IOException ioex) {
+			ctx.errOut.printf("ERROR: Couldn't read back spilled groups\n");
+
+			ioex.printStackTrace(ctx.errOut);
+		}
+	}
+
+	/* Warn about affixes that socketable units grant but weren't loaded, and
+	 * print the groups of the affixes they grant if that was asked for. */
+	private static void checkSocketables(RunContext ctx, Listing listing, String gemGroupFile) {
+		for (String affixName : listing.socketIndex.missingAffixes()) {
+			ctx.errOut.printf("WARN: Socketable unit(s) %s grant affix %s, which wasn't loaded\n",
+					listing.socketIndex.unitsFor(affixName), affixName);
+		}
+
+		if (gemGroupFile == null) return;
+
+		try (PrintStream gemGroupDest = new PrintStream(gemGroupFile)) {
+			printAffixGroups(ctx, gemGroupDest, listing.socketIndex.socketedAffixes());
+		} catch (IOException ioex) {
+			ctx.errOut.printf(
+					"ERROR: Couldn't open file %s to write gem affix groups to\n",
+					gemGroupFile);
+		}
+	}
+
+	/* Write out the conflicts between the loaded affixes. */
+	private static void writeConflicts(RunContext ctx, Listing listing, String conflictFile) {
+		List<ConflictIndex.Conflict> conflicts = listing.conflicts.conflicts();
+
+		try (PrintStream conflictDest = new PrintStream(conflictFile)) {
+			ConflictIndex.printConflicts(conflicts, conflictDest);
+		} catch (IOException ioex) {
+			ctx.errOut.printf("ERROR: Couldn't open file %s to write conflicts to\n",
+					conflictFile);
+		}
+
+		ConflictIndex.summarizeConflicts(conflicts, ctx.errOut);
+	}
+
+	/* Write out the clusters of similar affixes. */
+	private static void writeSimilar(RunContext ctx, Listing listing, String similarFile,
+			double similarity)
+	{
+		long simStart = System.nanoTime();
+
+		AffixSimilarity finder = new AffixSimilarity(similarity);
+		List<AffixSimilarity.Cluster> clusters = finder.cluster(listing.allAffixes);
+
+		try (PrintStream similarDest = new PrintStream(similarFile)) {
+			AffixSimilarity.printClusters(clusters, similarDest);
+		} catch (IOException ioex) {
+			ctx.errOut.printf("ERROR: Couldn't open file %s to write similar affixes to\n",
+					similarFile);
+		}
+
+		long simEnd = System.nanoTime();
+
+		ctx.errOut.printf("Found %,d clusters of similar affixes (%,d bands of %,d hashes) in %.2f seconds\n",
+				clusters.size(), finder.bands, finder.rows,
+				((double) (simEnd - simStart) / 1000000000));
+	}
+
+	/* Write out statistics about the loaded affixes, as CSV or JSON. */
+	private static void writeStats(RunContext ctx, Listing listing, String statsFile, Boolean statsCsv) {
+		long statStart = System.nanoTime();
+
+		AffixStats stats = AffixStats.of(listing.allAffixes);
+
+		// Go by the file extension, unless the format was given.
+		boolean asCsv = statsCsv == null ? statsFile.toLowerCase().endsWith(".csv") : statsCsv;
+
+		try (Writer statsDest = Files.newBufferedWriter(Paths.get(statsFile))) {
+			if (asCsv) stats.writeCsv(statsDest);
+			else       stats.writeJson(statsDest);
+		} catch (IOException | UncheckedIOException ex) {
+			ctx.errOut.printf("ERROR: Couldn't write statistics to file %s\n", statsFile);
 		}
 
+		long statEnd = System.nanoTime();
+
+		ctx.errOut.printf("Worked out statistics for %,d affixes (%,d effects) in %.2f seconds\n",
+				stats.affixCount, stats.effectCount,
+				((double) (statEnd - statStart) / 1000000000));
+	}
+
+	/* Write out the effect index. */
+	private static void writeEffectIndex(RunContext ctx, Listing listing, String effectIndexFile) {
+		try (Writer effectDest = Files.newBufferedWriter(Paths.get(effectIndexFile))) {
+			listing.effectIndex.writeTo(ctx, effectDest);
+		} catch (IOException | UncheckedIOException ex) {
+			ctx.errOut.printf("ERROR: Couldn't write effect index to file %s\n", effectIndexFile);
+		}
+	}
+
+	/* Build the compatibility matrix if there are unit types to build it from,
+	 * and write the affix store if one was asked for. */
+	private static void writeStore(RunContext ctx, Listing listing, String unitTypeDir,
+			String storeFile)
+	{
+		AffixCompatibility compat = null;
+		if (unitTypeDir != null) {
+			UnitTypeRepo unitTypes = UnitTypeRepo.loadFrom(unitTypeDir, ctx.errOut);
+
+			compat = AffixCompatibility.build(listing.allAffixes, unitTypes);
+
+			ctx.errOut.printf("Built affix compatibility matrix for %,d unit types\n",
+					compat.matrix.size());
+		}
+
+		if (storeFile == null) return;
+
+		AffixStore store = new AffixStore(listing.allAffixes, compat);
+
+		long searchStart = System.nanoTime();
+
+		store.search = SearchIndex.build(ctx, listing.allAffixes);
+
+		ctx.errOut.printf("Built search index over %,d affixes (%,d words, %,d trigrams, %,d KB of postings) in %.2f seconds\n",
+				store.search.docCount, store.search.termCount(), store.search.trigramCount(),
+				store.search.postingBytes() / 1024, (System.nanoTime() - searchStart) / 1e9);
+
+		try {
+			store.write(storeFile);
+		} catch (IOException ioex) {
+			ctx.errOut.printf("ERROR: Couldn't write affix store to file %s\n", storeFile);
+
+			ioex.printStackTrace(ctx.errOut);
+		}
+	}
+
+	/* Print the diagnostics, and a summary of what was listed. */
+	private static void printSummary(RunContext ctx, NameFileReader nfr, Listing listing,
+			long startTime)
+	{
+		ctx.diagnostics.printTo(ctx.errOut);
+
 		long endTime = System.nanoTime();
-		errOut.printf(
+		ctx.errOut.printf(
 			"\nProcessed %,d affixes (%,d named, %,d unnamed, %,d zero-weight) (%,d effects) (%,d distinct groups, %,d actual groups, %,d nongrouped affixes) out of %,d files (%,d groups) in %,d nanoseconds (%.2f seconds)\n",
-			nfr.fCount, namedCount, unnamedCount, zeroCount, effectCount, groupCount,
-			groupContents.size(), nonGroupContents.size(), nfr.fCount,
-			nfr.fNames.size(), endTime - startTime,
+			nfr.fCount, listing.namedCount, listing.unnamedCount, listing.zeroCount, listing.effectCount, listing.groupCount,
+			listing.actualGroupCount(), listing.nonGroupCount(), nfr.fCount,
+			listing.fileGroups.size(), endTime - startTime,
 			((double) (endTime - startTime) / 1000000000));
 
-		errOut.printf(
+		ctx.errOut.printf(
 			"\tOptions: Name Mode: %s, Special-case zero weight: %s, Noting zero-weight in special case: %s\n",
-			nameMode, !listZeros, !omitZeros);
+			listing.nameMode, !listing.listZeros, !listing.omitZeros);
+
+		if (ctx.doTiming) {
+			ctx.errOut.printf("\tParsed %,d affixes (%,d effects) in %.2f seconds of parsing\n",
+					ctx.affixesParsed.sum(), ctx.effectsParsed.sum(),
+					ctx.parseNanos.sum() / 1000000000.0);
+			ctx.errOut.printf("\t%s\n", ctx.renderCache);
+		}
+	}
+
+	/* Export the affixes, effects and groups to any files that were asked for. */
+	private static void exportListing(RunContext ctx, Listing listing, AffixExport.Format format,
+			String affixFile, String effectFile, String groupFile)
+	{
+		String[] files = { affixFile, effectFile, groupFile };
+
+		long exportStart = System.nanoTime();
+		int  exported    = 0;
+
+		for (int i = 0; i < files.length; i++) {
+			if (files[i] == null) continue;
+
+			AffixExport export = new AffixExport(ctx,
+					format == null ? AffixExport.Format.forFile(files[i]) : format);
+
+			try (Writer dest = Files.newBufferedWriter(Paths.get(files[i]))) {
+				if      (i == 0) export.writeAffixes(listing.allAffixes, dest);
+				else if (i == 1) export.writeEffects(listing.allAffixes, dest);
+				else             export.writeGroups(listing.affixSet.affixGroups, dest);
+
+				exported += 1;
+			} catch (IOException | UncheckedIOException ex) {
+				ctx.errOut.printf("ERROR: Couldn't export to file %s\n", files[i]);
+			}
+		}
+
+		if (exported == 0) return;
+
+		long exportEnd = System.nanoTime();
+
+		ctx.errOut.printf("Exported %,d files in %.2f seconds\n",
+				exported, ((double) (exportEnd - exportStart) / 1000000000));
+	}
+
+	/* List the affixes, and then keep the listing up to date as files change. */
+	private static AffixSet watchAffixes(RunContext ctx, NameFileReader nfr, Listing listing,
+			String outputFile, String groupFile, long debounce)
+	{
+		AffixWatcher watcher = new AffixWatcher(ctx, nfr);
+
+		watcher.listZeros = listing.listZeros;
+		watcher.omitZeros = listing.omitZeros;
+		watcher.nameMode  = listing.nameMode;
+		watcher.debounce  = debounce;
+
+		if (outputFile != null) watcher.outputFile = Paths.get(outputFile);
+		if (groupFile  != null) watcher.groupFile  = Paths.get(groupFile);
+
+		long startTime = System.nanoTime();
+
+		watcher.loadAll();
+
+		ctx.diagnostics.printTo(ctx.errOut);
+
+		long endTime = System.nanoTime();
+		ctx.errOut.printf(
+			"\nProcessed %,d affixes (%,d named, %,d unnamed, %,d zero-weight) (%,d effects) (%,d affix groups) in %,d nanoseconds (%.2f seconds)\n",
+			watcher.affixCount(),
+			watcher.namedCount, watcher.unnamedCount, watcher.zeroCount, watcher.effectCount,
+			watcher.affixSet.affixGroups.size(), endTime - startTime,
+			((double) (endTime - startTime) / 1000000000));
+
+		try {
+			watcher.watch();
+		} catch (IOException ioex) {
+			ctx.errOut.printf("ERROR: Couldn't watch files for changes\n");
+
+			ioex.printStackTrace(ctx.errOut);
+		}
+
+		nfr.close();
+
+		return watcher.affixSet;
+	}
+
+	/** Parse a size in bytes, with an optional k, m or g suffix.
+	 *
+	 * @param size The size to parse.
+	 *
+	 * @return The size, in bytes.
+	 *
+	 * @throws NumberFormatException If the size isn't valid. */
+	public static long parseSize(String size) {
+		String num = size.trim().toLowerCase();
+		long   mult = 1;
+
+		if      (num.endsWith("k")) mult = 1024L;
+		else if (num.endsWith("m")) mult = 1024L * 1024;
+		else if (num.endsWith("g")) mult = 1024L * 1024 * 1024;
+
+		if (mult != 1) num = num.substring(0, num.length() - 1);
+
+		return Long.parseLong(num) * mult;
+	}
+
+	/** Load an affix from one of the files in a name reader.
+	 *
+	 * @param ctx The run the affix is being loaded for.
+	 * @param nfr The name reader the file came from.
+	 * @param fName The name of the file.
+	 *
+	 * @return The affix loaded from the file.
+	 *
+	 * @throws IOException If something goes wrong reading the file. */
+	public static Affix loadAffixFile(RunContext ctx, NameFileReader nfr, String fName)
+			throws IOException
+	{
+		try (Reader rdr = nfr.openReader(fName)) {
+			return Affix.loadAffix(ctx, new Scanner(rdr), fName, ctx.diagnostics);
+		}
+	}
+
+	/** Load just the header of the affix in a file.
+	 *
+	 * The effects are only parsed the first time they are used, by reading the
+	 * file again. The name reader has to stay open until then.
+	 *
+	 * @param ctx The run the affix is being loaded for.
+	 * @param nfr The name reader the file came from.
+	 * @param fName The name of the file.
+	 *
+	 * @return The affix loaded from the file, with its effects not yet parsed.
+	 *
+	 * @throws IOException If something goes wrong reading the file. */
+	public static Affix loadAffixHeader(RunContext ctx, NameFileReader nfr, String fName)
+			throws IOException
+	{
+		try (Reader rdr = nfr.openReader(fName)) {
+			return Affix.loadHeader(ctx, nfr, new LineSource(new Scanner(rdr)), fName,
+					ctx.diagnostics);
+		}
+	}
+
+	/** Report that something went wrong loading or listing a file.
+	 *
+	 * @param ctx The run the file was being loaded for.
+	 * @param fName The name of the file.
+	 * @param err What went wrong.
+	 * @param withTrace Whether to print the stack trace as well. */
+	public static void reportFileError(RunContext ctx, String fName, Throwable err,
+			boolean withTrace)
+	{
+		// Files can fail on several threads at once.
+		synchronized (ctx.errOut) {
+			ctx.errOut.printf("Something bad happened for file %s:%s\n", fName, err.getMessage());
+
+			if (withTrace) {
+				err.printStackTrace(ctx.errOut);
+				ctx.errOut.println();
+			}
+		}
+	}
+
+	/* Wait for an affix that is being loaded in the background. */
+	private static Affix awaitAffix(CompletableFuture<Affix> pending) throws Exception {
+		try {
+			return pending.join();
+		} catch (CompletionException cex) {
+			Throwable cause = cex.getCause();
+
+			if (cause instanceof UncheckedIOException) throw ((UncheckedIOException) cause).getCause();
+			if (cause instanceof Exception)            throw (Exception) cause;
+			if (cause instanceof Error)                throw (Error) cause;
+
+			throw cex;
+		}
+	}
+
+	/** Print out the affix groups in an affix set.
+	 *
+	 * Groups that only contain one affix are skipped.
+	 *
+	 * @param ctx The run to print the groups for.
+	 * @param dest The place to print the groups to.
+	 * @param affixSet The affix set to print the groups from. */
+	public static void printAffixGroups(RunContext ctx, PrintStream dest, AffixSet affixSet) {
+		AffixWriter out = new AffixWriter(ctx, dest);
+
+		for (Entry<AffixGroup, Set<Affix>> entry : affixSet.affixGroups.entrySet()) {
+			AffixGroup group   = entry.getKey();
+			Set<Affix> affixes = entry.getValue();
+
+			// Skip one-affix groups
+			if (affixes.size() == 1) continue;
+
+			List<Affix> affixList = new ArrayList<>(affixes);
+			Collections.sort(affixList, (lhs, rhs) -> lhs.spawnRange.compareTo(rhs.spawnRange));
+
+			out.writeAffixGroup(group, affixList);
+		}
 
-		return affixSetByContents;
+		out.flush();
 	}
 }
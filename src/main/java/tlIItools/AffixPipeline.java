@@ -0,0 +1,396 @@
+package tlIItools;
+
+import java.io.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+
+/** A staged pipeline for loading affixes.
+ *
+ * Files go through four stages, connected by bounded queues:
+ * <ol>
+ * <li>Reading, which reads the raw bytes of each file.</li>
+ * <li>Parsing, which turns those bytes into an {@link Affix}.</li>
+ * <li>Indexing, which sees every item in the order it was submitted.</li>
+ * <li>Output, which also sees every item in order.</li>
+ * </ol>
+ *
+ * The reading and parsing stages can have any number of threads; the other
+ * two stages have one thread each. The number of items in flight is capped,
+ * so that a slow stage causes the earlier stages to wait instead of piling up
+ * items in memory.
+ *
+ * @author Ben Culkin */
+public class AffixPipeline {
+	/** The kinds of item that go through the pipeline.
+	 *
+	 * @author Ben Culkin */
+	public enum ItemKind {
+		/** Marks the start of a file group. */
+		GROUP_START,
+		/** A file to load an affix from. */
+		FILE,
+		/** Marks the end of a file group. */
+		GROUP_END,
+		/* Tells a stage thread to stop. */
+		STOP
+	}
+
+	/** An item going through the pipeline.
+	 *
+	 * @author Ben Culkin */
+	public static class Item {
+		/** The order the item was submitted in. */
+		public final long seq;
+		/** The kind of item this is. */
+		public final ItemKind kind;
+		/** The file group name, for group markers, or the file name, for files. */
+		public final String name;
+
+		/** The contents of the file. Dropped once it has been parsed. */
+		public byte[] data;
+		/** The affix parsed from the file. */
+		public Affix afx;
+		/** The error that happened while processing this item, if any. */
+		public Throwable error;
+
+		/** Extra state that the indexing stage can attach for the output stage. */
+		public Object tag;
+
+		/** Create a new pipeline item.
+		 *
+		 * @param seq The order the item was submitted in.
+		 * @param kind The kind of item.
+		 * @param name The file group name or file name for the item. */
+		public Item(long seq, ItemKind kind, String name) {
+			this.seq  = seq;
+			this.kind = kind;
+			this.name = name;
+		}
+	}
+
+	/** Reads the contents of a file.
+	 *
+	 * @author Ben Culkin */
+	@FunctionalInterface
+	public interface ContentReader {
+		/** Read the contents of a file.
+		 *
+		 * @param fName The file to read.
+		 *
+		 * @return The contents of the file.
+		 *
+		 * @throws Exception If something goes wrong reading the file. */
+		byte[] read(String fName) throws Exception;
+	}
+
+	/** Parses the contents of a file into an affix.
+	 *
+	 * @author Ben Culkin */
+	@FunctionalInterface
+	public interface AffixParser {
+		/** Parse the contents of a file.
+		 *
+		 * @param fName The file the contents came from.
+		 * @param data The contents of the file.
+		 *
+		 * @return The affix in the file.
+		 *
+		 * @throws Exception If something goes wrong parsing the file. */
+		Affix parse(String fName, byte[] data) throws Exception;
+	}
+
+	/** Statistics for a single stage of the pipeline.
+	 *
+	 * @author Ben Culkin */
+	public static class Stage {
+		/** The name of the stage. */
+		public final String name;
+		/** The number of threads the stage uses. */
+		public final int threads;
+
+		/** The queue the stage takes items from. */
+		public final BlockingQueue<Item> queue;
+
+		/** The number of items this stage has processed. */
+		public final LongAdder items = new LongAdder();
+		/** The total time the stage's threads spent working, in nanoseconds. */
+		public final LongAdder busyNanos = new LongAdder();
+		/** The most items that have been waiting in the stage's queue. */
+		public final AtomicInteger maxDepth = new AtomicInteger();
+
+		/* Threads that haven't stopped yet. */
+		private final AtomicInteger running;
+
+		/* Create a new stage. */
+		Stage(String name, int threads, int queueDepth) {
+			this.name    = name;
+			this.threads = threads;
+
+			this.queue   = new ArrayBlockingQueue<>(queueDepth);
+			this.running = new AtomicInteger(threads);
+		}
+
+		/* Put an item into this stage's queue. */
+		void put(Item item) throws InterruptedException {
+			queue.put(item);
+
+			maxDepth.accumulateAndGet(queue.size(), Math::max);
+		}
+
+		/** Get the number of items this stage processes per second of work.
+		 *
+		 * @return The throughput of the stage. */
+		public double throughput() {
+			long busy = busyNanos.sum();
+			if (busy == 0) return 0;
+
+			return items.sum() / (busy / 1000000000.0) * threads;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(
+					"%s: %d thread(s), %,d items, %.2f seconds busy, %,.0f items/second, queue depth %d now/%d max",
+					name, threads, items.sum(), busyNanos.sum() / 1000000000.0,
+					throughput(), queue.size(), maxDepth.get());
+		}
+	}
+
+	/** The stages of this pipeline, in order. */
+	public final List<Stage> stages;
+
+	private final Stage readStage;
+	private final Stage parseStage;
+	private final Stage indexStage;
+	private final Stage outputStage;
+
+	private final ContentReader  reader;
+	private final AffixParser    parser;
+	private final Consumer<Item> indexer;
+	private final Consumer<Item> output;
+
+	private final PrintStream errOut;
+
+	/* Caps the number of items in flight. */
+	private final Semaphore inFlight;
+
+	private final List<Thread> threads;
+
+	private long nextSeq;
+
+	/** Create and start a new pipeline.
+	 *
+	 * @param reader Reads the contents of files.
+	 * @param parser Parses the contents of files.
+	 * @param indexer Handles each item, in order, once it is parsed.
+	 * @param output Handles each item, in order, once it is indexed.
+	 * @param readThreads The number of threads to read files with.
+	 * @param parseThreads The number of threads to parse files with.
+	 * @param queueDepth The size of the queue for each stage.
+	 * @param errOut The place to print stage failures to. */
+	public AffixPipeline(ContentReader reader, AffixParser parser,
+			Consumer<Item> indexer, Consumer<Item> output,
+			int readThreads, int parseThreads, int queueDepth, PrintStream errOut)
+	{
+		this.errOut  = errOut;
+
+		this.reader  = reader;
+		this.parser  = parser;
+		this.indexer = indexer;
+		this.output  = output;
+
+		readStage   = new Stage("read",   readThreads,  queueDepth);
+		parseStage  = new Stage("parse",  parseThreads, queueDepth);
+		indexStage  = new Stage("index",  1,            queueDepth);
+		outputStage = new Stage("output", 1,            queueDepth);
+
+		stages = Arrays.asList(readStage, parseStage, indexStage, outputStage);
+
+		inFlight = new Semaphore(queueDepth * stages.size());
+
+		threads = new ArrayList<>();
+
+		for (int i = 0; i < readThreads; i++) {
+			startThread(readStage, parseStage, this::readItem, "read-" + i);
+		}
+
+		for (int i = 0; i < parseThreads; i++) {
+			startThread(parseStage, indexStage, this::parseItem, "parse-" + i);
+		}
+
+		startThread(indexStage, outputStage, new Reorderer(), "index");
+		startThread(outputStage, null, this::outputItem, "output");
+	}
+
+	/** Submit the start of a file group.
+	 *
+	 * @param groupName The name of the group.
+	 *
+	 * @throws InterruptedException If interrupted while waiting for room. */
+	public void submitGroupStart(String groupName) throws InterruptedException {
+		submit(ItemKind.GROUP_START, groupName);
+	}
+
+	/** Submit a file to be loaded.
+	 *
+	 * @param fName The name of the file.
+	 *
+	 * @throws InterruptedException If interrupted while waiting for room. */
+	public void submitFile(String fName) throws InterruptedException {
+		submit(ItemKind.FILE, fName);
+	}
+
+	/** Submit the end of a file group.
+	 *
+	 * @param groupName The name of the group.
+	 *
+	 * @throws InterruptedException If interrupted while waiting for room. */
+	public void submitGroupEnd(String groupName) throws InterruptedException {
+		submit(ItemKind.GROUP_END, groupName);
+	}
+
+	private void submit(ItemKind kind, String name) throws InterruptedException {
+		inFlight.acquire();
+
+		readStage.put(new Item(nextSeq++, kind, name));
+	}
+
+	/** Mark that nothing else will be submitted, and wait for every item to
+	 * make it through the pipeline.
+	 *
+	 * @throws InterruptedException If interrupted while waiting. */
+	public void finish() throws InterruptedException {
+		stopStage(readStage);
+
+		for (Thread thread : threads) thread.join();
+	}
+
+	/* Run the thread for a stage. */
+	private void startThread(Stage stage, Stage next, Function<Item, Item> action, String name) {
+		Thread thread = new Thread(() -> {
+			try {
+				while (true) {
+					Item item = stage.queue.take();
+					if (item.kind == ItemKind.STOP) break;
+
+					long start = System.nanoTime();
+
+					Item res;
+					try {
+						res = action.apply(item);
+					} catch (Throwable thr) {
+						// Errors (like running out of stack) have to be caught too. If
+						// the item was dropped, the index stage would wait for it
+						// forever, and so would finish().
+						errOut.printf("Pipeline stage %s failed on %s\n", stage.name, item.name);
+						thr.printStackTrace(errOut);
+
+						if (item.error == null) item.error = thr;
+
+						res = item;
+					}
+
+					stage.busyNanos.add(System.nanoTime() - start);
+					stage.items.increment();
+
+					if (next != null && res != null) next.put(res);
+				}
+
+				// The last thread in a stage out stops the next stage.
+				if (stage.running.decrementAndGet() == 0 && next != null) stopStage(next);
+			} catch (InterruptedException iex) {
+				Thread.currentThread().interrupt();
+			}
+		}, "pipeline-" + name);
+
+		thread.setDaemon(true);
+		thread.start();
+
+		threads.add(thread);
+	}
+
+	private static void stopStage(Stage stage) throws InterruptedException {
+		for (int i = 0; i < stage.threads; i++) {
+			stage.queue.put(new Item(-1, ItemKind.STOP, null));
+		}
+	}
+
+	private Item readItem(Item item) {
+		if (item.kind != ItemKind.FILE) return item;
+
+		try {
+			item.data = reader.read(item.name);
+		} catch (Throwable thr) {
+			item.error = thr;
+		}
+
+		return item;
+	}
+
+	private Item parseItem(Item item) {
+		if (item.kind != ItemKind.FILE || item.error != null) return item;
+
+		try {
+			item.afx = parser.parse(item.name, item.data);
+		} catch (Throwable thr) {
+			item.error = thr;
+		}
+
+		item.data = null;
+
+		return item;
+	}
+
+	private Item outputItem(Item item) {
+		try {
+			output.accept(item);
+		} finally {
+			inFlight.release();
+		}
+
+		return null;
+	}
+
+	/* Puts items back into the order they were submitted in, and hands them to
+	 * the indexer. */
+	private class Reorderer implements Function<Item, Item> {
+		private final Map<Long, Item> waiting = new HashMap<>();
+
+		private long expected;
+
+		@Override
+		public Item apply(Item item) {
+			waiting.put(item.seq, item);
+
+			// Every item that is now in order gets indexed and passed on. The
+			// last of them is returned to be passed on normally.
+			Item res = null;
+			while (waiting.containsKey(expected)) {
+				if (res != null) handOff(res);
+
+				res = waiting.remove(expected++);
+
+				if (res.kind != ItemKind.FILE || res.error == null) {
+					try {
+						indexer.accept(res);
+					} catch (Throwable thr) {
+						res.error = thr;
+					}
+				}
+			}
+
+			return res;
+		}
+
+		private void handOff(Item item) {
+			try {
+				outputStage.put(item);
+			} catch (InterruptedException iex) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
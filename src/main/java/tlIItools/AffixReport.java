@@ -0,0 +1,554 @@
+package tlIItools;
+
+import java.io.*;
+
+import java.nio.file.*;
+
+import java.util.*;
+import java.util.Map.Entry;
+import java.util.concurrent.*;
+
+/** Writes the affix listing out as a set of linked HTML pages.
+ *
+ * Affixes are given to the report in the same order as they are listed, and
+ * are split into pages of a fixed size. Each page is written out as soon as
+ * it is full, by a pool of threads, so several pages can be written at once
+ * while the listing carries on. Only a few pages are kept waiting to be
+ * written, so the report doesn't need the whole listing in memory.
+ *
+ * Once every affix has been given, the affix groups are written out on pages
+ * of their own, followed by an index of every affix by name, and a contents
+ * page ('index.html') that links to every file group, page and affix group.
+ * Every affix, file group and affix group has an anchor of its own, so they
+ * can be linked to directly.
+ *
+ * @author Ben Culkin */
+public class AffixReport implements Closeable {
+	/** The default number of affixes on each page. */
+	public static final int DEFAULT_PAGE_SIZE = 250;
+
+	/* The style sheet that every page uses. */
+	private static final String STYLE = String.join("\n",
+			"body { font-family: sans-serif; margin: 1em 2em; }",
+			"nav { border-bottom: 1px solid #ccc; padding-bottom: 0.5em; }",
+			"nav a { margin-right: 1em; }",
+			"pre { tab-size: 2; -moz-tab-size: 2; margin: 0.25em 0 1em 0; }",
+			"h2 { border-bottom: 1px solid #ccc; }",
+			"h3 { font-size: 1em; margin-bottom: 0; }",
+			".note { font-style: italic; }",
+			"");
+
+	/* What an entry on a page is. */
+	private static enum Kind {
+		GROUP_START,
+		ZERO_NOTE,
+		AFFIX
+	}
+
+	/* Something to be shown on a page. */
+	private static class PageEntry {
+		public final Kind   kind;
+		public final String group;
+		public final Affix  afx;
+		public final String anchor;
+
+		public PageEntry(Kind kind, String group, Affix afx, String anchor) {
+			this.kind   = kind;
+			this.group  = group;
+			this.afx    = afx;
+			this.anchor = anchor;
+		}
+	}
+
+	/* Where an affix ended up in the report. */
+	private static class IndexEntry {
+		public final String name;
+		public final String href;
+
+		public IndexEntry(String name, String href) {
+			this.name = name;
+			this.href = href;
+		}
+	}
+
+	/* A page that hasn't been written yet. */
+	private static class Page {
+		public final int    number;
+		public final String continuedGroup;
+
+		public final List<PageEntry> entries = new ArrayList<>();
+
+		public String firstName;
+		public String lastName;
+		public int    affixCount;
+
+		public Page(int number, String continuedGroup) {
+			this.number         = number;
+			this.continuedGroup = continuedGroup;
+		}
+	}
+
+	/** The directory the report is written to. */
+	public final Path dir;
+
+	/** The number of affixes on each page. */
+	public int pageSize = DEFAULT_PAGE_SIZE;
+
+	/** Whether to only show the headers of affixes, without their effects. */
+	public boolean headersOnly;
+
+	private final RunContext ctx;
+
+	private final ExecutorService writers;
+	private final int             window;
+
+	/* The pages being written, oldest first. */
+	private final Deque<Future<?>> pending = new ArrayDeque<>();
+
+	/* The first thing that went wrong writing a page, if anything did. */
+	private IOException failure;
+
+	/* The page being filled, and the file group it is in. */
+	private Page   page;
+	private String currentGroup;
+
+	private int affixNo;
+	private int groupNo;
+
+	/* What the contents page needs to know about each page. */
+	private final List<String> pageSummaries = new ArrayList<>();
+
+	/* Where each file group starts. */
+	private final Map<String, String> groupLinks = new LinkedHashMap<>();
+
+	private final List<IndexEntry> index = new ArrayList<>();
+
+	/** Create a new report.
+	 *
+	 * @param ctx The run to write the report for.
+	 * @param dir The directory to write the report to, which is created if it
+	 *            doesn't exist.
+	 *
+	 * @throws IOException If the directory can't be created. */
+	public AffixReport(RunContext ctx, Path dir) throws IOException {
+		this.ctx = ctx;
+		this.dir = Files.createDirectories(dir);
+
+		int threads = Runtime.getRuntime().availableProcessors();
+
+		this.writers = Executors.newFixedThreadPool(threads, (run) -> {
+			Thread thread = new Thread(run, "report-writer");
+			thread.setDaemon(true);
+
+			return thread;
+		});
+
+		this.window = 2 * threads;
+	}
+
+	/** Note that a file group is starting.
+	 *
+	 * @param group The name of the file group. */
+	public void startGroup(String group) {
+		currentGroup = group;
+
+		// The same group can start more than once, if its files were found in bits.
+		String anchor = "file-group-" + (++groupNo);
+
+		PageEntry entry = new PageEntry(Kind.GROUP_START, group, null, anchor);
+		Page      onPage = add(entry);
+
+		groupLinks.putIfAbsent(group, pageName(onPage.number) + "#" + anchor);
+	}
+
+	/** Add an affix to the report.
+	 *
+	 * @param afx The affix to add. */
+	public void addAffix(Affix afx) {
+		addAffix(Kind.AFFIX, afx);
+	}
+
+	/** Add a note that an affix has zero spawn weight to the report.
+	 *
+	 * @param afx The affix with zero spawn weight. */
+	public void addZeroNote(Affix afx) {
+		addAffix(Kind.ZERO_NOTE, afx);
+	}
+
+	private void addAffix(Kind kind, Affix afx) {
+		String anchor = "affix-" + (++affixNo);
+		String name   = String.valueOf(afx.intName);
+
+		Page onPage = add(new PageEntry(kind, currentGroup, afx, anchor));
+
+		if (onPage.firstName == null) onPage.firstName = name;
+		onPage.lastName    = name;
+		onPage.affixCount += 1;
+
+		index.add(new IndexEntry(name, pageName(onPage.number) + "#" + anchor));
+	}
+
+	/* Add an entry to the current page, starting a new one if it is full. */
+	private Page add(PageEntry entry) {
+		if (page != null && page.affixCount >= pageSize) {
+			submit(page, pageName(page.number + 1));
+
+			page = null;
+		}
+
+		if (page == null) {
+			page = new Page(pageSummaries.size() + 1, entry.kind == Kind.GROUP_START ? null : currentGroup);
+
+			pageSummaries.add(null);
+		}
+
+		page.entries.add(entry);
+
+		return page;
+	}
+
+	/** Finish the report, writing out the affix groups, the index and the
+	 * contents page.
+	 *
+	 * This waits for every page to be written.
+	 *
+	 * @param groups The affix groups to write, with their affixes. Groups with
+	 *               only one affix aren't written.
+	 *
+	 * @throws IOException If something went wrong writing any of the report. */
+	public void finish(Map<AffixGroup, Set<Affix>> groups) throws IOException {
+		List<Entry<AffixGroup, Set<Affix>>> shownGroups = new ArrayList<>();
+		for (Entry<AffixGroup, Set<Affix>> ent : groups.entrySet()) {
+			if (ent.getValue().size() > 1) shownGroups.add(ent);
+		}
+
+		int groupPages = (shownGroups.size() + pageSize - 1) / pageSize;
+
+		if (page != null) {
+			submit(page, groupPages > 0 ? groupPageName(1) : null);
+
+			page = null;
+		}
+
+		Map<String, String> affixLinks = new HashMap<>();
+		for (IndexEntry entry : index) affixLinks.putIfAbsent(entry.name, entry.href);
+
+		List<String> groupSummaries = new ArrayList<>(groupPages);
+		for (int i = 0; i < groupPages; i++) {
+			int from = i * pageSize;
+			int to   = Math.min(from + pageSize, shownGroups.size());
+
+			List<Entry<AffixGroup, Set<Affix>>> onPage = shownGroups.subList(from, to);
+
+			String prev = i == 0 ? lastPageName() : groupPageName(i);
+			String next = i + 1 < groupPages ? groupPageName(i + 2) : null;
+
+			int pageNo = i + 1;
+			groupSummaries.add(String.format("%,d groups", onPage.size()));
+			submit(() -> writeGroupPage(pageNo, onPage, affixLinks, prev, next));
+		}
+
+		awaitAll();
+
+		index.sort(Comparator.comparing((entry) -> entry.name));
+		writeFile("affix-index.html", this::writeIndex);
+		writeFile("index.html", (out) -> writeContents(out, groupSummaries));
+
+		if (failure != null) throw failure;
+	}
+
+	/** Get the number of pages of affixes in the report.
+	 *
+	 * @return The number of pages. */
+	public int pageCount() {
+		return pageSummaries.size();
+	}
+
+	/* Hand a full page over to be written. */
+	private void submit(Page full, String next) {
+		String prev = full.number > 1 ? pageName(full.number - 1) : null;
+
+		String summary = String.format("%,d affixes", full.affixCount);
+		if (full.firstName != null) {
+			summary = String.format("%s to %s (%s)", full.firstName, full.lastName, summary);
+		}
+
+		pageSummaries.set(full.number - 1, summary);
+
+		submit(() -> writePage(full, prev, next));
+	}
+
+	/* Hand something over to be written, waiting if too much is waiting already. */
+	private void submit(Callable<Void> task) {
+		while (pending.size() >= window) await(pending.poll());
+
+		pending.add(writers.submit(task));
+	}
+
+	private void awaitAll() {
+		while (!pending.isEmpty()) await(pending.poll());
+	}
+
+	private void await(Future<?> task) {
+		try {
+			task.get();
+		} catch (ExecutionException eex) {
+			Throwable cause = eex.getCause();
+
+			if (failure != null) return;
+
+			if      (cause instanceof IOException)          failure = (IOException) cause;
+			else if (cause instanceof UncheckedIOException) failure = ((UncheckedIOException) cause).getCause();
+			else                                            failure = new IOException(cause);
+		} catch (InterruptedException iex) {
+			Thread.currentThread().interrupt();
+
+			if (failure == null) failure = new InterruptedIOException("Interrupted while writing report");
+		}
+	}
+
+	/* Write out a page of affixes. */
+	private Void writePage(Page full, String prev, String next) throws IOException {
+		writeFile(pageName(full.number), (out) -> {
+			startPage(out, "Affixes, page " + full.number, prev, next);
+
+			if (full.continuedGroup != null) {
+				out.append("<p class=\"note\">File group '").append(escape(full.continuedGroup))
+					.append("', continued</p>\n");
+			}
+
+			StringBuilder sb = new StringBuilder();
+			for (PageEntry entry : full.entries) {
+				switch (entry.kind) {
+				case GROUP_START:
+					out.append("<h2 id=\"").append(entry.anchor).append("\">File group '")
+						.append(escape(entry.group)).append("'</h2>\n");
+					break;
+				case ZERO_NOTE:
+					out.append("<p class=\"note\" id=\"").append(entry.anchor).append("\">Affix ")
+						.append(escape(String.valueOf(entry.afx.intName)))
+						.append(" has zero spawn weight</p>\n");
+					break;
+				case AFFIX:
+					sb.setLength(0);
+
+					AffixWriter text = AffixWriter.forBuilder(ctx, sb);
+					if (headersOnly) text.writeAffixHeader(entry.afx);
+					else             text.writeLongAffix(entry.afx);
+					text.flush();
+
+					out.append("<section id=\"").append(entry.anchor).append("\">\n<h3>")
+						.append(escape(String.valueOf(entry.afx.intName))).append("</h3>\n<pre>")
+						.append(escape(sb.toString())).append("</pre>\n</section>\n");
+					break;
+				default:
+					break;
+				}
+			}
+
+			endPage(out, prev, next);
+		});
+
+		return null;
+	}
+
+	/* Write out a page of affix groups. */
+	private Void writeGroupPage(int number, List<Entry<AffixGroup, Set<Affix>>> groups,
+			Map<String, String> affixLinks, String prev, String next) throws IOException
+	{
+		writeFile(groupPageName(number), (out) -> {
+			startPage(out, "Affix groups, page " + number, prev, next);
+
+			StringBuilder sb = new StringBuilder();
+			for (Entry<AffixGroup, Set<Affix>> ent : groups) {
+				String id = String.format("%016x", ent.getKey().contentFingerprint());
+
+				sb.setLength(0);
+
+				AffixWriter text = AffixWriter.forBuilder(ctx, sb);
+				text.writeGroupSummary(ent.getKey());
+				text.flush();
+
+				out.append("<section id=\"affix-group-").append(id).append("\">\n<h2>Group ")
+					.append(id).append(" (").append(Integer.toString(ent.getValue().size()))
+					.append(" affixes)</h2>\n<pre>").append(escape(sb.toString())).append("</pre>\n<ul>\n");
+
+				for (Affix afx : ent.getValue()) {
+					String name = String.valueOf(afx.intName);
+					String href = affixLinks.get(name);
+
+					out.append("<li>");
+					if (href == null) out.append(escape(name));
+					else              out.append("<a href=\"").append(href).append("\">").append(escape(name)).append("</a>");
+					out.append("</li>\n");
+				}
+
+				out.append("</ul>\n</section>\n");
+			}
+
+			endPage(out, prev, next);
+		});
+
+		return null;
+	}
+
+	/* Write out the index of every affix by name. */
+	private void writeIndex(Writer out) throws IOException {
+		startPage(out, "Affix index", null, null);
+
+		char lastLetter = 0;
+		for (IndexEntry entry : index) {
+			char letter = entry.name.isEmpty() ? ' ' : Character.toUpperCase(entry.name.charAt(0));
+
+			if (letter != lastLetter) {
+				if (lastLetter != 0) out.append("</ul>\n");
+
+				out.append("<h2>").append(escape(String.valueOf(letter))).append("</h2>\n<ul>\n");
+
+				lastLetter = letter;
+			}
+
+			out.append("<li><a href=\"").append(entry.href).append("\">").append(escape(entry.name))
+				.append("</a></li>\n");
+		}
+
+		if (lastLetter != 0) out.append("</ul>\n");
+
+		endPage(out, null, null);
+	}
+
+	/* Write out the contents page. */
+	private void writeContents(Writer out, List<String> groupSummaries) throws IOException {
+		startPage(out, "Affixes", null, null);
+
+		out.append(String.format("<p>%,d affixes on %,d pages. <a href=\"affix-index.html\">Index of affixes by name</a></p>\n",
+				index.size(), pageSummaries.size()));
+
+		out.append("<h2>File groups</h2>\n<ul>\n");
+		for (Entry<String, String> ent : groupLinks.entrySet()) {
+			out.append("<li><a href=\"").append(ent.getValue()).append("\">").append(escape(ent.getKey()))
+				.append("</a></li>\n");
+		}
+		out.append("</ul>\n");
+
+		out.append("<h2>Pages</h2>\n<ol>\n");
+		for (int i = 0; i < pageSummaries.size(); i++) {
+			out.append("<li><a href=\"").append(pageName(i + 1)).append("\">")
+				.append(escape(String.valueOf(pageSummaries.get(i)))).append("</a></li>\n");
+		}
+		out.append("</ol>\n");
+
+		if (!groupSummaries.isEmpty()) {
+			out.append("<h2>Affix groups</h2>\n<ol>\n");
+			for (int i = 0; i < groupSummaries.size(); i++) {
+				out.append("<li><a href=\"").append(groupPageName(i + 1)).append("\">")
+					.append(escape(groupSummaries.get(i))).append("</a></li>\n");
+			}
+			out.append("</ol>\n");
+		}
+
+		endPage(out, null, null);
+	}
+
+	private static void startPage(Writer out, String title, String prev, String next)
+			throws IOException
+	{
+		out.append("<!DOCTYPE html>\n<html>\n<head>\n<meta charset=\"utf-8\">\n<title>")
+			.append(escape(title)).append("</title>\n<style>\n").append(STYLE)
+			.append("</style>\n</head>\n<body>\n");
+
+		writeNav(out, prev, next);
+
+		out.append("<h1>").append(escape(title)).append("</h1>\n");
+	}
+
+	private static void endPage(Writer out, String prev, String next) throws IOException {
+		writeNav(out, prev, next);
+
+		out.append("</body>\n</html>\n");
+	}
+
+	private static void writeNav(Writer out, String prev, String next) throws IOException {
+		out.append("<nav><a href=\"index.html\">Contents</a><a href=\"affix-index.html\">Index</a>");
+
+		if (prev != null) out.append("<a href=\"").append(prev).append("\">Previous</a>");
+		if (next != null) out.append("<a href=\"").append(next).append("\">Next</a>");
+
+		out.append("</nav>\n");
+	}
+
+	/* Something that writes out the contents of a file. */
+	@FunctionalInterface
+	private static interface FileContents {
+		void write(Writer out) throws IOException;
+	}
+
+	private void writeFile(String name, FileContents contents) throws IOException {
+		try (Writer out = Files.newBufferedWriter(dir.resolve(name))) {
+			contents.write(out);
+		}
+	}
+
+	private String lastPageName() {
+		if (pageSummaries.isEmpty()) return null;
+
+		return pageName(pageSummaries.size());
+	}
+
+	private static String pageName(int number) {
+		return String.format("page-%04d.html", number);
+	}
+
+	private static String groupPageName(int number) {
+		return String.format("groups-%04d.html", number);
+	}
+
+	/* Escape the characters that mean something in HTML. */
+	private static String escape(String str) {
+		StringBuilder sb = null;
+
+		for (int i = 0; i < str.length(); i++) {
+			char ch = str.charAt(i);
+
+			String repl;
+			switch (ch) {
+			case '&':
+				repl = "&amp;";
+				break;
+			case '<':
+				repl = "&lt;";
+				break;
+			case '>':
+				repl = "&gt;";
+				break;
+			case '"':
+				repl = "&quot;";
+				break;
+			default:
+				if (sb != null) sb.append(ch);
+				continue;
+			}
+
+			// Only copy the string if something in it needs escaping.
+			if (sb == null) {
+				sb = new StringBuilder(str.length() + 16);
+				sb.append(str, 0, i);
+			}
+
+			sb.append(repl);
+		}
+
+		if (sb == null) return str;
+
+		return sb.toString();
+	}
+
+	/** Stop the threads writing the report.
+	 *
+	 * Any pages that haven't been written yet are abandoned; use
+	 * {@link #finish(Map)} first to wait for them. */
+	@Override
+	public void close() {
+		writers.shutdownNow();
+	}
+}
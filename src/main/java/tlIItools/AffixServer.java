@@ -0,0 +1,576 @@
+package tlIItools;
+
+import java.io.*;
+
+import java.lang.reflect.*;
+
+import java.net.*;
+
+import java.nio.charset.StandardCharsets;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import com.sun.net.httpserver.*;
+
+/** A local HTTP server that answers queries about a loaded set of affixes.
+ *
+ * The affixes are loaded once, when the server starts, and kept in memory.
+ * Queries are read-only, and can run at the same time. Reloading builds a whole
+ * new {@link Corpus}, and then swaps it in at once, so queries never see a
+ * half-loaded set of affixes.
+ *
+ * All responses are JSON. The endpoints are:
+ * <dl>
+ * <dt>GET /status</dt><dd>Counts and load times for the current snapshot.</dd>
+ * <dt>GET /affix?name=NAME</dt><dd>The full details of every affix with that
+ * internal name.</dd>
+ * <dt>GET /affixes?q=TEXT&amp;type=TYPE&amp;group=GROUP&amp;offset=N&amp;limit=N</dt>
+ * <dd>Summaries of the affixes whose name, prefix or suffix contains TEXT.</dd>
+ * <dt>GET /search?q=TEXT&amp;mode=prefix|substring|phrase&amp;limit=N</dt>
+ * <dd>The affixes whose name, prefix, suffix or effects best match TEXT, with
+ * their scores.</dd>
+ * <dt>GET /groups?offset=N&amp;limit=N</dt><dd>The affix groups.</dd>
+ * <dt>GET /file-groups</dt><dd>The number of affixes in each file group.</dd>
+ * <dt>GET /effects?name=NAME or ?type=TYPE</dt><dd>The affixes that use effects
+ * with that name or type.</dd>
+ * <dt>POST /reload</dt><dd>Load the affixes again.</dd>
+ * </dl>
+ *
+ * @author Ben Culkin */
+public class AffixServer {
+	/** The default port to listen on. */
+	public static final int DEFAULT_PORT = 8741;
+
+	/* The most results a single query can return. */
+	private static final int MAX_LIMIT = 10000;
+
+	/** The run the server loads and describes affixes for. */
+	public final RunContext ctx;
+
+	/* The arguments that say which files to load. */
+	private final List<String> sourceArgs;
+
+	private final AtomicReference<Corpus> snapshot;
+	private final AtomicLong              generation;
+
+	/* Only one reload happens at a time. */
+	private final Object reloadLock = new Object();
+
+	private HttpServer      server;
+	private ExecutorService executor;
+
+	/** Create a new affix server.
+	 *
+	 * @param ctx The run to load and describe affixes for.
+	 * @param sourceArgs The arguments that say which files to load. These are
+	 * the file names, along with any of -r, -g, --guess-groups and
+	 * --guess-regex. */
+	public AffixServer(RunContext ctx, List<String> sourceArgs) {
+		this.ctx        = ctx;
+		this.sourceArgs = new ArrayList<>(sourceArgs);
+
+		this.snapshot   = new AtomicReference<>();
+		this.generation = new AtomicLong();
+	}
+
+	/** Get the current snapshot of the affixes.
+	 *
+	 * @return The current snapshot, or null if nothing has been loaded yet. */
+	public Corpus snapshot() {
+		return snapshot.get();
+	}
+
+	/** Load the affixes again, and swap the new snapshot in.
+	 *
+	 * Queries keep using the old snapshot until the new one is done loading.
+	 *
+	 * @return The new snapshot. */
+	public Corpus reload() {
+		synchronized (reloadLock) {
+			try (NameFileReader nfr = NameFileReader.fromArgs(sourceArgs, ctx.errOut)) {
+				Corpus corpus = Corpus.load(ctx, nfr, generation.incrementAndGet());
+
+				snapshot.set(corpus);
+
+				return corpus;
+			}
+		}
+	}
+
+	/** Start serving requests.
+	 *
+	 * @param addr The address to listen on.
+	 * @param threads The number of threads to handle requests with, if virtual
+	 * threads aren't available.
+	 *
+	 * @throws IOException If the server can't be started. */
+	public void start(InetSocketAddress addr, int threads) throws IOException {
+		executor = newExecutor(threads);
+
+		server = HttpServer.create(addr, 0);
+		server.setExecutor(executor);
+
+		route("/status",      "GET",  this::handleStatus);
+		route("/affix",       "GET",  this::handleAffix);
+		route("/affixes",     "GET",  this::handleAffixes);
+		route("/search",      "GET",  this::handleSearch);
+		route("/groups",      "GET",  this::handleGroups);
+		route("/file-groups", "GET",  this::handleFileGroups);
+		route("/effects",     "GET",  this::handleEffects);
+		route("/reload",      "POST", this::handleReload);
+
+		server.start();
+	}
+
+	/** Stop serving requests.
+	 *
+	 * @param delay The most seconds to wait for requests in progress. */
+	public void stop(int delay) {
+		if (server != null)   server.stop(delay);
+		if (executor != null) executor.shutdown();
+	}
+
+	/* Use virtual threads if this JVM has them, or a fixed pool if not. */
+	private static ExecutorService newExecutor(int threads) {
+		try {
+			Method virtualExecutor = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+
+			return (ExecutorService) virtualExecutor.invoke(null);
+		} catch (ReflectiveOperationException roex) {
+			AtomicInteger threadNo = new AtomicInteger();
+
+			return Executors.newFixedThreadPool(threads, (run) -> {
+				Thread thread = new Thread(run, "affix-server-" + threadNo.incrementAndGet());
+				thread.setDaemon(true);
+
+				return thread;
+			});
+		}
+	}
+
+	/* Handles a request, writing JSON to the response. */
+	@FunctionalInterface
+	private interface Handler {
+		void handle(Corpus corpus, Map<String, String> params, Response res)
+				throws IOException;
+	}
+
+	/* The response to a single request. The status code has to be sent before
+	 * any of the body, so handlers check the request before starting it. */
+	private static final class Response {
+		private final HttpExchange exchange;
+
+		private JsonWriter writer;
+
+		Response(HttpExchange exchange) {
+			this.exchange = exchange;
+		}
+
+		/* Send the headers, and get the writer for the body. */
+		JsonWriter start(int status) throws IOException {
+			exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+			exchange.sendResponseHeaders(status, 0);
+
+			OutputStream body = exchange.getResponseBody();
+			writer = new JsonWriter(new BufferedWriter(
+						new OutputStreamWriter(body, StandardCharsets.UTF_8), 8192));
+
+			return writer;
+		}
+	}
+
+	private void route(String path, String method, Handler handler) {
+		server.createContext(path, (exchange) -> {
+			Response res = new Response(exchange);
+
+			try {
+				if (!exchange.getRequestURI().getPath().equals(path)) {
+					error(res, 404, "No such endpoint");
+				} else if (!exchange.getRequestMethod().equalsIgnoreCase(method)) {
+					exchange.getResponseHeaders().set("Allow", method);
+					error(res, 405, "Use " + method + " for " + path);
+				} else {
+					Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+
+					Corpus corpus = path.equals("/reload") ? null : snapshot.get();
+					handler.handle(corpus, params, res);
+				}
+			} catch (IllegalArgumentException iaex) {
+				if (res.writer == null) error(res, 400, iaex.getMessage());
+			} catch (RuntimeException | IOException ex) {
+				synchronized (ctx.errOut) {
+					ctx.errOut.printf("Error handling request for %s\n", exchange.getRequestURI());
+					ex.printStackTrace(ctx.errOut);
+				}
+
+				if (res.writer == null) error(res, 500, String.valueOf(ex.getMessage()));
+			} finally {
+				if (res.writer != null) res.writer.flush();
+
+				exchange.close();
+			}
+		});
+	}
+
+	private static void error(Response res, int status, String message) throws IOException {
+		JsonWriter out = res.start(status);
+
+		out.beginObject().field("error", message).endObject();
+	}
+
+	private static Map<String, String> parseQuery(String query) {
+		Map<String, String> params = new HashMap<>();
+		if (query == null || query.isEmpty()) return params;
+
+		for (String param : query.split("&")) {
+			int eqIdx = param.indexOf('=');
+
+			String key = eqIdx < 0 ? param : param.substring(0, eqIdx);
+			String val = eqIdx < 0 ? ""    : param.substring(eqIdx + 1);
+
+			params.put(URLDecoder.decode(key, StandardCharsets.UTF_8),
+					URLDecoder.decode(val, StandardCharsets.UTF_8));
+		}
+
+		return params;
+	}
+
+	private static int intParam(Map<String, String> params, String name, int def) {
+		String val = params.get(name);
+		if (val == null || val.isEmpty()) return def;
+
+		try {
+			int res = Integer.parseInt(val);
+			if (res < 0) throw new IllegalArgumentException(name + " must not be negative");
+
+			return res;
+		} catch (NumberFormatException nfex) {
+			throw new IllegalArgumentException("Invalid number for " + name + ": " + val);
+		}
+	}
+
+	private void handleStatus(Corpus corpus, Map<String, String> params, Response res)
+			throws IOException
+	{
+		JsonWriter out = res.start(200);
+
+		out.beginObject();
+		writeStatus(out, corpus);
+		out.endObject();
+	}
+
+	private static void writeStatus(JsonWriter out, Corpus corpus) {
+		out.field("generation",  corpus.generation);
+		out.field("loadedAt",    corpus.loadedAt);
+		out.field("loadMillis",  corpus.loadNanos / 1000000);
+		out.field("files",       corpus.fileCount);
+		out.field("affixes",     corpus.affixes.size());
+		out.field("effects",     corpus.effectCount);
+		out.field("affixGroups", corpus.affixSet.affixGroups.size());
+		out.field("fileGroups",  corpus.byFileGroup.size());
+	}
+
+	private void handleAffix(Corpus corpus, Map<String, String> params, Response res)
+			throws IOException
+	{
+		String name = params.get("name");
+		if (name == null || name.isEmpty()) throw new IllegalArgumentException("name is required");
+
+		List<Affix> affixes = corpus.named(name);
+
+		JsonWriter out = res.start(affixes.isEmpty() ? 404 : 200);
+
+		out.beginObject();
+		out.field("name", name);
+
+		out.name("affixes").beginArray();
+		for (Affix afx : affixes) writeAffix(out, afx);
+		out.endArray();
+
+		out.endObject();
+	}
+
+	private void handleAffixes(Corpus corpus, Map<String, String> params, Response res)
+			throws IOException
+	{
+		String text  = params.getOrDefault("q", "").toUpperCase();
+		String type  = params.get("type");
+		String group = params.get("group");
+
+		int offset = intParam(params, "offset", 0);
+		int limit  = Math.min(intParam(params, "limit", 100), MAX_LIMIT);
+
+		List<Affix> source = corpus.affixes;
+		if (group != null) source = corpus.byFileGroup.getOrDefault(group, Collections.emptyList());
+
+		List<Affix> matches = new ArrayList<>();
+		for (Affix afx : source) {
+			if (type != null && !afx.type.name().equalsIgnoreCase(type)) continue;
+
+			if (!text.isEmpty() && !contains(afx.intName, text)
+					&& !contains(afx.affixPrefix, text) && !contains(afx.affixSuffix, text)) {
+				continue;
+			}
+
+			matches.add(afx);
+		}
+
+		JsonWriter out = res.start(200);
+
+		out.beginObject();
+		out.field("total", matches.size());
+
+		out.name("affixes").beginArray();
+		for (int i = offset; i < matches.size() && i < offset + limit; i++) {
+			writeAffixSummary(out, matches.get(i));
+		}
+		out.endArray();
+
+		out.endObject();
+	}
+
+	private void handleSearch(Corpus corpus, Map<String, String> params, Response res)
+			throws IOException
+	{
+		String text = params.get("q");
+		if (text == null || text.isEmpty()) throw new IllegalArgumentException("q is required");
+
+		String modeName = params.getOrDefault("mode", "prefix");
+
+		SearchIndex.Mode mode;
+		try {
+			mode = SearchIndex.Mode.valueOf(modeName.toUpperCase());
+		} catch (IllegalArgumentException iaex) {
+			throw new IllegalArgumentException("Unknown search mode " + modeName);
+		}
+
+		int limit = Math.min(intParam(params, "limit", 20), MAX_LIMIT);
+
+		long startTime = System.nanoTime();
+
+		SearchIndex.Results results = corpus.search.search(text, mode, limit);
+
+		long tookMicros = (System.nanoTime() - startTime) / 1000;
+
+		JsonWriter out = res.start(200);
+
+		out.beginObject();
+		out.field("total",      results.total);
+		out.field("tookMicros", tookMicros);
+
+		out.name("hits").beginArray();
+		for (SearchIndex.Hit hit : results.hits) {
+			out.beginObject();
+			out.field("score", hit.score);
+			writeAffixHeader(out, corpus.affixes.get(hit.doc));
+			out.endObject();
+		}
+		out.endArray();
+
+		out.endObject();
+	}
+
+	private static boolean contains(String str, String upperText) {
+		return str != null && str.toUpperCase().contains(upperText);
+	}
+
+	private void handleGroups(Corpus corpus, Map<String, String> params, Response res)
+			throws IOException
+	{
+		int offset = intParam(params, "offset", 0);
+		int limit  = Math.min(intParam(params, "limit", 100), MAX_LIMIT);
+
+		JsonWriter out = res.start(200);
+
+		out.beginObject();
+		out.field("total", corpus.affixSet.affixGroups.size());
+
+		out.name("groups").beginArray();
+
+		int idx = 0;
+		for (Map.Entry<AffixGroup, Set<Affix>> entry : corpus.affixSet.affixGroups.entrySet()) {
+			if (idx++ < offset)          continue;
+			if (idx > offset + limit)    break;
+
+			AffixGroup group = entry.getKey();
+
+			List<String> names = new ArrayList<>(entry.getValue().size());
+			for (Affix afx : entry.getValue()) names.add(afx.intName);
+			Collections.sort(names, Comparator.nullsFirst(Comparator.naturalOrder()));
+
+			out.beginObject();
+			out.field("id",      Long.toHexString(group.fingerprint()));
+			out.field("type",    String.valueOf(group.type));
+			out.field("summary", group.groupSummary());
+			out.field("affixes", names);
+			out.endObject();
+		}
+
+		out.endArray();
+		out.endObject();
+	}
+
+	private void handleFileGroups(Corpus corpus, Map<String, String> params, Response res)
+			throws IOException
+	{
+		JsonWriter out = res.start(200);
+
+		out.beginObject();
+		for (Map.Entry<String, List<Affix>> entry : corpus.byFileGroup.entrySet()) {
+			out.field(entry.getKey(), entry.getValue().size());
+		}
+		out.endObject();
+	}
+
+	private void handleEffects(Corpus corpus, Map<String, String> params, Response res)
+			throws IOException
+	{
+		String name = params.get("name");
+		String type = params.get("type");
+
+		Collection<EffectIndex.Use> uses;
+		if (name != null && !name.isEmpty())      uses = corpus.effectIndex.named(name);
+		else if (type != null && !type.isEmpty()) uses = corpus.effectIndex.ofType(type);
+		else throw new IllegalArgumentException("name or type is required");
+
+		int offset = intParam(params, "offset", 0);
+		int limit  = Math.min(intParam(params, "limit", 100), MAX_LIMIT);
+
+		JsonWriter out = res.start(uses.isEmpty() ? 404 : 200);
+
+		out.beginObject();
+		out.field("total", uses.size());
+
+		out.name("uses").beginArray();
+
+		int idx = 0;
+		for (EffectIndex.Use use : uses) {
+			if (idx++ < offset)       continue;
+			if (idx > offset + limit) break;
+
+			EffectIndex.writeUse(ctx, out, use);
+		}
+
+		out.endArray();
+		out.endObject();
+	}
+
+	private void handleReload(Corpus corpus, Map<String, String> params, Response res)
+			throws IOException
+	{
+		Corpus fresh = reload();
+
+		JsonWriter out = res.start(200);
+
+		out.beginObject();
+		writeStatus(out, fresh);
+		out.endObject();
+	}
+
+	private static void writeAffixSummary(JsonWriter out, Affix afx) {
+		out.beginObject();
+		writeAffixHeader(out, afx);
+		out.endObject();
+	}
+
+	private static void writeAffixHeader(JsonWriter out, Affix afx) {
+		out.field("name",     afx.intName);
+		out.field("type",     String.valueOf(afx.type));
+		out.field("prefix",   afx.affixPrefix);
+		out.field("suffix",   afx.affixSuffix);
+		out.field("minLevel", afx.spawnRange.minLevel);
+		out.field("maxLevel", afx.spawnRange.maxLevel);
+		out.field("weight",   afx.weight);
+		out.field("slots",    afx.slots);
+	}
+
+	private void writeAffix(JsonWriter out, Affix afx) {
+		out.beginObject();
+
+		writeAffixHeader(out, afx);
+
+		out.field("equipTypes",      afx.equipTypes);
+		out.field("nonequipTypes",   afx.nonequipTypes);
+		out.field("socketableTypes", afx.socketableTypes);
+		out.field("enchantSources",  afx.enchantSources);
+
+		out.name("effects").beginArray();
+		for (Effect eft : afx.effects) {
+			out.beginObject();
+			out.field("type",        eft.group.type);
+			out.field("name",        eft.group.name);
+			out.field("damageType",  eft.group.damageType);
+			out.field("min",         eft.minValue);
+			out.field("max",         eft.maxValue);
+			out.field("duration",    eft.duration);
+			out.field("level",       eft.level);
+			out.field("description", eft.describe(ctx));
+			out.endObject();
+		}
+		out.endArray();
+
+		out.field("details", afx.toLongString(ctx));
+
+		out.endObject();
+	}
+
+	/** Main method.
+	 *
+	 * @param args The options for the server, followed by the files to load. */
+	public static void main(String[] args) {
+		RunContext ctx = new RunContext();
+
+		String bindAddr = "127.0.0.1";
+		int    port     = DEFAULT_PORT;
+		int    threads  = Runtime.getRuntime().availableProcessors();
+
+		List<String> sourceArgs = new ArrayList<>();
+
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+
+			try {
+				switch (arg) {
+				case "--port":
+					port = Integer.parseInt(args[++i]);
+					break;
+				case "--bind":
+					bindAddr = args[++i];
+					break;
+				case "--threads":
+					threads = Integer.parseInt(args[++i]);
+					break;
+				default:
+					sourceArgs.add(arg);
+					if (NameFileReader.takesValue(arg)) sourceArgs.add(args[++i]);
+				}
+			} catch (ArrayIndexOutOfBoundsException aioobex) {
+				ctx.errOut.printf("ERROR: %s argument requires a value to be specified\n", arg);
+				return;
+			} catch (NumberFormatException nfex) {
+				ctx.errOut.printf("ERROR: Invalid number %s for %s\n", args[i], arg);
+				return;
+			}
+		}
+
+		AffixServer affixServer = new AffixServer(ctx, sourceArgs);
+
+		Corpus corpus = affixServer.reload();
+		ctx.errOut.printf("Loaded %,d affixes from %,d files in %.2f seconds\n",
+				corpus.affixes.size(), corpus.fileCount, corpus.loadNanos / 1000000000.0);
+
+		try {
+			affixServer.start(new InetSocketAddress(bindAddr, port), threads);
+		} catch (IOException ioex) {
+			ctx.errOut.printf("ERROR: Couldn't start server on %s:%d\n", bindAddr, port);
+			ioex.printStackTrace(ctx.errOut);
+			return;
+		}
+
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> affixServer.stop(1)));
+
+		ctx.errOut.printf("Serving affixes on http://%s:%d/\n", bindAddr, port);
+	}
+}
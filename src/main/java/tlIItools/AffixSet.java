@@ -3,52 +3,255 @@ package tlIItools;
 import java.util.*;
 
 /** Container of a set of affixes.
+ *
+ * Affixes can be added, removed and replaced one at a time, and looked up by
+ * their internal name, the file they came from or the affix group they are in.
+ * All of the indexes are kept up to date by every change, and every change
+ * takes at most logarithmic time. Affixes are kept ordered by spawn range, then
+ * by name and file, so the order they are listed in doesn't change from run to
+ * run.
  *
  * @author Ben Culkin */
 public class AffixSet {
-	private static class AffixComparator implements Comparator<Affix> {
+	/* Orders affixes by spawn range, and then by whatever else it takes to tell
+	 * different affixes apart. */
+	private class AffixComparator implements Comparator<Affix> {
 		@Override
 		public int compare(Affix a1, Affix a2) {
-			return a1.spawnRange.compareTo(a2.spawnRange);
+			if (a1 == a2) return 0;
+
+			int res = a1.spawnRange.compareTo(a2.spawnRange);
+			if (res != 0) return res;
+
+			res = Objects.compare(a1.intName, a2.intName, NULLS_FIRST);
+			if (res != 0) return res;
+
+			res = Objects.compare(a1.fileName(), a2.fileName(), NULLS_FIRST);
+			if (res != 0) return res;
+
+			// Affixes that look the same go in the order they were added.
+			return Long.compare(members.get(a1).seq, members.get(a2).seq);
 		}
 	}
 
+	/* What is known about an affix that is in the set. */
+	private static class Member {
+		public final long       seq;
+		public final AffixGroup group;
+
+		public Member(long seq, AffixGroup group) {
+			this.seq   = seq;
+			this.group = group;
+		}
+	}
+
+	private static final Comparator<String> NULLS_FIRST
+		= Comparator.nullsFirst(Comparator.naturalOrder());
+
 	/** All of the affix groups contained in this set.
 	 *
 	 * An affix group is a set of affixes that generally have the same or
-	 * similar effects, but have different intensities or spawn levels. */
-	public Map<AffixGroup, Set<Affix>> affixGroups;
+	 * similar effects, but have different intensities or spawn levels.
+	 *
+	 * This should only be changed through the methods of this class, so that
+	 * the other indexes stay in step with it. */
+	public final Map<AffixGroup, Set<Affix>> affixGroups;
 
-	/** All of the ungrouped affixes contained in this set. */
-	public Set<Affix> ungroupedAffixes;
+	/** All of the ungrouped affixes contained in this set.
+	 *
+	 * This should only be changed through the methods of this class, so that
+	 * the other indexes stay in step with it. */
+	public final Set<Affix> ungroupedAffixes;
+
+	/* The order affixes are kept in, in the ungrouped set and each group. */
+	private final Comparator<Affix> order;
+
+	/* Every affix in the set. Affixes are compared by identity. */
+	private final Map<Affix, Member> members;
+
+	private final Map<String, Set<Affix>> byName;
+	private final Map<String, Set<Affix>> byFile;
+
+	private long nextSeq;
 
 	/** Create a new blank affix set. */
 	public AffixSet() {
 		affixGroups = new TreeMap<>();
 
-		ungroupedAffixes = new TreeSet<>(new AffixComparator());
+		order = new AffixComparator();
+
+		ungroupedAffixes = new TreeSet<>(order);
+
+		members = new IdentityHashMap<>();
+
+		byName = new HashMap<>();
+		byFile = new HashMap<>();
 	}
 
 	/** Add an affix to this set.
-	 * 
+	 *
+	 * This is the same as {@link #addAffix(Affix)}.
+	 *
 	 * @param afx The affix to add. */
 	public void addAffixByContents(Affix afx) {
+		addAffix(afx);
+	}
+
+	/** Add an affix to this set.
+	 *
+	 * @param afx The affix to add.
+	 *
+	 * @return Whether the affix was added; false if it was already in the set. */
+	public boolean addAffix(Affix afx) {
+		if (members.containsKey(afx)) return false;
+
 		AffixGroup group = afx.toAffixGroup();
-		String afxGroup = group.toString();
+		if (group.toString().equals("")) group = null;
+
+		members.put(afx, new Member(nextSeq++, group));
 
-		if (afxGroup.equals("")) {
+		if (group == null) {
 			ungroupedAffixes.add(afx);
 		} else {
-			affixGroups.compute(group, (key, val) -> {
-				if (val == null) {
-					Set<Affix> afxSet = new HashSet<>();
-					afxSet.add(afx);
-					return afxSet;
-				} else {
-					val.add(afx);
-					return val;
-				}
-			});
+			affixGroups.computeIfAbsent(group, (key) -> new TreeSet<>(order)).add(afx);
+		}
+
+		index(byName, nameKey(afx.intName), afx);
+		index(byFile, afx.fileName(), afx);
+
+		return true;
+	}
+
+	/** Remove an affix from this set.
+	 *
+	 * @param afx The affix to remove.
+	 *
+	 * @return Whether the affix was in this set. */
+	public boolean removeAffix(Affix afx) {
+		Member member = members.get(afx);
+		if (member == null) return false;
+
+		// The comparator needs the member, so this has to come before it is gone.
+		if (member.group == null) {
+			ungroupedAffixes.remove(afx);
+		} else {
+			Set<Affix> groupMembers = affixGroups.get(member.group);
+
+			groupMembers.remove(afx);
+			if (groupMembers.isEmpty()) affixGroups.remove(member.group);
 		}
+
+		members.remove(afx);
+
+		unindex(byName, nameKey(afx.intName), afx);
+		unindex(byFile, afx.fileName(), afx);
+
+		return true;
+	}
+
+	/** Replace one affix in this set with another.
+	 *
+	 * The new affix is added even if the old one wasn't in the set.
+	 *
+	 * @param oldAfx The affix to remove.
+	 * @param newAfx The affix to add in its place.
+	 *
+	 * @return Whether the old affix was in this set. */
+	public boolean replaceAffix(Affix oldAfx, Affix newAfx) {
+		boolean removed = removeAffix(oldAfx);
+
+		addAffix(newAfx);
+
+		return removed;
+	}
+
+	/** Check if an affix is in this set.
+	 *
+	 * @param afx The affix to look for.
+	 *
+	 * @return Whether that exact affix is in this set. */
+	public boolean contains(Affix afx) {
+		return members.containsKey(afx);
+	}
+
+	/** Get the number of affixes in this set.
+	 *
+	 * @return The number of affixes in this set. */
+	public int size() {
+		return members.size();
+	}
+
+	/** Get the affixes with a given internal name.
+	 *
+	 * @param name The name to look for. Case doesn't matter.
+	 *
+	 * @return The affixes with that name. */
+	public Set<Affix> named(String name) {
+		return lookup(byName, nameKey(name));
+	}
+
+	/** Get the affixes that were loaded from a given file.
+	 *
+	 * @param fName The name of the file.
+	 *
+	 * @return The affixes from that file. */
+	public Set<Affix> fromFile(String fName) {
+		return lookup(byFile, fName);
+	}
+
+	/** Get the affixes in a given affix group.
+	 *
+	 * @param group The affix group.
+	 *
+	 * @return The affixes in that group. */
+	public Set<Affix> inGroup(AffixGroup group) {
+		Set<Affix> groupMembers = affixGroups.get(group);
+		if (groupMembers == null) return Collections.emptySet();
+
+		return Collections.unmodifiableSet(groupMembers);
+	}
+
+	/** Get the affix group that an affix was put in.
+	 *
+	 * @param afx The affix to look for.
+	 *
+	 * @return The group the affix is in, or null if it isn't in a group or isn't
+	 * in this set. */
+	public AffixGroup groupOf(Affix afx) {
+		Member member = members.get(afx);
+		if (member == null) return null;
+
+		return member.group;
+	}
+
+	private static String nameKey(String name) {
+		if (name == null) return null;
+
+		return name.toUpperCase();
+	}
+
+	private static void index(Map<String, Set<Affix>> idx, String key, Affix afx) {
+		if (key == null) return;
+
+		idx.computeIfAbsent(key, (k) -> new HashSet<>()).add(afx);
+	}
+
+	private static void unindex(Map<String, Set<Affix>> idx, String key, Affix afx) {
+		if (key == null) return;
+
+		Set<Affix> affixes = idx.get(key);
+		if (affixes == null) return;
+
+		affixes.remove(afx);
+		if (affixes.isEmpty()) idx.remove(key);
+	}
+
+	private static Set<Affix> lookup(Map<String, Set<Affix>> idx, String key) {
+		if (key == null) return Collections.emptySet();
+
+		Set<Affix> affixes = idx.get(key);
+		if (affixes == null) return Collections.emptySet();
+
+		return Collections.unmodifiableSet(affixes);
 	}
 }
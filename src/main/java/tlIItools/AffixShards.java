@@ -0,0 +1,389 @@
+package tlIItools;
+
+import java.io.*;
+
+import java.nio.file.*;
+
+import java.util.*;
+import java.util.Map.Entry;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/** Loads affix files in several worker processes, and merges what they load.
+ *
+ * The files are split into shards, and a separate JVM is started for each
+ * shard. Each worker loads its files and writes them out as a partial, in the
+ * same format as a {@link Checkpoint}. The diagnostics it records are written
+ * next to the partial, and are added to the diagnostics of the process that
+ * started it. The workers and the process that started them only talk through
+ * files in the shard directory.
+ *
+ * Once every worker is done, the partials are opened, and the affix lister
+ * takes each file from them instead of loading it, so the groups, counts and
+ * report come out the same as if everything was loaded in one process. Files
+ * that a worker didn't finish are loaded in the merging process instead.
+ *
+ * @author Ben Culkin */
+public class AffixShards implements Closeable {
+	/* The number of files a worker loads between saving its partial. */
+	private static final int WORKER_BATCH = 500;
+
+	/** The number of shards to split the files into. */
+	public final int count;
+
+	/** The directory that shard lists, partials and worker output go in. */
+	public final Path dir;
+
+	/** The most heap each worker can use, like '2g', or null for the default. */
+	public String workerHeap;
+
+	/** How long a worker should wait for a file to load, in milliseconds, or 0 to
+	 * wait forever. */
+	public long parseTimeout;
+
+	/* Whether the directory was made for this run, and should be removed after. */
+	private final boolean tempDir;
+
+	/* The partials that were written by the workers. */
+	private final List<Checkpoint> partials = new ArrayList<>();
+
+	/** Create a new set of shards.
+	 *
+	 * @param count The number of shards to split the files into.
+	 * @param dir The directory to put the shard files in, or null to use a
+	 *            temporary directory that is removed afterwards.
+	 *
+	 * @throws IOException If the directory can't be created. */
+	public AffixShards(int count, Path dir) throws IOException {
+		this.count = count;
+
+		if (dir == null) {
+			this.dir     = Files.createTempDirectory("tlIItools-shards");
+			this.tempDir = true;
+		} else {
+			this.dir     = Files.createDirectories(dir);
+			this.tempDir = false;
+		}
+	}
+
+	/** Split the files from a name reader into shards, and load them in worker
+	 * processes.
+	 *
+	 * Directories and globs are walked first, so that their files are shared
+	 * out as well. This waits until every worker has finished, and then opens
+	 * the partials they wrote.
+	 *
+	 * @param ctx The run the files are being loaded for.
+	 * @param nfr The name reader with the files to load.
+	 *
+	 * @throws IOException If the shard files can't be written, or a worker
+	 *                     can't be started.
+	 * @throws InterruptedException If interrupted while waiting for workers. */
+	public void run(RunContext ctx, NameFileReader nfr) throws IOException, InterruptedException {
+		List<NameFileReader.FileBatch> batches = new ArrayList<>();
+
+		for (Entry<String, List<String>> fGroup : nfr.fNames.entrySet()) {
+			batches.add(new NameFileReader.FileBatch(fGroup.getKey(), fGroup.getValue()));
+		}
+
+		if (nfr.hasRoots()) nfr.discover((batch) -> {
+			synchronized (batches) {
+				batches.add(batch);
+			}
+		});
+
+		// Deal the files out in turn, so every shard gets a fair share of each group.
+		List<List<String>> shardLines = new ArrayList<>(count);
+		String[]           lastGroups = new String[count];
+		for (int i = 0; i < count; i++) shardLines.add(new ArrayList<>());
+
+		int fileNo = 0;
+		for (NameFileReader.FileBatch batch : batches) {
+			for (String fName : batch.files) {
+				int shard = fileNo++ % count;
+
+				if (!batch.group.equals(lastGroups[shard])) {
+					shardLines.get(shard).add("#" + batch.group);
+
+					lastGroups[shard] = batch.group;
+				}
+
+				shardLines.get(shard).add(fName);
+			}
+		}
+
+		long startTime = System.nanoTime();
+
+		List<Process> workers = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			Path listFile = dir.resolve("shard-" + i + ".txt");
+			Files.write(listFile, shardLines.get(i));
+
+			// Don't pick up a partial left over from an earlier run.
+			Files.deleteIfExists(partialFile(i));
+			Files.deleteIfExists(diagnosticsFile(i));
+
+			ProcessBuilder builder = new ProcessBuilder(workerCommand(i, listFile));
+			builder.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+			builder.redirectError(dir.resolve("shard-" + i + ".err").toFile());
+
+			workers.add(builder.start());
+		}
+
+		for (int i = 0; i < count; i++) {
+			int exitCode = workers.get(i).waitFor();
+
+			if (exitCode != 0) {
+				ctx.errOut.printf("WARN: Shard worker %d exited with code %d; its unfinished files will be loaded here\n",
+						i, exitCode);
+			}
+
+			Path errFile = dir.resolve("shard-" + i + ".err");
+			if (Files.exists(errFile) && Files.size(errFile) > 0) {
+				ctx.errOut.printf("\nShard %d:\n", i);
+
+				for (String ln : Files.readAllLines(errFile)) ctx.errOut.println(ln);
+			}
+
+			if (Files.exists(partialFile(i))) {
+				Checkpoint partial = Checkpoint.open(partialFile(i));
+
+				if (partial.droppedPartial) {
+					ctx.errOut.printf("WARN: Dropped a half-written batch from shard %d\n", i);
+				}
+
+				partials.add(partial);
+			}
+
+			if (Files.exists(diagnosticsFile(i))) {
+				try (DataInputStream in = new DataInputStream(
+						new BufferedInputStream(Files.newInputStream(diagnosticsFile(i))))) {
+					ctx.diagnostics.addFrom(in);
+				}
+			}
+		}
+
+		long endTime = System.nanoTime();
+
+		ctx.errOut.printf("\nLoaded %,d files in %,d shards in %.2f seconds\n",
+				fileNo, count, ((double) (endTime - startTime) / 1000000000));
+	}
+
+	/* Get the file a worker writes its partial to. */
+	private Path partialFile(int shard) {
+		return dir.resolve("shard-" + shard + ".partial");
+	}
+
+	/* Get the file a worker writes its diagnostics to. */
+	private Path diagnosticsFile(int shard) {
+		return dir.resolve("shard-" + shard + ".diags");
+	}
+
+	/* Get the command that starts a worker, using the same JVM and class path. */
+	private List<String> workerCommand(int shard, Path listFile) {
+		List<String> cmd = new ArrayList<>();
+
+		String javaHome = System.getProperty("java.home");
+		cmd.add(ProcessHandle.current().info().command()
+				.orElse(Paths.get(javaHome, "bin", "java").toString()));
+
+		if (workerHeap != null) cmd.add("-Xmx" + workerHeap);
+
+		String modulePath = System.getProperty("jdk.module.path");
+		if (modulePath != null && AffixShards.class.getModule().isNamed()) {
+			cmd.add("--module-path");
+			cmd.add(modulePath);
+			cmd.add("--module");
+			cmd.add(AffixShards.class.getModule().getName() + "/" + AffixShards.class.getName());
+		} else {
+			cmd.add("-cp");
+			cmd.add(System.getProperty("java.class.path"));
+			cmd.add(AffixShards.class.getName());
+		}
+
+		cmd.add("--partial");
+		cmd.add(partialFile(shard).toString());
+
+		cmd.add("--diagnostics");
+		cmd.add(diagnosticsFile(shard).toString());
+
+		if (parseTimeout > 0) {
+			cmd.add("--parse-timeout");
+			cmd.add(Long.toString(parseTimeout));
+		}
+
+		cmd.add("-r");
+		cmd.add(listFile.toString());
+
+		return cmd;
+	}
+
+	/** Get what a worker did with a file.
+	 *
+	 * @param fName The name of the file.
+	 *
+	 * @return What happened to the file, or null if no worker finished it. */
+	public Checkpoint.Entry get(String fName) {
+		for (Checkpoint partial : partials) {
+			Checkpoint.Entry entry = partial.get(fName);
+			if (entry != null) return entry;
+		}
+
+		return null;
+	}
+
+	/** Close the partials, and remove the shard directory if it was made for
+	 * this run.
+	 *
+	 * @throws IOException If something goes wrong removing the files. */
+	@Override
+	public void close() throws IOException {
+		for (Checkpoint partial : partials) partial.close();
+		partials.clear();
+
+		if (!tempDir) return;
+
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+			for (Path file : files) Files.delete(file);
+		}
+
+		Files.delete(dir);
+	}
+
+	/** Run a shard worker.
+	 *
+	 * The arguments are --partial, the file to write the partial to,
+	 * optionally --diagnostics, the file to write diagnostics to, optionally
+	 * --parse-timeout, and then the source arguments, the same as
+	 * {@link NameFileReader#fromArgs(List, PrintStream)} takes. Diagnostics
+	 * are written to the error output if there is no file for them.
+	 *
+	 * @param args The arguments for the worker. */
+	public static void main(String[] args) {
+		String partialFile  = null;
+		Path   diagsFile    = null;
+		long   parseTimeout = 0;
+
+		List<String> sourceArgs = new ArrayList<>();
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+			case "--partial":
+				partialFile = args[++i];
+				break;
+			case "--diagnostics":
+				diagsFile = Paths.get(args[++i]);
+				break;
+			case "--parse-timeout":
+				parseTimeout = Long.parseLong(args[++i]);
+				break;
+			default:
+				sourceArgs.add(args[i]);
+			}
+		}
+
+		if (partialFile == null) {
+			System.err.println("ERROR: A shard worker needs a --partial file to write to");
+			System.exit(1);
+		}
+
+		RunContext ctx = new RunContext();
+
+		try (NameFileReader nfr = NameFileReader.fromArgs(sourceArgs, ctx.errOut);
+				Checkpoint partial = Checkpoint.open(Paths.get(partialFile))) {
+			runWorker(ctx, nfr, partial, diagsFile, parseTimeout);
+		} catch (IOException ioex) {
+			ctx.errOut.printf("ERROR: Couldn't write partial to file %s\n", partialFile);
+			ioex.printStackTrace(ctx.errOut);
+
+			System.exit(1);
+		}
+
+		if (diagsFile == null) {
+			ctx.diagnostics.printTo(ctx.errOut);
+		} else {
+			try {
+				saveDiagnostics(ctx, diagsFile);
+			} catch (IOException ioex) {
+				ctx.errOut.printf("ERROR: Couldn't write diagnostics to file %s\n", diagsFile);
+				ioex.printStackTrace(ctx.errOut);
+
+				System.exit(1);
+			}
+		}
+
+		ctx.errOut.flush();
+	}
+
+	/* Load every file for a worker into its partial. */
+	private static void runWorker(RunContext ctx, NameFileReader nfr, Checkpoint partial,
+			Path diagsFile, long parseTimeout) throws IOException
+	{
+		AtomicInteger threadNo = new AtomicInteger();
+
+		// A file that times out keeps its thread, so new ones are made as needed.
+		ExecutorService loader = Executors.newCachedThreadPool((run) -> {
+			Thread thread = new Thread(run, "shard-loader-" + threadNo.incrementAndGet());
+			thread.setDaemon(true);
+
+			return thread;
+		});
+
+		int sinceSave = 0;
+
+		try {
+			for (List<String> files : nfr.fNames.values()) {
+				for (String fName : files) {
+					Future<Affix> loading = loader.submit(() -> AffixLister.loadAffixFile(ctx, nfr, fName));
+
+					try {
+						Affix afx;
+						if (parseTimeout > 0) afx = loading.get(parseTimeout, TimeUnit.MILLISECONDS);
+						else                  afx = loading.get();
+
+						partial.completed(fName, afx);
+					} catch (TimeoutException tex) {
+						loading.cancel(true);
+
+						quarantine(ctx, partial, fName, String.format("took longer than %,d ms to load", parseTimeout));
+					} catch (ExecutionException eex) {
+						quarantine(ctx, partial, fName, String.valueOf(eex.getCause()));
+					} catch (InterruptedException iex) {
+						Thread.currentThread().interrupt();
+						return;
+					}
+
+					if (++sinceSave >= WORKER_BATCH) {
+						partial.save();
+						if (diagsFile != null) saveDiagnostics(ctx, diagsFile);
+
+						sinceSave = 0;
+					}
+				}
+			}
+		} finally {
+			loader.shutdownNow();
+		}
+	}
+
+	/* Write out the diagnostics for a worker, replacing the last ones written.
+	 *
+	 * They are written to another file and moved into place, so that the file
+	 * is never half-written if the worker dies. */
+	private static void saveDiagnostics(RunContext ctx, Path diagsFile) throws IOException {
+		Path tmpFile = diagsFile.resolveSibling(diagsFile.getFileName() + ".tmp");
+
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(Files.newOutputStream(tmpFile)))) {
+			ctx.diagnostics.write(out);
+		}
+
+		Files.move(tmpFile, diagsFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/* Note that a worker couldn't load a file. */
+	private static void quarantine(RunContext ctx, Checkpoint partial, String fName, String reason) {
+		ctx.errOut.printf("WARN: Quarantined file %s: %s\n", fName, reason);
+
+		partial.quarantined(fName, reason);
+	}
+}
@@ -0,0 +1,425 @@
+package tlIItools;
+
+import java.io.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.*;
+
+/** Finds clusters of affixes that are almost, but not quite, the same.
+ *
+ * Each affix is turned into a set of features: what its effects are, the stats
+ * and graphs they use, and the unit types it can spawn on. Affixes whose
+ * feature sets are similar enough, by Jaccard similarity, end up in the same
+ * cluster. Affixes with exactly the same features are put together first, so
+ * a cluster is only reported if it has affixes that differ somehow, which is
+ * what copy-paste mistakes usually look like.
+ *
+ * Rather than comparing every pair of affixes, a MinHash signature is worked
+ * out for each distinct feature set, in parallel. The signatures are split into
+ * bands, and only sets that share a whole band with another set are compared.
+ * The bands are sized so that sets at the threshold are very likely to share
+ * one, while sets that aren't similar almost never do.
+ *
+ * Two clusters are only joined if the sets they started from are similar
+ * enough as well, which keeps a chain of small differences from joining
+ * affixes that have little to do with each other.
+ *
+ * @author Ben Culkin */
+public class AffixSimilarity {
+	/** The default number of hashes in each signature. */
+	public static final int DEFAULT_HASHES = 128;
+
+	/** The default similarity that affixes must have to be clustered. */
+	public static final double DEFAULT_THRESHOLD = 0.8;
+
+	/** A cluster of similar affixes.
+	 *
+	 * @author Ben Culkin */
+	public static class Cluster {
+		/** The affixes in the cluster, ordered by name. */
+		public final List<Affix> affixes;
+
+		/** The features that every affix in the cluster has. */
+		public final SortedSet<String> common;
+
+		/** The features each affix has that aren't common to the cluster. */
+		public final Map<Affix, SortedSet<String>> extra;
+
+		/** The lowest similarity between two affixes that were linked together.
+		 *
+		 * Affixes are linked if they are similar enough, so two affixes in the
+		 * same cluster may be less similar than this, if they were linked through
+		 * other affixes. */
+		public final double lowestSimilarity;
+
+		Cluster(List<Affix> affixes, SortedSet<String> common,
+				Map<Affix, SortedSet<String>> extra, double lowestSimilarity)
+		{
+			this.affixes          = affixes;
+			this.common           = common;
+			this.extra            = extra;
+			this.lowestSimilarity = lowestSimilarity;
+		}
+	}
+
+	/* A distinct set of features, and the affixes that have it. */
+	private static class FeatureSet {
+		public final SortedSet<String> features;
+		public final long[]            hashes;
+
+		public final List<Affix> affixes = new ArrayList<>();
+
+		public long[] signature;
+
+		public FeatureSet(SortedSet<String> features, long[] hashes) {
+			this.features = features;
+			this.hashes   = hashes;
+		}
+	}
+
+	/* The low bits of a packed band hash, which hold the number of the set.
+	 *
+	 * Sets whose band hashes only differ in these bits are compared even though
+	 * they don't share the band, which is harmless, since every pair is checked
+	 * before it is joined. */
+	private static final long SET_MASK = (1L << 24) - 1;
+
+	/* Orders affixes by name, and then by file. */
+	private static final Comparator<Affix> BY_NAME
+		= Comparator.<Affix, String>comparing((afx) -> afx.intName,
+				Comparator.nullsFirst(Comparator.naturalOrder()))
+			.thenComparing((afx) -> afx.fileName(), Comparator.nullsFirst(Comparator.naturalOrder()));
+
+	/** The similarity that affixes must have to be clustered. */
+	public final double threshold;
+
+	/** The number of bands each signature is split into. */
+	public final int bands;
+	/** The number of hashes in each band. */
+	public final int rows;
+
+	/** Create a new similarity finder, using the default number of hashes.
+	 *
+	 * @param threshold The similarity that affixes must have to be clustered,
+	 *                  between 0 and 1. */
+	public AffixSimilarity(double threshold) {
+		this(threshold, DEFAULT_HASHES);
+	}
+
+	/** Create a new similarity finder.
+	 *
+	 * More hashes make it less likely that similar affixes are missed, but take
+	 * longer to work out.
+	 *
+	 * @param threshold The similarity that affixes must have to be clustered,
+	 *                  between 0 and 1.
+	 * @param numHashes The number of hashes in each signature. */
+	public AffixSimilarity(double threshold, int numHashes) {
+		if (threshold <= 0 || threshold > 1) {
+			throw new IllegalArgumentException("Similarity threshold must be above 0 and at most 1, not " + threshold);
+		}
+
+		this.threshold = threshold;
+
+		// Pick the banding whose S-curve turns at or just below the threshold, so
+		// that similar sets are rarely missed.
+		int    bestRows  = 1;
+		double bestPoint = -1;
+		for (int numRows = 1; numRows <= numHashes; numRows++) {
+			if (numHashes % numRows != 0) continue;
+
+			double point = Math.pow(1.0 / (numHashes / numRows), 1.0 / numRows);
+			if (point <= threshold && point > bestPoint) {
+				bestRows  = numRows;
+				bestPoint = point;
+			}
+		}
+
+		this.rows  = bestRows;
+		this.bands = numHashes / bestRows;
+	}
+
+	/** Get the features of an affix.
+	 *
+	 * The names and the numbers of an affix aren't features, so affixes that
+	 * only differ in level still have the same features.
+	 *
+	 * @param afx The affix to get the features of.
+	 *
+	 * @return The features of the affix. */
+	public static SortedSet<String> features(Affix afx) {
+		SortedSet<String> features = new TreeSet<>();
+
+		features.add("type=" + afx.type);
+
+		for (String equipType : afx.equipTypes)         features.add("spawns-on=" + equipType);
+		for (String equipType : afx.nonequipTypes)      features.add("not-on=" + equipType);
+		for (String source : afx.enchantSources)        features.add("enchant-source=" + source);
+		for (String socketType : afx.socketableTypes)   features.add("socketable=" + socketType);
+
+		for (Effect eft : afx.effects) {
+			EffectGroup group = eft.group;
+
+			String effect = group.type + "/" + group.name + "/" + group.damageType
+				+ (group.isTransfer ? "/transfer" : "") + (group.hasDuration ? "/timed" : "");
+			features.add("effect=" + effect);
+
+			if (group.statName != null)      features.add("stat=" + group.statName);
+			if (group.graphOverride != null) features.add("graph=" + group.graphOverride);
+		}
+
+		return features;
+	}
+
+	/** Find the clusters of similar affixes.
+	 *
+	 * @param affixes The affixes to look through.
+	 *
+	 * @return Every cluster with affixes that aren't all the same, largest first. */
+	public List<Cluster> cluster(List<Affix> affixes) {
+		List<FeatureSet> sets = distinctSets(affixes);
+
+		int numHashes = bands * rows;
+		sets.parallelStream().forEach((set) -> set.signature = signature(set.hashes, numHashes));
+
+		if (sets.size() > SET_MASK) {
+			throw new IllegalArgumentException("Too many distinct affixes to cluster: " + sets.size());
+		}
+
+		// Every set that shares a band with another lands in the same bucket.
+		// Each band is done on its own, by sorting the band hashes with the set
+		// number packed into the low bits, so runs of the same hash are buckets.
+		Queue<int[]> buckets = new ConcurrentLinkedQueue<>();
+		IntStream.range(0, bands).parallel().forEach((band) -> {
+			long[] packed = new long[sets.size()];
+
+			for (int idx = 0; idx < packed.length; idx++) {
+				long[] sig = sets.get(idx).signature;
+
+				long key = band;
+				for (int row = band * rows; row < (band + 1) * rows; row++) {
+					key = mix(key * 31 + sig[row]);
+				}
+
+				packed[idx] = (key & ~SET_MASK) | idx;
+			}
+
+			Arrays.sort(packed);
+
+			int start = 0;
+			for (int end = 1; end <= packed.length; end++) {
+				if (end < packed.length && (packed[end] & ~SET_MASK) == (packed[start] & ~SET_MASK)) continue;
+
+				if (end - start > 1) {
+					int[] members = new int[end - start];
+					for (int i = start; i < end; i++) members[i - start] = (int) (packed[i] & SET_MASK);
+
+					buckets.add(members);
+				}
+
+				start = end;
+			}
+		});
+
+		int[]    parents = new int[sets.size()];
+		double[] lowest  = new double[sets.size()];
+		for (int i = 0; i < parents.length; i++) {
+			parents[i] = i;
+			lowest[i]  = 1.0;
+		}
+
+		// The buckets were found in parallel, so put them in order to get the same
+		// clusters every time. The members of each one are already in order.
+		List<int[]> candidates = new ArrayList<>(buckets);
+		candidates.sort(Comparator.<int[]>comparingInt((members) -> members[0])
+				.thenComparing(Arrays::compare));
+
+		for (int[] members : candidates) {
+			for (int i = 0; i < members.length; i++) {
+				for (int j = i + 1; j < members.length; j++) {
+					int left  = find(parents, members[i]);
+					int right = find(parents, members[j]);
+					if (left == right) continue;
+
+					double similarity = jaccard(sets.get(members[i]).hashes, sets.get(members[j]).hashes);
+					if (similarity < threshold) continue;
+
+					// Clusters are only joined if their roots are similar as well, so
+					// that a chain of small differences doesn't join unrelated affixes.
+					if (left != members[i] || right != members[j]) {
+						double rootSimilarity = jaccard(sets.get(left).hashes, sets.get(right).hashes);
+						if (rootSimilarity < threshold) continue;
+
+						similarity = Math.min(similarity, rootSimilarity);
+					}
+
+					parents[right] = left;
+					lowest[left]   = Math.min(similarity, Math.min(lowest[left], lowest[right]));
+				}
+			}
+		}
+
+		Map<Integer, List<FeatureSet>> roots = new HashMap<>();
+		for (int i = 0; i < sets.size(); i++) {
+			roots.computeIfAbsent(find(parents, i), (key) -> new ArrayList<>()).add(sets.get(i));
+		}
+
+		List<Cluster> clusters = new ArrayList<>();
+		for (Map.Entry<Integer, List<FeatureSet>> root : roots.entrySet()) {
+			if (root.getValue().size() < 2) continue;
+
+			clusters.add(toCluster(root.getValue(), lowest[root.getKey()]));
+		}
+
+		clusters.sort(Comparator.<Cluster>comparingInt((clus) -> -clus.affixes.size())
+				.thenComparing((clus) -> clus.affixes.get(0), BY_NAME));
+
+		return clusters;
+	}
+
+	/* Work out the features of every affix, and put together the ones that are the same. */
+	private static List<FeatureSet> distinctSets(List<Affix> affixes) {
+		List<SortedSet<String>> features = affixes.parallelStream()
+			.map(AffixSimilarity::features)
+			.collect(Collectors.toList());
+
+		Map<SortedSet<String>, FeatureSet> sets = new LinkedHashMap<>();
+		for (int i = 0; i < affixes.size(); i++) {
+			SortedSet<String> affixFeatures = features.get(i);
+
+			FeatureSet set = sets.get(affixFeatures);
+			if (set == null) {
+				set = new FeatureSet(affixFeatures, hashFeatures(affixFeatures));
+
+				sets.put(affixFeatures, set);
+			}
+
+			set.affixes.add(affixes.get(i));
+		}
+
+		return new ArrayList<>(sets.values());
+	}
+
+	/* Hash each feature, giving the hashes in order. */
+	private static long[] hashFeatures(SortedSet<String> features) {
+		long[] hashes = new long[features.size()];
+
+		int idx = 0;
+		for (String feature : features) hashes[idx++] = Affix.fnv1a(feature);
+
+		Arrays.sort(hashes);
+
+		return hashes;
+	}
+
+	/* Work out the MinHash signature for a set of feature hashes.
+	 *
+	 * The hash functions are made from two hashes of each feature, as h1 + i*h2,
+	 * which is as good as using independent ones for MinHash. */
+	private static long[] signature(long[] hashes, int numHashes) {
+		long[] sig = new long[numHashes];
+		Arrays.fill(sig, Long.MAX_VALUE);
+
+		for (long hash : hashes) {
+			long first  = mix(hash);
+			long second = mix(hash ^ 0x9e3779b97f4a7c15L) | 1;
+
+			for (int i = 0; i < numHashes; i++) {
+				long value = first + i * second;
+
+				if (value < sig[i]) sig[i] = value;
+			}
+		}
+
+		return sig;
+	}
+
+	/* Scramble the bits of a hash (the finalizer from SplitMix64). */
+	private static long mix(long val) {
+		val = (val ^ (val >>> 30)) * 0xbf58476d1ce4e5b9L;
+		val = (val ^ (val >>> 27)) * 0x94d049bb133111ebL;
+
+		return val ^ (val >>> 31);
+	}
+
+	/* Get the Jaccard similarity of two sorted sets of hashes. */
+	private static double jaccard(long[] left, long[] right) {
+		int shared = 0;
+
+		int leftIdx = 0, rightIdx = 0;
+		while (leftIdx < left.length && rightIdx < right.length) {
+			if      (left[leftIdx] < right[rightIdx]) leftIdx++;
+			else if (left[leftIdx] > right[rightIdx]) rightIdx++;
+			else {
+				shared += 1;
+
+				leftIdx++;
+				rightIdx++;
+			}
+		}
+
+		int total = left.length + right.length - shared;
+		if (total == 0) return 1.0;
+
+		return (double) shared / total;
+	}
+
+	/* Find the root of a set, shortening the path to it as we go. */
+	private static int find(int[] parents, int idx) {
+		while (parents[idx] != idx) {
+			parents[idx] = parents[parents[idx]];
+			idx = parents[idx];
+		}
+
+		return idx;
+	}
+
+	/* Turn the feature sets that were linked together into a cluster. */
+	private static Cluster toCluster(List<FeatureSet> sets, double lowestSimilarity) {
+		SortedSet<String> common = new TreeSet<>(sets.get(0).features);
+		for (FeatureSet set : sets) common.retainAll(set.features);
+
+		List<Affix>                    affixes = new ArrayList<>();
+		Map<Affix, SortedSet<String>> extra   = new IdentityHashMap<>();
+		for (FeatureSet set : sets) {
+			SortedSet<String> setExtra = new TreeSet<>(set.features);
+			setExtra.removeAll(common);
+
+			for (Affix afx : set.affixes) {
+				affixes.add(afx);
+				extra.put(afx, setExtra);
+			}
+		}
+
+		affixes.sort(BY_NAME);
+
+		return new Cluster(affixes, common, extra, lowestSimilarity);
+	}
+
+	/** Write out a report of the clusters.
+	 *
+	 * Each affix is listed with the features it has that not every affix in the
+	 * cluster does.
+	 *
+	 * @param clusters The clusters to report.
+	 * @param dest The place to write the report to. */
+	public static void printClusters(List<Cluster> clusters, PrintStream dest) {
+		int clusterNo = 1;
+
+		for (Cluster clus : clusters) {
+			dest.printf("Cluster %d (%d affixes, linked at %.2f similarity or more)\n",
+					clusterNo++, clus.affixes.size(), clus.lowestSimilarity);
+			dest.printf("\tShared: %s\n", clus.common);
+
+			for (Affix afx : clus.affixes) {
+				SortedSet<String> extra = clus.extra.get(afx);
+
+				dest.printf("\t%s (%s)%s\n", afx.intName, afx.fileName(),
+						extra.isEmpty() ? "" : " also " + extra);
+			}
+		}
+
+		dest.flush();
+	}
+}
@@ -0,0 +1,423 @@
+package tlIItools;
+
+import java.io.*;
+
+import java.util.*;
+import java.util.Map.Entry;
+
+/** Statistics about a set of affixes.
+ *
+ * Every statistic is kept in an accumulator that can be merged with another
+ * one, so the affixes can be split up, counted separately, and put back
+ * together. {@link #of(Collection)} does this in parallel, going over the
+ * affixes only once.
+ *
+ * The statistics are:
+ * <ul>
+ * <li>For each effect type and damage type, the number of effects, and the
+ * lowest, highest and mean of their min and max values.</li>
+ * <li>Histograms of spawn weights, and of the lowest and highest levels
+ * affixes spawn at.</li>
+ * <li>How many affixes take up each number of slots.</li>
+ * <li>How many affixes there are of each type, and how many can spawn on each
+ * equipment type.</li>
+ * </ul>
+ *
+ * @author Ben Culkin */
+public class AffixStats {
+	/* The lowest weight in each weight bucket. */
+	private static final int[] WEIGHT_BUCKETS = {
+		Integer.MIN_VALUE, 0, 1, 5, 10, 25, 50, 100, 250, 500, 1000
+	};
+
+	/* The lowest level in each level bucket; 999 means there's no limit. */
+	private static final int[] LEVEL_BUCKETS = {
+		Integer.MIN_VALUE, 1, 10, 20, 30, 40, 50, 60, 70, 80, 90, 100, 999
+	};
+
+	/** The count, range and mean of a set of numbers.
+	 *
+	 * @author Ben Culkin */
+	public static class Summary {
+		/** The number of numbers. */
+		public long   count;
+		/** The lowest number, or positive infinity if there are none. */
+		public double min = Double.POSITIVE_INFINITY;
+		/** The highest number, or negative infinity if there are none. */
+		public double max = Double.NEGATIVE_INFINITY;
+
+		/* The total of the numbers, and the rounding error lost from it so far.
+		 *
+		 * Without this, the mean would change in the last few digits depending on
+		 * how the affixes were split up. */
+		private double sum;
+		private double error;
+
+		/** Add a number.
+		 *
+		 * @param val The number to add. */
+		public void add(double val) {
+			count += 1;
+			addToSum(val);
+
+			if (val < min) min = val;
+			if (val > max) max = val;
+		}
+
+		/** Add in the numbers from another summary.
+		 *
+		 * @param other The summary to add in. */
+		public void merge(Summary other) {
+			count += other.count;
+			addToSum(other.sum);
+			addToSum(other.error);
+
+			min = Math.min(min, other.min);
+			max = Math.max(max, other.max);
+		}
+
+		/* Add to the total, keeping track of the rounding error (Neumaier's
+		 * summation). */
+		private void addToSum(double val) {
+			double total = sum + val;
+
+			if (Math.abs(sum) >= Math.abs(val)) error += (sum - total) + val;
+			else                                error += (val - total) + sum;
+
+			sum = total;
+		}
+
+		/** Get the total of the numbers.
+		 *
+		 * @return The total of the numbers. */
+		public double total() {
+			return sum + error;
+		}
+
+		/** Get the mean of the numbers.
+		 *
+		 * @return The mean, or 0 if there are no numbers. */
+		public double mean() {
+			if (count == 0) return 0;
+
+			return total() / count;
+		}
+	}
+
+	/** A count of how many numbers fall into each of a fixed set of buckets.
+	 *
+	 * @author Ben Culkin */
+	public static class Histogram {
+		/* The lowest number in each bucket, in order. */
+		private final int[] lows;
+
+		/** The number of numbers in each bucket. */
+		public final long[] counts;
+
+		/** Create a new, empty histogram.
+		 *
+		 * @param lows The lowest number in each bucket, in order. */
+		public Histogram(int[] lows) {
+			this.lows   = lows;
+			this.counts = new long[lows.length];
+		}
+
+		/** Add a number.
+		 *
+		 * @param val The number to add. */
+		public void add(int val) {
+			int idx = Arrays.binarySearch(lows, val);
+
+			// A number between two bounds goes in the bucket of the lower one.
+			if (idx < 0) idx = -idx - 2;
+
+			counts[idx] += 1;
+		}
+
+		/** Add in the numbers from another histogram with the same buckets.
+		 *
+		 * @param other The histogram to add in. */
+		public void merge(Histogram other) {
+			for (int i = 0; i < counts.length; i++) counts[i] += other.counts[i];
+		}
+
+		/** Get the name of a bucket, such as '10-24' or '1000+'.
+		 *
+		 * @param idx The number of the bucket.
+		 *
+		 * @return The name of the bucket. */
+		public String label(int idx) {
+			if (idx == 0)                return "<" + lows[1];
+			if (idx == lows.length - 1)  return lows[idx] + "+";
+			if (lows[idx + 1] - 1 == lows[idx]) return Integer.toString(lows[idx]);
+
+			return lows[idx] + "-" + (lows[idx + 1] - 1);
+		}
+	}
+
+	/** The statistics for one type of effect, with one damage type.
+	 *
+	 * @author Ben Culkin */
+	public static class EffectStats {
+		/** The type of the effect. */
+		public final String type;
+		/** The damage type of the effect. */
+		public final String damageType;
+
+		/** The min values of the effects. */
+		public final Summary minValues = new Summary();
+		/** The max values of the effects. */
+		public final Summary maxValues = new Summary();
+
+		/** Create a new, empty set of effect statistics.
+		 *
+		 * @param type The type of the effect.
+		 * @param damageType The damage type of the effect. */
+		public EffectStats(String type, String damageType) {
+			this.type       = type;
+			this.damageType = damageType;
+		}
+
+		/** Add in the statistics for the same sort of effect.
+		 *
+		 * @param other The statistics to add in. */
+		public void merge(EffectStats other) {
+			minValues.merge(other.minValues);
+			maxValues.merge(other.maxValues);
+		}
+	}
+
+	/** The number of affixes. */
+	public long affixCount;
+	/** The number of effects. */
+	public long effectCount;
+
+	/** The statistics for each effect type, by type and then damage type. */
+	public final Map<String, Map<String, EffectStats>> effects = new TreeMap<>();
+
+	/** The spawn weights of the affixes. */
+	public final Histogram weights = new Histogram(WEIGHT_BUCKETS);
+	/** The lowest levels the affixes spawn at. */
+	public final Histogram minLevels = new Histogram(LEVEL_BUCKETS);
+	/** The highest levels the affixes spawn at. */
+	public final Histogram maxLevels = new Histogram(LEVEL_BUCKETS);
+
+	/** The number of affixes that take up each number of slots. */
+	public final Map<Integer, Long> slots = new TreeMap<>();
+
+	/** The number of affixes of each type. */
+	public final Map<Affix.AffixType, Long> types = new EnumMap<>(Affix.AffixType.class);
+
+	/** The number of affixes that can spawn on each equipment type. */
+	public final Map<String, Long> equipTypes = new TreeMap<>();
+
+	/** Work out the statistics for a set of affixes, in parallel.
+	 *
+	 * @param affixes The affixes to work out the statistics for.
+	 *
+	 * @return The statistics for the affixes. */
+	public static AffixStats of(Collection<Affix> affixes) {
+		return affixes.parallelStream().collect(AffixStats::new, AffixStats::add, AffixStats::merge);
+	}
+
+	/** Add an affix to the statistics.
+	 *
+	 * @param afx The affix to add. */
+	public void add(Affix afx) {
+		affixCount += 1;
+
+		weights.add(afx.weight);
+		minLevels.add(afx.spawnRange.minLevel);
+		maxLevels.add(afx.spawnRange.maxLevel);
+
+		slots.merge(afx.slots, 1L, Long::sum);
+
+		if (afx.type != null) types.merge(afx.type, 1L, Long::sum);
+
+		if (afx.equipTypes != null) {
+			for (String equipType : afx.equipTypes) equipTypes.merge(equipType, 1L, Long::sum);
+		}
+
+		if (afx.effects == null) return;
+
+		for (Effect eft : afx.effects) {
+			effectCount += 1;
+
+			// The files mix the case of damage types, and the game ignores it.
+			String type       = String.valueOf(eft.group.type);
+			String damageType = String.valueOf(eft.group.damageType).toLowerCase();
+
+			EffectStats stats = effects.computeIfAbsent(type, (key) -> new TreeMap<>())
+				.computeIfAbsent(damageType, (key) -> new EffectStats(type, key));
+
+			stats.minValues.add(eft.minValue);
+			stats.maxValues.add(eft.maxValue);
+		}
+	}
+
+	/** Add in the statistics for another set of affixes.
+	 *
+	 * @param other The statistics to add in. */
+	public void merge(AffixStats other) {
+		affixCount  += other.affixCount;
+		effectCount += other.effectCount;
+
+		weights.merge(other.weights);
+		minLevels.merge(other.minLevels);
+		maxLevels.merge(other.maxLevels);
+
+		for (Entry<Integer, Long> ent : other.slots.entrySet()) {
+			slots.merge(ent.getKey(), ent.getValue(), Long::sum);
+		}
+
+		for (Entry<Affix.AffixType, Long> ent : other.types.entrySet()) {
+			types.merge(ent.getKey(), ent.getValue(), Long::sum);
+		}
+
+		for (Entry<String, Long> ent : other.equipTypes.entrySet()) {
+			equipTypes.merge(ent.getKey(), ent.getValue(), Long::sum);
+		}
+
+		for (Map<String, EffectStats> byDamage : other.effects.values()) {
+			for (EffectStats stats : byDamage.values()) {
+				EffectStats ours = effects.computeIfAbsent(stats.type, (key) -> new TreeMap<>())
+					.get(stats.damageType);
+
+				if (ours == null) effects.get(stats.type).put(stats.damageType, stats);
+				else              ours.merge(stats);
+			}
+		}
+	}
+
+	/** Write the statistics out as a JSON object.
+	 *
+	 * @param dest The place to write the statistics to. */
+	public void writeJson(Writer dest) {
+		JsonWriter out = new JsonWriter(dest);
+
+		out.beginObject();
+
+		out.field("affixes", affixCount);
+		out.field("effects", effectCount);
+
+		out.name("effectTypes").beginArray();
+		for (Map<String, EffectStats> byDamage : effects.values()) {
+			for (EffectStats stats : byDamage.values()) {
+				out.beginObject();
+
+				out.field("type", stats.type);
+				out.field("damageType", stats.damageType);
+				out.field("count", stats.minValues.count);
+
+				writeSummary(out, "minValue", stats.minValues);
+				writeSummary(out, "maxValue", stats.maxValues);
+
+				out.endObject();
+			}
+		}
+		out.endArray();
+
+		writeHistogram(out, "weights", weights);
+		writeHistogram(out, "minLevels", minLevels);
+		writeHistogram(out, "maxLevels", maxLevels);
+
+		out.name("slots").beginObject();
+		for (Entry<Integer, Long> ent : slots.entrySet()) {
+			out.field(Integer.toString(ent.getKey()), ent.getValue());
+		}
+		out.endObject();
+
+		out.name("types").beginObject();
+		for (Entry<Affix.AffixType, Long> ent : types.entrySet()) {
+			out.field(ent.getKey().toString(), ent.getValue());
+		}
+		out.endObject();
+
+		out.name("equipTypes").beginObject();
+		for (Entry<String, Long> ent : equipTypes.entrySet()) {
+			out.field(ent.getKey(), ent.getValue());
+		}
+		out.endObject();
+
+		out.endObject();
+		out.newline();
+	}
+
+	private static void writeSummary(JsonWriter out, String name, Summary summary) {
+		out.name(name).beginObject();
+
+		out.field("min", summary.min);
+		out.field("max", summary.max);
+		out.field("mean", summary.mean());
+
+		out.endObject();
+	}
+
+	private static void writeHistogram(JsonWriter out, String name, Histogram hist) {
+		out.name(name).beginObject();
+
+		for (int i = 0; i < hist.counts.length; i++) {
+			if (hist.counts[i] == 0) continue;
+
+			out.field(hist.label(i), hist.counts[i]);
+		}
+
+		out.endObject();
+	}
+
+	/** Write the statistics out as CSV.
+	 *
+	 * Every statistic is a row, with the columns 'section', 'key', 'detail',
+	 * 'count', 'min', 'max' and 'mean'. Effect types have 'type/damage type'
+	 * as the key and say whether the row is for the min or max values as the
+	 * detail; everything else just has a count.
+	 *
+	 * @param dest The place to write the statistics to. */
+	public void writeCsv(Writer dest) {
+		CsvWriter out = new CsvWriter(dest);
+
+		out.row("section", "key", "detail", "count", "min", "max", "mean");
+
+		out.field("total").field("affixes").empty().field(affixCount).endRow();
+		out.field("total").field("effects").empty().field(effectCount).endRow();
+
+		for (Map<String, EffectStats> byDamage : effects.values()) {
+			for (EffectStats stats : byDamage.values()) {
+				String key = stats.type + "/" + stats.damageType;
+
+				writeSummary(out, key, "minValue", stats.minValues);
+				writeSummary(out, key, "maxValue", stats.maxValues);
+			}
+		}
+
+		writeHistogram(out, "weight", weights);
+		writeHistogram(out, "minLevel", minLevels);
+		writeHistogram(out, "maxLevel", maxLevels);
+
+		for (Entry<Integer, Long> ent : slots.entrySet()) {
+			out.field("slots").field(ent.getKey()).empty().field(ent.getValue()).endRow();
+		}
+
+		for (Entry<Affix.AffixType, Long> ent : types.entrySet()) {
+			out.field("type").field(ent.getKey().toString()).empty().field(ent.getValue()).endRow();
+		}
+
+		for (Entry<String, Long> ent : equipTypes.entrySet()) {
+			out.field("equipType").field(ent.getKey()).empty().field(ent.getValue()).endRow();
+		}
+	}
+
+	private static void writeSummary(CsvWriter out, String key, String detail, Summary summary) {
+		out.field("effect").field(key).field(detail).field(summary.count);
+		out.field(summary.min).field(summary.max).field(summary.mean());
+		out.endRow();
+	}
+
+	private static void writeHistogram(CsvWriter out, String section, Histogram hist) {
+		for (int i = 0; i < hist.counts.length; i++) {
+			if (hist.counts[i] == 0) continue;
+
+			out.field(section).field(hist.label(i)).empty().field(hist.counts[i]).endRow();
+		}
+	}
+}
@@ -0,0 +1,385 @@
+package tlIItools;
+
+import java.io.*;
+
+import java.util.*;
+
+import tlIItools.Affix.AffixType;
+
+/** Binary storage for parsed affix data.
+ *
+ * This saves having to re-parse all of the .DAT files every time that the
+ * data is needed.
+ *
+ * @author Ben Culkin */
+public class AffixStore {
+	/* Marks a file as being an affix store. */
+	private static final int MAGIC = 0x544C3241;
+	/* The version of the storage format. */
+	private static final int VERSION = 4;
+	/* The oldest version that can still be read; it has no search index. */
+	private static final int MIN_VERSION = 2;
+
+	/** The affixes in this store. */
+	public List<Affix> affixes;
+
+	/** The files the affixes in this store were loaded from. */
+	public SourceTable sources = new SourceTable();
+
+	/** The compatibility matrix for the affixes, if one was built. */
+	public AffixCompatibility compat;
+
+	/** The search index over the affixes, if one was built. */
+	public SearchIndex search;
+
+	/** Create a new blank affix store. */
+	public AffixStore() {
+		affixes = new ArrayList<>();
+	}
+
+	/** Create a new affix store.
+	 *
+	 * @param affixes The affixes to store.
+	 * @param compat The compatibility matrix for the affixes, or null. */
+	public AffixStore(List<Affix> affixes, AffixCompatibility compat) {
+		this.affixes = affixes;
+		this.compat  = compat;
+	}
+
+	/** Write this store to a file.
+	 *
+	 * @param fName The file to write to.
+	 *
+	 * @throws IOException If something goes wrong writing the file. */
+	public void write(String fName) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(fName)))) {
+			write(out);
+		}
+	}
+
+	/** Write this store to an output stream.
+	 *
+	 * @param out The stream to write to.
+	 *
+	 * @throws IOException If something goes wrong writing the store. */
+	public void write(DataOutputStream out) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+
+		// Each file name is only written once, and then referred to by id.
+		SourceTable table = new SourceTable();
+		for (Affix afx : affixes) {
+			if (afx.source != null) table.idFor(afx.source.fileName());
+
+			for (Effect eft : afx.effects) {
+				if (eft.sourceFile != null) table.idFor(eft.sourceFile.name);
+			}
+		}
+
+		out.writeInt(table.size());
+		for (int i = 0; i < table.size(); i++) writeString(out, table.name(i));
+
+		out.writeInt(affixes.size());
+		for (Affix afx : affixes) writeAffix(out, table, afx);
+
+		out.writeBoolean(compat != null);
+		if (compat != null) compat.write(out);
+
+		out.writeBoolean(search != null);
+		if (search != null) search.write(out);
+	}
+
+	/** Read a store from a file.
+	 *
+	 * @param fName The file to read from.
+	 *
+	 * @return The store read from the file.
+	 *
+	 * @throws IOException If something goes wrong reading the file. */
+	public static AffixStore read(String fName) throws IOException {
+		try (DataInputStream in = new DataInputStream(
+				new BufferedInputStream(new FileInputStream(fName)))) {
+			return read(in);
+		}
+	}
+
+	/** Read a store from an input stream.
+	 *
+	 * @param in The stream to read from.
+	 *
+	 * @return The store that was read.
+	 *
+	 * @throws IOException If something goes wrong reading the store. */
+	public static AffixStore read(DataInputStream in) throws IOException {
+		if (in.readInt() != MAGIC) {
+			throw new IOException("Not an affix store");
+		}
+
+		int version = in.readInt();
+		if (version < MIN_VERSION || version > VERSION) {
+			throw new IOException(String.format(
+					"Unsupported affix store version %d (expected %d to %d)",
+					version, MIN_VERSION, VERSION));
+		}
+
+		AffixStore store = new AffixStore();
+
+		int numFiles = in.readInt();
+		for (int i = 0; i < numFiles; i++) store.sources.idFor(readString(in));
+
+		int numAffixes = in.readInt();
+		for (int i = 0; i < numAffixes; i++) {
+			store.affixes.add(readAffix(in, store.sources, version));
+		}
+
+		if (in.readBoolean()) store.compat = AffixCompatibility.read(in);
+
+		if (version >= 3 && in.readBoolean()) store.search = SearchIndex.read(in);
+
+		return store;
+	}
+
+	/** Write a single affix.
+	 *
+	 * @param out The stream to write to.
+	 * @param table The table to get file ids from.
+	 * @param afx The affix to write.
+	 *
+	 * @throws IOException If something goes wrong writing the affix. */
+	public static void writeAffix(DataOutputStream out, SourceTable table, Affix afx)
+			throws IOException
+	{
+		writeProvenance(out, table, afx.source);
+
+		writeString(out, afx.intName);
+		writeString(out, afx.affixSuffix);
+		writeString(out, afx.affixPrefix);
+
+		out.writeInt(afx.spawnRange.minLevel);
+		out.writeInt(afx.spawnRange.maxLevel);
+
+		out.writeInt(afx.weight);
+		out.writeInt(afx.slots);
+
+		out.writeByte(afx.type.ordinal());
+
+		writeStrings(out, afx.equipTypes);
+		writeStrings(out, afx.nonequipTypes);
+		writeStrings(out, afx.enchantSources);
+		writeStrings(out, afx.socketableTypes);
+
+		out.writeInt(afx.effects.size());
+		for (Effect eft : afx.effects) writeEffect(out, table, eft);
+	}
+
+	/** Read a single affix.
+	 *
+	 * @param in The stream to read from.
+	 * @param table The table that file ids refer to.
+	 *
+	 * @return The affix that was read.
+	 *
+	 * @throws IOException If something goes wrong reading the affix. */
+	public static Affix readAffix(DataInputStream in, SourceTable table) throws IOException {
+		return readAffix(in, table, VERSION);
+	}
+
+	/* Read a single affix written by a given version of the format. */
+	private static Affix readAffix(DataInputStream in, SourceTable table, int version)
+			throws IOException
+	{
+		Affix afx = new Affix();
+
+		afx.source = readProvenance(in, table);
+
+		afx.intName     = readString(in);
+		afx.affixSuffix = readString(in);
+		afx.affixPrefix = readString(in);
+
+		afx.spawnRange.minLevel = in.readInt();
+		afx.spawnRange.maxLevel = in.readInt();
+
+		afx.weight = in.readInt();
+		afx.slots  = in.readInt();
+
+		afx.type = AffixType.values()[in.readByte()];
+
+		readStrings(in, afx.equipTypes);
+		readStrings(in, afx.nonequipTypes);
+		readStrings(in, afx.enchantSources);
+		readStrings(in, afx.socketableTypes);
+
+		int numEffects = in.readInt();
+		for (int i = 0; i < numEffects; i++) afx.effects.add(readEffect(in, table, version));
+
+		return afx;
+	}
+
+	/* Write a single effect. */
+	private static void writeEffect(DataOutputStream out, SourceTable table, Effect eft)
+			throws IOException
+	{
+		// Effects only keep their lines, not where they are in the file.
+		out.writeBoolean(eft.sourceFile != null);
+		if (eft.sourceFile != null) {
+			out.writeInt(table.idFor(eft.sourceFile.name));
+			out.writeInt(eft.startLine);
+			out.writeInt(eft.endLine);
+		}
+
+		out.writeDouble(eft.duration);
+		out.writeDouble(eft.minValue);
+		out.writeDouble(eft.maxValue);
+		out.writeDouble(eft.statPercent);
+		out.writeDouble(eft.soakScale);
+		out.writeInt(eft.level);
+		out.writeDouble(eft.resist);
+		out.writeDouble(eft.minPer);
+		out.writeDouble(eft.maxPer);
+		out.writeDouble(eft.range);
+		out.writeDouble(eft.maxCount);
+		out.writeDouble(eft.pulse);
+
+		EffectGroup group = eft.group;
+
+		writeString(out, group.name);
+		writeString(out, group.type);
+		writeString(out, group.damageType);
+		writeString(out, group.statName);
+		writeString(out, group.graphOverride);
+
+		out.writeBoolean(group.hasDuration);
+		out.writeBoolean(group.isStatBonus);
+		out.writeBoolean(group.ownerLevel);
+		out.writeBoolean(group.useGraph);
+		out.writeBoolean(group.exclusive);
+		out.writeBoolean(group.isTransfer);
+	}
+
+	/* Read a single effect. */
+	private static Effect readEffect(DataInputStream in, SourceTable table, int version)
+			throws IOException
+	{
+		Effect eft = new Effect();
+
+		if (version < 4) {
+			// Older versions kept a whole provenance record for each effect.
+			Provenance source = readProvenance(in, table);
+
+			if (source != null) {
+				eft.sourceFile = table.file(source.fileId);
+				eft.startLine  = source.startLine;
+				eft.endLine    = source.endLine;
+			}
+		} else if (in.readBoolean()) {
+			int fileId = in.readInt();
+
+			eft.sourceFile = table.file(fileId);
+			eft.startLine  = in.readInt();
+			eft.endLine    = in.readInt();
+
+			if (eft.sourceFile == null) {
+				throw new IOException("Unknown file id " + fileId + " in affix store");
+			}
+		}
+
+		eft.duration    = in.readDouble();
+		eft.minValue    = in.readDouble();
+		eft.maxValue    = in.readDouble();
+		eft.statPercent = in.readDouble();
+		eft.soakScale   = in.readDouble();
+		eft.level       = in.readInt();
+		eft.resist      = in.readDouble();
+		eft.minPer      = in.readDouble();
+		eft.maxPer      = in.readDouble();
+		eft.range       = in.readDouble();
+		eft.maxCount    = in.readDouble();
+		eft.pulse       = in.readDouble();
+
+		EffectGroup group = eft.group;
+
+		group.name          = readString(in);
+		group.type          = readString(in);
+		group.damageType    = readString(in);
+		group.statName      = readString(in);
+		group.graphOverride = readString(in);
+
+		group.hasDuration = in.readBoolean();
+		group.isStatBonus = in.readBoolean();
+		group.ownerLevel  = in.readBoolean();
+		group.useGraph    = in.readBoolean();
+		group.exclusive   = in.readBoolean();
+		group.isTransfer  = in.readBoolean();
+
+		return eft;
+	}
+
+	/* Write a possibly-null provenance record, using the file ids from a table. */
+	private static void writeProvenance(DataOutputStream out, SourceTable table,
+			Provenance source) throws IOException
+	{
+		out.writeBoolean(source != null);
+		if (source == null) return;
+
+		out.writeInt(table.idFor(source.fileName()));
+		out.writeInt(source.startLine);
+		out.writeInt(source.endLine);
+		out.writeLong(source.offset);
+		out.writeInt(source.length);
+	}
+
+	/* Read a possibly-null provenance record. */
+	private static Provenance readProvenance(DataInputStream in, SourceTable table)
+			throws IOException
+	{
+		if (!in.readBoolean()) return null;
+
+		int  fileId    = in.readInt();
+		int  startLine = in.readInt();
+		int  endLine   = in.readInt();
+		long offset    = in.readLong();
+		int  length    = in.readInt();
+
+		if (table.name(fileId) == null) {
+			throw new IOException("Unknown file id " + fileId + " in affix store");
+		}
+
+		return new Provenance(table, fileId, startLine, endLine, offset, length);
+	}
+
+	/** Write a possibly-null string.
+	 *
+	 * @param out The stream to write to.
+	 * @param str The string to write.
+	 *
+	 * @throws IOException If something goes wrong writing the string. */
+	public static void writeString(DataOutputStream out, String str) throws IOException {
+		out.writeBoolean(str != null);
+		if (str != null) out.writeUTF(str);
+	}
+
+	/** Read a string written by {@link #writeString(DataOutputStream, String)}.
+	 *
+	 * @param in The stream to read from.
+	 *
+	 * @return The string that was read, which may be null.
+	 *
+	 * @throws IOException If something goes wrong reading the string. */
+	public static String readString(DataInputStream in) throws IOException {
+		if (in.readBoolean()) return in.readUTF();
+		return null;
+	}
+
+	/* Write a list of strings. */
+	private static void writeStrings(DataOutputStream out, List<String> strs) throws IOException {
+		out.writeInt(strs.size());
+		for (String str : strs) writeString(out, str);
+	}
+
+	/* Read a list of strings into an existing list. */
+	private static void readStrings(DataInputStream in, List<String> strs) throws IOException {
+		int numStrings = in.readInt();
+		for (int i = 0; i < numStrings; i++) strs.add(readString(in));
+	}
+}
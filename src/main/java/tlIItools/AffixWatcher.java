@@ -0,0 +1,405 @@
+package tlIItools;
+
+import java.io.*;
+
+import java.nio.file.*;
+
+import java.util.*;
+import java.util.Map.Entry;
+import java.util.concurrent.*;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/** Keeps an affix listing up to date while the affix files are being edited.
+ *
+ * Every file is loaded once, and then the directories they are in are watched.
+ * When files change, only those files are parsed again; the old affix is
+ * removed from the affix set and the counts, and the new one added. The
+ * rendered text for each file and for each affix group is kept, so only the
+ * sections that changed are rendered again before the outputs are rewritten.
+ *
+ * @author Ben Culkin */
+public class AffixWatcher {
+	/** The default time to wait for things to settle down after a change, in
+	 * milliseconds. */
+	public static final long DEFAULT_DEBOUNCE = 150;
+
+	/* A file being watched, along with its affix and how it was rendered. */
+	private static class WatchedFile {
+		public final String fName;
+		public final String group;
+
+		public Affix  afx;
+		public String section = "";
+
+		public WatchedFile(String fName, String group) {
+			this.fName = fName;
+			this.group = group;
+		}
+	}
+
+	/** Should zero-weight affixes be listed? */
+	public boolean listZeros = false;
+	/** Should the note for unlisted zero-weight affixes be left out? */
+	public boolean omitZeros = false;
+	/** Which affixes should be listed, by whether they have a name. */
+	public AffixLister.NameMode nameMode = AffixLister.NameMode.ALL;
+
+	/** The time to wait for things to settle down after a change, in
+	 * milliseconds. */
+	public long debounce = DEFAULT_DEBOUNCE;
+
+	/** The file to write the listing to, or null to print changed affixes to the
+	 * normal output. */
+	public Path outputFile;
+	/** The file to write the affix groups to, or null to not write them. */
+	public Path groupFile;
+
+	/** The affixes that are currently loaded. */
+	public final AffixSet affixSet = new AffixSet();
+
+	/** The number of named affixes that are listed. */
+	public int namedCount;
+	/** The number of unnamed affixes that are listed. */
+	public int unnamedCount;
+	/** The number of zero-weight affixes. */
+	public int zeroCount;
+	/** The number of effects in all of the affixes. */
+	public int effectCount;
+
+	private final RunContext     ctx;
+	private final NameFileReader nfr;
+
+	/* The watched files, by file group, in the order they are listed. */
+	private final Map<String, Map<Path, WatchedFile>> groups = new LinkedHashMap<>();
+
+	/* Which group new files in a directory go into. */
+	private final Map<Path, String> dirGroups = new HashMap<>();
+
+	/* The rendered text for each affix group, for the groups output. */
+	private final Map<AffixGroup, String> groupSections = new HashMap<>();
+
+	/** Create a new affix watcher.
+	 *
+	 * @param ctx The run to load and render affixes for.
+	 * @param nfr The name reader to get the files to watch from. */
+	public AffixWatcher(RunContext ctx, NameFileReader nfr) {
+		this.ctx = ctx;
+		this.nfr = nfr;
+	}
+
+	/** Load every file, and write the outputs for the first time. */
+	public void loadAll() {
+		for (Entry<String, List<String>> fGroup : nfr.fNames.entrySet()) {
+			for (String fName : fGroup.getValue()) track(fGroup.getKey(), fName);
+		}
+
+		if (nfr.hasRoots()) {
+			nfr.discover((batch) -> {
+				synchronized (groups) {
+					for (String fName : batch.files) track(batch.group, fName);
+				}
+			});
+		}
+
+		for (Map<Path, WatchedFile> files : groups.values()) {
+			for (WatchedFile file : files.values()) reload(file);
+		}
+
+		if (outputFile == null) {
+			StringBuilder sb = new StringBuilder();
+			for (Map<Path, WatchedFile> files : groups.values()) {
+				for (WatchedFile file : files.values()) sb.append(file.section);
+			}
+
+			ctx.normOut.print(sb);
+			ctx.normOut.flush();
+		}
+
+		writeOutputs(affixSet.affixGroups.keySet());
+	}
+
+	/* Start keeping track of a file. */
+	private void track(String group, String fName) {
+		// Files inside of archives can't be watched.
+		if (fName.contains(NameFileReader.ARCHIVE_SEP)) return;
+
+		Path pth = Paths.get(fName).toAbsolutePath().normalize();
+
+		groups.computeIfAbsent(group, (key) -> new LinkedHashMap<>())
+			.putIfAbsent(pth, new WatchedFile(fName, group));
+
+		dirGroups.putIfAbsent(pth.getParent(), group);
+	}
+
+	/** Watch for changes until interrupted.
+	 *
+	 * @throws IOException If the directories can't be watched. */
+	public void watch() throws IOException {
+		try (WatchService watcher = FileSystems.getDefault().newWatchService()) {
+			for (Path dir : dirGroups.keySet()) {
+				dir.register(watcher, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+			}
+
+			ctx.errOut.printf("Watching %,d directories for changes\n", dirGroups.size());
+			ctx.errOut.flush();
+
+			while (true) {
+				Set<Path> changed = new LinkedHashSet<>();
+
+				WatchKey key = watcher.take();
+
+				// Editors tend to write files in several steps, so wait for things
+				// to be quiet before doing anything.
+				while (key != null) {
+					Path dir = (Path) key.watchable();
+
+					for (WatchEvent<?> event : key.pollEvents()) {
+						if (event.kind() == OVERFLOW) {
+							changed.addAll(allFiles());
+							continue;
+						}
+
+						changed.add(dir.resolve((Path) event.context()));
+					}
+
+					key.reset();
+
+					key = watcher.poll(debounce, TimeUnit.MILLISECONDS);
+				}
+
+				update(changed);
+			}
+		} catch (InterruptedException iex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private List<Path> allFiles() {
+		List<Path> files = new ArrayList<>();
+		for (Map<Path, WatchedFile> group : groups.values()) files.addAll(group.keySet());
+
+		return files;
+	}
+
+	/** Parse changed files again, and update the outputs.
+	 *
+	 * @param changed The files that have changed. Files that aren't affix files
+	 *                are ignored. */
+	public void update(Collection<Path> changed) {
+		long startTime = System.nanoTime();
+
+		ctx.diagnostics = new Diagnostics(ctx.diagnostics.capacity);
+
+		Set<AffixGroup> touched = new HashSet<>();
+		List<WatchedFile> updated = new ArrayList<>();
+
+		for (Path changedPath : changed) {
+			Path pth = changedPath.toAbsolutePath().normalize();
+
+			WatchedFile file = lookup(pth);
+			if (file == null) continue;
+
+			if (file.afx != null) touched.add(file.afx.toAffixGroup());
+
+			if (Files.exists(pth)) {
+				reload(file);
+			} else {
+				forget(file);
+				groups.get(file.group).remove(pth);
+			}
+
+			if (file.afx != null) touched.add(file.afx.toAffixGroup());
+
+			updated.add(file);
+		}
+
+		if (updated.isEmpty()) return;
+
+		if (outputFile == null) {
+			for (WatchedFile file : updated) ctx.normOut.print(file.section);
+			ctx.normOut.flush();
+		}
+
+		writeOutputs(touched);
+
+		ctx.diagnostics.printTo(ctx.errOut);
+
+		long endTime = System.nanoTime();
+		ctx.errOut.printf(
+			"Updated %,d file(s) in %.2f ms: %,d affixes (%,d named, %,d unnamed, %,d zero-weight) (%,d effects) (%,d affix groups)\n",
+			updated.size(), (endTime - startTime) / 1000000.0,
+			affixCount(), namedCount, unnamedCount, zeroCount, effectCount,
+			affixSet.affixGroups.size());
+		ctx.errOut.flush();
+	}
+
+	/* Find the watched file for a path, starting to watch it if it is a new
+	 * affix file in a watched directory. */
+	private WatchedFile lookup(Path absPath) {
+		String group = dirGroups.get(absPath.getParent());
+		if (group == null) return null;
+
+		WatchedFile file = groups.get(group).get(absPath);
+		if (file != null) return file;
+
+		if (!absPath.getFileName().toString().toUpperCase().endsWith(".DAT")) return null;
+		if (!Files.exists(absPath)) return null;
+
+		file = new WatchedFile(absPath.toString(), group);
+		groups.get(group).put(absPath, file);
+
+		return file;
+	}
+
+	/* Parse a file again, replacing the affix it used to have. */
+	private void reload(WatchedFile file) {
+		forget(file);
+
+		try {
+			file.afx = AffixLister.loadAffixFile(ctx, nfr, file.fName);
+		} catch (IOException | RuntimeException ex) {
+			AffixLister.reportFileError(ctx, file.fName, ex, false);
+
+			return;
+		}
+
+		affixSet.addAffixByContents(file.afx);
+		count(file.afx, 1);
+
+		file.section = render(file.afx);
+	}
+
+	/* Remove the affix for a file from everything. */
+	private void forget(WatchedFile file) {
+		if (file.afx == null) return;
+
+		affixSet.removeAffix(file.afx);
+		count(file.afx, -1);
+
+		file.afx     = null;
+		file.section = "";
+	}
+
+	/* Add or remove an affix from the counts. */
+	private void count(Affix afx, int delta) {
+		effectCount += delta * afx.effects.size();
+
+		if (afx.weight == 0) zeroCount += delta;
+		if (afx.weight == 0 && !listZeros) return;
+
+		if (afx.affixSuffix != null || afx.affixPrefix != null) namedCount   += delta;
+		else                                                    unnamedCount += delta;
+	}
+
+	/** Get the number of affixes that are currently loaded.
+	 *
+	 * @return The number of loaded affixes. */
+	public int affixCount() {
+		int count = 0;
+		for (Map<Path, WatchedFile> files : groups.values()) {
+			for (WatchedFile file : files.values()) if (file.afx != null) count += 1;
+		}
+
+		return count;
+	}
+
+	/* Render an affix the same way the affix lister does. */
+	private String render(Affix afx) {
+		boolean isNamed = afx.affixSuffix != null || afx.affixPrefix != null;
+
+		if (afx.weight == 0 && !listZeros) {
+			if (omitZeros) return "";
+
+			return "\nAffix " + afx.intName + " has zero spawn weight\n";
+		}
+
+		if (nameMode == AffixLister.NameMode.UNNAMED && isNamed)  return "";
+		if (nameMode == AffixLister.NameMode.NAMED   && !isNamed) return "";
+
+		StringBuilder sb = new StringBuilder();
+
+		AffixWriter out = AffixWriter.forBuilder(ctx, sb);
+		out.newline();
+		out.writeLongAffix(afx);
+		out.newline();
+		out.flush();
+
+		return sb.toString();
+	}
+
+	/* Render the affix groups that changed, then write out every output. */
+	private void writeOutputs(Collection<AffixGroup> touched) {
+		if (outputFile != null) {
+			replaceFile(outputFile, (wrt) -> {
+				for (Entry<String, Map<Path, WatchedFile>> group : groups.entrySet()) {
+					if (group.getValue().isEmpty()) continue;
+
+					wrt.write("\nFile Group '" + group.getKey() + "' starting\n");
+					for (WatchedFile file : group.getValue().values()) wrt.write(file.section);
+					wrt.write("\nFile Group '" + group.getKey() + "' ending\n");
+				}
+			});
+		}
+
+		if (groupFile == null) return;
+
+		for (AffixGroup group : touched) {
+			Set<Affix> affixes = affixSet.affixGroups.get(group);
+
+			// Skip one-affix groups
+			if (affixes == null || affixes.size() == 1) {
+				groupSections.remove(group);
+				continue;
+			}
+
+			List<Affix> affixList = new ArrayList<>(affixes);
+			Collections.sort(affixList, (lhs, rhs) -> lhs.spawnRange.compareTo(rhs.spawnRange));
+
+			StringBuilder sb = new StringBuilder();
+
+			AffixWriter out = AffixWriter.forBuilder(ctx, sb);
+			out.writeAffixGroup(group, affixList);
+			out.flush();
+
+			groupSections.put(group, sb.toString());
+		}
+
+		replaceFile(groupFile, (wrt) -> {
+			for (AffixGroup group : affixSet.affixGroups.keySet()) {
+				String section = groupSections.get(group);
+				if (section != null) wrt.write(section);
+			}
+		});
+	}
+
+	/* Writes the contents of a file. */
+	@FunctionalInterface
+	private interface FileContents {
+		void writeTo(Writer wrt) throws IOException;
+	}
+
+	/* Write a file next to the real one, and then move it into place, so that
+	 * anything viewing the file never sees it half-written. */
+	private void replaceFile(Path dest, FileContents contents) {
+		Path absDest = dest.toAbsolutePath();
+		Path tmpFile = absDest.resolveSibling(absDest.getFileName() + ".tmp");
+
+		try {
+			try (Writer wrt = Files.newBufferedWriter(tmpFile)) {
+				contents.writeTo(wrt);
+			}
+
+			try {
+				Files.move(tmpFile, absDest, StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException amnsex) {
+				Files.move(tmpFile, absDest, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException ioex) {
+			ctx.errOut.printf("ERROR: Couldn't write file %s\n", dest);
+
+			ioex.printStackTrace(ctx.errOut);
+		}
+	}
+}
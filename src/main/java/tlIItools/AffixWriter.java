@@ -0,0 +1,418 @@
+package tlIItools;
+
+import java.io.*;
+
+import java.util.*;
+
+import tlIItools.Affix.AffixType;
+
+/** Writes affixes, effects and affix groups out in their text formats.
+ *
+ * Output goes straight into a large buffered writer, instead of being built
+ * up into strings first. When a string is wanted, the writer appends directly
+ * to a string builder, with no buffer in between. Indentation is tracked by
+ * the writer: every line that has something on it is started with one tab
+ * per indentation level.
+ *
+ * @author Ben Culkin */
+public class AffixWriter implements Closeable, Flushable {
+	/** The default size of the output buffer. */
+	public static final int DEFAULT_BUFFER = 1 << 16;
+
+	private final Appendable out;
+	private final RunContext ctx;
+
+	private int     indentLevel;
+	private boolean atLineStart;
+
+	/** Create a new affix writer that writes to a stream.
+	 *
+	 * @param ctx The run to write affixes for.
+	 * @param out The stream to write to. */
+	public AffixWriter(RunContext ctx, OutputStream out) {
+		this(ctx, new OutputStreamWriter(out), DEFAULT_BUFFER);
+	}
+
+	/** Create a new affix writer.
+	 *
+	 * @param ctx The run to write affixes for.
+	 * @param out The writer to write to.
+	 * @param bufSize The size of the buffer to use. */
+	public AffixWriter(RunContext ctx, Writer out, int bufSize) {
+		this(ctx, new BufferedWriter(out, bufSize));
+	}
+
+	/* Create a new affix writer that writes straight to a destination. */
+	private AffixWriter(RunContext ctx, Appendable out) {
+		this.ctx = ctx;
+		this.out = out;
+
+		this.atLineStart = true;
+	}
+
+	/** Create a new affix writer that writes into a string builder.
+	 *
+	 * @param ctx The run to write affixes for.
+	 * @param sb The string builder to write into.
+	 *
+	 * @return An affix writer for the string builder. */
+	public static AffixWriter forBuilder(RunContext ctx, StringBuilder sb) {
+		return new AffixWriter(ctx, sb);
+	}
+
+	/** Increase the indentation level by one. */
+	public void indent() {
+		indentLevel += 1;
+	}
+
+	/** Decrease the indentation level by one. */
+	public void dedent() {
+		if (indentLevel > 0) indentLevel -= 1;
+	}
+
+	/** Write a string, indenting any lines it starts.
+	 *
+	 * @param str The string to write.
+	 *
+	 * @return This writer. */
+	public AffixWriter write(String str) {
+		try {
+			if (indentLevel == 0) {
+				out.append(str);
+
+				if (!str.isEmpty()) atLineStart = str.charAt(str.length() - 1) == '\n';
+
+				return this;
+			}
+
+			int start = 0;
+			int len   = str.length();
+
+			while (start < len) {
+				int nlIdx = str.indexOf('\n', start);
+				int end   = nlIdx == -1 ? len : nlIdx;
+
+				if (end > start) {
+					startLine();
+					out.append(str, start, end);
+				}
+
+				if (nlIdx == -1) break;
+
+				out.append('\n');
+				atLineStart = true;
+
+				start = nlIdx + 1;
+			}
+		} catch (IOException ioex) {
+			throw new UncheckedIOException(ioex);
+		}
+
+		return this;
+	}
+
+	/** Write a character.
+	 *
+	 * @param ch The character to write.
+	 *
+	 * @return This writer. */
+	public AffixWriter write(char ch) {
+		try {
+			if (ch == '\n') {
+				out.append('\n');
+				atLineStart = true;
+			} else {
+				startLine();
+				out.append(ch);
+			}
+		} catch (IOException ioex) {
+			throw new UncheckedIOException(ioex);
+		}
+
+		return this;
+	}
+
+	/** Write an integer.
+	 *
+	 * @param num The integer to write.
+	 *
+	 * @return This writer. */
+	public AffixWriter write(int num) {
+		return write(Integer.toString(num));
+	}
+
+	/** Write a newline.
+	 *
+	 * @return This writer. */
+	public AffixWriter newline() {
+		return write('\n');
+	}
+
+	private void startLine() throws IOException {
+		if (!atLineStart) return;
+
+		for (int i = 0; i < indentLevel; i++) out.append('\t');
+
+		atLineStart = false;
+	}
+
+	/* Write a list in the same format as List.toString. */
+	private void writeList(List<String> strs) {
+		write('[');
+
+		boolean first = true;
+		for (String str : strs) {
+			if (!first) write(", ");
+			first = false;
+
+			write(str);
+		}
+
+		write(']');
+	}
+
+	/* Write a list, separated by commas. */
+	private void writeJoined(List<String> strs) {
+		boolean first = true;
+		for (String str : strs) {
+			if (!first) write(", ");
+			first = false;
+
+			write(str);
+		}
+	}
+
+	/** Write the full details of an affix.
+	 *
+	 * @param afx The affix to write. */
+	public void writeLongAffix(Affix afx) {
+		writeAffixDetails(afx);
+
+		if (afx.effects.size() != 0) {
+			write("Effects: ");
+
+			indent();
+			for (Effect eft : afx.effects) {
+				newline();
+				writeEffect(eft);
+			}
+			dedent();
+
+			newline();
+		}
+
+		dedent();
+	}
+
+	/** Write the full details of an affix, except for what its effects are.
+	 *
+	 * Only the number of effects is written, so the effects don't need to have
+	 * been parsed.
+	 *
+	 * @param afx The affix to write. */
+	public void writeAffixHeader(Affix afx) {
+		writeAffixDetails(afx);
+
+		if (afx.effects.size() != 0) write("Effects: ").write(afx.effects.size()).newline();
+
+		dedent();
+	}
+
+	/* Write everything about an affix but its effects, leaving it indented. */
+	private void writeAffixDetails(Affix afx) {
+		if (afx.type == AffixType.SOCKETABLE) {
+			write("Socketable ");
+		} else if (afx.type == AffixType.PERSONAL || (afx.intName != null && afx.intName.startsWith("HERO_"))) {
+			write("Personal ");
+		} else if (afx.intName != null & afx.intName.startsWith("MAP_")) {
+			write("Area ");
+		}
+
+		if (afx.type == AffixType.ENCHANTMENT) write("Enchantment: ");
+		else                                   write("Affix: ");
+
+		write(String.valueOf(afx.intName)).newline();
+
+		indent();
+
+		if (ctx.addFileName && afx.source != null) {
+			write("Source: ").write(afx.source.location()).newline();
+		}
+
+		writeAffixNames(afx);
+
+		write(afx.spawnRange.toString()).newline();
+
+		write("Spawn Weight: ").write(afx.weight).newline();
+
+		writeSlots(afx);
+
+		if (afx.equipTypes.size() != 0) {
+			if (afx.type == AffixType.SOCKETABLE) {
+				write("Socketable Into: ");
+			} else if (afx.type == AffixType.ENCHANTMENT) {
+				write("Enchants Onto: ");
+			} else {
+				write("Spawns On: ");
+			}
+
+			writeList(afx.equipTypes);
+			newline();
+		}
+
+		// Socketables & enchantments use this as a duplicate.
+		if (afx.type != AffixType.SOCKETABLE && afx.type != AffixType.ENCHANTMENT
+				&& afx.nonequipTypes.size() != 0)
+		{
+			write("Can't Spawn On: ");
+			writeList(afx.nonequipTypes);
+			newline();
+		}
+
+		if (afx.enchantSources.size() != 0) {
+			write("Enchantment Sources: ");
+			writeList(afx.enchantSources);
+			newline();
+		}
+
+		if (afx.socketableTypes.size() != 0) {
+			write("Socketable Types: ");
+			writeList(afx.socketableTypes);
+			newline();
+		}
+	}
+
+	/** Write the short form of an affix.
+	 *
+	 * @param afx The affix to write. */
+	public void writeShortAffix(Affix afx) {
+		write(String.valueOf(afx.intName)).newline();
+
+		indent();
+
+		writeAffixNames(afx);
+
+		write(afx.spawnRange.toString()).newline();
+
+		write("Spawn Weight: ").write(afx.weight).write("\t\t");
+
+		writeSlots(afx);
+
+		if (afx.effects.size() != 0) {
+			write("Effects: ");
+
+			indent();
+			for (Effect eft : afx.effects) {
+				if (afx.effects.size() > 1) newline();
+				writeEffect(eft);
+			}
+			dedent();
+
+			newline();
+		}
+
+		dedent();
+	}
+
+	private void writeAffixNames(Affix afx) {
+		if (afx.affixSuffix != null) write("Suffix: ").write(afx.affixSuffix).newline();
+		if (afx.affixPrefix != null) write("Prefix: ").write(afx.affixPrefix).newline();
+	}
+
+	private void writeSlots(Affix afx) {
+		if (afx.slots == 0) {
+			write("Occupies no slots\n");
+		} else {
+			write("Slots: ").write(afx.slots).newline();
+		}
+	}
+
+	/** Write the description of an effect.
+	 *
+	 * @param eft The effect to write. */
+	public void writeEffect(Effect eft) {
+		write(eft.describe(ctx));
+	}
+
+	/** Write the summary of an affix group.
+	 *
+	 * @param group The affix group to write. */
+	public void writeGroupSummary(AffixGroup group) {
+		write("Affix Type: ").write(String.valueOf(group.type)).newline();
+
+		write("Effects: ");
+		if (group.effects.size() > 1) newline();
+
+		for (EffectGroup effect : group.effects) {
+			if (group.effects.size() > 1) write('\t');
+			write(effect.summary()).newline();
+		}
+
+		if (group.type == AffixType.SOCKETABLE) {
+			write("Affix can be socketed into: ");
+			writeJoined(group.equipTypes);
+			write("\nAffix can spawn on: ");
+			writeJoined(group.socketableTypes);
+			newline();
+		} else {
+			write("Affix can spawn on: ");
+			writeJoined(group.equipTypes);
+			write("\nAffix can't spawn on: ");
+			writeJoined(group.nonequipTypes);
+			newline();
+		}
+
+		if (group.type == AffixType.ENCHANTMENT) {
+			write("Affix can be enchanted by: ");
+			writeJoined(group.socketableTypes);
+			newline();
+		}
+	}
+
+	/** Write out an affix group, along with the short form of its affixes.
+	 *
+	 * @param groupId The ID for the group.
+	 * @param summary The summary of the group.
+	 * @param shortForms The short forms of the affixes in the group. */
+	public void writeAffixGroup(int groupId, String summary, List<String> shortForms) {
+		write("Group ID ").write(groupId).write(" (").write(shortForms.size()).write(" affixes)\t");
+		write(summary);
+
+		indent();
+		for (String shortForm : shortForms) write(shortForm);
+		dedent();
+
+		newline();
+	}
+
+	/** Write out an affix group, along with the short form of its affixes.
+	 *
+	 * @param group The group to write.
+	 * @param affixes The affixes in the group, in the order to write them. */
+	public void writeAffixGroup(AffixGroup group, List<Affix> affixes) {
+		write("Group ID ").write(group.hashCode()).write(" (").write(affixes.size()).write(" affixes)\t");
+		writeGroupSummary(group);
+
+		indent();
+		for (Affix afx : affixes) writeShortAffix(afx);
+		dedent();
+
+		newline();
+	}
+
+	@Override
+	public void flush() {
+		if (!(out instanceof Flushable)) return;
+
+		try {
+			((Flushable) out).flush();
+		} catch (IOException ioex) {
+			throw new UncheckedIOException(ioex);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (out instanceof Closeable) ((Closeable) out).close();
+	}
+}
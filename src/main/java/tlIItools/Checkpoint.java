@@ -0,0 +1,309 @@
+package tlIItools;
+
+import java.io.*;
+
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+
+import java.util.*;
+import java.util.zip.*;
+
+/** A record of which files a run has finished with, so that the run can be
+ * picked up where it left off if it is stopped.
+ *
+ * The checkpoint is a journal: every time it is saved, the files finished
+ * since the last save are added to the end of it as one segment, in the same
+ * format as an {@link AffixStore}. Each segment carries its length and a
+ * checksum, so if the run is killed part of the way through a save, the
+ * half-written segment is noticed and dropped when the checkpoint is opened
+ * again.
+ *
+ * Along with the files that loaded, the checkpoint also records files that
+ * were quarantined because they failed to load or took too long, so that they
+ * aren't tried again.
+ *
+ * @author Ben Culkin */
+public class Checkpoint implements Closeable {
+	/* Marks a file as being a checkpoint. */
+	private static final int MAGIC = 0x544C3243;
+	/* The version of the checkpoint format. */
+	private static final int VERSION = 3;
+
+	/** What happened to a file.
+	 *
+	 * @author Ben Culkin */
+	public static enum Status {
+		/** The file was loaded. */
+		DONE,
+		/** The file couldn't be loaded, and shouldn't be tried again. */
+		QUARANTINED
+	}
+
+	/** What happened to a single file.
+	 *
+	 * @author Ben Culkin */
+	public static class Entry {
+		/** The name of the file. */
+		public final String fName;
+		/** What happened to the file. */
+		public final Status status;
+
+		/** The affix loaded from the file, if it was loaded. */
+		public final Affix afx;
+		/** Why the file was quarantined, if it was. */
+		public final String reason;
+
+		/** Create a new checkpoint entry.
+		 *
+		 * @param fName The name of the file.
+		 * @param status What happened to the file.
+		 * @param afx The affix loaded from the file, or null.
+		 * @param reason Why the file was quarantined, or null. */
+		public Entry(String fName, Status status, Affix afx, String reason) {
+			this.fName  = fName;
+			this.status = status;
+			this.afx    = afx;
+			this.reason = reason;
+		}
+	}
+
+	/** The file the checkpoint is kept in. */
+	public final Path file;
+
+	/** The number of files that were already finished when the checkpoint was
+	 * opened. */
+	public int restoredCount;
+
+	/** Whether a half-written segment was dropped when the checkpoint was opened. */
+	public boolean droppedPartial;
+
+	/* Every file that has been finished, by name. */
+	private final Map<String, Entry> entries = new LinkedHashMap<>();
+
+	/* The files that have been finished since the last save. */
+	private final List<Entry> unsaved = new ArrayList<>();
+
+	private final FileChannel channel;
+
+	private Checkpoint(Path file, FileChannel channel) {
+		this.file    = file;
+		this.channel = channel;
+	}
+
+	/** Open a checkpoint, reading back anything already in it.
+	 *
+	 * If the file doesn't exist, a new, empty checkpoint is started.
+	 *
+	 * @param file The file to keep the checkpoint in.
+	 *
+	 * @return The checkpoint.
+	 *
+	 * @throws IOException If the file isn't a checkpoint, or can't be read or
+	 *                     written. */
+	public static Checkpoint open(Path file) throws IOException {
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+		Checkpoint point = new Checkpoint(file, channel);
+
+		try {
+			if (channel.size() == 0) {
+				ByteBuffer header = ByteBuffer.allocate(8);
+				header.putInt(MAGIC).putInt(VERSION).flip();
+
+				while (header.hasRemaining()) channel.write(header);
+				channel.force(false);
+			} else {
+				point.readSegments();
+			}
+		} catch (IOException ioex) {
+			channel.close();
+
+			throw ioex;
+		}
+
+		point.restoredCount = point.entries.size();
+
+		return point;
+	}
+
+	/* Read back every complete segment, and drop anything after them. */
+	private void readSegments() throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				Channels.newInputStream(channel.position(0))));
+
+		if (in.readInt() != MAGIC) throw new IOException("Not a checkpoint: " + file);
+
+		int version = in.readInt();
+		if (version != VERSION) {
+			throw new IOException(String.format(
+					"Unsupported checkpoint version %d (expected %d)",
+					version, VERSION));
+		}
+
+		long goodLength = 8;
+
+		while (true) {
+			byte[] segment;
+
+			try {
+				int  length   = in.readInt();
+				long checksum = in.readLong();
+
+				if (length < 0 || goodLength + 12 + length > channel.size()) break;
+
+				segment = new byte[length];
+				in.readFully(segment);
+
+				CRC32 crc = new CRC32();
+				crc.update(segment);
+				if (crc.getValue() != checksum) break;
+
+				goodLength += 12 + length;
+			} catch (EOFException eofex) {
+				break;
+			}
+
+			readSegment(new DataInputStream(new ByteArrayInputStream(segment)));
+		}
+
+		if (goodLength < channel.size()) {
+			droppedPartial = true;
+
+			channel.truncate(goodLength);
+		}
+
+		channel.position(goodLength);
+	}
+
+	/* Read the entries from one segment. */
+	private void readSegment(DataInputStream in) throws IOException {
+		SourceTable table = new SourceTable();
+
+		int numFiles = in.readInt();
+		for (int i = 0; i < numFiles; i++) table.idFor(AffixStore.readString(in));
+
+		int numEntries = in.readInt();
+		for (int i = 0; i < numEntries; i++) {
+			String fName  = AffixStore.readString(in);
+			Status status = Status.values()[in.readByte()];
+
+			Entry entry;
+			if (status == Status.DONE) {
+				entry = new Entry(fName, status, AffixStore.readAffix(in, table), null);
+			} else {
+				entry = new Entry(fName, status, null, AffixStore.readString(in));
+			}
+
+			entries.put(fName, entry);
+		}
+	}
+
+	/** Get what happened to a file.
+	 *
+	 * @param fName The name of the file.
+	 *
+	 * @return What happened to the file, or null if it hasn't been finished. */
+	public Entry get(String fName) {
+		return entries.get(fName);
+	}
+
+	/** Get the number of files that have been finished.
+	 *
+	 * @return The number of files that have been finished. */
+	public int size() {
+		return entries.size();
+	}
+
+	/** Note that a file was loaded.
+	 *
+	 * @param fName The name of the file.
+	 * @param afx The affix loaded from it. */
+	public void completed(String fName, Affix afx) {
+		add(new Entry(fName, Status.DONE, afx, null));
+	}
+
+	/** Note that a file was quarantined.
+	 *
+	 * @param fName The name of the file.
+	 * @param reason Why the file was quarantined. */
+	public void quarantined(String fName, String reason) {
+		add(new Entry(fName, Status.QUARANTINED, null, reason));
+	}
+
+	private void add(Entry entry) {
+		entries.put(entry.fName, entry);
+		unsaved.add(entry);
+	}
+
+	/** Save every file finished since the last save.
+	 *
+	 * The new segment is forced out to disk before this returns.
+	 *
+	 * @throws IOException If something goes wrong writing the checkpoint. */
+	public void save() throws IOException {
+		if (unsaved.isEmpty()) return;
+
+		SourceTable table = new SourceTable();
+		for (Entry entry : unsaved) {
+			if (entry.afx == null) continue;
+
+			if (entry.afx.source != null) table.idFor(entry.afx.source.fileName());
+
+			for (Effect eft : entry.afx.effects) {
+				if (eft.sourceFile != null) table.idFor(eft.sourceFile.name);
+			}
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeInt(table.size());
+			for (int i = 0; i < table.size(); i++) AffixStore.writeString(out, table.name(i));
+
+			out.writeInt(unsaved.size());
+			for (Entry entry : unsaved) {
+				AffixStore.writeString(out, entry.fName);
+				out.writeByte(entry.status.ordinal());
+
+				if (entry.status == Status.DONE) AffixStore.writeAffix(out, table, entry.afx);
+				else                             AffixStore.writeString(out, entry.reason);
+			}
+		}
+
+		byte[] segment = bytes.toByteArray();
+
+		CRC32 crc = new CRC32();
+		crc.update(segment);
+
+		ByteBuffer buf = ByteBuffer.allocate(12 + segment.length);
+		buf.putInt(segment.length).putLong(crc.getValue()).put(segment).flip();
+
+		while (buf.hasRemaining()) channel.write(buf);
+		channel.force(false);
+
+		unsaved.clear();
+	}
+
+	/** Save anything unsaved, and close the checkpoint.
+	 *
+	 * @throws IOException If something goes wrong writing the checkpoint. */
+	@Override
+	public void close() throws IOException {
+		try {
+			save();
+		} finally {
+			channel.close();
+		}
+	}
+
+	/** Close the checkpoint and delete it, once the run it was for has finished.
+	 *
+	 * @throws IOException If something goes wrong deleting the checkpoint. */
+	public void discard() throws IOException {
+		unsaved.clear();
+
+		channel.close();
+		Files.deleteIfExists(file);
+	}
+}
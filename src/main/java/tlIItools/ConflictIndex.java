@@ -0,0 +1,300 @@
+package tlIItools;
+
+import java.io.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/** Finds affixes that conflict with each other across file groups.
+ *
+ * Every affix that is loaded is recorded by its internal name, by its content
+ * fingerprint, and by the contents of each of its effects. Recording is
+ * thread-safe and takes time proportional to the number of effects, so it can
+ * be done while files are being loaded in parallel. Once everything is loaded,
+ * the conflicts can be worked out from the three indexes.
+ *
+ * File groups are ranked in the order they are first seen. When the same
+ * affix is defined in several groups, the one from the latest group is the one
+ * that wins.
+ *
+ * @author Ben Culkin */
+public class ConflictIndex {
+	/** The kinds of conflict.
+	 *
+	 * @author Ben Culkin */
+	public static enum Kind {
+		/** The same name is defined more than once in one file group. */
+		COLLISION("Name collision"),
+		/** The same name is defined differently in several file groups. */
+		SHADOWED("Shadowed"),
+		/** The same name is defined the same way in several file groups. */
+		REDEFINED("Redefined"),
+		/** The same contents are defined under different names in several file
+		 * groups. */
+		DUPLICATE("Duplicate contents"),
+		/** The same effect is attached to differently named affixes in several
+		 * file groups. */
+		DUPLICATE_EFFECT("Duplicate effect");
+
+		/** How this kind of conflict is described. */
+		public final String description;
+
+		private Kind(String description) {
+			this.description = description;
+		}
+	}
+
+	/** A single definition of an affix.
+	 *
+	 * @author Ben Culkin */
+	public static class Definition {
+		/** The file group the definition is in. */
+		public final String group;
+		/** The rank of the file group; later groups have higher ranks. */
+		public final int groupRank;
+		/** The file the definition is in. */
+		public final String fName;
+		/** The internal name of the affix. */
+		public final String intName;
+		/** The content fingerprint of the affix. */
+		public final long fingerprint;
+		/** The effect this definition is for, or null if it is for the whole
+		 * affix. */
+		public final Effect effect;
+
+		/* The order the definition was recorded in. */
+		private final long seq;
+
+		Definition(String group, int groupRank, Affix afx, long fingerprint, Effect effect,
+				long seq)
+		{
+			this.group       = group;
+			this.groupRank   = groupRank;
+			this.fName       = afx.fileName();
+			this.intName     = afx.intName;
+			this.fingerprint = fingerprint;
+			this.effect      = effect;
+			this.seq         = seq;
+		}
+
+		@Override
+		public String toString() {
+			if (effect == null) {
+				return String.format("%s in group '%s' (%s)", intName, group, fName);
+			}
+
+			return String.format("%s in group '%s' (%s): %s", intName, group, fName, effect);
+		}
+	}
+
+	/** A conflict between several definitions.
+	 *
+	 * @author Ben Culkin */
+	public static class Conflict {
+		/** The kind of conflict. */
+		public final Kind kind;
+
+		/** The definitions involved, in the order they were loaded. For
+		 * {@link Kind#SHADOWED} and {@link Kind#REDEFINED}, the last one is the
+		 * one that wins. */
+		public final List<Definition> definitions;
+
+		Conflict(Kind kind, List<Definition> definitions) {
+			this.kind        = kind;
+			this.definitions = definitions;
+		}
+
+		/** Get the name the conflict is listed under.
+		 *
+		 * @return The name of the first definition. */
+		public String name() {
+			return definitions.get(0).intName;
+		}
+	}
+
+	/* Orders definitions by group rank, and then by when they were recorded. */
+	private static final Comparator<Definition> LOAD_ORDER
+		= Comparator.<Definition>comparingInt((def) -> def.groupRank)
+			.thenComparingLong((def) -> def.seq);
+
+	private final ConcurrentHashMap<String, Integer> groupRanks = new ConcurrentHashMap<>();
+
+	private final ConcurrentHashMap<String, Queue<Definition>> byName
+		= new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<Long, Queue<Definition>> byContent
+		= new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, Queue<Definition>> byEffect
+		= new ConcurrentHashMap<>();
+
+	private final AtomicInteger nextRank = new AtomicInteger();
+	private final AtomicLong    nextSeq  = new AtomicLong();
+
+	/** Declare a file group, giving it the next rank if it hasn't been seen.
+	 *
+	 * Calling this for each group before loading its files makes the ranks
+	 * follow load order, even if the files are recorded out of order.
+	 *
+	 * @param group The name of the file group.
+	 *
+	 * @return The rank of the group. */
+	public int declareGroup(String group) {
+		return groupRanks.computeIfAbsent(group, (key) -> nextRank.getAndIncrement());
+	}
+
+	/** Record an affix that was loaded.
+	 *
+	 * @param group The file group the affix was loaded from.
+	 * @param afx The affix. */
+	public void record(String group, Affix afx) {
+		int rank = declareGroup(group);
+
+		Definition def = new Definition(group, rank, afx,
+				afx.fingerprint(), null, nextSeq.getAndIncrement());
+
+		if (afx.intName != null) {
+			byName.computeIfAbsent(afx.intName.toUpperCase(),
+					(key) -> new ConcurrentLinkedQueue<>()).add(def);
+		}
+
+		byContent.computeIfAbsent(def.fingerprint,
+				(key) -> new ConcurrentLinkedQueue<>()).add(def);
+
+		for (Effect eft : afx.effects) {
+			Definition effectDef = new Definition(group, rank, afx,
+					def.fingerprint, eft, nextSeq.getAndIncrement());
+
+			byEffect.computeIfAbsent(eft.contentKey(),
+					(key) -> new ConcurrentLinkedQueue<>()).add(effectDef);
+		}
+	}
+
+	/** Work out every conflict between the recorded affixes.
+	 *
+	 * This shouldn't be called while affixes are still being recorded.
+	 *
+	 * @return The conflicts, ordered by kind and then by name. */
+	public List<Conflict> conflicts() {
+		List<Conflict> conflicts = new ArrayList<>();
+
+		for (Queue<Definition> defQueue : byName.values()) {
+			if (defQueue.size() < 2) continue;
+
+			List<Definition> defs = new ArrayList<>(defQueue);
+			defs.sort(LOAD_ORDER);
+
+			Map<String, List<Definition>> perGroup = new LinkedHashMap<>();
+			for (Definition def : defs) {
+				perGroup.computeIfAbsent(def.group, (key) -> new ArrayList<>()).add(def);
+			}
+
+			for (List<Definition> groupDefs : perGroup.values()) {
+				if (groupDefs.size() > 1) conflicts.add(new Conflict(Kind.COLLISION, groupDefs));
+			}
+
+			if (perGroup.size() < 2) continue;
+
+			// Only the winning definition from each group matters across groups.
+			List<Definition> winners = new ArrayList<>(perGroup.size());
+			for (List<Definition> groupDefs : perGroup.values()) {
+				winners.add(groupDefs.get(groupDefs.size() - 1));
+			}
+
+			boolean sameContents = true;
+			for (Definition def : winners) {
+				if (def.fingerprint != winners.get(0).fingerprint) sameContents = false;
+			}
+
+			conflicts.add(new Conflict(sameContents ? Kind.REDEFINED : Kind.SHADOWED, winners));
+		}
+
+		for (Queue<Definition> defQueue : byContent.values()) {
+			addCrossGroup(conflicts, Kind.DUPLICATE, defQueue);
+		}
+
+		for (Queue<Definition> defQueue : byEffect.values()) {
+			addCrossGroup(conflicts, Kind.DUPLICATE_EFFECT, defQueue);
+		}
+
+		conflicts.sort(Comparator.<Conflict, Kind>comparing((con) -> con.kind)
+				.thenComparing(Conflict::name, Comparator.nullsFirst(Comparator.naturalOrder())));
+
+		return conflicts;
+	}
+
+	/* Add a conflict for the definitions in a bucket that share their contents
+	 * with a differently named definition from another file group.
+	 *
+	 * Definitions with the same name were already covered by the name index,
+	 * and ones that only match others in their own group aren't conflicts
+	 * between groups, so neither is reported. */
+	private static void addCrossGroup(List<Conflict> conflicts, Kind kind,
+			Queue<Definition> defQueue)
+	{
+		if (defQueue.size() < 2) return;
+
+		List<Definition> defs = new ArrayList<>(defQueue);
+		defs.sort(LOAD_ORDER);
+
+		// The names each group defines these contents under.
+		Map<String, Set<String>> namesByGroup = new HashMap<>();
+		for (Definition def : defs) {
+			namesByGroup.computeIfAbsent(def.group, (key) -> new HashSet<>())
+				.add(String.valueOf(def.intName).toUpperCase());
+		}
+
+		if (namesByGroup.size() < 2) return;
+
+		List<Definition> crossGroup = new ArrayList<>(defs.size());
+		for (Definition def : defs) {
+			String name = String.valueOf(def.intName).toUpperCase();
+
+			for (Map.Entry<String, Set<String>> entry : namesByGroup.entrySet()) {
+				if (entry.getKey().equals(def.group)) continue;
+
+				Set<String> names = entry.getValue();
+				if (names.size() > 1 || !names.contains(name)) {
+					crossGroup.add(def);
+					break;
+				}
+			}
+		}
+
+		if (crossGroup.size() > 1) conflicts.add(new Conflict(kind, crossGroup));
+	}
+
+	/** Write out a report of the conflicts.
+	 *
+	 * @param conflicts The conflicts to report.
+	 * @param dest The place to write the report to. */
+	public static void printConflicts(List<Conflict> conflicts, PrintStream dest) {
+		for (Conflict con : conflicts) {
+			dest.printf("%s: %s\n", con.kind.description, con.name());
+
+			for (int i = 0; i < con.definitions.size(); i++) {
+				Definition def = con.definitions.get(i);
+
+				boolean wins = (con.kind == Kind.SHADOWED || con.kind == Kind.REDEFINED)
+					&& i == con.definitions.size() - 1;
+
+				dest.printf("\t%s%s\n", def, wins ? " (wins)" : "");
+			}
+		}
+
+		dest.flush();
+	}
+
+	/** Write out a count of each kind of conflict.
+	 *
+	 * @param conflicts The conflicts to count.
+	 * @param dest The place to write the counts to. */
+	public static void summarizeConflicts(List<Conflict> conflicts, PrintStream dest) {
+		Map<Kind, Integer> counts = new EnumMap<>(Kind.class);
+		for (Conflict con : conflicts) counts.merge(con.kind, 1, Integer::sum);
+
+		dest.printf("Found %,d conflicts (%,d name collisions, %,d shadowed, %,d redefined, %,d duplicate contents, %,d duplicate effects)\n",
+				conflicts.size(), counts.getOrDefault(Kind.COLLISION, 0),
+				counts.getOrDefault(Kind.SHADOWED, 0), counts.getOrDefault(Kind.REDEFINED, 0),
+				counts.getOrDefault(Kind.DUPLICATE, 0), counts.getOrDefault(Kind.DUPLICATE_EFFECT, 0));
+	}
+}
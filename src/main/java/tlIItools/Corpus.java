@@ -0,0 +1,155 @@
+package tlIItools;
+
+import java.io.*;
+
+import java.util.*;
+import java.util.stream.*;
+
+/** An immutable snapshot of a loaded set of affixes, along with indexes over
+ * them.
+ *
+ * Once it has been built, nothing in a corpus is changed, so any number of
+ * threads can read from it at once without locking.
+ *
+ * @author Ben Culkin */
+public class Corpus {
+	/** Which load this snapshot came from, counting from 1. */
+	public final long generation;
+
+	/** When this snapshot was loaded, in milliseconds since the epoch. */
+	public final long loadedAt;
+	/** How long it took to load this snapshot, in nanoseconds. */
+	public final long loadNanos;
+
+	/** The number of files that affixes were loaded from. */
+	public final int fileCount;
+	/** The number of effects in all of the affixes. */
+	public final int effectCount;
+
+	/** Every affix, in the order they were loaded. */
+	public final List<Affix> affixes;
+
+	/** The affixes, indexed by their upper-cased internal name. */
+	public final Map<String, List<Affix>> byName;
+
+	/** The affixes, indexed by the file group they were loaded from. */
+	public final Map<String, List<Affix>> byFileGroup;
+
+	/** The affixes, sorted into affix groups. */
+	public final AffixSet affixSet;
+
+	/** The effects, indexed by name and type. */
+	public final EffectIndex effectIndex;
+
+	/** A full-text index over the names and effects of the affixes. */
+	public final SearchIndex search;
+
+	private Corpus(long generation, long loadNanos, int fileCount, List<Affix> affixes,
+			Map<String, List<Affix>> byFileGroup, EffectIndex effectIndex, SearchIndex search)
+	{
+		this.generation = generation;
+		this.loadedAt   = System.currentTimeMillis();
+		this.loadNanos  = loadNanos;
+		this.fileCount  = fileCount;
+
+		this.affixes     = Collections.unmodifiableList(affixes);
+		this.byFileGroup = Collections.unmodifiableMap(byFileGroup);
+		this.effectIndex = effectIndex;
+		this.search      = search;
+
+		Map<String, List<Affix>> names = new HashMap<>();
+
+		int effects = 0;
+
+		affixSet = new AffixSet();
+		for (Affix afx : affixes) {
+			affixSet.addAffixByContents(afx);
+
+			effects += afx.effects.size();
+
+			if (afx.intName != null) {
+				names.computeIfAbsent(afx.intName.toUpperCase(), (key) -> new ArrayList<>()).add(afx);
+			}
+		}
+
+		this.effectCount = effects;
+		this.byName      = Collections.unmodifiableMap(names);
+	}
+
+	/** Get the affixes with a given internal name.
+	 *
+	 * @param name The name to look for. Case doesn't matter.
+	 *
+	 * @return The affixes with that name. */
+	public List<Affix> named(String name) {
+		return byName.getOrDefault(name.toUpperCase(), Collections.emptyList());
+	}
+
+	/** Load a corpus from every file in a name reader.
+	 *
+	 * Files are loaded in parallel. Files that can't be loaded are reported to
+	 * the error output of the context, and skipped.
+	 *
+	 * @param ctx The run to load the affixes for.
+	 * @param nfr The name reader to get files from.
+	 * @param generation Which load this is.
+	 *
+	 * @return The loaded corpus. */
+	public static Corpus load(RunContext ctx, NameFileReader nfr, long generation) {
+		long startTime = System.nanoTime();
+
+		List<String> groups = new ArrayList<>();
+		List<String> files  = new ArrayList<>();
+
+		for (Map.Entry<String, List<String>> fGroup : nfr.fNames.entrySet()) {
+			for (String fName : fGroup.getValue()) {
+				groups.add(fGroup.getKey());
+				files.add(fName);
+			}
+		}
+
+		if (nfr.hasRoots()) {
+			nfr.discover((batch) -> {
+				synchronized (files) {
+					for (String fName : batch.files) {
+						groups.add(batch.group);
+						files.add(fName);
+					}
+				}
+			});
+		}
+
+		Affix[] loaded = new Affix[files.size()];
+
+		EffectIndex effectIndex = new EffectIndex();
+
+		IntStream.range(0, files.size()).parallel().forEach((idx) -> {
+			String fName = files.get(idx);
+
+			try {
+				loaded[idx] = AffixLister.loadAffixFile(ctx, nfr, fName);
+
+				effectIndex.record(loaded[idx]);
+			} catch (IOException | RuntimeException ex) {
+				AffixLister.reportFileError(ctx, fName, ex, false);
+			}
+		});
+
+		List<Affix>              affixes     = new ArrayList<>(loaded.length);
+		Map<String, List<Affix>> byFileGroup = new TreeMap<>();
+
+		for (int i = 0; i < loaded.length; i++) {
+			if (loaded[i] == null) continue;
+
+			affixes.add(loaded[i]);
+			byFileGroup.computeIfAbsent(groups.get(i), (key) -> new ArrayList<>()).add(loaded[i]);
+		}
+
+		SearchIndex search = SearchIndex.build(ctx, affixes);
+
+		long loadNanos = System.nanoTime() - startTime;
+
+		return new Corpus(generation, loadNanos, files.size(), affixes, byFileGroup,
+				effectIndex, search);
+	}
+}
@@ -0,0 +1,182 @@
+package tlIItools;
+
+import java.io.*;
+
+/** A simple streaming CSV writer.
+ *
+ * Rows are written out field by field, as they are given. Fields are only
+ * quoted if they need to be, following RFC 4180: a field with a comma, quote or
+ * line break in it is put in quotes, and any quotes in it are doubled.
+ *
+ * @author Ben Culkin */
+public class CsvWriter implements Closeable, Flushable {
+	private final Writer out;
+
+	/* Whether the current row has had a field written to it yet. */
+	private boolean hasField;
+
+	/** Create a new CSV writer.
+	 *
+	 * @param out The writer to write to. */
+	public CsvWriter(Writer out) {
+		this.out = out;
+	}
+
+	/** Write a row of string fields, such as a header.
+	 *
+	 * @param fields The fields in the row.
+	 *
+	 * @return This writer. */
+	public CsvWriter row(String... fields) {
+		for (String field : fields) field(field);
+
+		return endRow();
+	}
+
+	/** Write a string field.
+	 *
+	 * @param val The value of the field. Null is written as an empty field.
+	 *
+	 * @return This writer. */
+	public CsvWriter field(String val) {
+		separate();
+
+		if (val == null) return this;
+
+		try {
+			if (!needsQuotes(val)) {
+				out.write(val);
+
+				return this;
+			}
+
+			out.write('"');
+
+			int start = 0;
+			int len   = val.length();
+
+			for (int i = 0; i < len; i++) {
+				if (val.charAt(i) != '"') continue;
+
+				// Write up to and including the quote, and then quote it again.
+				out.write(val, start, i + 1 - start);
+				out.write('"');
+
+				start = i + 1;
+			}
+
+			if (len > start) out.write(val, start, len - start);
+
+			out.write('"');
+		} catch (IOException ioex) {
+			throw new UncheckedIOException(ioex);
+		}
+
+		return this;
+	}
+
+	/** Write an integer field.
+	 *
+	 * @param val The value of the field.
+	 *
+	 * @return This writer. */
+	public CsvWriter field(long val) {
+		separate();
+		raw(Long.toString(val));
+
+		return this;
+	}
+
+	/** Write a floating-point field.
+	 *
+	 * Whole numbers are written without a decimal point.
+	 *
+	 * @param val The value of the field.
+	 *
+	 * @return This writer. */
+	public CsvWriter field(double val) {
+		separate();
+
+		if (val == Math.rint(val) && Math.abs(val) < 1e15) raw(Long.toString((long) val));
+		else                                                raw(Double.toString(val));
+
+		return this;
+	}
+
+	/** Write a boolean field.
+	 *
+	 * @param val The value of the field.
+	 *
+	 * @return This writer. */
+	public CsvWriter field(boolean val) {
+		separate();
+		raw(val ? "true" : "false");
+
+		return this;
+	}
+
+	/** Write an empty field.
+	 *
+	 * @return This writer. */
+	public CsvWriter empty() {
+		separate();
+
+		return this;
+	}
+
+	/** End the current row.
+	 *
+	 * @return This writer. */
+	public CsvWriter endRow() {
+		try {
+			out.write("\r\n");
+		} catch (IOException ioex) {
+			throw new UncheckedIOException(ioex);
+		}
+
+		hasField = false;
+
+		return this;
+	}
+
+	/* Write a comma, if one is needed before the next field. */
+	private void separate() {
+		if (hasField) {
+			try {
+				out.write(',');
+			} catch (IOException ioex) {
+				throw new UncheckedIOException(ioex);
+			}
+		}
+
+		hasField = true;
+	}
+
+	private static boolean needsQuotes(String val) {
+		for (int i = 0; i < val.length(); i++) {
+			char ch = val.charAt(i);
+
+			if (ch == ',' || ch == '"' || ch == '\n' || ch == '\r') return true;
+		}
+
+		return false;
+	}
+
+	private void raw(String str) {
+		try {
+			out.write(str);
+		} catch (IOException ioex) {
+			throw new UncheckedIOException(ioex);
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		out.close();
+	}
+}
@@ -0,0 +1,219 @@
+package tlIItools;
+
+import java.io.*;
+
+import java.util.*;
+
+/** A problem found while loading or describing affixes.
+ *
+ * The message for a diagnostic isn't formatted until someone asks for it, so
+ * recording one is cheap.
+ *
+ * Two diagnostics are the same if they have the same code and arguments.
+ * Problems found while loading are also told apart by where they were found.
+ * Problems found while describing an effect aren't, since every use of an
+ * effect type with the same numbers has the same problem; the first place one
+ * was found is kept as a sample.
+ *
+ * @author Ben Culkin */
+public class Diagnostic {
+	/** The kinds of diagnostic.
+	 *
+	 * @author Ben Culkin */
+	public static enum Code {
+		/** An affix has a translated string other than a prefix or suffix. */
+		MISFORMED_TRANSLATION("Misformed affix translation: (%s) (%s) (%s)"),
+		/** An affix has a unit type with no value. */
+		MALFORMED_EQUIP_TYPE("Malformed equip type: (%s) (%s)"),
+		/** An affix has a name with no value. */
+		MALFORMED_NAME("Malformed name: (%s) (%s)"),
+		/** An effect has an activation type that isn't known. */
+		MALFORMED_ACTIVATION("Malformed activation type: (%s) (%s) (%s)"),
+		/** An effect has a percentage duration, which isn't handled. */
+		PERCENT_DURATION("WARN: Punting on DURATION:PERCENT for %s"),
+		/** A number couldn't be parsed. */
+		MALFORMED_NUMBER("Malformed number: (%s) (%s) (%s)"),
+		/** A timed effect was described using the details for an untimed one. */
+		IMPROVISED_DETAILS("Improvised details for timed %s", false),
+		/** The details for an effect still have markup left after replacement. */
+		MALFORMATTED_DETAILS("WARN: Details for effect %s are malformatted (contains < or >):\n\t%s", false),
+		/** There are no details for describing an effect. */
+		NO_DETAILS("%sNo effect details for effect %s with parameters (min %.2f, max %.2f, dur %.2f, type %s, level %d)%s", false),
+		/** How long it took to load an affix. */
+		AFFIX_TIMING("\tProcessed affix %s from %s in %d nanoseconds (%.2f seconds)"),
+		/** How long it took to load an effect. */
+		EFFECT_TIMING("\t\tProcessed effect %s from %s in %d nanoseconds (%.2f seconds)");
+
+		/** The format string for the message. */
+		public final String format;
+		/** Whether diagnostics of this kind are told apart by where they were
+		 * found. */
+		public final boolean located;
+
+		private Code(String format) {
+			this(format, true);
+		}
+
+		private Code(String format, boolean located) {
+			this.format  = format;
+			this.located = located;
+		}
+	}
+
+	/** The kind of diagnostic this is. */
+	public final Code code;
+
+	/** The file the diagnostic is for, or null if it isn't known. */
+	public final String file;
+	/** The line the diagnostic is for, or -1 if it isn't known. */
+	public final int line;
+	/** The affix the diagnostic is for, or null if it isn't known. */
+	public final String affix;
+
+	private final Object[] args;
+
+	private final int hash;
+
+	/** Create a new diagnostic.
+	 *
+	 * @param code The kind of diagnostic.
+	 * @param file The file the diagnostic is for, or null.
+	 * @param line The line the diagnostic is for, or -1.
+	 * @param affix The affix the diagnostic is for, or null.
+	 * @param args The arguments for the message. */
+	public Diagnostic(Code code, String file, int line, String affix, Object... args) {
+		this.code  = code;
+		this.file  = file;
+		this.line  = line;
+		this.affix = affix;
+		this.args  = args;
+
+		if (code.located) this.hash = Objects.hash(code, file, line) * 31 + Arrays.hashCode(args);
+		else              this.hash = code.hashCode() * 31 + Arrays.hashCode(args);
+	}
+
+	/** Get a copy of this diagnostic, found somewhere else.
+	 *
+	 * @param newFile The file the copy is for, or null.
+	 * @param newLine The line the copy is for, or -1.
+	 *
+	 * @return A diagnostic with the same code, affix and arguments as this one,
+	 *         but for the given place. */
+	public Diagnostic at(String newFile, int newLine) {
+		return new Diagnostic(code, newFile, newLine, affix, args);
+	}
+
+	/** Write this diagnostic out, so it can be read in another process.
+	 *
+	 * @param out The stream to write to.
+	 *
+	 * @throws IOException If something goes wrong writing the diagnostic. */
+	public void write(DataOutputStream out) throws IOException {
+		out.writeUTF(code.name());
+		AffixStore.writeString(out, file);
+		out.writeInt(line);
+		AffixStore.writeString(out, affix);
+
+		out.writeInt(args.length);
+		for (Object arg : args) {
+			// Keep the type of each argument, so the message formats the same way.
+			if (arg instanceof Integer) {
+				out.writeByte('I');
+				out.writeInt((Integer) arg);
+			} else if (arg instanceof Long) {
+				out.writeByte('J');
+				out.writeLong((Long) arg);
+			} else if (arg instanceof Double) {
+				out.writeByte('D');
+				out.writeDouble((Double) arg);
+			} else if (arg == null) {
+				out.writeByte('N');
+			} else {
+				out.writeByte('S');
+				out.writeUTF(arg.toString());
+			}
+		}
+	}
+
+	/** Read a diagnostic written by {@link #write(DataOutputStream)}.
+	 *
+	 * @param in The stream to read from.
+	 *
+	 * @return The diagnostic that was read.
+	 *
+	 * @throws IOException If something goes wrong reading the diagnostic. */
+	public static Diagnostic read(DataInputStream in) throws IOException {
+		Code   code  = Code.valueOf(in.readUTF());
+		String file  = AffixStore.readString(in);
+		int    line  = in.readInt();
+		String affix = AffixStore.readString(in);
+
+		Object[] args = new Object[in.readInt()];
+		for (int i = 0; i < args.length; i++) {
+			byte type = in.readByte();
+
+			switch (type) {
+			case 'I':
+				args[i] = in.readInt();
+				break;
+			case 'J':
+				args[i] = in.readLong();
+				break;
+			case 'D':
+				args[i] = in.readDouble();
+				break;
+			case 'N':
+				args[i] = null;
+				break;
+			case 'S':
+				args[i] = in.readUTF();
+				break;
+			default:
+				throw new IOException("Unknown diagnostic argument type " + type);
+			}
+		}
+
+		return new Diagnostic(code, file, line, affix, args);
+	}
+
+	/** Get the message for this diagnostic.
+	 *
+	 * @return The formatted message. */
+	public String message() {
+		return String.format(code.format, args);
+	}
+
+	/** Get where this diagnostic was found.
+	 *
+	 * @return A description of the location, or an empty string if it isn't
+	 * known. */
+	public String location() {
+		if (file == null) return "";
+		if (line < 0)     return file;
+
+		return file + ":" + line;
+	}
+
+	@Override
+	public String toString() {
+		return message();
+	}
+
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)                  return true;
+		if (obj == null)                  return false;
+		if (getClass() != obj.getClass()) return false;
+
+		Diagnostic other = (Diagnostic) obj;
+
+		if (code != other.code || !Arrays.equals(args, other.args)) return false;
+
+		return !code.located || (line == other.line && Objects.equals(file, other.file));
+	}
+}
@@ -0,0 +1,233 @@
+package tlIItools;
+
+import java.io.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/** Collects the diagnostics from a run.
+ *
+ * Diagnostics that are the same are only kept once, along with a count of how
+ * many times they came up. For kinds of diagnostic that aren't told apart by
+ * where they were found, the first place is kept as a sample. Once the set
+ * number of distinct diagnostics have been kept, any new ones are only
+ * counted.
+ *
+ * Diagnostics can be added from any thread.
+ *
+ * @author Ben Culkin */
+public class Diagnostics {
+	/** The default number of distinct diagnostics to keep. */
+	public static final int DEFAULT_CAPACITY = 10000;
+
+	/** A sink that throws away every diagnostic. */
+	public static final Diagnostics IGNORE = new Diagnostics(0);
+
+	/* A kept diagnostic, and how often it came up. */
+	private static final class Entry {
+		private final Diagnostic diag;
+		private final long       seq;
+
+		private final LongAdder count = new LongAdder();
+
+		Entry(Diagnostic diag, long seq) {
+			this.diag = diag;
+			this.seq  = seq;
+		}
+	}
+
+	/** The most distinct diagnostics that will be kept. */
+	public final int capacity;
+
+	private final Map<Diagnostic, Entry> entries;
+
+	private final AtomicLong nextSeq = new AtomicLong();
+
+	private final LongAdder total   = new LongAdder();
+	private final LongAdder dropped = new LongAdder();
+
+	/** Create a new diagnostic sink.
+	 *
+	 * @param capacity The most distinct diagnostics to keep. */
+	public Diagnostics(int capacity) {
+		this.capacity = capacity;
+
+		this.entries = new ConcurrentHashMap<>();
+	}
+
+	/** Add a diagnostic.
+	 *
+	 * @param code The kind of diagnostic.
+	 * @param file The file the diagnostic is for, or null.
+	 * @param line The line the diagnostic is for, or -1.
+	 * @param affix The affix the diagnostic is for, or null.
+	 * @param args The arguments for the message. */
+	public void add(Diagnostic.Code code, String file, int line, String affix, Object... args) {
+		if (capacity <= 0) return;
+
+		add(new Diagnostic(code, file, line, affix, args));
+	}
+
+	/** Add a diagnostic.
+	 *
+	 * @param diag The diagnostic to add. */
+	public void add(Diagnostic diag) {
+		add(diag, 1);
+	}
+
+	/** Add a diagnostic that came up some number of times.
+	 *
+	 * @param diag The diagnostic to add.
+	 * @param times The number of times it came up. */
+	public void add(Diagnostic diag, long times) {
+		if (capacity <= 0) return;
+
+		total.add(times);
+
+		Entry entry = entries.get(diag);
+		if (entry == null) {
+			// This can let a few more than the capacity in, if several threads get
+			// here at once, but it keeps the common case lock-free.
+			if (entries.size() >= capacity) {
+				dropped.add(times);
+				return;
+			}
+
+			entry = entries.computeIfAbsent(diag, (key) -> new Entry(key, nextSeq.getAndIncrement()));
+		}
+
+		entry.count.add(times);
+	}
+
+	/** Write out every kept diagnostic, along with the counts.
+	 *
+	 * @param out The stream to write to.
+	 *
+	 * @throws IOException If something goes wrong writing the diagnostics. */
+	public void write(DataOutputStream out) throws IOException {
+		List<Entry> sorted = sortedEntries();
+
+		out.writeLong(dropped.sum());
+
+		out.writeInt(sorted.size());
+		for (Entry entry : sorted) {
+			entry.diag.write(out);
+			out.writeLong(entry.count.sum());
+		}
+	}
+
+	/** Add the diagnostics written by {@link #write(DataOutputStream)} to these
+	 * ones.
+	 *
+	 * @param in The stream to read from.
+	 *
+	 * @throws IOException If something goes wrong reading the diagnostics. */
+	public void addFrom(DataInputStream in) throws IOException {
+		long wasDropped = in.readLong();
+
+		int numEntries = in.readInt();
+		for (int i = 0; i < numEntries; i++) {
+			Diagnostic diag  = Diagnostic.read(in);
+			long       times = in.readLong();
+
+			add(diag, times);
+		}
+
+		if (capacity <= 0) return;
+
+		total.add(wasDropped);
+		dropped.add(wasDropped);
+	}
+
+	/** Get the distinct diagnostics that were kept, in the order they first came
+	 * up.
+	 *
+	 * @return The kept diagnostics. */
+	public List<Diagnostic> records() {
+		List<Entry> sorted = sortedEntries();
+
+		List<Diagnostic> res = new ArrayList<>(sorted.size());
+		for (Entry entry : sorted) res.add(entry.diag);
+
+		return res;
+	}
+
+	/** Get how many times a diagnostic came up.
+	 *
+	 * @param diag The diagnostic to look for.
+	 *
+	 * @return The number of times it came up, or 0 if it wasn't kept. */
+	public long count(Diagnostic diag) {
+		Entry entry = entries.get(diag);
+		if (entry == null) return 0;
+
+		return entry.count.sum();
+	}
+
+	/** Get the number of distinct diagnostics that were kept.
+	 *
+	 * @return The number of kept diagnostics. */
+	public int size() {
+		return entries.size();
+	}
+
+	/** Get the number of diagnostics that were added, including repeats.
+	 *
+	 * @return The total number of diagnostics. */
+	public long total() {
+		return total.sum();
+	}
+
+	/** Get the number of diagnostics that weren't kept because the sink was full.
+	 *
+	 * @return The number of dropped diagnostics. */
+	public long dropped() {
+		return dropped.sum();
+	}
+
+	/** Add the message for each kept diagnostic to a list.
+	 *
+	 * Diagnostics that came up more than once are only added once.
+	 *
+	 * @param errors The list to add the messages to. */
+	public void formatInto(List<String> errors) {
+		for (Entry entry : sortedEntries()) errors.add(entry.diag.message() + "\n");
+	}
+
+	/** Print out every kept diagnostic.
+	 *
+	 * @param dest The place to print the diagnostics to. */
+	public void printTo(PrintStream dest) {
+		if (total.sum() == 0) return;
+
+		dest.printf("\nDiagnostics (%,d distinct, %,d total, %,d dropped):\n",
+				entries.size(), total.sum(), dropped.sum());
+
+		for (Entry entry : sortedEntries()) {
+			Diagnostic diag = entry.diag;
+
+			dest.print(diag.message());
+
+			long count = entry.count.sum();
+
+			String location = diag.location();
+			if (!location.equals("")) {
+				if (diag.code.located || count == 1) dest.printf(" [%s]", location);
+				else                                 dest.printf(" [first at %s]", location);
+			}
+			if (diag.affix != null) dest.printf(" (affix %s)", diag.affix);
+
+			if (count > 1) dest.printf(" (x%,d)", count);
+
+			dest.println();
+		}
+	}
+
+	private List<Entry> sortedEntries() {
+		List<Entry> res = new ArrayList<>(entries.values());
+		res.sort(Comparator.comparingLong((entry) -> entry.seq));
+
+		return res;
+	}
+}
@@ -1,18 +1,20 @@
 package tlIItools;
 
+import java.io.*;
+
 import java.util.*;
 
 /** Represents an effect attached to an affix.
  *
  * @author Ben Culkin */
 public class Effect {
-	/** Count of all loaded effects. */
-	public static int effectCount = 0;
-	/** Do timing analysis when loading effects. */
-	public static boolean doTiming;
+	/** The file this effect came from, or null if it wasn't loaded from one. */
+	public SourceFile sourceFile;
+	/** The first line of this effect in its file, counting from 1. */
+	public int startLine;
+	/** The last line of this effect in its file, counting from 1. */
+	public int endLine;
 
-	/** The file name this effect came from. */
-	public String fName;
 	/** Duration of the effect. */
 	public double duration;
 
@@ -62,33 +64,78 @@ public class Effect {
 	
 	@Override
 	public String toString() {
+		return describe(RunContext.defaults());
+	}
+
+	/** Get the name of the file this effect came from.
+	 *
+	 * @return The name of the file, or null if it wasn't loaded from one. */
+	public String fileName() {
+		if (sourceFile == null) return null;
+
+		return sourceFile.name;
+	}
+
+	/** Get where this effect came from, as a file name and line range.
+	 *
+	 * @return The location, like 'file:10-20', or null if it wasn't loaded from
+	 *         a file. */
+	public String location() {
+		if (sourceFile == null) return null;
+
+		return Provenance.location(sourceFile.name, startLine, endLine);
+	}
+
+	/** Get the description of this effect.
+	 *
+	 * @param ctx The run to describe the effect for.
+	 *
+	 * @return The description of this effect. */
+	public String describe(RunContext ctx) {
+		return ctx.renderCache.render(this);
+	}
+
+	/** Render the description of this effect, without using the cache.
+	 *
+	 * @param ctx The run to describe the effect for.
+	 * @param warnings The list to add any problems found while rendering to.
+	 *
+	 * @return The description of this effect. */
+	public String render(RunContext ctx, List<Diagnostic> warnings) {
+		EffectRepo repo = ctx.effectRepo;
+
 		StringBuilder sb = new StringBuilder();
 
 		if (group.isTransfer) {
 			sb.append("Inflict on Hit: ");
 		}
 
-		Map<String, String> detMap = group.hasDuration ? EffectRepo.timeDetals : EffectRepo.detals;
+		Map<String, String> detMap = group.hasDuration ? repo.timeDetals : repo.detals;
+
+		String fName = fileName();
+		int    line  = sourceFile == null ? -1 : startLine;
+		String where = sourceFile == null ? fName : location();
 
 		if (detMap.containsKey(group.type) ||
 			(group.hasDuration 
-			 && !EffectRepo.timeDetals.containsKey(group.type) 
-			 && EffectRepo.detals.containsKey(group.type))) 
+			 && !repo.timeDetals.containsKey(group.type) 
+			 && repo.detals.containsKey(group.type))) 
 		{
 			String fmt;
 			if (group.hasDuration 
-				&& !EffectRepo.timeDetals.containsKey(group.type) 
-				&& EffectRepo.detals.containsKey(group.type)) 
+				&& !repo.timeDetals.containsKey(group.type) 
+				&& repo.detals.containsKey(group.type)) 
 			{
-				AffixLister.errOut.printf("Improvised details for timed %s\n", group.type);
-				fmt = EffectRepo.detals.get(group.type) + "for <DUR> seconds";
+				warnings.add(new Diagnostic(Diagnostic.Code.IMPROVISED_DETAILS, fName, line, null,
+						group.type));
+				fmt = repo.detals.get(group.type) + "for <DUR> seconds";
 			} else {
 				fmt = detMap.get(group.type);
 			}
 
 			// Expand aliases first.
 
-			for (ReplPair repl : EffectRepo.replList) fmt = fmt.replaceAll(repl.find, repl.replace);
+			for (ReplPair repl : repo.replList) fmt = fmt.replaceAll(repl.find, repl.replace);
 			
 			if (minValue <= 0 && maxValue <= 0) { fmt = fmt.replaceAll("<C\\|([^|>]+)\\|([^|>]+)>", "$1"); }
 			if (minValue >= 0 && maxValue >= 0) { fmt = fmt.replaceAll("<C\\|([^|>]+)\\|([^|>]+)>", "$2"); }
@@ -96,7 +143,8 @@ public class Effect {
 			if (minPer >= 0 && maxPer >= 0) { fmt = fmt.replaceAll("<MC\\|([^|>]+)\\|([^|>]+)>", "$2"); }
 			
 			if (fmt.contains("<") || fmt.contains(">")) {
-				AffixLister.errOut.printf("WARN: Details for effect %s are malformatted (contains < or >):\n\t%s\n", group.type, fmt);
+				warnings.add(new Diagnostic(Diagnostic.Code.MALFORMATTED_DETAILS, fName, line, null,
+						group.type, fmt));
 			}
 
 			sb.append(String.format(fmt,
@@ -110,13 +158,19 @@ public class Effect {
 					" with parameters (min %.2f, max %.2f, dur %.2f, type %s, level %d)",
 					minValue, maxValue, duration, group.damageType.toLowerCase(), level, group.name));
 
-			if (AffixLister.addFileName) {
+			if (ctx.addFileName) {
 				sb.append(" from file ");
-				sb.append(fName);
+				sb.append(where);
 			}
 
-			if (group.hasDuration) AffixLister.errOut.print("TIMED: ");
-			AffixLister.errOut.println(sb.toString());
+			String prefix = group.isTransfer ? "Inflict on Hit: " : "";
+			if (group.hasDuration) prefix = "TIMED: " + prefix;
+
+			String suffix = ctx.addFileName ? " from file " + where : "";
+
+			warnings.add(new Diagnostic(Diagnostic.Code.NO_DETAILS, fName, line, null,
+					prefix, group.type, minValue, maxValue, duration,
+					group.damageType.toLowerCase(), level, suffix));
 		}
 
 		if (group.name != null) {
@@ -161,9 +215,35 @@ public class Effect {
 		return sb.toString();
 	}
 
+	/** Get a key for the contents of this effect.
+	 *
+	 * Two effects have the same key if they do the same thing, no matter which
+	 * file they came from.
+	 *
+	 * @return The content key for this effect. */
+	public String contentKey() {
+		StringBuilder sb = new StringBuilder();
+
+		sb.append(group.type).append('|').append(group.name).append('|');
+		sb.append(group.damageType).append('|').append(group.statName).append('|');
+		sb.append(group.graphOverride).append('|');
+		sb.append(group.hasDuration ? 'D' : '-').append(group.isStatBonus ? 'S' : '-');
+		sb.append(group.ownerLevel ? 'O' : '-').append(group.useGraph ? 'G' : '-');
+		sb.append(group.exclusive ? 'E' : '-').append(group.isTransfer ? 'T' : '-');
+
+		for (double val : new double[] {minValue, maxValue, duration, statPercent,
+				soakScale, resist, minPer, maxPer, range, maxCount, pulse}) {
+			sb.append('|').append(val);
+		}
+
+		sb.append('|').append(level);
+
+		return sb.toString();
+	}
+
 	@Override
     public int hashCode() {
-        return Objects.hash(duration, fName, group, level, maxCount, maxPer, maxValue,
+        return Objects.hash(duration, fileName(), group, level, maxCount, maxPer, maxValue,
                 minPer, minValue, pulse, range, resist, soakScale, statPercent);
     }
 
@@ -178,7 +258,7 @@ public class Effect {
         Effect other = (Effect) obj;
         return Double.doubleToLongBits(duration)
                 == Double.doubleToLongBits(other.duration)
-                && Objects.equals(fName, other.fName)
+                && Objects.equals(fileName(), other.fileName())
                 && Objects.equals(group, other.group) && level == other.level
                 && Double.doubleToLongBits(maxCount)
                         == Double.doubleToLongBits(other.maxCount)
@@ -209,27 +289,104 @@ public class Effect {
 	 * @return An effect, read from the scanner.
 	 */
 	public static Effect parseEffect(Affix afx, Scanner scn, String scnSource) {
-		return parseEffect(afx, scn, scnSource, new ArrayList<>());
+		return parseEffect(RunContext.defaults(), afx, new LineSource(scn), scnSource,
+				Diagnostics.IGNORE);
 	}
 
 	/** Parse an effect.
 	 *
-	 * @param afx The affix the effect belongs to.
+	 * @param afx The affix the effect belongs to, or null if it doesn't belong to one.
 	 * @param scn The scanner to read from.
 	 * @param scnSource The name of the scanner.
 	 * @param errs Repository for errors found while parsing.
 	 *
 	 * @return An effect, read from the scanner. */
 	public static Effect parseEffect(Affix afx, Scanner scn, String scnSource, List<String> errs) {
+		Diagnostics diags = new Diagnostics(Diagnostics.DEFAULT_CAPACITY);
+
+		Effect efct = parseEffect(RunContext.defaults(), afx, new LineSource(scn), scnSource, diags);
+
+		diags.formatInto(errs);
+
+		return efct;
+	}
+
+	/** Read and parse a single effect again, from where it came from.
+	 *
+	 * Only the lines the effect was loaded from are parsed; the rest of the file
+	 * is skipped over.
+	 *
+	 * @param ctx The run the effect is being parsed for.
+	 * @param nfr The name reader to read the file with.
+	 * @param source Where the effect came from.
+	 * @param diags The place to record problems found while parsing.
+	 *
+	 * @return The effect, parsed again.
+	 *
+	 * @throws IOException If something goes wrong reading the file. */
+	public static Effect reread(RunContext ctx, NameFileReader nfr, Provenance source,
+			Diagnostics diags) throws IOException
+	{
+		LineSource src = source.open(nfr);
+
+		// Skip the [EFFECT] line, like the affix parser does.
+		if (src.hasNextLine()) src.nextLine();
+
+		return parseEffect(ctx, null, src, source.fileName(), diags);
+	}
+
+	/** Skip over an effect without parsing it.
+	 *
+	 * Only the end of the effect is looked for, which is much cheaper than
+	 * parsing each of its fields.
+	 *
+	 * @param ctx The run the effect is being skipped for.
+	 * @param src The source to read from. The [EFFECT] line should already have
+	 *            been read.
+	 * @param scnSource The name of the input source.
+	 *
+	 * @return Where the effect is, so that it can be parsed later. */
+	public static Provenance skipEffect(RunContext ctx, LineSource src, String scnSource) {
+		int  startLine   = src.lineNumber();
+		long startOffset = src.lineOffset();
+
+		while (src.hasNextLine()) {
+			String ln = src.nextLine();
+
+			// Only lines with a slash can close the effect.
+			if (ln.indexOf('/') == -1) continue;
+
+			if (LineSource.stripControls(ln).contains("[/EFFECT]")) break;
+		}
+
+		return new Provenance(ctx.sources, ctx.sources.idFor(scnSource),
+				startLine, src.lineNumber(), startOffset, (int) (src.offset() - startOffset));
+	}
+
+	/** Parse an effect.
+	 *
+	 * @param ctx The run the effect is being parsed for.
+	 * @param afx The affix the effect belongs to, or null if it doesn't belong to one.
+	 * @param src The source to read lines from.
+	 * @param scnSource The name of the source.
+	 * @param diags The place to record problems found while parsing.
+	 *
+	 * @return An effect, read from the source. */
+	public static Effect parseEffect(RunContext ctx, Affix afx, LineSource src,
+			String scnSource, Diagnostics diags)
+	{
 		Effect efct = new Effect();
 
 		long startTime = System.nanoTime();
 
-		efct.fName = scnSource;
+		// The [EFFECT] line has already been read.
+		int startLine = src.lineNumber();
 
-		while (scn.hasNextLine()) {
-			String ln = scn.nextLine();
-			ln = ln.replaceAll("\\p{Cntrl}", "");
+		String afxName = afx == null ? null : afx.intName;
+
+		while (src.hasNextLine()) {
+			String ln = src.nextLine();
+			ln = LineSource.stripControls(ln);
 
 			if (ln.contains("[/EFFECT]")) break;
 
@@ -256,7 +413,8 @@ public class Effect {
 						efct.group.isTransfer = true;
 						break;
 					default:
-						errs.add(String.format("Malformed activation type: (%s) (%s) (%s)\n", splits[1], efct.group.name, afx.intName));
+						diags.add(Diagnostic.Code.MALFORMED_ACTIVATION, scnSource, src.lineNumber(),
+								afxName, splits[1], efct.group.name, afxName);
 				}
 			} else if (ln.contains("DURATION")) {
 				if (splits[1].equals("ALWAYS")) {
@@ -272,7 +430,8 @@ public class Effect {
 
 					efct.duration = Double.NaN;
 
-					errs.add(String.format("WARN: Punting on DURATION:PERCENT for %s\n", scnSource));
+					diags.add(Diagnostic.Code.PERCENT_DURATION, scnSource, src.lineNumber(),
+							afxName, scnSource);
 				} else if (splits[1].equals("0")) {
 					efct.group.hasDuration = false;
 					efct.duration = 0.0;
@@ -327,15 +486,21 @@ public class Effect {
 			}
 		}
 
-		long endTime = System.nanoTime();
-		if (doTiming) {
-			String fmt = "\t\tProcessed effect %s from %s in %d nanoseconds (%.2f seconds)\n";
+		// Only the lines are kept; effects that need reading again are found from
+		// the provenance of their block instead.
+		efct.sourceFile = ctx.sources.fileFor(scnSource);
+		efct.startLine  = startLine;
+		efct.endLine    = src.lineNumber();
 
+		long endTime = System.nanoTime();
+		if (ctx.doTiming) {
 			double seconds = (((endTime - startTime) / 1000000000));
-			errs.add(String.format(fmt, efct.group.name, scnSource, endTime - startTime, seconds));
+
+			diags.add(Diagnostic.Code.EFFECT_TIMING, scnSource, -1, afxName,
+					efct.group.name, scnSource, endTime - startTime, seconds);
 		}
 
-		effectCount += 1;
+		ctx.effectsParsed.increment();
 
 		return efct;
 	}
@@ -0,0 +1,149 @@
+package tlIItools;
+
+import java.io.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/** An index from effect names and types to the affixes that use them.
+ *
+ * Affixes can be recorded from several threads at once, so the index can be
+ * built while files are being loaded. Since that makes the order they are
+ * recorded in vary from run to run, the uses of an effect are always given out
+ * in order of the file and line they are on.
+ *
+ * @author Ben Culkin */
+public class EffectIndex {
+	/** A single use of an effect by an affix.
+	 *
+	 * @author Ben Culkin */
+	public static class Use {
+		/** The affix that uses the effect. */
+		public final Affix affix;
+		/** The effect. */
+		public final Effect effect;
+
+		/** Create a new effect use.
+		 *
+		 * @param affix The affix that uses the effect.
+		 * @param effect The effect. */
+		public Use(Affix affix, Effect effect) {
+			this.affix  = affix;
+			this.effect = effect;
+		}
+	}
+
+	/* Orders uses by the file and then the line they are on. */
+	private static final Comparator<Use> SOURCE_ORDER
+		= Comparator.<Use, String>comparing((use) -> use.affix.fileName(),
+				Comparator.nullsFirst(Comparator.naturalOrder()))
+			.thenComparingInt((use) -> use.effect.startLine);
+
+	private final ConcurrentHashMap<String, Queue<Use>> byName = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, Queue<Use>> byType = new ConcurrentHashMap<>();
+
+	/** Record every effect used by an affix.
+	 *
+	 * @param afx The affix to record. */
+	public void record(Affix afx) {
+		for (Effect eft : afx.effects) {
+			Use use = new Use(afx, eft);
+
+			if (eft.group.name != null) {
+				byName.computeIfAbsent(eft.group.name.toUpperCase(),
+						(key) -> new ConcurrentLinkedQueue<>()).add(use);
+			}
+
+			if (eft.group.type != null) {
+				byType.computeIfAbsent(eft.group.type.toUpperCase(),
+						(key) -> new ConcurrentLinkedQueue<>()).add(use);
+			}
+		}
+	}
+
+	/** Get the uses of effects with a given name.
+	 *
+	 * @param name The name of the effect. Case doesn't matter.
+	 *
+	 * @return The uses of effects with that name, in order of file and line. */
+	public List<Use> named(String name) {
+		return sorted(byName.get(name.toUpperCase()));
+	}
+
+	/** Get the uses of effects of a given type.
+	 *
+	 * @param type The type of the effect. Case doesn't matter.
+	 *
+	 * @return The uses of effects of that type, in order of file and line. */
+	public List<Use> ofType(String type) {
+		return sorted(byType.get(type.toUpperCase()));
+	}
+
+	private static List<Use> sorted(Queue<Use> uses) {
+		if (uses == null) return Collections.emptyList();
+
+		List<Use> res = new ArrayList<>(uses);
+		res.sort(SOURCE_ORDER);
+
+		return Collections.unmodifiableList(res);
+	}
+
+	/** Get every effect name that has been recorded.
+	 *
+	 * @return The upper-cased effect names, in order. */
+	public SortedSet<String> names() {
+		return new TreeSet<>(byName.keySet());
+	}
+
+	/** Get every effect type that has been recorded.
+	 *
+	 * @return The upper-cased effect types, in order. */
+	public SortedSet<String> types() {
+		return new TreeSet<>(byType.keySet());
+	}
+
+	/** Write out every named effect, one JSON object per line.
+	 *
+	 * Each line has the name of the effect, and every use of it: the affix, the
+	 * file, the type of the effect and what it does. The lines are written out
+	 * one at a time, in order of name, and the uses in order of file and line.
+	 *
+	 * @param ctx The run to describe effects for.
+	 * @param dest The place to write to. */
+	public void writeTo(RunContext ctx, Writer dest) {
+		JsonWriter out = new JsonWriter(dest);
+
+		for (String name : names()) {
+			out.beginObject();
+			out.field("name", name);
+
+			out.name("uses").beginArray();
+			for (Use use : sorted(byName.get(name))) writeUse(ctx, out, use);
+			out.endArray();
+
+			out.endObject();
+			out.newline();
+		}
+
+		try {
+			out.flush();
+		} catch (IOException ioex) {
+			throw new UncheckedIOException(ioex);
+		}
+	}
+
+	/** Write out a single use of an effect as a JSON object.
+	 *
+	 * @param ctx The run to describe effects for.
+	 * @param out The place to write to.
+	 * @param use The use to write. */
+	public static void writeUse(RunContext ctx, JsonWriter out, Use use) {
+		out.beginObject();
+		out.field("affix",       use.affix.intName);
+		out.field("file",        use.affix.fileName());
+		out.field("name",        use.effect.group.name);
+		out.field("type",        use.effect.group.type);
+		out.field("description", use.effect.describe(ctx));
+		out.endObject();
+	}
+}
@@ -0,0 +1,208 @@
+package tlIItools;
+
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/** A bounded cache of rendered effect descriptions.
+ *
+ * Lots of affixes share the same effects, so the description for an effect is
+ * looked up by its effect group and the numbers it uses, instead of being
+ * formatted again. The least recently used descriptions are dropped once the
+ * cache is full.
+ *
+ * Any problems that came up while rendering an effect are kept alongside it,
+ * without where they were found, and recorded again for the effect being
+ * looked up each time, so that the diagnostics are the same with or without
+ * the cache.
+ *
+ * @author Ben Culkin */
+public class EffectRenderCache {
+	/** The default number of descriptions to keep. */
+	public static final int DEFAULT_CAPACITY = 4096;
+
+	/* What an effect is looked up by. */
+	private static final class Key {
+		private final EffectGroup group;
+		private final double[]    payload;
+		private final String      fName;
+
+		private final int hash;
+
+		Key(Effect eft, boolean addFileName) {
+			this.group = eft.group;
+
+			this.payload = new double[] {
+				eft.duration, eft.minValue, eft.maxValue, eft.statPercent,
+				eft.soakScale, eft.level, eft.resist, eft.minPer, eft.maxPer,
+				eft.range, eft.maxCount, eft.pulse
+			};
+
+			// Where the effect came from only matters if it will be shown
+			this.fName = addFileName ? eft.location() : null;
+
+			this.hash = Objects.hash(group, Arrays.hashCode(payload), addFileName, fName);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)                  return true;
+			if (obj == null)                  return false;
+			if (getClass() != obj.getClass()) return false;
+
+			Key other = (Key) obj;
+
+			return hash == other.hash
+					&& Objects.equals(group, other.group)
+					&& Arrays.equals(payload, other.payload)
+					&& Objects.equals(fName, other.fName);
+		}
+	}
+
+	/* A rendered description, along with the warnings it produced. The
+	 * warnings aren't tied to any place. */
+	private static final class Rendered {
+		private final String           text;
+		private final List<Diagnostic> warnings;
+
+		Rendered(String text, List<Diagnostic> warnings) {
+			this.text     = text;
+			this.warnings = warnings;
+		}
+	}
+
+	/** The most descriptions this cache will hold. */
+	public final int capacity;
+
+	/* The run the descriptions are for. */
+	private final RunContext ctx;
+
+	/** The number of lookups that found a description. */
+	public final LongAdder hits      = new LongAdder();
+	/** The number of lookups that had to render a description. */
+	public final LongAdder misses    = new LongAdder();
+	/** The number of descriptions that have been dropped. */
+	public final LongAdder evictions = new LongAdder();
+
+	private final Map<Key, Rendered> rendered;
+
+	/** Create a new render cache.
+	 *
+	 * @param ctx The run to render descriptions for.
+	 * @param capacity The most descriptions to keep. If this is zero, nothing is
+	 * cached. */
+	public EffectRenderCache(RunContext ctx, int capacity) {
+		this.ctx      = ctx;
+		this.capacity = capacity;
+
+		this.rendered = new LinkedHashMap<Key, Rendered>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, Rendered> eldest) {
+				if (size() <= EffectRenderCache.this.capacity) return false;
+
+				evictions.increment();
+				return true;
+			}
+		};
+	}
+
+	/** Get the description for an effect, rendering it if needed.
+	 *
+	 * @param eft The effect to describe.
+	 *
+	 * @return The description of the effect. */
+	public String render(Effect eft) {
+		if (capacity <= 0) {
+			misses.increment();
+
+			return record(renderUncached(eft), eft).text;
+		}
+
+		Key key = new Key(eft, ctx.addFileName);
+
+		Rendered res;
+		synchronized (rendered) {
+			res = rendered.get(key);
+		}
+
+		if (res != null) {
+			hits.increment();
+		} else {
+			misses.increment();
+
+			// Rendering happens outside of the lock; if two threads render the
+			// same effect at once, they both get the same result.
+			res = renderUncached(eft);
+
+			synchronized (rendered) {
+				rendered.put(key, res);
+			}
+		}
+
+		return record(res, eft).text;
+	}
+
+	private Rendered renderUncached(Effect eft) {
+		List<Diagnostic> warnings = new ArrayList<>(0);
+
+		String text = eft.render(ctx, warnings);
+
+		// The same description is used for effects from other files.
+		for (int i = 0; i < warnings.size(); i++) warnings.set(i, warnings.get(i).at(null, -1));
+
+		return new Rendered(text, warnings);
+	}
+
+	/* Record the warnings for a description, as found at an effect. */
+	private Rendered record(Rendered res, Effect eft) {
+		if (res.warnings.isEmpty()) return res;
+
+		String fName = eft.fileName();
+		int    line  = eft.sourceFile == null ? -1 : eft.startLine;
+
+		for (Diagnostic warning : res.warnings) ctx.diagnostics.add(warning.at(fName, line));
+
+		return res;
+	}
+
+	/** Get the number of descriptions currently cached.
+	 *
+	 * @return The number of cached descriptions. */
+	public int size() {
+		synchronized (rendered) {
+			return rendered.size();
+		}
+	}
+
+	/** Get the fraction of lookups that found a description.
+	 *
+	 * @return The hit rate, between 0 and 1. */
+	public double hitRate() {
+		long hitCount = hits.sum();
+		long total    = hitCount + misses.sum();
+
+		if (total == 0) return 0;
+
+		return (double) hitCount / total;
+	}
+
+	/** Drop every cached description. */
+	public void clear() {
+		synchronized (rendered) {
+			rendered.clear();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"Effect render cache: %,d hits, %,d misses (%.1f%% hit rate), %,d evictions, %,d/%,d cached",
+				hits.sum(), misses.sum(), hitRate() * 100, evictions.sum(), size(), capacity);
+	}
+}
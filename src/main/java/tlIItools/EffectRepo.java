@@ -9,36 +9,74 @@ import java.util.Map.Entry;
  * 
  * @author Ben Culkin */
 public class EffectRepo {
-	// NOTE: consider making these use function accessors in the future?
-	// --bculkin, 6/24/20
+	/* The repository loaded from the default files. */
+	private static EffectRepo defaultRepo;
 
 	/** The list of detail strings for skills. */
-	public static Map<String, String> detals;
+	public final Map<String, String> detals;
 	/** The list of detail strings for timed skills. */
-	public static Map<String, String> timeDetals;
+	public final Map<String, String> timeDetals;
 
 	/** The list of replacements for detail strings. */
-	public static List<ReplPair> replList;
+	public final List<ReplPair> replList;
 
-	/* Init. lists from files. */
-	static {
-		try (FileReader detalReader = new FileReader("data/affix-detals.txt")) {
-			detals = readDetails(new Scanner(detalReader));
+	/** Create a new effect repository.
+	 *
+	 * @param detals The detail strings for skills.
+	 * @param timeDetals The detail strings for timed skills.
+	 * @param replList The replacements for detail strings. */
+	public EffectRepo(Map<String, String> detals, Map<String, String> timeDetals,
+			List<ReplPair> replList)
+	{
+		this.detals     = Collections.unmodifiableMap(detals);
+		this.timeDetals = Collections.unmodifiableMap(timeDetals);
+		this.replList   = Collections.unmodifiableList(replList);
+	}
+
+	/** Load an effect repository from the files in a directory.
+	 *
+	 * Any of the files that can't be read are treated as being empty.
+	 *
+	 * @param dir The directory to load the files from.
+	 * @param errOut The place to print errors to.
+	 *
+	 * @return The loaded repository. */
+	public static EffectRepo loadFrom(String dir, PrintStream errOut) {
+		Map<String, String> detals     = new HashMap<>();
+		Map<String, String> timeDetals = new HashMap<>();
+		List<ReplPair>      replList   = new ArrayList<>();
+
+		try (FileReader detalReader = new FileReader(dir + "/affix-detals.txt")) {
+			readDetails(detals, new Scanner(detalReader));
 		} catch (IOException ioex) {
-			AffixLister.errOut.println("Error loading affix detail text");
+			errOut.println("Error loading affix detail text");
 		}
 
-		try (FileReader timedDetalReader = new FileReader("data/timed-affix-detals.txt")) {
-			timeDetals = readDetails(new Scanner(timedDetalReader));
+		try (FileReader timedDetalReader = new FileReader(dir + "/timed-affix-detals.txt")) {
+			readDetails(timeDetals, new Scanner(timedDetalReader));
 		} catch (IOException ioex) {
-			AffixLister.errOut.println("Error loading timed affix detail text");
+			errOut.println("Error loading timed affix detail text");
 		}
 
-		try (FileReader replListReader = new FileReader("data/replace-list.txt")) {
+		try (FileReader replListReader = new FileReader(dir + "/replace-list.txt")) {
 			replList = ReplPair.readList(new Scanner(replListReader));
 		} catch (IOException ioex) {
-			AffixLister.errOut.println("Error loading replacement lists");
+			errOut.println("Error loading replacement lists");
 		}
+
+		return new EffectRepo(detals, timeDetals, replList);
+	}
+
+	/** Get the repository loaded from the default files.
+	 *
+	 * It is only loaded once, and then shared, since it is never changed after
+	 * being loaded.
+	 *
+	 * @return The default effect repository. */
+	public static synchronized EffectRepo defaultRepo() {
+		if (defaultRepo == null) defaultRepo = loadFrom("data", System.err);
+
+		return defaultRepo;
 	}
 
 	/** Read effect detail strings from an input source.
@@ -78,12 +116,14 @@ public class EffectRepo {
 		return detalMap;
 	}
 
-	/** Sanity check the loaded format strings. */
-	public static void sanityCheckFormats() {
+	/** Sanity check the loaded format strings.
+	 *
+	 * @param errOut The place to print problems to. */
+	public void sanityCheckFormats(PrintStream errOut) {
 		for (Entry<String, String> detal : detals.entrySet()) {
 			String fmt = detal.getValue();
 
-			AffixLister.errOut.printf("\tTRACE: Applying replacements for %s\n", detal.getKey());
+			errOut.printf("\tTRACE: Applying replacements for %s\n", detal.getKey());
 
 			for (ReplPair repl : replList) {
 				String tmp = fmt;
@@ -92,14 +132,14 @@ public class EffectRepo {
 				if (!fmt.equals(tmp)) {
 					String outFmt = "\t\tTRACE: Replaced %s with %s: \n\t\t%s\n\t\t%s\n";
 
-					AffixLister.errOut.printf(outFmt, repl.find, repl.replace, tmp, fmt);
+					errOut.printf(outFmt, repl.find, repl.replace, tmp, fmt);
 				}
 			}
 
 			if (fmt.contains("<") || fmt.contains(">")) {
 				String warnFmt = "WARN: Details for effect %s are malformated (contains < or >):\n\t%s\n";
 
-				AffixLister.errOut.printf(warnFmt, detal.getKey(), fmt);
+				errOut.printf(warnFmt, detal.getKey(), fmt);
 			}
 		}
 
@@ -112,7 +152,7 @@ public class EffectRepo {
 
 			if (fmt.contains("<") || fmt.contains(">")) {
 				String warnFmt = "WARN: Details for timed effect %s are malformatted (contains < or >):\n\t%s\n";
-				AffixLister.errOut.printf(warnFmt, detal.getKey(), fmt);
+				errOut.printf(warnFmt, detal.getKey(), fmt);
 			}
 		}
 	}
@@ -0,0 +1,319 @@
+package tlIItools;
+
+import java.io.*;
+
+import java.util.*;
+
+/** A simple streaming JSON writer.
+ *
+ * Values are written out as they are given, without building up a document in
+ * memory. The writer keeps track of where commas go, but doesn't check that
+ * what is written makes sense; that is left to the caller.
+ *
+ * @author Ben Culkin */
+public class JsonWriter implements Closeable, Flushable {
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private final Writer out;
+
+	/* Whether the current object/array has had something written to it yet,
+	 * for each level of nesting. */
+	private boolean[] hasValue;
+	private int       depth;
+
+	/* Set after writing a name, so that the value doesn't get a comma. */
+	private boolean afterName;
+
+	/** Create a new JSON writer.
+	 *
+	 * @param out The writer to write to. */
+	public JsonWriter(Writer out) {
+		this.out = out;
+
+		this.hasValue = new boolean[16];
+	}
+
+	/** Start an object.
+	 *
+	 * @return This writer. */
+	public JsonWriter beginObject() {
+		return open('{');
+	}
+
+	/** End the current object.
+	 *
+	 * @return This writer. */
+	public JsonWriter endObject() {
+		return close('}');
+	}
+
+	/** Start an array.
+	 *
+	 * @return This writer. */
+	public JsonWriter beginArray() {
+		return open('[');
+	}
+
+	/** End the current array.
+	 *
+	 * @return This writer. */
+	public JsonWriter endArray() {
+		return close(']');
+	}
+
+	/** Write the name of the next field in an object.
+	 *
+	 * @param name The name of the field.
+	 *
+	 * @return This writer. */
+	public JsonWriter name(String name) {
+		separate();
+		writeString(name);
+		rawChar(':');
+
+		afterName = true;
+
+		return this;
+	}
+
+	/** Write a string value.
+	 *
+	 * @param val The value to write, which may be null.
+	 *
+	 * @return This writer. */
+	public JsonWriter value(String val) {
+		if (val == null) return nullValue();
+
+		separate();
+		writeString(val);
+
+		return this;
+	}
+
+	/** Write an integer value.
+	 *
+	 * @param val The value to write.
+	 *
+	 * @return This writer. */
+	public JsonWriter value(long val) {
+		separate();
+		raw(Long.toString(val));
+
+		return this;
+	}
+
+	/** Write a floating-point value.
+	 *
+	 * JSON has no way to write infinite or NaN values, so they are written as
+	 * strings.
+	 *
+	 * @param val The value to write.
+	 *
+	 * @return This writer. */
+	public JsonWriter value(double val) {
+		if (Double.isNaN(val) || Double.isInfinite(val)) return value(Double.toString(val));
+
+		separate();
+
+		if (val == Math.rint(val) && Math.abs(val) < 1e15) raw(Long.toString((long) val));
+		else                                                raw(Double.toString(val));
+
+		return this;
+	}
+
+	/** Write a boolean value.
+	 *
+	 * @param val The value to write.
+	 *
+	 * @return This writer. */
+	public JsonWriter value(boolean val) {
+		separate();
+		raw(val ? "true" : "false");
+
+		return this;
+	}
+
+	/** Write a null value.
+	 *
+	 * @return This writer. */
+	public JsonWriter nullValue() {
+		separate();
+		raw("null");
+
+		return this;
+	}
+
+	/** Write a field containing a string.
+	 *
+	 * @param name The name of the field.
+	 * @param val The value of the field.
+	 *
+	 * @return This writer. */
+	public JsonWriter field(String name, String val) {
+		return name(name).value(val);
+	}
+
+	/** Write a field containing an integer.
+	 *
+	 * @param name The name of the field.
+	 * @param val The value of the field.
+	 *
+	 * @return This writer. */
+	public JsonWriter field(String name, long val) {
+		return name(name).value(val);
+	}
+
+	/** Write a field containing a floating-point number.
+	 *
+	 * @param name The name of the field.
+	 * @param val The value of the field.
+	 *
+	 * @return This writer. */
+	public JsonWriter field(String name, double val) {
+		return name(name).value(val);
+	}
+
+	/** Write a field containing a boolean.
+	 *
+	 * @param name The name of the field.
+	 * @param val The value of the field.
+	 *
+	 * @return This writer. */
+	public JsonWriter field(String name, boolean val) {
+		return name(name).value(val);
+	}
+
+	/** Write a field containing an array of strings.
+	 *
+	 * @param name The name of the field.
+	 * @param vals The values in the array.
+	 *
+	 * @return This writer. */
+	public JsonWriter field(String name, Iterable<String> vals) {
+		name(name).beginArray();
+		for (String val : vals) value(val);
+
+		return endArray();
+	}
+
+	/** Write a newline, for separating top-level values.
+	 *
+	 * The writer is reset so that the next value doesn't get a comma.
+	 *
+	 * @return This writer. */
+	public JsonWriter newline() {
+		rawChar('\n');
+
+		depth       = 0;
+		hasValue[0] = false;
+
+		return this;
+	}
+
+	private JsonWriter open(char ch) {
+		separate();
+		rawChar(ch);
+
+		depth += 1;
+		if (depth >= hasValue.length) {
+			hasValue = Arrays.copyOf(hasValue, hasValue.length * 2);
+		}
+
+		hasValue[depth] = false;
+
+		return this;
+	}
+
+	private JsonWriter close(char ch) {
+		rawChar(ch);
+
+		if (depth > 0) depth -= 1;
+
+		return this;
+	}
+
+	/* Write a comma, if one is needed before the next value. */
+	private void separate() {
+		if (afterName) {
+			afterName = false;
+			return;
+		}
+
+		if (hasValue[depth] && depth > 0) rawChar(',');
+
+		hasValue[depth] = true;
+	}
+
+	private void writeString(String str) {
+		try {
+			out.write('"');
+
+			int start = 0;
+			int len   = str.length();
+
+			for (int i = 0; i < len; i++) {
+				char ch = str.charAt(i);
+
+				if (ch >= 0x20 && ch != '"' && ch != '\\') continue;
+
+				// Write everything that didn't need escaping in one go.
+				if (i > start) out.write(str, start, i - start);
+				start = i + 1;
+
+				switch (ch) {
+				case '"':
+					out.write("\\\"");
+					break;
+				case '\\':
+					out.write("\\\\");
+					break;
+				case '\n':
+					out.write("\\n");
+					break;
+				case '\r':
+					out.write("\\r");
+					break;
+				case '\t':
+					out.write("\\t");
+					break;
+				default:
+					out.write("\\u00");
+					out.write(HEX[(ch >> 4) & 0xF]);
+					out.write(HEX[ch & 0xF]);
+				}
+			}
+
+			if (len > start) out.write(str, start, len - start);
+
+			out.write('"');
+		} catch (IOException ioex) {
+			throw new UncheckedIOException(ioex);
+		}
+	}
+
+	private void raw(String str) {
+		try {
+			out.write(str);
+		} catch (IOException ioex) {
+			throw new UncheckedIOException(ioex);
+		}
+	}
+
+	private void rawChar(char ch) {
+		try {
+			out.write(ch);
+		} catch (IOException ioex) {
+			throw new UncheckedIOException(ioex);
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		out.close();
+	}
+}
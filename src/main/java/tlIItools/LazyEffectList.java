@@ -0,0 +1,122 @@
+package tlIItools;
+
+import java.io.*;
+
+import java.util.*;
+
+/** The effects of an affix that was loaded without them.
+ *
+ * Only where each effect block is in the file is known to start with. The
+ * first time an effect is asked for, every block is read from the file again
+ * and parsed, and the parsed effects are kept from then on. This happens at
+ * most once, even if several threads ask at the same time.
+ *
+ * The number of effects is known without parsing them.
+ *
+ * @author Ben Culkin */
+public class LazyEffectList extends AbstractList<Effect> {
+	private final RunContext     ctx;
+	private final NameFileReader nfr;
+	private final Affix          afx;
+	private final Diagnostics    diags;
+
+	/* Where each effect block is. */
+	private final List<Provenance> blocks;
+
+	/* The parsed effects, once they have been parsed. */
+	private volatile List<Effect> parsed;
+
+	/** Create a new lazy effect list.
+	 *
+	 * @param ctx The run the effects are being parsed for.
+	 * @param nfr The name reader to read the file with.
+	 * @param afx The affix the effects belong to.
+	 * @param blocks Where each effect block is.
+	 * @param diags The place to record problems found while parsing. */
+	public LazyEffectList(RunContext ctx, NameFileReader nfr, Affix afx,
+			List<Provenance> blocks, Diagnostics diags)
+	{
+		this.ctx    = ctx;
+		this.nfr    = nfr;
+		this.afx    = afx;
+		this.blocks = blocks;
+		this.diags  = diags;
+	}
+
+	/** Check if the effects have been parsed yet.
+	 *
+	 * @return Whether the effects have been parsed. */
+	public boolean isParsed() {
+		return parsed != null;
+	}
+
+	/** Get where each effect block is, without parsing them.
+	 *
+	 * @return Where each effect block is, in file order. */
+	public List<Provenance> blocks() {
+		return Collections.unmodifiableList(blocks);
+	}
+
+	@Override
+	public Effect get(int index) {
+		return effects().get(index);
+	}
+
+	@Override
+	public int size() {
+		List<Effect> effects = parsed;
+		if (effects == null) return blocks.size();
+
+		return effects.size();
+	}
+
+	/** Get the parsed effects, parsing them if they haven't been yet.
+	 *
+	 * @return The parsed effects.
+	 *
+	 * @throws UncheckedIOException If the file can't be read again. */
+	public List<Effect> effects() {
+		List<Effect> effects = parsed;
+		if (effects != null) return effects;
+
+		synchronized (this) {
+			if (parsed == null) {
+				try {
+					parsed = Collections.unmodifiableList(parse());
+				} catch (IOException ioex) {
+					throw new UncheckedIOException(ioex);
+				}
+			}
+
+			return parsed;
+		}
+	}
+
+	/* Read every effect block again in one go, and parse them. */
+	private List<Effect> parse() throws IOException {
+		List<Effect> effects = new ArrayList<>(blocks.size());
+		if (blocks.isEmpty()) return effects;
+
+		Provenance first = blocks.get(0);
+		Provenance last  = blocks.get(blocks.size() - 1);
+
+		Provenance span = new Provenance(first.table, first.fileId,
+				first.startLine, last.endLine, first.offset,
+				(int) (last.offset + last.length - first.offset));
+
+		String     fName = span.fileName();
+		LineSource src   = span.open(nfr);
+
+		while (src.hasNextLine()) {
+			String ln = src.nextLine();
+			ln = LineSource.stripControls(ln);
+
+			if (ln.contains("[EFFECT]")) effects.add(Effect.parseEffect(ctx, afx, src, fName, diags));
+		}
+
+		// Use the same order that a full load would.
+		effects.sort(Comparator.comparingInt((val) -> val.hashCode()));
+
+		return effects;
+	}
+}
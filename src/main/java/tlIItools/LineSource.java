@@ -0,0 +1,164 @@
+package tlIItools;
+
+import java.io.*;
+
+import java.nio.charset.*;
+
+import java.util.*;
+import java.util.regex.*;
+
+/** A source of lines, which keeps track of the current line number and where
+ * in the input each line starts.
+ *
+ * @author Ben Culkin */
+public class LineSource {
+	/* Matches the control characters that are stripped from lines. */
+	private static final Pattern CONTROL_CHARS = Pattern.compile("\\p{Cntrl}");
+
+	private final Scanner scn;
+
+	private int lineNo;
+
+	/* The offset of the start of the last line read, and of the next one. */
+	private long lineOffset;
+	private long offset;
+
+	/** Create a new line source.
+	 *
+	 * @param scn The scanner to read lines from. */
+	public LineSource(Scanner scn) {
+		this(scn, 0, 0);
+	}
+
+	/** Create a new line source that starts part of the way through its input.
+	 *
+	 * @param scn The scanner to read lines from.
+	 * @param firstLine The number of the first line the scanner will read.
+	 * @param firstOffset The offset of the first line the scanner will read. */
+	public LineSource(Scanner scn, int firstLine, long firstOffset) {
+		this.scn = scn;
+
+		this.lineNo     = Math.max(firstLine - 1, 0);
+		this.lineOffset = firstOffset;
+		this.offset     = firstOffset;
+	}
+
+	/** Check if there is another line.
+	 *
+	 * @return Whether there is another line. */
+	public boolean hasNextLine() {
+		return scn.hasNextLine();
+	}
+
+	/** Read the next line.
+	 *
+	 * @return The next line. */
+	public String nextLine() {
+		String ln = scn.nextLine();
+		lineNo += 1;
+
+		// The match includes the line terminator, which the line doesn't.
+		lineOffset = offset;
+		offset    += scn.match().group().length();
+
+		return ln;
+	}
+
+	/** Get the number of the last line that was read.
+	 *
+	 * @return The line number, starting at 1, or 0 if no lines have been read. */
+	public int lineNumber() {
+		return lineNo;
+	}
+
+	/** Get the offset of the start of the last line that was read.
+	 *
+	 * @return The offset of the last line. */
+	public long lineOffset() {
+		return lineOffset;
+	}
+
+	/** Get the offset of the end of the last line that was read, including its
+	 * terminator.
+	 *
+	 * @return The offset after the last line. */
+	public long offset() {
+		return offset;
+	}
+
+	/** Open a reader for the contents of a game file.
+	 *
+	 * The game's files are mostly UTF-16LE with a byte-order mark, but some are
+	 * UTF-8 or plain ASCII. The encoding is picked from the byte-order mark if
+	 * there is one, and the mark is skipped. A file with no mark whose second
+	 * byte is a null is taken to be UTF-16LE; anything else is read with the
+	 * default charset.
+	 *
+	 * Decoding the file properly matters for line numbers: reading UTF-16 as a
+	 * single-byte encoding splits each CR-LF into two separate line breaks.
+	 *
+	 * @param in The stream to read the file from.
+	 *
+	 * @return A reader for the decoded contents of the file.
+	 *
+	 * @throws IOException If something goes wrong reading the start of the file. */
+	public static Reader decode(InputStream in) throws IOException {
+		BufferedInputStream buf = new BufferedInputStream(in);
+
+		buf.mark(3);
+		int b0 = buf.read();
+		int b1 = buf.read();
+		int b2 = buf.read();
+		buf.reset();
+
+		Charset charset = Charset.defaultCharset();
+		int     bomSize = 0;
+
+		if (b0 == 0xFF && b1 == 0xFE) {
+			charset = StandardCharsets.UTF_16LE;
+			bomSize = 2;
+		} else if (b0 == 0xFE && b1 == 0xFF) {
+			charset = StandardCharsets.UTF_16BE;
+			bomSize = 2;
+		} else if (b0 == 0xEF && b1 == 0xBB && b2 == 0xBF) {
+			charset = StandardCharsets.UTF_8;
+			bomSize = 3;
+		} else if (b0 > 0 && b1 == 0) {
+			charset = StandardCharsets.UTF_16LE;
+		}
+
+		buf.readNBytes(bomSize);
+
+		return new InputStreamReader(buf, charset);
+	}
+
+	/** Open a reader for the contents of a game file that has already been
+	 * read into memory.
+	 *
+	 * @param data The contents of the file.
+	 *
+	 * @return A reader for the decoded contents of the file.
+	 *
+	 * @see #decode(InputStream) */
+	public static Reader decode(byte[] data) {
+		try {
+			return decode(new ByteArrayInputStream(data));
+		} catch (IOException ioex) {
+			// Byte array streams don't throw.
+			throw new UncheckedIOException(ioex);
+		}
+	}
+
+	/** Strip the control characters out of a line.
+	 *
+	 * This removes the tabs used for indentation, along with any stray nulls
+	 * or carriage returns. This is the same as replaceAll with
+	 * {@code \p{Cntrl}}, without compiling the pattern for each line.
+	 *
+	 * @param ln The line to strip.
+	 *
+	 * @return The line, without any control characters. */
+	public static String stripControls(String ln) {
+		return CONTROL_CHARS.matcher(ln).replaceAll("");
+	}
+}
@@ -1,13 +1,43 @@
 package tlIItools;
 
+import java.util.*;
+
 /** Main method for TLIITools
- * 
+ *
  * @author Ben Culkin */
 public class Main {
 	/** Main method.
-	 * 
-	 * @param args Unused CLI args. */
+	 *
+	 * @param args The tool to run, followed by the arguments for it. */
 	public static void main(String[] args) {
-		// TODO implement this
+		if (args.length == 0) {
+			usage();
+			return;
+		}
+
+		String[] toolArgs = Arrays.copyOfRange(args, 1, args.length);
+
+		switch (args[0]) {
+		case "list":
+			AffixLister.main(toolArgs);
+			break;
+		case "serve":
+			AffixServer.main(toolArgs);
+			break;
+		case "diff":
+			AffixDiff.main(toolArgs);
+			break;
+		default:
+			System.err.printf("ERROR: Unknown tool '%s'\n", args[0]);
+			usage();
+		}
+	}
+
+	private static void usage() {
+		System.err.println("Usage: tlIItools <tool> [args...]");
+		System.err.println("Tools:");
+		System.err.println("\tlist\tList affixes (see AffixLister)");
+		System.err.println("\tserve\tServe affix queries over HTTP (see AffixServer)");
+		System.err.println("\tdiff\tCompare two sets of affixes (see AffixDiff)");
 	}
 }
@@ -2,12 +2,59 @@ package tlIItools;
 
 import java.io.*;
 
+import java.nio.file.*;
+
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+import java.util.regex.*;
+import java.util.stream.*;
 
 /** Reads in a list of file names to process.
+ *
+ * Besides plain files, this also accepts .zip archives. Every .DAT file in an
+ * archive is added as a file named 'archive.zip!/path/in/archive', and can be
+ * read through {@link #openReader(String)} without being extracted.
+ *
+ * Directories and glob patterns are also accepted. These aren't expanded when
+ * they are added; instead, they are walked (in parallel) by
+ * {@link #discover(Consumer)}, which hands out the files as it finds them.
  *
  * @author Ben Culkin */
-public class NameFileReader {
+public class NameFileReader implements Closeable {
+	/** Separates the name of an archive from the path of an entry in it. */
+	public static final String ARCHIVE_SEP = "!";
+
+	/** A batch of files discovered in a directory, all in the same group.
+	 *
+	 * @author Ben Culkin */
+	public static class FileBatch {
+		/** The group the files belong to. */
+		public final String group;
+		/** The files in the batch. */
+		public final List<String> files;
+
+		/** Create a new batch of files.
+		 *
+		 * @param group The group the files belong to.
+		 * @param files The files in the batch. */
+		public FileBatch(String group, List<String> files) {
+			this.group = group;
+			this.files = files;
+		}
+	}
+
+	/* A directory or glob that is waiting to be walked. */
+	private static class Root {
+		public final String group;
+		public final String spec;
+
+		public Root(String group, String spec) {
+			this.group = group;
+			this.spec  = spec;
+		}
+	}
+
 	/** Are we attempting to guess group names? */
 	public boolean guessGroups;
 	/** Regex to use for guessing group names. */
@@ -25,6 +72,16 @@ public class NameFileReader {
 	/** Counts the files read in. */
 	public int fCount;
 
+	/* The archives that have been opened, by file name. */
+	private Map<String, FileSystem> archives = new HashMap<>();
+
+	/* The directories/globs that are waiting to be walked. */
+	private List<Root> roots = new ArrayList<>();
+
+	/* The compiled form of groupRx, and the string it was compiled from. */
+	private Pattern groupPattern;
+	private String  groupPatternSource;
+
 	/** Stream to write normal output to. */
 	public PrintStream normOut = System.out;
 	/** Stream to write error output to. */
@@ -63,6 +120,68 @@ public class NameFileReader {
 		this.fCount = 0;
 	}
 
+	/** Create a name reader from a list of source arguments.
+	 *
+	 * The arguments are file names, directories and globs, along with any of
+	 * -r, -g, --guess-groups, --no-guess-groups and --guess-regex, which mean
+	 * the same thing as they do for the affix lister.
+	 *
+	 * @param args The source arguments.
+	 * @param errOut The place to write errors to.
+	 *
+	 * @return A name reader with all of the sources added. */
+	public static NameFileReader fromArgs(List<String> args, PrintStream errOut) {
+		NameFileReader nfr = new NameFileReader(false);
+		nfr.groupRx = ".*/mods/([^/]+)/*";
+		nfr.errOut  = errOut;
+
+		for (int i = 0; i < args.size(); i++) {
+			String arg = args.get(i);
+
+			switch (arg) {
+			case "-r":
+			case "--read-names-from-file":
+				nfr.readFrom(args.get(++i));
+				break;
+			case "-g":
+			case "--file-group":
+				nfr.swapGroup(args.get(++i));
+				break;
+			case "--guess-groups":
+				nfr.guessGroups = true;
+				break;
+			case "--no-guess-groups":
+				nfr.guessGroups = false;
+				break;
+			case "--guess-regex":
+				nfr.groupRx = args.get(++i);
+				break;
+			default:
+				nfr.addFile(arg);
+			}
+		}
+
+		return nfr;
+	}
+
+	/** Check if a source argument takes a value after it.
+	 *
+	 * @param arg The argument to check.
+	 *
+	 * @return Whether the argument is followed by a value. */
+	public static boolean takesValue(String arg) {
+		switch (arg) {
+		case "-r":
+		case "--read-names-from-file":
+		case "-g":
+		case "--file-group":
+		case "--guess-regex":
+			return true;
+		default:
+			return false;
+		}
+	}
+
 	/** Read in file names from a file.
 	 *
 	 * @param from The name of the file to read from. */
@@ -92,9 +211,17 @@ public class NameFileReader {
 			if (ln.startsWith("#")) {
 				swapGroup(ln.substring(1));
 
+				skipAdd = true;
+			} else if (isArchive(ln)) {
+				addArchive(ln);
+
+				skipAdd = true;
+			} else if (isRoot(ln)) {
+				addRoot(ln);
+
 				skipAdd = true;
 			} else if (guessGroups && ln.contains("/mods/")) {
-				swapGroup(ln.replaceAll(groupRx, "$1"));
+				swapGroup(guessGroup(ln));
 			}
 
 			if (!skipAdd) {
@@ -124,14 +251,340 @@ public class NameFileReader {
 		}
 	}
 	
+	/** Guess the group name for a file.
+	 *
+	 * @param fName The name of the file.
+	 *
+	 * @return The guessed group for the file. */
+	public String guessGroup(String fName) {
+		Matcher mat = groupPattern().matcher(fName);
+
+		if (mat.find() && mat.groupCount() >= 1 && mat.group(1) != null) {
+			return mat.group(1);
+		}
+
+		return fName;
+	}
+
+	/* Get the compiled version of groupRx, recompiling it if it has changed. */
+	private synchronized Pattern groupPattern() {
+		if (groupPattern == null || !groupRx.equals(groupPatternSource)) {
+			groupPattern       = Pattern.compile(groupRx);
+			groupPatternSource = groupRx;
+		}
+
+		return groupPattern;
+	}
+
 	/** Add a file to this file reader.
 	 * 
 	 * @param fName The file to add. */
 	public void addFile(String fName) {
+		if (isArchive(fName)) {
+			addArchive(fName);
+
+			return;
+		} else if (isRoot(fName)) {
+			addRoot(fName);
+
+			return;
+		}
+
 		curList.add(fName);
 
 		fCount += 1;
 	}
+
+	/** Check if a file name refers to a directory or a glob pattern.
+	 *
+	 * @param fName The file name to check.
+	 *
+	 * @return Whether the file name should be walked to find files. */
+	public static boolean isRoot(String fName) {
+		return isGlob(fName) || Files.isDirectory(Paths.get(fName));
+	}
+
+	/** Check if a file name is a glob pattern.
+	 *
+	 * @param fName The file name to check.
+	 *
+	 * @return Whether or not the file name contains glob characters. */
+	public static boolean isGlob(String fName) {
+		return fName.indexOf('*') != -1 || fName.indexOf('?') != -1
+				|| fName.indexOf('[') != -1 || fName.indexOf('{') != -1;
+	}
+
+	/** Add a directory or glob pattern to be walked by {@link #discover(Consumer)}.
+	 *
+	 * Files that are found go into the current group, unless group guessing is on
+	 * and a group can be guessed for them.
+	 *
+	 * @param spec The directory or glob pattern to add. */
+	public void addRoot(String spec) {
+		roots.add(new Root(curGroup, spec));
+	}
+
+	/** Check if there are directories or globs waiting to be walked.
+	 *
+	 * @return Whether there are any directories or globs to walk. */
+	public boolean hasRoots() {
+		return !roots.isEmpty();
+	}
+
+	/** Walk every directory and glob that has been added, in parallel.
+	 *
+	 * Each directory yields its .DAT files (or the files matching the glob) as
+	 * one batch per group, which is passed to the sink as soon as the directory
+	 * has been listed. The sink may be called from multiple threads at once. The
+	 * files in a batch are sorted, but the order batches arrive in isn't fixed.
+	 *
+	 * The walk runs in its own pool, not the common one. Sinks can block (such
+	 * as when they hand batches to a full queue), and blocking every worker in
+	 * the common pool would stall anything else using it, like the parallel
+	 * parsing that is consuming the batches.
+	 *
+	 * @param sink The place to send the discovered files. */
+	public void discover(Consumer<FileBatch> sink) {
+		ForkJoinPool walkers = new ForkJoinPool(Runtime.getRuntime().availableProcessors(),
+				(pool) -> {
+					ForkJoinWorkerThread thread
+						= ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+					thread.setName("file-discovery-" + thread.getPoolIndex());
+
+					return thread;
+				}, null, false);
+
+		try {
+			for (Root root : roots) walkRoot(walkers, root, sink);
+		} finally {
+			walkers.shutdown();
+		}
+	}
+
+	/* Walk a single directory or glob in a pool. */
+	private void walkRoot(ForkJoinPool walkers, Root root, Consumer<FileBatch> sink) {
+		Path        base;
+		PathMatcher matcher;
+
+		if (isGlob(root.spec)) {
+			base    = globBase(root.spec);
+			matcher = FileSystems.getDefault().getPathMatcher("glob:" + root.spec);
+		} else {
+			base    = Paths.get(root.spec);
+			matcher = (pth) -> pth.getFileName().toString().toUpperCase().endsWith(".DAT");
+		}
+
+		if (!Files.isDirectory(base)) {
+			errOut.printf("Could not find any files for %s\n", root.spec);
+			return;
+		}
+
+		walkers.invoke(new DirWalker(base, root.group, matcher, sink));
+	}
+
+	/* Get the directory that a glob pattern starts in.
+	 *
+	 * This is everything before the path segment with the first glob character
+	 * in it. */
+	private static Path globBase(String glob) {
+		int globIdx = glob.length();
+
+		for (char ch : new char[] {'*', '?', '[', '{'}) {
+			int chIdx = glob.indexOf(ch);
+			if (chIdx != -1) globIdx = Math.min(globIdx, chIdx);
+		}
+
+		return Paths.get(glob.substring(0, glob.lastIndexOf('/', globIdx) + 1));
+	}
+
+	/* Walks a directory, forking to walk each sub-directory. */
+	private class DirWalker extends RecursiveAction {
+		private static final long serialVersionUID = 4005470418658024413L;
+
+		private final Path dir;
+		private final String group;
+		private final PathMatcher matcher;
+		private final Consumer<FileBatch> sink;
+
+		public DirWalker(Path dir, String group, PathMatcher matcher, Consumer<FileBatch> sink) {
+			this.dir     = dir;
+			this.group   = group;
+			this.matcher = matcher;
+			this.sink    = sink;
+		}
+
+		@Override
+		protected void compute() {
+			List<DirWalker> subWalkers = new ArrayList<>();
+			Map<String, List<String>> found = new TreeMap<>();
+
+			try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+				for (Path entry : entries) {
+					if (Files.isDirectory(entry)) {
+						subWalkers.add(new DirWalker(entry, group, matcher, sink));
+					} else if (matcher.matches(entry)) {
+						String fName = entry.toString();
+
+						String fGroup = group;
+						if (guessGroups && fName.contains("/mods/")) fGroup = guessGroup(fName);
+
+						found.computeIfAbsent(fGroup, (key) -> new ArrayList<>()).add(fName);
+					}
+				}
+			} catch (IOException ioex) {
+				synchronized (errOut) {
+					errOut.printf("Error listing directory %s\n", dir);
+					ioex.printStackTrace(errOut);
+					errOut.println();
+				}
+			}
+
+			for (Map.Entry<String, List<String>> batch : found.entrySet()) {
+				Collections.sort(batch.getValue());
+
+				sink.accept(new FileBatch(batch.getKey(), batch.getValue()));
+			}
+
+			invokeAll(subWalkers);
+		}
+	}
+
+	/** Check if a file name refers to an archive.
+	 *
+	 * @param fName The file name to check.
+	 *
+	 * @return Whether or not the file is an archive. */
+	public static boolean isArchive(String fName) {
+		return fName.toLowerCase().endsWith(".zip");
+	}
+
+	/** Add every .DAT file in an archive to this file reader.
+	 *
+	 * If group guessing is on, the groups will be guessed using the paths the
+	 * files have inside the archive. Files whose group can't be guessed go into
+	 * the current group.
+	 *
+	 * @param archiveName The name of the archive to add. */
+	public void addArchive(String archiveName) {
+		FileSystem archive;
+
+		try {
+			archive = openArchive(archiveName);
+		} catch (IOException ioex) {
+			errOut.printf("Error opening archive %s\n", archiveName);
+			ioex.printStackTrace(errOut);
+			errOut.println();
+
+			return;
+		}
+
+		String startGroup = curGroup;
+
+		for (Path root : archive.getRootDirectories()) {
+			try (Stream<Path> entries = Files.walk(root)) {
+				Iterator<Path> itr = entries.iterator();
+
+				while (itr.hasNext()) {
+					Path entry = itr.next();
+
+					String entryName = entry.toString();
+					if (!entryName.toUpperCase().endsWith(".DAT")) continue;
+					if (Files.isDirectory(entry))                   continue;
+
+					if (guessGroups && entryName.contains("/mods/")) {
+						swapGroup(guessGroup(entryName));
+					} else {
+						swapGroup(startGroup);
+					}
+
+					curList.add(archiveName + ARCHIVE_SEP + entryName);
+
+					fCount += 1;
+				}
+			} catch (IOException | UncheckedIOException ex) {
+				errOut.printf("Error listing entries of archive %s\n", archiveName);
+				ex.printStackTrace(errOut);
+				errOut.println();
+			}
+		}
+
+		swapGroup(startGroup);
+	}
+
+	/* Open an archive, or get it if it is already open. */
+	private synchronized FileSystem openArchive(String archiveName) throws IOException {
+		FileSystem archive = archives.get(archiveName);
+
+		if (archive == null) {
+			archive = FileSystems.newFileSystem(Paths.get(archiveName), (ClassLoader) null);
+
+			archives.put(archiveName, archive);
+		}
+
+		return archive;
+	}
+
+	/** Open a file that was added to this reader.
+	 *
+	 * Files inside of archives are read directly from the archive.
+	 *
+	 * @param fName The name of the file to open.
+	 *
+	 * @return A reader for the contents of the file.
+	 *
+	 * @throws IOException If something goes wrong opening the file. */
+	public Reader openReader(String fName) throws IOException {
+		// Files are decoded the same way whether or not they are in an archive,
+		// so offsets into them can be used with either.
+		return LineSource.decode(Files.newInputStream(pathOf(fName)));
+	}
+
+	/** Read the contents of a file that was added to this reader.
+	 *
+	 * @param fName The name of the file to read.
+	 *
+	 * @return The contents of the file.
+	 *
+	 * @throws IOException If something goes wrong reading the file. */
+	public byte[] readBytes(String fName) throws IOException {
+		return Files.readAllBytes(pathOf(fName));
+	}
+
+	/* Check if a file name refers to a file inside an archive. */
+	private static boolean isArchiveEntry(String fName) {
+		int sepIdx = fName.indexOf(ARCHIVE_SEP + "/");
+
+		return sepIdx != -1 && isArchive(fName.substring(0, sepIdx));
+	}
+
+	/* Get the path for a file name, which may be inside an archive. */
+	private Path pathOf(String fName) throws IOException {
+		if (isArchiveEntry(fName)) {
+			int sepIdx = fName.indexOf(ARCHIVE_SEP + "/");
+
+			FileSystem archive = openArchive(fName.substring(0, sepIdx));
+
+			return archive.getPath(fName.substring(sepIdx + ARCHIVE_SEP.length()));
+		}
+
+		return Paths.get(fName);
+	}
+
+	/** Close any archives that this reader has opened. */
+	@Override
+	public synchronized void close() {
+		for (Map.Entry<String, FileSystem> archive : archives.entrySet()) {
+			try {
+				archive.getValue().close();
+			} catch (IOException ioex) {
+				errOut.printf("Error closing archive %s\n", archive.getKey());
+				ioex.printStackTrace(errOut);
+				errOut.println();
+			}
+		}
+
+		archives.clear();
+	}
 	
 	/** Add a file to this file reader.
 	 * 
@@ -0,0 +1,127 @@
+package tlIItools;
+
+import java.io.*;
+
+import java.util.*;
+
+/** Where in a source file an affix or effect came from.
+ *
+ * The offset and length are in characters of the file as it is read, which is
+ * what is needed to read the same text again.
+ *
+ * @author Ben Culkin */
+public final class Provenance {
+	/** The table the file id is for. */
+	public final SourceTable table;
+	/** The id of the file in the table. */
+	public final int fileId;
+
+	/** The first line, counting from 1. */
+	public final int startLine;
+	/** The last line, counting from 1. */
+	public final int endLine;
+
+	/** The offset of the start of the first line. */
+	public final long offset;
+	/** The number of characters, including the end of the last line. */
+	public final int length;
+
+	/** Create a new provenance record.
+	 *
+	 * @param table The table the file id is for.
+	 * @param fileId The id of the file in the table.
+	 * @param startLine The first line.
+	 * @param endLine The last line.
+	 * @param offset The offset of the start of the first line.
+	 * @param length The number of characters. */
+	public Provenance(SourceTable table, int fileId, int startLine, int endLine,
+			long offset, int length)
+	{
+		this.table     = table;
+		this.fileId    = fileId;
+		this.startLine = startLine;
+		this.endLine   = endLine;
+		this.offset    = offset;
+		this.length    = length;
+	}
+
+	/** Get the name of the file.
+	 *
+	 * @return The name of the file. */
+	public String fileName() {
+		return table.name(fileId);
+	}
+
+	/** Read the text this came from again.
+	 *
+	 * Everything before the offset is skipped over without being kept.
+	 *
+	 * @param nfr The name reader to open the file with.
+	 *
+	 * @return The text, including the end of the last line.
+	 *
+	 * @throws IOException If something goes wrong reading the file, or the file
+	 *                     is now shorter than it was. */
+	public String read(NameFileReader nfr) throws IOException {
+		try (Reader rdr = nfr.openReader(fileName())) {
+			long toSkip = offset;
+			while (toSkip > 0) {
+				long skipped = rdr.skip(toSkip);
+				if (skipped <= 0) throw new EOFException("File " + fileName() + " ended before offset " + offset);
+
+				toSkip -= skipped;
+			}
+
+			char[] buf = new char[length];
+
+			int read = 0;
+			while (read < length) {
+				int count = rdr.read(buf, read, length - read);
+				if (count < 0) throw new EOFException("File " + fileName() + " ended before " + location());
+
+				read += count;
+			}
+
+			return new String(buf);
+		}
+	}
+
+	/** Read the text this came from again, as a source of lines.
+	 *
+	 * The line numbers and offsets of the lines are the same as they were in the
+	 * whole file.
+	 *
+	 * @param nfr The name reader to open the file with.
+	 *
+	 * @return The lines this came from.
+	 *
+	 * @throws IOException If something goes wrong reading the file. */
+	public LineSource open(NameFileReader nfr) throws IOException {
+		return new LineSource(new Scanner(read(nfr)), startLine, offset);
+	}
+
+	/** Get the location as a file name and line range.
+	 *
+	 * @return The location, like 'file:10-20'. */
+	public String location() {
+		return location(fileName(), startLine, endLine);
+	}
+
+	/** Get a location as a file name and line range.
+	 *
+	 * @param fName The name of the file.
+	 * @param startLine The first line.
+	 * @param endLine The last line.
+	 *
+	 * @return The location, like 'file:10-20'. */
+	public static String location(String fName, int startLine, int endLine) {
+		if (startLine == endLine) return fName + ":" + startLine;
+
+		return fName + ":" + startLine + "-" + endLine;
+	}
+
+	@Override
+	public String toString() {
+		return location();
+	}
+}
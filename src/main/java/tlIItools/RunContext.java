@@ -0,0 +1,76 @@
+package tlIItools;
+
+import java.io.*;
+
+import java.util.concurrent.atomic.*;
+
+/** The state for a single run of one of the tools.
+ *
+ * Everything that used to be kept in static fields (the options, where output
+ * goes, the counters and the effect details) is carried by one of these
+ * instead, so that several runs can happen at once in the same JVM.
+ *
+ * The options and outputs are set up before a run starts, and aren't changed
+ * while it is going. The counters can be updated from any thread.
+ *
+ * @author Ben Culkin */
+public class RunContext {
+	/* The context used when no other one is given. */
+	private static RunContext defaultContext;
+
+	/** Should timing data be recorded? */
+	public boolean doTiming = false;
+
+	/** Should the file name be attached to things? */
+	public boolean addFileName = false;
+
+	/** The normal output to use. */
+	public PrintStream normOut = System.out;
+	/** The error output to use. */
+	public PrintStream errOut = System.err;
+	/** The output to write affix groups to. */
+	public PrintStream affixGroupDest = null;
+
+	/** The effect details to use when describing effects. */
+	public EffectRepo effectRepo;
+
+	/** The cache that effect descriptions are looked up in. */
+	public EffectRenderCache renderCache;
+
+	/** The files that things were loaded from during the run. */
+	public final SourceTable sources = new SourceTable();
+
+	/** The problems found during the run. */
+	public Diagnostics diagnostics = new Diagnostics(Diagnostics.DEFAULT_CAPACITY);
+
+	/** The number of affixes that have been parsed. */
+	public final LongAdder affixesParsed = new LongAdder();
+	/** The number of effects that have been parsed. */
+	public final LongAdder effectsParsed = new LongAdder();
+	/** The total time spent parsing affixes, in nanoseconds. */
+	public final LongAdder parseNanos    = new LongAdder();
+
+	/** Create a new run context, using the default effect details. */
+	public RunContext() {
+		this(EffectRepo.defaultRepo());
+	}
+
+	/** Create a new run context.
+	 *
+	 * @param effectRepo The effect details to use. */
+	public RunContext(EffectRepo effectRepo) {
+		this.effectRepo  = effectRepo;
+		this.renderCache = new EffectRenderCache(this, EffectRenderCache.DEFAULT_CAPACITY);
+	}
+
+	/** Get the context to use when no other one is given.
+	 *
+	 * This has the default options, and writes to standard out/error.
+	 *
+	 * @return The default run context. */
+	public static synchronized RunContext defaults() {
+		if (defaultContext == null) defaultContext = new RunContext();
+
+		return defaultContext;
+	}
+}
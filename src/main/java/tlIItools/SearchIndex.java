@@ -0,0 +1,957 @@
+package tlIItools;
+
+import java.io.*;
+
+import java.nio.charset.StandardCharsets;
+
+import java.text.Normalizer;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.regex.*;
+
+/** A full-text index over the names and effect descriptions of a set of
+ * affixes.
+ *
+ * Four parts of each affix are indexed: its internal name, its prefix, its
+ * suffix and the descriptions of its effects. The text is normalized first: it
+ * is lower-cased, accents are dropped, the [ITEM] marker is removed, and
+ * anything that isn't a letter or a digit is treated as a space.
+ *
+ * There are two parts to the index:
+ * <ul>
+ * <li>Every word, along with the affixes it is in and where in them it is.
+ * This is used for prefix and phrase queries.</li>
+ * <li>Every trigram (run of three characters), along with the affixes it is
+ * in. This is used to find the affixes that could contain some text, which
+ * are then checked against the normalized text.</li>
+ * </ul>
+ *
+ * The lists of affixes and positions are stored as deltas from the last one,
+ * written as variable-length integers, so most of them take up a single byte.
+ *
+ * Affixes are referred to by where they are in the list the index was built
+ * from. Once it has been built, the index is never changed, so any number of
+ * threads can search it at once.
+ *
+ * Each query borrows a set of scratch arrays from a small shared pool, and
+ * gives it back once it is done. The arrays aren't tied to threads, since the
+ * server runs every request on a new thread, and they would be made again for
+ * each one. They are cleared after each query by only going over the affixes
+ * it touched. A query only looks at the affixes in the posting lists it reads,
+ * instead of every affix in the index.
+ *
+ * @author Ben Culkin */
+public class SearchIndex {
+	/** The ways the index can be searched.
+	 *
+	 * @author Ben Culkin */
+	public static enum Mode {
+		/** Every word has to be in the affix, with the last one possibly only
+		 * being the start of a word. This is what to use as someone types. */
+		PREFIX,
+		/** The text has to be somewhere in the affix, even in the middle of a
+		 * word. */
+		SUBSTRING,
+		/** The words have to be in the affix, one after the other. */
+		PHRASE
+	}
+
+	/** An affix that matched a query.
+	 *
+	 * @author Ben Culkin */
+	public static class Hit {
+		/** Where the affix is in the list the index was built from. */
+		public final int    doc;
+		/** How well the affix matched; higher is better. */
+		public final double score;
+
+		/** Create a new hit.
+		 *
+		 * @param doc Where the affix is in the list.
+		 * @param score How well the affix matched. */
+		public Hit(int doc, double score) {
+			this.doc   = doc;
+			this.score = score;
+		}
+	}
+
+	/** The results of a query.
+	 *
+	 * @author Ben Culkin */
+	public static class Results {
+		/** The number of affixes that matched. */
+		public final int total;
+		/** The best matches, best first. */
+		public final List<Hit> hits;
+
+		/** Create a new set of results.
+		 *
+		 * @param total The number of affixes that matched.
+		 * @param hits The best matches, best first. */
+		public Results(int total, List<Hit> hits) {
+			this.total = total;
+			this.hits  = hits;
+		}
+	}
+
+	/* The parts of an affix that are indexed, and how much a match in each is
+	 * worth. Players look items up by their prefix or suffix, so those count
+	 * the most. */
+	private static final int      FIELD_COUNT   = 4;
+	private static final int      EFFECTS_FIELD = 3;
+	private static final double[] FIELD_WEIGHTS = { 2.0, 3.0, 3.0, 1.0 };
+
+	/* Positions in a field start at the field number, shifted by this. */
+	private static final int POSITION_BITS = 16;
+	private static final int MAX_POSITION  = (1 << POSITION_BITS) - 1;
+
+	/* The gap left between effect descriptions, so phrases don't run across them. */
+	private static final int EFFECT_GAP = 8;
+
+	/* Separates the fields, and the effect descriptions, in the normalized text. */
+	private static final char FIELD_SEPARATOR  = '\u0001';
+	private static final char EFFECT_SEPARATOR = '\u0002';
+
+	private static final Pattern ITEM_MARKER = Pattern.compile("\\[ITEM\\]", Pattern.CASE_INSENSITIVE);
+	private static final Pattern ACCENTS     = Pattern.compile("\\p{M}+");
+
+	/** The number of affixes in the index. */
+	public final int docCount;
+
+	/* The normalized text of each affix. */
+	private final String[] docText;
+
+	/* The words, in order, with the number of affixes each is in and their postings. */
+	private final String[] terms;
+	private final int[]    termDocs;
+	private final byte[][] termPostings;
+
+	/* The trigrams, in order, likewise. */
+	private final long[]   trigrams;
+	private final int[]    trigramDocs;
+	private final byte[][] trigramPostings;
+
+	/* The most sets of scratch arrays kept around between queries. */
+	private static final int MAX_POOLED = Math.max(2, Runtime.getRuntime().availableProcessors() * 2);
+
+	/* The scratch arrays not being used by a query right now. */
+	private final BlockingQueue<Scratch> scratchPool;
+
+	private SearchIndex(String[] docText, String[] terms, int[] termDocs, byte[][] termPostings,
+			long[] trigrams, int[] trigramDocs, byte[][] trigramPostings)
+	{
+		this.docCount = docText.length;
+		this.docText  = docText;
+
+		this.terms        = terms;
+		this.termDocs     = termDocs;
+		this.termPostings = termPostings;
+
+		this.trigrams        = trigrams;
+		this.trigramDocs     = trigramDocs;
+		this.trigramPostings = trigramPostings;
+
+		this.scratchPool = new ArrayBlockingQueue<>(MAX_POOLED);
+	}
+
+	/* The arrays a query works in, kept in the pool between queries.
+	 *
+	 * Every entry is zero outside of a query. The affixes that were given a
+	 * score, or had their match count changed, are listed in docs, so that only
+	 * they need to be cleared afterwards. */
+	private static class Scratch {
+		final double[] scores;
+		final int[]    matched;
+		final double[] best;
+
+		/* The affixes touched by this query, and by the current word. */
+		final int[] docs;
+		final int[] touched;
+		int         numDocs;
+
+		/* Reads the posting lists that are gone through one after another. */
+		final Cursor cursor = new Cursor();
+
+		Scratch(int docCount) {
+			scores  = new double[docCount];
+			matched = new int[docCount];
+			best    = new double[docCount];
+
+			docs    = new int[docCount];
+			touched = new int[docCount];
+		}
+
+		/* Give an affix a score, noting it so it can be cleared. */
+		void score(int doc, double score) {
+			if (score <= 0) return;
+
+			if (scores[doc] == 0 && matched[doc] == 0) docs[numDocs++] = doc;
+
+			scores[doc] = score;
+		}
+
+		/* Put every touched entry back to zero. */
+		void clear() {
+			for (int i = 0; i < numDocs; i++) {
+				int doc = docs[i];
+
+				scores[doc]  = 0;
+				matched[doc] = 0;
+			}
+
+			numDocs = 0;
+		}
+	}
+
+	/* A posting list that is being built up, one affix at a time. */
+	private static class PostingBuilder {
+		private byte[] data = new byte[8];
+		private int    length;
+
+		private int docs;
+		private int lastDoc;
+
+		void add(int doc, int[] positions, int numPositions) {
+			writeVarint(doc - lastDoc);
+
+			docs   += 1;
+			lastDoc = doc;
+
+			if (positions == null) return;
+
+			writeVarint(numPositions);
+
+			int lastPos = 0;
+			for (int i = 0; i < numPositions; i++) {
+				writeVarint(positions[i] - lastPos);
+				lastPos = positions[i];
+			}
+		}
+
+		private void writeVarint(int val) {
+			if (length + 5 > data.length) data = Arrays.copyOf(data, data.length * 2);
+
+			while ((val & ~0x7F) != 0) {
+				data[length++] = (byte) ((val & 0x7F) | 0x80);
+				val >>>= 7;
+			}
+
+			data[length++] = (byte) val;
+		}
+
+		byte[] toBytes() {
+			return Arrays.copyOf(data, length);
+		}
+	}
+
+	/* Reads through a posting list, one affix at a time. A cursor can be reset
+	 * to read another list, so that one can be reused for many lists. */
+	private static class Cursor {
+		private byte[]  data;
+		private int     count;
+		private boolean hasPositions;
+
+		private int offset;
+		private int read;
+
+		/* The current affix, and the positions of the word in it. */
+		int   doc;
+		int[] positions = new int[8];
+		int   numPositions;
+
+		Cursor() {
+			// Reset before being used
+		}
+
+		Cursor(byte[] data, int count, boolean hasPositions) {
+			reset(data, count, hasPositions);
+		}
+
+		/* Start reading a posting list from the start. */
+		Cursor reset(byte[] data, int count, boolean hasPositions) {
+			this.data         = data;
+			this.count        = count;
+			this.hasPositions = hasPositions;
+
+			offset       = 0;
+			read         = 0;
+			doc          = 0;
+			numPositions = 0;
+
+			return this;
+		}
+
+		/* Move on to the next affix, returning false if there isn't one. */
+		boolean next() {
+			if (read == count) return false;
+
+			doc  += readVarint();
+			read += 1;
+
+			if (hasPositions) {
+				numPositions = readVarint();
+				if (numPositions > positions.length) positions = new int[numPositions];
+
+				int pos = 0;
+				for (int i = 0; i < numPositions; i++) {
+					pos += readVarint();
+					positions[i] = pos;
+				}
+			}
+
+			return true;
+		}
+
+		/* Move on to the first affix at or after one, returning false if there isn't one. */
+		boolean advanceTo(int target) {
+			while (read == 0 || doc < target) {
+				if (!next()) return false;
+			}
+
+			return true;
+		}
+
+		boolean hasPosition(int pos) {
+			return Arrays.binarySearch(positions, 0, numPositions, pos) >= 0;
+		}
+
+		/* Get the most a match in any of the fields the word is in is worth. */
+		double bestWeight() {
+			double best = 0;
+
+			for (int i = 0; i < numPositions; i++) {
+				best = Math.max(best, FIELD_WEIGHTS[positions[i] >>> POSITION_BITS]);
+			}
+
+			return best;
+		}
+
+		private int readVarint() {
+			int val   = 0;
+			int shift = 0;
+
+			while (true) {
+				byte bt = data[offset++];
+
+				val |= (bt & 0x7F) << shift;
+				if (bt >= 0) return val;
+
+				shift += 7;
+			}
+		}
+	}
+
+	/** Build an index over a list of affixes.
+	 *
+	 * The text of the affixes is worked out in parallel, and then indexed.
+	 *
+	 * @param ctx The run to describe effects for.
+	 * @param affixes The affixes to index.
+	 *
+	 * @return The index over the affixes. */
+	public static SearchIndex build(RunContext ctx, List<Affix> affixes) {
+		String[] docText = affixes.parallelStream()
+			.map((afx) -> textOf(ctx, afx))
+			.toArray(String[]::new);
+
+		Map<String, PostingBuilder> termBuilders    = new HashMap<>();
+		Map<Long, PostingBuilder>   trigramBuilders = new HashMap<>();
+
+		// The positions of each word in the current affix, in order.
+		Map<String, int[]> docTerms    = new LinkedHashMap<>();
+		Map<String, int[]> docCounts   = new HashMap<>();
+		Set<Long>          docTrigrams = new HashSet<>();
+
+		for (int doc = 0; doc < docText.length; doc++) {
+			docTerms.clear();
+			docCounts.clear();
+			docTrigrams.clear();
+
+			String text  = docText[doc];
+			int    field = 0;
+			int    pos   = 0;
+
+			int wordStart = -1;
+			for (int i = 0; i <= text.length(); i++) {
+				char ch = i < text.length() ? text.charAt(i) : FIELD_SEPARATOR;
+
+				if (ch != ' ' && ch != FIELD_SEPARATOR && ch != EFFECT_SEPARATOR) {
+					if (wordStart < 0) wordStart = i;
+
+					continue;
+				}
+
+				if (wordStart >= 0) {
+					if (pos <= MAX_POSITION) {
+						addPosition(docTerms, docCounts, text.substring(wordStart, i),
+								(field << POSITION_BITS) | pos);
+					}
+
+					pos += 1;
+					wordStart = -1;
+				}
+
+				if (ch == FIELD_SEPARATOR) {
+					field += 1;
+					pos    = 0;
+				} else if (ch == EFFECT_SEPARATOR) {
+					pos += EFFECT_GAP;
+				}
+			}
+
+			// Trigrams run across spaces, but not from one field or effect to the next.
+			for (int i = 2; i < text.length(); i++) {
+				if (isTrigramChar(text.charAt(i)) && isTrigramChar(text.charAt(i - 1))
+						&& isTrigramChar(text.charAt(i - 2)))
+				{
+					docTrigrams.add(trigram(text, i - 2));
+				}
+			}
+
+			for (Map.Entry<String, int[]> ent : docTerms.entrySet()) {
+				termBuilders.computeIfAbsent(ent.getKey(), (key) -> new PostingBuilder())
+					.add(doc, ent.getValue(), docCounts.get(ent.getKey())[0]);
+			}
+
+			for (long tri : docTrigrams) {
+				trigramBuilders.computeIfAbsent(tri, (key) -> new PostingBuilder()).add(doc, null, 0);
+			}
+		}
+
+		String[] terms        = termBuilders.keySet().toArray(new String[0]);
+		int[]    termDocs     = new int[terms.length];
+		byte[][] termPostings = new byte[terms.length][];
+
+		Arrays.sort(terms);
+		for (int i = 0; i < terms.length; i++) {
+			PostingBuilder builder = termBuilders.get(terms[i]);
+
+			termDocs[i]     = builder.docs;
+			termPostings[i] = builder.toBytes();
+		}
+
+		long[] trigrams = new long[trigramBuilders.size()];
+		int    idx      = 0;
+		for (long tri : trigramBuilders.keySet()) trigrams[idx++] = tri;
+		Arrays.sort(trigrams);
+
+		int[]    trigramDocs     = new int[trigrams.length];
+		byte[][] trigramPostings = new byte[trigrams.length][];
+		for (int i = 0; i < trigrams.length; i++) {
+			PostingBuilder builder = trigramBuilders.get(trigrams[i]);
+
+			trigramDocs[i]     = builder.docs;
+			trigramPostings[i] = builder.toBytes();
+		}
+
+		return new SearchIndex(docText, terms, termDocs, termPostings,
+				trigrams, trigramDocs, trigramPostings);
+	}
+
+	/* Note that a word is at a position in the current affix. */
+	private static void addPosition(Map<String, int[]> docTerms, Map<String, int[]> docCounts,
+			String word, int pos)
+	{
+		int[] positions = docTerms.get(word);
+		int[] count     = docCounts.get(word);
+
+		if (positions == null) {
+			positions = new int[4];
+			count     = new int[1];
+
+			docTerms.put(word, positions);
+			docCounts.put(word, count);
+		} else if (count[0] == positions.length) {
+			positions = Arrays.copyOf(positions, positions.length * 2);
+
+			docTerms.put(word, positions);
+		}
+
+		positions[count[0]++] = pos;
+	}
+
+	private static boolean isTrigramChar(char ch) {
+		return ch != FIELD_SEPARATOR && ch != EFFECT_SEPARATOR;
+	}
+
+	private static long trigram(String text, int start) {
+		return ((long) text.charAt(start) << 32) | ((long) text.charAt(start + 1) << 16)
+			| text.charAt(start + 2);
+	}
+
+	/* Get the normalized text of an affix, with its fields separated. */
+	private static String textOf(RunContext ctx, Affix afx) {
+		StringBuilder sb = new StringBuilder();
+
+		if (afx.intName != null) sb.append(normalize(afx.intName));
+		sb.append(FIELD_SEPARATOR);
+
+		if (afx.affixPrefix != null) sb.append(normalize(afx.affixPrefix));
+		sb.append(FIELD_SEPARATOR);
+
+		if (afx.affixSuffix != null) sb.append(normalize(afx.affixSuffix));
+		sb.append(FIELD_SEPARATOR);
+
+		boolean first = true;
+		for (Effect eft : afx.effects) {
+			String desc = normalize(eft.describe(ctx));
+			if (desc.isEmpty()) continue;
+
+			if (!first) sb.append(EFFECT_SEPARATOR);
+			sb.append(desc);
+
+			first = false;
+		}
+
+		return sb.toString();
+	}
+
+	/** Normalize some text the way the index does.
+	 *
+	 * The text is lower-cased, accents are dropped, the [ITEM] marker is
+	 * removed, and everything other than letters and digits becomes a single
+	 * space.
+	 *
+	 * @param text The text to normalize.
+	 *
+	 * @return The normalized text. */
+	public static String normalize(String text) {
+		String str = ITEM_MARKER.matcher(text).replaceAll(" ");
+
+		// Only decompose the text if it has something to take accents off of.
+		for (int i = 0; i < str.length(); i++) {
+			if (str.charAt(i) < 0x80) continue;
+
+			str = ACCENTS.matcher(Normalizer.normalize(str, Normalizer.Form.NFD)).replaceAll("");
+			break;
+		}
+
+		StringBuilder sb = new StringBuilder(str.length());
+
+		boolean space = true;
+		for (int i = 0; i < str.length(); i++) {
+			char ch = str.charAt(i);
+
+			if (Character.isLetterOrDigit(ch)) {
+				sb.append(Character.toLowerCase(ch));
+				space = false;
+			} else if (!space) {
+				sb.append(' ');
+				space = true;
+			}
+		}
+
+		if (space && sb.length() > 0) sb.setLength(sb.length() - 1);
+
+		return sb.toString();
+	}
+
+	/** Search the index.
+	 *
+	 * @param query The text to search for.
+	 * @param mode How to search for it.
+	 * @param limit The most hits to return.
+	 *
+	 * @return The best matches, along with how many affixes matched. */
+	public Results search(String query, Mode mode, int limit) {
+		String text = normalize(query);
+		if (text.isEmpty() || limit <= 0) return new Results(0, Collections.emptyList());
+
+		// If every pooled set is in use, make a new one; it is only kept if
+		// there is room in the pool afterwards.
+		Scratch scr = scratchPool.poll();
+		if (scr == null) scr = new Scratch(docCount);
+
+		try {
+			switch (mode) {
+			case PREFIX:
+				searchWords(text.split(" "), true, scr);
+				break;
+			case PHRASE:
+				searchPhrase(text.split(" "), scr);
+				break;
+			case SUBSTRING:
+				searchSubstring(text, scr);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown search mode " + mode);
+			}
+
+			return topHits(scr, limit);
+		} finally {
+			scr.clear();
+
+			scratchPool.offer(scr);
+		}
+	}
+
+	/* Score the affixes that have every word, possibly with the last one as a prefix. */
+	private void searchWords(String[] words, boolean lastIsPrefix, Scratch scr) {
+		// How many of the words each affix has matched so far.
+		int[]    matched = scr.matched;
+		double[] best    = scr.best;
+		int[]    touched = scr.touched;
+		double[] scores  = scr.scores;
+
+		for (int w = 0; w < words.length; w++) {
+			int lo;
+			int hi;
+
+			if (lastIsPrefix && w == words.length - 1) {
+				lo = lowerBound(words[w]);
+				hi = lowerBound(words[w] + Character.MAX_VALUE);
+			} else {
+				lo = Arrays.binarySearch(terms, words[w]);
+				hi = lo + 1;
+			}
+
+			if (lo < 0 || lo >= hi) {
+				// Nothing has every word; the touched affixes are cleared afterwards.
+				for (int i = 0; i < scr.numDocs; i++) scores[scr.docs[i]] = 0;
+
+				return;
+			}
+
+			int numTouched = 0;
+			for (int term = lo; term < hi; term++) {
+				// A whole word counts for more than the start of one.
+				double termScore = idf(termDocs[term])
+					* (terms[term].length() == words[w].length() ? 1.0 : 0.5);
+
+				Cursor cur = scr.cursor.reset(termPostings[term], termDocs[term], true);
+				while (cur.next()) {
+					if (matched[cur.doc] != w) continue;
+
+					double score = termScore * cur.bestWeight();
+
+					if (best[cur.doc] == 0) touched[numTouched++] = cur.doc;
+					if (score > best[cur.doc]) best[cur.doc] = score;
+				}
+			}
+
+			for (int i = 0; i < numTouched; i++) {
+				int doc = touched[i];
+
+				scores[doc]  += best[doc];
+				matched[doc]  = w + 1;
+				best[doc]     = 0;
+			}
+
+			// Only affixes with the first word can have the rest, so they are all
+			// the affixes that need to be looked at or cleared.
+			if (w == 0) {
+				System.arraycopy(touched, 0, scr.docs, 0, numTouched);
+				scr.numDocs = numTouched;
+			}
+		}
+
+		for (int i = 0; i < scr.numDocs; i++) {
+			int doc = scr.docs[i];
+
+			if (matched[doc] != words.length) scores[doc] = 0;
+		}
+	}
+
+	/* Score the affixes that have the words one after the other. */
+	private void searchPhrase(String[] words, Scratch scr) {
+		if (words.length == 1) {
+			searchWords(words, false, scr);
+			return;
+		}
+
+		Cursor[] cursors = new Cursor[words.length];
+
+		double phraseIdf = 0;
+		for (int w = 0; w < words.length; w++) {
+			int term = Arrays.binarySearch(terms, words[w]);
+			if (term < 0) return;
+
+			cursors[w] = new Cursor(termPostings[term], termDocs[term], true);
+			phraseIdf += idf(termDocs[term]);
+		}
+
+		int target = 0;
+		while (true) {
+			// Line every word up on the same affix.
+			boolean aligned = true;
+			for (Cursor cur : cursors) {
+				if (!cur.advanceTo(target)) return;
+
+				if (cur.doc != target) {
+					target  = cur.doc;
+					aligned = false;
+				}
+			}
+
+			if (!aligned) continue;
+
+			Cursor first = cursors[0];
+
+			int    occurrences = 0;
+			double bestWeight  = 0;
+			for (int i = 0; i < first.numPositions; i++) {
+				int start = first.positions[i];
+
+				boolean found = true;
+				for (int w = 1; w < cursors.length && found; w++) {
+					found = cursors[w].hasPosition(start + w);
+				}
+
+				if (!found) continue;
+
+				occurrences += 1;
+				bestWeight   = Math.max(bestWeight, FIELD_WEIGHTS[start >>> POSITION_BITS]);
+			}
+
+			if (occurrences > 0) scr.score(target, phraseIdf * bestWeight * (1 + Math.log(occurrences)));
+
+			target += 1;
+		}
+	}
+
+	/* Score the affixes that have the text anywhere in them. */
+	private void searchSubstring(String text, Scratch scr) {
+		if (text.length() >= 3) {
+			for (int doc : trigramCandidates(text)) scr.score(doc, substringScore(docText[doc], text));
+
+			return;
+		}
+
+		// Too short for a trigram, so look for words that contain it instead.
+		for (int term = 0; term < terms.length; term++) {
+			if (!terms[term].contains(text)) continue;
+
+			Cursor cur = scr.cursor.reset(termPostings[term], termDocs[term], true);
+			while (cur.next()) {
+				// Each affix is only scored once, even if several words match.
+				if (scr.matched[cur.doc] != 0) continue;
+
+				scr.docs[scr.numDocs++] = cur.doc;
+				scr.matched[cur.doc]    = 1;
+
+				scr.scores[cur.doc] = substringScore(docText[cur.doc], text);
+			}
+		}
+	}
+
+	/* Find the affixes that have every trigram of the text. */
+	private int[] trigramCandidates(String text) {
+		Set<Long> wanted = new HashSet<>();
+		for (int i = 0; i + 3 <= text.length(); i++) wanted.add(trigram(text, i));
+
+		List<Integer> ids = new ArrayList<>(wanted.size());
+		for (long tri : wanted) {
+			int id = Arrays.binarySearch(trigrams, tri);
+			if (id < 0) return new int[0];
+
+			ids.add(id);
+		}
+
+		// Start with the rarest trigram, so there are fewer affixes to check.
+		ids.sort(Comparator.comparingInt((id) -> trigramDocs[id]));
+
+		int[] candidates = null;
+		int   numCandidates = 0;
+
+		for (int id : ids) {
+			Cursor cur = new Cursor(trigramPostings[id], trigramDocs[id], false);
+
+			if (candidates == null) {
+				candidates = new int[trigramDocs[id]];
+				while (cur.next()) candidates[numCandidates++] = cur.doc;
+
+				continue;
+			}
+
+			int kept = 0;
+			for (int i = 0; i < numCandidates; i++) {
+				if (cur.advanceTo(candidates[i]) && cur.doc == candidates[i]) {
+					candidates[kept++] = candidates[i];
+				}
+			}
+
+			numCandidates = kept;
+			if (numCandidates == 0) break;
+		}
+
+		return Arrays.copyOf(candidates, numCandidates);
+	}
+
+	/* Score how well the text of an affix contains some text, or 0 if it doesn't. */
+	private static double substringScore(String doc, String text) {
+		double best = 0;
+
+		int fieldStart = 0;
+		for (int field = 0; field < FIELD_COUNT && fieldStart <= doc.length(); field++) {
+			int fieldEnd = doc.indexOf(FIELD_SEPARATOR, fieldStart);
+			if (fieldEnd < 0) fieldEnd = doc.length();
+
+			int idx = doc.indexOf(text, fieldStart);
+			if (idx >= 0 && idx + text.length() <= fieldEnd) {
+				// Matches at the start of a word, and in shorter fields, are better.
+				boolean wordStart = idx == fieldStart || doc.charAt(idx - 1) == ' '
+					|| doc.charAt(idx - 1) == EFFECT_SEPARATOR;
+
+				int length = field == EFFECTS_FIELD ? Math.max(text.length(), fieldEnd - fieldStart)
+				                                    : fieldEnd - fieldStart;
+
+				double score = FIELD_WEIGHTS[field]
+					* ((wordStart ? 1.0 : 0.5) + (double) text.length() / length);
+
+				best = Math.max(best, score);
+			}
+
+			fieldStart = fieldEnd + 1;
+		}
+
+		return best;
+	}
+
+	/* Get the best-scoring affixes, best first, and then in the order they were indexed. */
+	private static Results topHits(Scratch scr, int limit) {
+		Comparator<Hit> order = Comparator.<Hit>comparingDouble((hit) -> -hit.score)
+			.thenComparingInt((hit) -> hit.doc);
+
+		// Keep the worst of the best hits at the top, so it can be swapped out.
+		PriorityQueue<Hit> best = new PriorityQueue<>(Math.min(limit, scr.numDocs) + 1,
+				order.reversed());
+
+		double[] scores = scr.scores;
+
+		int total = 0;
+		for (int i = 0; i < scr.numDocs; i++) {
+			int doc = scr.docs[i];
+			if (scores[doc] <= 0) continue;
+
+			total += 1;
+
+			if (best.size() < limit) {
+				best.add(new Hit(doc, scores[doc]));
+				continue;
+			}
+
+			// The affixes aren't in order here, so ties go to the earlier one.
+			Hit worst = best.peek();
+			if (scores[doc] > worst.score || (scores[doc] == worst.score && doc < worst.doc)) {
+				best.poll();
+				best.add(new Hit(doc, scores[doc]));
+			}
+		}
+
+		List<Hit> hits = new ArrayList<>(best);
+		hits.sort(order);
+
+		return new Results(total, hits);
+	}
+
+	/* Find the first word that isn't before some text. */
+	private int lowerBound(String text) {
+		int idx = Arrays.binarySearch(terms, text);
+
+		return idx >= 0 ? idx : -idx - 1;
+	}
+
+	private double idf(int docs) {
+		return Math.log(1 + (double) docCount / docs);
+	}
+
+	/** Get the number of distinct words in the index.
+	 *
+	 * @return The number of words. */
+	public int termCount() {
+		return terms.length;
+	}
+
+	/** Get the number of distinct trigrams in the index.
+	 *
+	 * @return The number of trigrams. */
+	public int trigramCount() {
+		return trigrams.length;
+	}
+
+	/** Get the number of bytes taken up by the posting lists.
+	 *
+	 * @return The size of the posting lists, in bytes. */
+	public long postingBytes() {
+		long total = 0;
+
+		for (byte[] posting : termPostings)    total += posting.length;
+		for (byte[] posting : trigramPostings) total += posting.length;
+
+		return total;
+	}
+
+	/** Write this index to a stream.
+	 *
+	 * @param out The stream to write to.
+	 *
+	 * @throws IOException If something goes wrong writing the index. */
+	public void write(DataOutputStream out) throws IOException {
+		out.writeInt(docCount);
+		for (String text : docText) writeBytes(out, text.getBytes(StandardCharsets.UTF_8));
+
+		out.writeInt(terms.length);
+		for (int i = 0; i < terms.length; i++) {
+			out.writeUTF(terms[i]);
+			out.writeInt(termDocs[i]);
+			writeBytes(out, termPostings[i]);
+		}
+
+		out.writeInt(trigrams.length);
+		for (int i = 0; i < trigrams.length; i++) {
+			out.writeLong(trigrams[i]);
+			out.writeInt(trigramDocs[i]);
+			writeBytes(out, trigramPostings[i]);
+		}
+	}
+
+	/** Read an index written by {@link #write(DataOutputStream)}.
+	 *
+	 * @param in The stream to read from.
+	 *
+	 * @return The index that was read.
+	 *
+	 * @throws IOException If something goes wrong reading the index. */
+	public static SearchIndex read(DataInputStream in) throws IOException {
+		String[] docText = new String[in.readInt()];
+		for (int i = 0; i < docText.length; i++) {
+			docText[i] = new String(readBytes(in), StandardCharsets.UTF_8);
+		}
+
+		int      numTerms     = in.readInt();
+		String[] terms        = new String[numTerms];
+		int[]    termDocs     = new int[numTerms];
+		byte[][] termPostings = new byte[numTerms][];
+		for (int i = 0; i < numTerms; i++) {
+			terms[i]        = in.readUTF();
+			termDocs[i]     = in.readInt();
+			termPostings[i] = readBytes(in);
+		}
+
+		int      numTrigrams     = in.readInt();
+		long[]   trigrams        = new long[numTrigrams];
+		int[]    trigramDocs     = new int[numTrigrams];
+		byte[][] trigramPostings = new byte[numTrigrams][];
+		for (int i = 0; i < numTrigrams; i++) {
+			trigrams[i]        = in.readLong();
+			trigramDocs[i]     = in.readInt();
+			trigramPostings[i] = readBytes(in);
+		}
+
+		return new SearchIndex(docText, terms, termDocs, termPostings,
+				trigrams, trigramDocs, trigramPostings);
+	}
+
+	private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static byte[] readBytes(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+
+		return bytes;
+	}
+}
@@ -0,0 +1,244 @@
+package tlIItools;
+
+import java.io.*;
+
+import java.nio.file.*;
+
+import java.util.*;
+import java.util.stream.*;
+
+/** Join index between socketable units and the affixes they grant.
+ *
+ * Both sides are indexed by the internal name of the affix, so lookups in
+ * either direction don't need to scan anything.
+ *
+ * @author Ben Culkin */
+public class SocketableIndex {
+	/** All of the socketable units in this index. */
+	public List<SocketableUnit> units;
+
+	/** The socketable units that grant each affix, by affix name. */
+	public Map<String, List<SocketableUnit>> unitsByAffix;
+
+	/** The loaded affixes, by affix name. */
+	public Map<String, List<Affix>> affixesByName;
+
+	/** Errors encountered while loading units. */
+	public List<String> errors;
+
+	/* The run units are being loaded for. */
+	private final RunContext ctx;
+
+	/* The unit files under the directory being loaded, by their upper-cased
+	 * path relative to it. */
+	private final Map<String, String> filesByPath = new HashMap<>();
+	/* The units that have been loaded, with their base files applied, by the
+	 * file they were loaded from. */
+	private final Map<String, SocketableUnit> loaded = new HashMap<>();
+	/* The base files that couldn't be found, so each is only reported once. */
+	private final Set<String> missingBases = new HashSet<>();
+
+	/** Create a new blank socketable index. */
+	public SocketableIndex() {
+		this(RunContext.defaults());
+	}
+
+	/** Create a new blank socketable index.
+	 *
+	 * @param ctx The run units are being loaded for. */
+	public SocketableIndex(RunContext ctx) {
+		this.ctx = ctx;
+
+		units = new ArrayList<>();
+
+		unitsByAffix  = new HashMap<>();
+		affixesByName = new HashMap<>();
+
+		errors = new ArrayList<>();
+	}
+
+	/** Load every socketable unit file under a directory.
+	 *
+	 * The files are found first, so that the files units inherit from can be
+	 * looked up by the path given in the unit.
+	 *
+	 * @param ctx The run units are being loaded for.
+	 * @param dir The directory to load units from.
+	 *
+	 * @return The index of the loaded units. */
+	public static SocketableIndex loadFrom(RunContext ctx, String dir) {
+		SocketableIndex index = new SocketableIndex(ctx);
+
+		Path root = Paths.get(dir);
+
+		List<String> files = new ArrayList<>();
+		try (Stream<Path> paths = Files.walk(root)) {
+			paths.filter(Files::isRegularFile)
+				.filter((pth) -> pth.getFileName().toString().toUpperCase().endsWith(".DAT"))
+				.forEachOrdered((pth) -> {
+					files.add(pth.toString());
+
+					index.filesByPath.put(pathKey(root.relativize(pth).toString()), pth.toString());
+				});
+		} catch (IOException | UncheckedIOException ioex) {
+			index.errors.add(String.format(
+					"Error listing socketable units in directory %s: %s\n",
+					dir, ioex.getMessage()));
+		}
+
+		for (String fName : files) index.loadUnit(fName);
+
+		return index;
+	}
+
+	/** Load a single socketable unit, and add it to this index.
+	 *
+	 * If the unit has a base file, and it is under the directory units are
+	 * being loaded from, the unit inherits from it.
+	 *
+	 * @param fName The file to load the unit from. */
+	public void loadUnit(String fName) {
+		SocketableUnit unit = resolveUnit(fName, new HashSet<>());
+
+		if (unit != null) addUnit(unit);
+	}
+
+	/* Load a unit, along with the units it inherits from. */
+	private SocketableUnit resolveUnit(String fName, Set<String> resolving) {
+		SocketableUnit unit = loaded.get(fName);
+		if (unit != null) return unit;
+
+		if (!resolving.add(fName)) {
+			errors.add(String.format("Socketable unit in file %s inherits from itself\n", fName));
+
+			return null;
+		}
+
+		try (Reader rdr = LineSource.decode(Files.newInputStream(Paths.get(fName)))) {
+			unit = SocketableUnit.loadUnit(ctx, new Scanner(rdr), fName, ctx.diagnostics);
+		} catch (IOException ioex) {
+			errors.add(String.format(
+					"Error reading socketable unit from file %s: %s\n",
+					fName, ioex.getMessage()));
+
+			return null;
+		}
+
+		if (unit.baseFile != null) {
+			String baseName = findBaseFile(unit.baseFile);
+
+			if (baseName == null) {
+				if (missingBases.add(pathKey(unit.baseFile))) {
+					errors.add(String.format(
+							"Couldn't find base file %s for socketable unit in file %s\n",
+							unit.baseFile, fName));
+				}
+			} else {
+				SocketableUnit base = resolveUnit(baseName, resolving);
+
+				if (base != null) unit.inheritFrom(base);
+			}
+		}
+
+		resolving.remove(fName);
+		loaded.put(fName, unit);
+
+		return unit;
+	}
+
+	/* Find the loaded file for the base file of a unit.
+	 *
+	 * Base files are given relative to the game's root directory (such as
+	 * media/units/items/...), so leading directories are dropped until the
+	 * rest matches a file under the directory units are being loaded from. */
+	private String findBaseFile(String baseFile) {
+		String key = pathKey(baseFile);
+
+		while (true) {
+			String fName = filesByPath.get(key);
+			if (fName != null) return fName;
+
+			int slash = key.indexOf('/');
+			if (slash < 0) return null;
+
+			key = key.substring(slash + 1);
+		}
+	}
+
+	private static String pathKey(String path) {
+		return path.trim().replace('\\', '/').toUpperCase();
+	}
+
+	/** Add a socketable unit to this index.
+	 *
+	 * @param unit The unit to add. */
+	public void addUnit(SocketableUnit unit) {
+		units.add(unit);
+
+		for (String affixName : unit.affixNames) {
+			unitsByAffix.computeIfAbsent(affixName.toUpperCase(),
+					(key) -> new ArrayList<>()).add(unit);
+		}
+	}
+
+	/** Add an affix to this index.
+	 *
+	 * @param afx The affix to add. */
+	public void addAffix(Affix afx) {
+		if (afx.intName == null) return;
+
+		affixesByName.computeIfAbsent(afx.intName.toUpperCase(),
+				(key) -> new ArrayList<>()).add(afx);
+	}
+
+	/** Get the socketable units that grant an affix.
+	 *
+	 * @param affixName The internal name of the affix.
+	 *
+	 * @return The units that grant the affix. */
+	public List<SocketableUnit> unitsFor(String affixName) {
+		return unitsByAffix.getOrDefault(affixName.toUpperCase(), Collections.emptyList());
+	}
+
+	/** Get the affixes granted by a socketable unit.
+	 *
+	 * @param unit The unit to get affixes for.
+	 *
+	 * @return The affixes the unit grants, which have been loaded. */
+	public List<Affix> affixesFor(SocketableUnit unit) {
+		List<Affix> res = new ArrayList<>();
+
+		for (String affixName : unit.affixNames) {
+			res.addAll(affixesByName.getOrDefault(affixName.toUpperCase(),
+					Collections.emptyList()));
+		}
+
+		return res;
+	}
+
+	/** Get the names of affixes that are granted by a unit, but that haven't
+	 * been loaded.
+	 *
+	 * @return The names of the missing affixes. */
+	public SortedSet<String> missingAffixes() {
+		SortedSet<String> res = new TreeSet<>(unitsByAffix.keySet());
+		res.removeAll(affixesByName.keySet());
+
+		return res;
+	}
+
+	/** Get all of the loaded affixes that are granted by some socketable unit.
+	 *
+	 * @return The set of socketed affixes. */
+	public AffixSet socketedAffixes() {
+		AffixSet set = new AffixSet();
+
+		for (Map.Entry<String, List<Affix>> entry : affixesByName.entrySet()) {
+			if (!unitsByAffix.containsKey(entry.getKey())) continue;
+
+			for (Affix afx : entry.getValue()) set.addAffixByContents(afx);
+		}
+
+		return set;
+	}
+}
@@ -0,0 +1,163 @@
+package tlIItools;
+
+import java.util.*;
+
+/** Represents a Torchlight II socketable unit (a gem, ember, fish, etc.).
+ *
+ * @author Ben Culkin */
+public class SocketableUnit {
+	/** The file this unit was loaded from. */
+	public String fName;
+	/** The file this unit inherits from, as given in the unit, or null if it
+	 * doesn't inherit from one. */
+	public String baseFile;
+
+	/** The internal name of the unit. */
+	public String name;
+	/** The name that is displayed for the unit. */
+	public String displayName;
+	/** The unit type of the unit. */
+	public String unitType;
+
+	/** The minimum level the unit can spawn at. */
+	public int minLevel;
+	/** The maximum level the unit can spawn at. */
+	public int maxLevel;
+	/** The level of the unit. */
+	public int level;
+	/** The rarity of the unit. */
+	public int rarity;
+
+	/** The internal names of the affixes this unit grants. */
+	public List<String> affixNames;
+
+	/** Effects that are attached directly to the unit, instead of through an
+	 * affix. */
+	public List<Effect> effects;
+
+	/* The fields that were set in this unit's own file. */
+	private final Set<String> declared;
+
+	/** Create a new blank socketable unit. */
+	public SocketableUnit() {
+		affixNames = new ArrayList<>();
+		effects    = new ArrayList<>();
+
+		declared = new HashSet<>();
+	}
+
+	/** Fill in the fields this unit doesn't set itself from the unit it
+	 * inherits from.
+	 *
+	 * The affixes and effects are inherited as a whole, and only if the unit
+	 * doesn't list any of its own.
+	 *
+	 * @param base The unit this one inherits from, with its own base already
+	 *             applied. */
+	public void inheritFrom(SocketableUnit base) {
+		if (!declared.contains("<STRING>NAME"))           name        = base.name;
+		if (!declared.contains("<TRANSLATE>DISPLAYNAME")) displayName = base.displayName;
+		if (!declared.contains("<STRING>UNITTYPE"))       unitType    = base.unitType;
+		if (!declared.contains("<INTEGER>MINLEVEL"))      minLevel    = base.minLevel;
+		if (!declared.contains("<INTEGER>MAXLEVEL"))      maxLevel    = base.maxLevel;
+		if (!declared.contains("<INTEGER>LEVEL"))         level       = base.level;
+		if (!declared.contains("<INTEGER>RARITY"))        rarity      = base.rarity;
+
+		if (affixNames.isEmpty()) affixNames.addAll(base.affixNames);
+		if (effects.isEmpty())    effects.addAll(base.effects);
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+
+	/** Load a socketable unit from an input source.
+	 *
+	 * @param scn The input source to read from.
+	 * @param scnName The name of the input source.
+	 * @param errors A list to stick errors encountered during loading the unit.
+	 *
+	 * @return The unit, loaded from the file. */
+	public static SocketableUnit loadUnit(Scanner scn, String scnName, List<String> errors) {
+		Diagnostics diags = new Diagnostics(Diagnostics.DEFAULT_CAPACITY);
+
+		SocketableUnit unit = loadUnit(RunContext.defaults(), scn, scnName, diags);
+
+		diags.formatInto(errors);
+
+		return unit;
+	}
+
+	/** Load a socketable unit from an input source.
+	 *
+	 * @param ctx The run the unit is being loaded for.
+	 * @param scn The input source to read from.
+	 * @param scnName The name of the input source.
+	 * @param diags The place to record problems encountered loading the unit.
+	 *
+	 * @return The unit, loaded from the file. */
+	public static SocketableUnit loadUnit(RunContext ctx, Scanner scn, String scnName,
+			Diagnostics diags)
+	{
+		LineSource src = new LineSource(scn);
+
+		SocketableUnit unit = new SocketableUnit();
+		unit.fName = scnName;
+
+		while (src.hasNextLine()) {
+			String ln = src.nextLine();
+			ln = LineSource.stripControls(ln).trim();
+
+			if (ln.contains("[EFFECT]")) {
+				unit.effects.add(Effect.parseEffect(ctx, null, src, scnName, diags));
+				continue;
+			}
+
+			String[] splits = ln.split(":");
+			if (splits.length == 1) continue;
+
+			try {
+				switch (splits[0]) {
+				case "<STRING>BASEFILE":
+					unit.baseFile = splits[1];
+					break;
+				case "<STRING>NAME":
+					unit.name = splits[1];
+					break;
+				case "<TRANSLATE>DISPLAYNAME":
+					unit.displayName = splits[1];
+					break;
+				case "<STRING>UNITTYPE":
+					unit.unitType = splits[1];
+					break;
+				case "<STRING>AFFIX":
+					unit.affixNames.add(splits[1]);
+					break;
+				case "<INTEGER>MINLEVEL":
+					unit.minLevel = Integer.parseInt(splits[1]);
+					break;
+				case "<INTEGER>MAXLEVEL":
+					unit.maxLevel = Integer.parseInt(splits[1]);
+					break;
+				case "<INTEGER>LEVEL":
+					unit.level = Integer.parseInt(splits[1]);
+					break;
+				case "<INTEGER>RARITY":
+					unit.rarity = Integer.parseInt(splits[1]);
+					break;
+				default:
+					// Not a field we care about
+					continue;
+				}
+
+				unit.declared.add(splits[0]);
+			} catch (NumberFormatException nfex) {
+				diags.add(Diagnostic.Code.MALFORMED_NUMBER, scnName, src.lineNumber(),
+						unit.name, splits[0], splits[1], scnName);
+			}
+		}
+
+		return unit;
+	}
+}
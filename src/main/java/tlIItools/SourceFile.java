@@ -0,0 +1,28 @@
+package tlIItools;
+
+/** A file in a {@link SourceTable}.
+ *
+ * There is only one of these for each file in a table, and everything loaded
+ * from the file shares it.
+ *
+ * @author Ben Culkin */
+public final class SourceFile {
+	/** The id of the file in its table. */
+	public final int id;
+	/** The name of the file. */
+	public final String name;
+
+	/** Create a new source file.
+	 *
+	 * @param id The id of the file in its table.
+	 * @param name The name of the file. */
+	public SourceFile(int id, String name) {
+		this.id   = id;
+		this.name = name;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
@@ -0,0 +1,74 @@
+package tlIItools;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/** A table of the source files that affixes were loaded from.
+ *
+ * Each file is given a small id and a single shared record the first time it
+ * is seen, so that things loaded from the file only need to keep the id or the
+ * record instead of the whole name. Files can be added from several threads at
+ * once.
+ *
+ * @author Ben Culkin */
+public class SourceTable {
+	private final ConcurrentHashMap<String, SourceFile>  byName = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<Integer, SourceFile> byId   = new ConcurrentHashMap<>();
+
+	private final AtomicInteger nextId = new AtomicInteger();
+
+	/** Get the record for a file, adding it to the table if it isn't there.
+	 *
+	 * @param fName The name of the file.
+	 *
+	 * @return The record for the file. The same record is returned every time
+	 *         for the same name. */
+	public SourceFile fileFor(String fName) {
+		SourceFile file = byName.get(fName);
+		if (file != null) return file;
+
+		return byName.computeIfAbsent(fName, (key) -> {
+			SourceFile newFile = new SourceFile(nextId.getAndIncrement(), key);
+			byId.put(newFile.id, newFile);
+
+			return newFile;
+		});
+	}
+
+	/** Get the id for a file, adding it to the table if it isn't there.
+	 *
+	 * @param fName The name of the file.
+	 *
+	 * @return The id for the file. */
+	public int idFor(String fName) {
+		return fileFor(fName).id;
+	}
+
+	/** Get the record for a file from its id.
+	 *
+	 * @param id The id of the file.
+	 *
+	 * @return The record for the file, or null if there is no file with that id. */
+	public SourceFile file(int id) {
+		return byId.get(id);
+	}
+
+	/** Get the name of a file from its id.
+	 *
+	 * @param id The id of the file.
+	 *
+	 * @return The name of the file, or null if there is no file with that id. */
+	public String name(int id) {
+		SourceFile file = byId.get(id);
+		if (file == null) return null;
+
+		return file.name;
+	}
+
+	/** Get the number of files in the table.
+	 *
+	 * @return The number of files in the table. */
+	public int size() {
+		return nextId.get();
+	}
+}
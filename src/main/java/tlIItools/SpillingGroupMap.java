@@ -0,0 +1,221 @@
+package tlIItools;
+
+import java.io.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+
+import java.util.*;
+import java.util.function.*;
+
+/** A map from group keys to lists of members, which moves its contents out to
+ * disk once it grows past a set size.
+ *
+ * Spilled members are split into a number of partition files by the hash of
+ * their key, so that all of the members of a group end up in the same file.
+ * When the groups are read back, only one partition needs to be in memory at
+ * a time.
+ *
+ * @author Ben Culkin */
+public class SpillingGroupMap implements Closeable {
+	/* Rough per-entry overhead of the in-memory map, in bytes. */
+	private static final int ENTRY_OVERHEAD = 48;
+
+	/** The number of bytes that can be kept in memory before spilling. */
+	public final long budget;
+
+	/** The number of times that the map has been spilled to disk. */
+	public int spillCount;
+	/** The number of bytes that have been spilled to disk. */
+	public long spilledBytes;
+
+	private final int numPartitions;
+
+	private Map<String, List<String>> members;
+	private long memBytes;
+
+	private Path     spillDir;
+	private Writer[] partitions;
+
+	/** Create a new spilling group map.
+	 *
+	 * @param budget The number of bytes to keep in memory before spilling.
+	 * @param numPartitions The number of files to split spilled groups into. */
+	public SpillingGroupMap(long budget, int numPartitions) {
+		this.budget        = budget;
+		this.numPartitions = numPartitions;
+
+		this.members = new HashMap<>();
+	}
+
+	/** Add a member to a group.
+	 *
+	 * @param key The key for the group.
+	 * @param member The member to add.
+	 *
+	 * @throws IOException If something goes wrong spilling to disk. */
+	public void add(String key, String member) throws IOException {
+		List<String> group = members.get(key);
+
+		if (group == null) {
+			group = new ArrayList<>();
+			members.put(key, group);
+
+			memBytes += ENTRY_OVERHEAD + 2L * key.length();
+		}
+
+		group.add(member);
+		memBytes += 16 + 2L * member.length();
+
+		if (memBytes > budget) spill();
+	}
+
+	/** Get the number of bytes currently estimated to be in memory.
+	 *
+	 * @return The estimated in-memory size, in bytes. */
+	public long memoryBytes() {
+		return memBytes;
+	}
+
+	/* Move everything in memory out to the partition files. */
+	private void spill() throws IOException {
+		if (members.isEmpty()) return;
+
+		if (partitions == null) {
+			spillDir   = Files.createTempDirectory("tlIItools-groups");
+			partitions = new Writer[numPartitions];
+
+			for (int i = 0; i < numPartitions; i++) {
+				Path partition = spillDir.resolve("partition-" + i);
+
+				partitions[i] = Files.newBufferedWriter(partition, StandardCharsets.UTF_8);
+			}
+		}
+
+		for (Map.Entry<String, List<String>> group : members.entrySet()) {
+			Writer partition = partitions[partitionOf(group.getKey())];
+
+			String key = escape(group.getKey());
+			for (String member : group.getValue()) {
+				String ln = key + "\t" + escape(member) + "\n";
+
+				partition.write(ln);
+				spilledBytes += ln.length();
+			}
+		}
+
+		members.clear();
+		memBytes = 0;
+
+		spillCount += 1;
+	}
+
+	private int partitionOf(String key) {
+		return Math.floorMod(key.hashCode(), numPartitions);
+	}
+
+	/** Go through every group in this map.
+	 *
+	 * Groups are visited in sorted order if nothing was spilled; otherwise, they
+	 * are sorted within each partition.
+	 *
+	 * @param action The action to take for each group.
+	 *
+	 * @throws IOException If something goes wrong reading spilled groups. */
+	public void forEachGroup(BiConsumer<String, List<String>> action) throws IOException {
+		if (partitions == null) {
+			new TreeMap<>(members).forEach(action);
+
+			return;
+		}
+
+		spill();
+
+		for (int i = 0; i < numPartitions; i++) {
+			partitions[i].flush();
+
+			Map<String, List<String>> groups = new TreeMap<>();
+
+			Path partition = spillDir.resolve("partition-" + i);
+			try (BufferedReader rdr = Files.newBufferedReader(partition, StandardCharsets.UTF_8)) {
+				String ln;
+				while ((ln = rdr.readLine()) != null) {
+					int tabIdx = ln.indexOf('\t');
+
+					String key    = unescape(ln.substring(0, tabIdx));
+					String member = unescape(ln.substring(tabIdx + 1));
+
+					groups.computeIfAbsent(key, (k) -> new ArrayList<>()).add(member);
+				}
+			}
+
+			groups.forEach(action);
+		}
+	}
+
+	/** Delete any files this map has spilled to. */
+	@Override
+	public void close() throws IOException {
+		if (partitions == null) return;
+
+		for (int i = 0; i < numPartitions; i++) {
+			partitions[i].close();
+
+			Files.deleteIfExists(spillDir.resolve("partition-" + i));
+		}
+
+		Files.deleteIfExists(spillDir);
+
+		partitions = null;
+	}
+
+	private static String escape(String str) {
+		if (str.indexOf('\\') == -1 && str.indexOf('\t') == -1 && str.indexOf('\n') == -1) {
+			return str;
+		}
+
+		StringBuilder sb = new StringBuilder(str.length() + 8);
+
+		for (int i = 0; i < str.length(); i++) {
+			char ch = str.charAt(i);
+
+			switch (ch) {
+			case '\\':
+				sb.append("\\\\");
+				break;
+			case '\t':
+				sb.append("\\t");
+				break;
+			case '\n':
+				sb.append("\\n");
+				break;
+			default:
+				sb.append(ch);
+			}
+		}
+
+		return sb.toString();
+	}
+
+	private static String unescape(String str) {
+		if (str.indexOf('\\') == -1) return str;
+
+		StringBuilder sb = new StringBuilder(str.length());
+
+		for (int i = 0; i < str.length(); i++) {
+			char ch = str.charAt(i);
+
+			if (ch == '\\' && i + 1 < str.length()) {
+				char next = str.charAt(++i);
+
+				if      (next == 't') sb.append('\t');
+				else if (next == 'n') sb.append('\n');
+				else                  sb.append(next);
+			} else {
+				sb.append(ch);
+			}
+		}
+
+		return sb.toString();
+	}
+}
@@ -0,0 +1,151 @@
+package tlIItools;
+
+import java.io.*;
+
+import java.util.*;
+
+/** The hierarchy of Torchlight II unit types.
+ *
+ * Each unit type file names the type, and then lists the types it is a child
+ * of with CHILD, CHILD1, CHILD2, ... entries. So, for instance, BERSERKER is a
+ * child of PLAYER, CHARACTER and ANY.
+ *
+ * @author Ben Culkin */
+public class UnitTypeRepo {
+	/** The direct parents of each known unit type. */
+	public Map<String, Set<String>> parents;
+
+	/* Cache of each type, along with all of its ancestors. */
+	private Map<String, Set<String>> lineages;
+
+	/** The place to print errors to. */
+	public PrintStream errOut = System.err;
+
+	/** Create a new blank unit type repository. */
+	public UnitTypeRepo() {
+		parents  = new TreeMap<>();
+		lineages = new HashMap<>();
+	}
+
+	/** Load every unit type file in a directory.
+	 *
+	 * @param dir The directory to load from.
+	 * @param errOut The place to print errors to.
+	 *
+	 * @return The loaded unit types. */
+	public static UnitTypeRepo loadFrom(String dir, PrintStream errOut) {
+		UnitTypeRepo repo = new UnitTypeRepo();
+		repo.errOut = errOut;
+
+		File[] files = new File(dir).listFiles();
+		if (files == null) {
+			errOut.printf("Could not list unit types in directory %s\n", dir);
+
+			return repo;
+		}
+
+		for (File fle : files) {
+			String fName = fle.getName().toUpperCase();
+			if (!fle.isFile() || !fName.endsWith(".DAT")) continue;
+
+			try (Reader rdr = LineSource.decode(new FileInputStream(fle))) {
+				repo.loadType(new Scanner(rdr), fle.getPath());
+			} catch (IOException ioex) {
+				errOut.printf("Error reading unit type from file %s\n", fle);
+				ioex.printStackTrace(errOut);
+				errOut.println();
+			}
+		}
+
+		return repo;
+	}
+
+	/** Load a single unit type from an input source.
+	 *
+	 * @param scn The input source to read from.
+	 * @param scnName The name of the input source. */
+	public void loadType(Scanner scn, String scnName) {
+		String name = null;
+		Set<String> typeParents = new TreeSet<>();
+
+		while (scn.hasNextLine()) {
+			String ln = scn.nextLine();
+			ln = LineSource.stripControls(ln).trim();
+
+			String[] splits = ln.split(":");
+			if (splits.length == 1) continue;
+
+			if (splits[0].equals("<STRING>NAME")) {
+				name = splits[1].toUpperCase();
+			} else if (splits[0].startsWith("<STRING>CHILD")) {
+				typeParents.add(splits[1].toUpperCase());
+			}
+		}
+
+		if (name == null) {
+			errOut.printf("Unit type in file %s has no name\n", scnName);
+			return;
+		}
+
+		addType(name, typeParents);
+	}
+
+	/** Add a unit type to this repository.
+	 *
+	 * @param name The name of the type.
+	 * @param typeParents The types that the type is a child of. */
+	public void addType(String name, Collection<String> typeParents) {
+		parents.computeIfAbsent(name, (key) -> new TreeSet<>()).addAll(typeParents);
+
+		for (String parent : typeParents) {
+			parents.computeIfAbsent(parent, (key) -> new TreeSet<>());
+		}
+
+		lineages.clear();
+	}
+
+	/** Get a type along with every type it inherits from.
+	 *
+	 * Types that this repository doesn't know about are treated as having no
+	 * parents.
+	 *
+	 * @param type The type to look up.
+	 *
+	 * @return The type and all of its ancestors. */
+	public synchronized Set<String> lineage(String type) {
+		Set<String> lineage = lineages.get(type);
+		if (lineage != null) return lineage;
+
+		lineage = new HashSet<>();
+
+		Deque<String> pending = new ArrayDeque<>();
+		pending.push(type);
+
+		while (!pending.isEmpty()) {
+			String cur = pending.pop();
+			if (!lineage.add(cur)) continue;
+
+			for (String parent : parents.getOrDefault(cur, Collections.emptySet())) {
+				pending.push(parent);
+			}
+		}
+
+		lineage = Collections.unmodifiableSet(lineage);
+		lineages.put(type, lineage);
+
+		return lineage;
+	}
+
+	/** Get the 'concrete' unit types; those that no other type is a child of.
+	 *
+	 * @return The concrete unit types, in sorted order. */
+	public SortedSet<String> concreteTypes() {
+		SortedSet<String> concrete = new TreeSet<>(parents.keySet());
+
+		for (Set<String> typeParents : parents.values()) {
+			concrete.removeAll(typeParents);
+		}
+
+		return concrete;
+	}
+}
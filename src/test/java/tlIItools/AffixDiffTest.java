@@ -0,0 +1,127 @@
+package tlIItools;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+
+import java.nio.charset.*;
+import java.nio.file.*;
+
+import java.util.*;
+
+import org.junit.*;
+import org.junit.rules.*;
+
+/** Checks that corpora are compared by what is in them, and not by where
+ * they are.
+ *
+ * @author Ben Culkin */
+public class AffixDiffTest {
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	private RunContext   ctx;
+	private List<String> files;
+
+	@Before
+	public void setUp() throws Exception {
+		ctx   = TestCorpus.quietContext();
+		files = TestCorpus.files(40);
+	}
+
+	/* Copy the test files under a directory, and return the list of copies. */
+	private Path copyCorpus(String name) throws IOException {
+		Path root = tmp.newFolder(name).toPath();
+
+		List<String> copies = new ArrayList<>();
+		for (String fName : files) {
+			Path copy = root.resolve(fName);
+
+			Files.createDirectories(copy.getParent());
+			Files.copy(Paths.get(fName), copy);
+
+			copies.add(copy.toString());
+		}
+
+		return TestCorpus.writeList(root.resolve("files.txt"), copies);
+	}
+
+	/* Replace some text in a copied affix file, keeping its encoding. */
+	private static void edit(Path list, int idx, String from, String to) throws IOException {
+		Path file = Paths.get(Files.readAllLines(list).get(idx));
+
+		byte[]  data    = Files.readAllBytes(file);
+		Charset charset = StandardCharsets.UTF_8;
+		if (data.length >= 2 && (data[0] & 0xFF) == 0xFF && (data[1] & 0xFF) == 0xFE) {
+			charset = StandardCharsets.UTF_16LE;
+		}
+
+		String text = new String(data, charset);
+		assertTrue("No " + from + " in " + file, text.contains(from));
+
+		Files.write(file, text.replace(from, to).getBytes(charset));
+	}
+
+	@Test
+	public void sameCorpusInTwoPlacesHasNoChanges() throws Exception {
+		Corpus oldCorpus = TestCorpus.loadCorpus(ctx, copyCorpus("old"));
+		Corpus newCorpus = TestCorpus.loadCorpus(ctx, copyCorpus("new"));
+
+		AffixDiff diff = AffixDiff.compare(oldCorpus, newCorpus);
+
+		assertEquals(files.size(), diff.oldCount);
+		assertEquals(Collections.emptyList(), diff.changes);
+		assertEquals(Collections.emptySet(), diff.addedGroups);
+		assertEquals(Collections.emptySet(), diff.removedGroups);
+		assertEquals(files.size(), diff.unchangedCount);
+	}
+
+	@Test
+	public void editsAreFound() throws Exception {
+		Path oldList = copyCorpus("old");
+		Path newList = copyCorpus("new");
+
+		// The first file is SKILL_ADD_MASTERY_CHARM2.
+		edit(newList, 0, "<INTEGER>MIN_SPAWN_RANGE:777", "<INTEGER>MIN_SPAWN_RANGE:700");
+		edit(newList, 0, "<FLOAT>MIN:2", "<FLOAT>MIN:3");
+		// The second file is UNIQUE_PROC_THUNDERSTROM_5.
+		edit(newList, 1, "UNIQUE_PROC_THUNDERSTROM_5", "UNIQUE_PROC_THUNDERSTORM_5");
+
+		AffixDiff diff = AffixDiff.compare(
+				TestCorpus.loadCorpus(ctx, oldList), TestCorpus.loadCorpus(ctx, newList));
+
+		assertEquals(1, diff.count(AffixDiff.Kind.MODIFIED));
+		assertEquals(1, diff.count(AffixDiff.Kind.RENAMED));
+		assertEquals(0, diff.count(AffixDiff.Kind.ADDED));
+		assertEquals(0, diff.count(AffixDiff.Kind.REMOVED));
+		assertEquals(files.size() - 2, diff.unchangedCount);
+
+		for (AffixDiff.AffixChange change : diff.changes) {
+			if (change.kind == AffixDiff.Kind.MODIFIED) {
+				assertEquals("SKILL_ADD_MASTERY_CHARM2", change.name());
+				assertEquals(1, change.fields.size());
+				assertEquals(1, change.removedEffects.size());
+				assertEquals(1, change.addedEffects.size());
+			} else {
+				assertEquals("UNIQUE_PROC_THUNDERSTROM_5", change.oldAffix.intName);
+				assertEquals("UNIQUE_PROC_THUNDERSTORM_5", change.newAffix.intName);
+			}
+		}
+	}
+
+	@Test
+	public void droppedFilesAreRemoved() throws Exception {
+		Path oldList = copyCorpus("old");
+		Path newList = copyCorpus("new");
+
+		List<String> fewer = new ArrayList<>(Files.readAllLines(newList));
+		fewer.remove(fewer.size() - 1);
+		Files.write(newList, fewer);
+
+		AffixDiff diff = AffixDiff.compare(
+				TestCorpus.loadCorpus(ctx, oldList), TestCorpus.loadCorpus(ctx, newList));
+
+		assertEquals(1, diff.count(AffixDiff.Kind.REMOVED));
+		assertEquals(1, diff.changes.size());
+	}
+}
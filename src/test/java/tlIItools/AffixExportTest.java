@@ -0,0 +1,146 @@
+package tlIItools;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+
+import java.nio.file.*;
+
+import java.util.*;
+import java.util.regex.*;
+
+import org.junit.*;
+import org.junit.rules.*;
+
+/** Checks that exports have a row for everything in the listing, in the same
+ * order, however they are chunked.
+ *
+ * @author Ben Culkin */
+public class AffixExportTest {
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	private static RunContext  ctx;
+	private static List<Affix> affixes;
+
+	private static int effectCount;
+
+	@BeforeClass
+	public static void setUpClass() throws Exception {
+		ctx     = TestCorpus.quietContext();
+		affixes = TestCorpus.load(ctx, TestCorpus.files(TestCorpus.SIZE));
+
+		for (Affix afx : affixes) effectCount += afx.effects.size();
+	}
+
+	private static String exportAffixes(AffixExport.Format format, int chunkSize) throws IOException {
+		AffixExport export = new AffixExport(ctx, format);
+		export.chunkSize = chunkSize;
+
+		StringWriter dest = new StringWriter();
+		export.writeAffixes(affixes, dest);
+
+		return dest.toString();
+	}
+
+	private static String exportEffects(AffixExport.Format format, int chunkSize) throws IOException {
+		AffixExport export = new AffixExport(ctx, format);
+		export.chunkSize = chunkSize;
+
+		StringWriter dest = new StringWriter();
+		export.writeEffects(affixes, dest);
+
+		return dest.toString();
+	}
+
+	private static List<String> lines(String text) {
+		return Arrays.asList(text.split("\r?\n"));
+	}
+
+	@Test
+	public void jsonHasOneRowPerAffixInOrder() throws Exception {
+		List<String> rows = lines(exportAffixes(AffixExport.Format.JSONL, AffixExport.DEFAULT_CHUNK_SIZE));
+
+		assertEquals(affixes.size(), rows.size());
+
+		for (int i = 0; i < affixes.size(); i++) {
+			assertTrue(rows.get(i), rows.get(i).startsWith("{\"name\":\"" + affixes.get(i).intName + "\""));
+		}
+	}
+
+	@Test
+	public void csvHasHeaderAndOneRowPerAffixInOrder() throws Exception {
+		List<String> rows = lines(exportAffixes(AffixExport.Format.CSV, AffixExport.DEFAULT_CHUNK_SIZE));
+
+		assertEquals(affixes.size() + 1, rows.size());
+		assertTrue(rows.get(0), rows.get(0).startsWith("name,file,source,"));
+
+		for (int i = 0; i < affixes.size(); i++) {
+			assertTrue(rows.get(i + 1), rows.get(i + 1).startsWith(affixes.get(i).intName + ","));
+		}
+	}
+
+	@Test
+	public void effectsHaveOneRowPerEffect() throws Exception {
+		assertEquals(effectCount, lines(exportEffects(AffixExport.Format.JSONL, 16)).size());
+		assertEquals(effectCount + 1, lines(exportEffects(AffixExport.Format.CSV, 16)).size());
+	}
+
+	@Test
+	public void chunkingDoesNotChangeOutput() throws Exception {
+		for (AffixExport.Format format : AffixExport.Format.values()) {
+			String whole = exportAffixes(format, affixes.size());
+
+			assertEquals(format.toString(), whole, exportAffixes(format, 1));
+			assertEquals(format.toString(), whole, exportAffixes(format, 7));
+
+			String effects = exportEffects(format, effectCount);
+
+			assertEquals(format.toString(), effects, exportEffects(format, 1));
+			assertEquals(format.toString(), effects, exportEffects(format, 7));
+		}
+	}
+
+	/* Load copies of the corpus from under a directory, and get the IDs of the
+	 * groups they are in. */
+	private Set<String> groupIds(String dir) throws IOException {
+		Path root = tmp.newFolder(dir).toPath();
+
+		List<String> copies = new ArrayList<>();
+		for (String fName : TestCorpus.files(TestCorpus.SIZE)) {
+			Path copy = root.resolve(fName);
+
+			Files.createDirectories(copy.getParent());
+			Files.copy(Paths.get(fName), copy);
+
+			copies.add(copy.toString());
+		}
+
+		AffixSet set = new AffixSet();
+		for (Affix afx : TestCorpus.load(ctx, copies)) set.addAffixByContents(afx);
+
+		StringWriter dest = new StringWriter();
+		new AffixExport(ctx, AffixExport.Format.JSONL).writeGroups(set.affixGroups, dest);
+
+		Set<String> ids = new TreeSet<>();
+
+		Pattern id  = Pattern.compile("^\\{\"id\":\"([0-9a-f]+)\"", Pattern.MULTILINE);
+		Matcher mat = id.matcher(dest.toString());
+		while (mat.find()) ids.add(mat.group(1));
+
+		assertEquals(set.affixGroups.size(), ids.size());
+
+		return ids;
+	}
+
+	@Test
+	public void groupIdsDoNotDependOnWhereFilesAre() throws Exception {
+		assertEquals(groupIds("a"), groupIds("elsewhere/b"));
+	}
+
+	@Test
+	public void formatComesFromFileName() {
+		assertEquals(AffixExport.Format.CSV,   AffixExport.Format.forFile("affixes.CSV"));
+		assertEquals(AffixExport.Format.JSONL, AffixExport.Format.forFile("affixes.jsonl"));
+	}
+}
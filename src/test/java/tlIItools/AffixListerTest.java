@@ -0,0 +1,175 @@
+package tlIItools;
+
+import static org.junit.Assert.*;
+
+import java.nio.file.*;
+
+import java.util.*;
+
+import org.junit.*;
+import org.junit.rules.*;
+
+/** Checks that every way of listing affixes gives the same listing as the
+ * plain, serial one.
+ *
+ * @author Ben Culkin */
+public class AffixListerTest {
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	private List<String> files;
+	private Path         list;
+
+	private List<String> plain;
+
+	@Before
+	public void setUp() throws Exception {
+		files = TestCorpus.files(TestCorpus.SIZE);
+		list  = TestCorpus.writeList(tmp.newFile("files.txt").toPath(), files);
+
+		plain = listing("plain");
+
+		assertFalse("Plain listing is empty", plain.isEmpty());
+	}
+
+	/* List the corpus with some extra arguments, and return the listing. */
+	private List<String> listing(String name, String... extra) throws Exception {
+		return listing(TestCorpus.quietContext(), name, extra);
+	}
+
+	/* List the corpus for a run with some extra arguments, and return the listing. */
+	private List<String> listing(RunContext ctx, String name, String... extra) throws Exception {
+		Path out = tmp.getRoot().toPath().resolve(name + ".txt");
+		Path err = tmp.getRoot().toPath().resolve(name + ".err");
+
+		List<String> args = new ArrayList<>();
+		Collections.addAll(args, "-o", out.toString(), "-e", err.toString());
+		Collections.addAll(args, extra);
+		Collections.addAll(args, "-r", list.toString());
+
+		AffixLister.listAffixes(ctx, args.toArray(new String[0]));
+
+		return TestCorpus.lines(out);
+	}
+
+	/* List the corpus with some extra arguments, and return what was diagnosed. */
+	private List<String> diagnostics(String name, String... extra) throws Exception {
+		RunContext ctx = TestCorpus.quietContext();
+		ctx.diagnostics = new Diagnostics(Diagnostics.DEFAULT_CAPACITY);
+
+		listing(ctx, name, extra);
+
+		List<String> res = new ArrayList<>();
+		for (Diagnostic diag : ctx.diagnostics.records()) {
+			res.add(diag.code + " " + diag.message() + " x" + ctx.diagnostics.count(diag));
+		}
+		res.add("total " + ctx.diagnostics.total());
+
+		// Workers finish in any order, so only what was found is compared.
+		Collections.sort(res);
+
+		return res;
+	}
+
+	@Test
+	public void parallelMatchesPlain() throws Exception {
+		assertEquals(plain, listing("parallel", "-p"));
+	}
+
+	@Test
+	public void streamingMatchesPlain() throws Exception {
+		assertEquals(plain, listing("streaming", "-s"));
+	}
+
+	@Test
+	public void pipelineMatchesPlain() throws Exception {
+		assertEquals(plain, listing("pipeline", "--pipeline", "--read-threads", "2",
+				"--parse-threads", "3", "--queue-depth", "4"));
+	}
+
+	@Test
+	public void headersOnlyListsSameAffixes() throws Exception {
+		// Only the count of effects is listed, so just compare the affixes.
+		assertEquals(affixLines(plain), affixLines(listing("headers", "-H")));
+	}
+
+	@Test
+	public void lazyHeadersMatchFullLoad() throws Exception {
+		RunContext ctx = TestCorpus.quietContext();
+
+		try (NameFileReader nfr = new NameFileReader()) {
+			for (String fName : files) {
+				Affix full = AffixLister.loadAffixFile(ctx, nfr, fName);
+				Affix lazy = AffixLister.loadAffixHeader(ctx, nfr, fName);
+
+				assertEquals(fName, full.toLongString(ctx), lazy.toLongString(ctx));
+			}
+		}
+	}
+
+	@Test
+	public void resumedCheckpointMatchesPlain() throws Exception {
+		Path cp = tmp.getRoot().toPath().resolve("run.checkpoint");
+
+		// Pretend an earlier run got through the first half of the files.
+		RunContext ctx = TestCorpus.quietContext();
+		List<String> done = files.subList(0, files.size() / 2);
+		try (Checkpoint point = Checkpoint.open(cp)) {
+			List<Affix> affixes = TestCorpus.load(ctx, done);
+
+			for (int i = 0; i < done.size(); i++) point.completed(done.get(i), affixes.get(i));
+		}
+
+		assertEquals(plain, listing("resumed", "--checkpoint", cp.toString()));
+	}
+
+	@Test
+	public void shardsMatchPlain() throws Exception {
+		Path dir = tmp.newFolder("shards").toPath();
+
+		assertEquals(plain, listing("sharded", "--shards", "2", "--shard-dir", dir.toString()));
+
+		// Make sure the workers loaded the files, instead of this process.
+		int merged = 0;
+		for (int i = 0; i < 2; i++) {
+			try (Checkpoint partial = Checkpoint.open(dir.resolve("shard-" + i + ".partial"))) {
+				merged += partial.size();
+			}
+		}
+
+		assertEquals(files.size(), merged);
+	}
+
+	@Test
+	public void shardDiagnosticsAreMerged() throws Exception {
+		Path bad = tmp.newFile("BAD.DAT").toPath();
+		Files.write(bad, Arrays.asList(
+				"[AFFIX]",
+				"\t<STRING>NAME:TEST_BAD",
+				"\t<TRANSLATE>BOGUS:Bad",
+				"[/AFFIX]"));
+
+		List<String> withBad = new ArrayList<>(files);
+		withBad.add(bad.toString());
+		TestCorpus.writeList(list, withBad);
+
+		List<String> plainDiags = diagnostics("plain-diags");
+
+		assertTrue(plainDiags.toString(),
+				plainDiags.stream().anyMatch((diag) -> diag.startsWith("MISFORMED_TRANSLATION")));
+
+		Path dir = tmp.newFolder("shards").toPath();
+		assertEquals(plainDiags, diagnostics("sharded-diags",
+				"--shards", "2", "--shard-dir", dir.toString()));
+	}
+
+	private static List<String> affixLines(List<String> listing) {
+		List<String> res = new ArrayList<>();
+
+		for (String ln : listing) {
+			if (ln.startsWith("Affix")) res.add(ln);
+		}
+
+		return res;
+	}
+}
@@ -0,0 +1,102 @@
+package tlIItools;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+
+import java.util.*;
+
+import org.junit.*;
+
+/** Checks that affixes come back out of a store the way they went in.
+ *
+ * @author Ben Culkin */
+public class AffixStoreTest {
+	private static RunContext  ctx;
+	private static List<Affix> affixes;
+
+	@BeforeClass
+	public static void setUpClass() throws Exception {
+		ctx     = TestCorpus.quietContext();
+		affixes = TestCorpus.load(ctx, TestCorpus.files(TestCorpus.SIZE));
+	}
+
+	private static AffixStore roundTrip(AffixStore store) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			store.write(out);
+		}
+
+		return AffixStore.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+	}
+
+	@Test
+	public void affixesRoundTrip() throws Exception {
+		AffixStore read = roundTrip(new AffixStore(affixes, null));
+
+		assertEquals(affixes.size(), read.affixes.size());
+		assertNull(read.compat);
+		assertNull(read.search);
+
+		for (int i = 0; i < affixes.size(); i++) {
+			Affix expected = affixes.get(i);
+			Affix actual   = read.affixes.get(i);
+
+			assertEquals(expected.toLongString(ctx), actual.toLongString(ctx));
+			assertEquals(expected.fingerprint(), actual.fingerprint());
+			assertEquals(expected.contentKey(), actual.contentKey());
+			assertEquals(expected.fileName(), actual.fileName());
+		}
+	}
+
+	@Test
+	public void effectLocationsRoundTrip() throws Exception {
+		AffixStore read = roundTrip(new AffixStore(affixes, null));
+
+		for (int i = 0; i < affixes.size(); i++) {
+			List<Effect> expected = affixes.get(i).effects;
+			List<Effect> actual   = read.affixes.get(i).effects;
+
+			assertEquals(expected.size(), actual.size());
+
+			for (int j = 0; j < expected.size(); j++) {
+				assertEquals(expected.get(j).location(), actual.get(j).location());
+				assertEquals(expected.get(j).fileName(), actual.get(j).fileName());
+			}
+		}
+	}
+
+	@Test
+	public void effectsFromOneFileShareARecord() throws Exception {
+		AffixStore read = roundTrip(new AffixStore(affixes, null));
+
+		for (Affix afx : read.affixes) {
+			SourceFile file = null;
+
+			for (Effect eft : afx.effects) {
+				assertNotNull(eft.sourceFile);
+
+				if (file == null) file = eft.sourceFile;
+				else              assertSame(file, eft.sourceFile);
+			}
+		}
+	}
+
+	@Test
+	public void searchIndexRoundTrips() throws Exception {
+		AffixStore store = new AffixStore(affixes, null);
+		store.search = SearchIndex.build(ctx, affixes);
+
+		AffixStore read = roundTrip(store);
+
+		assertNotNull(read.search);
+
+		SearchIndex.Results expected = store.search.search("charm", SearchIndex.Mode.PREFIX, 10);
+		SearchIndex.Results actual   = read.search.search("charm", SearchIndex.Mode.PREFIX, 10);
+
+		assertEquals(expected.total, actual.total);
+		for (int i = 0; i < expected.hits.size(); i++) {
+			assertEquals(expected.hits.get(i).doc, actual.hits.get(i).doc);
+		}
+	}
+}
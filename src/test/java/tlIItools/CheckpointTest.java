@@ -0,0 +1,88 @@
+package tlIItools;
+
+import static org.junit.Assert.*;
+
+import java.nio.channels.*;
+import java.nio.file.*;
+
+import java.util.*;
+
+import org.junit.*;
+import org.junit.rules.*;
+
+/** Checks that checkpoints come back the way they were saved.
+ *
+ * @author Ben Culkin */
+public class CheckpointTest {
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	private RunContext   ctx;
+	private List<String> files;
+	private List<Affix>  affixes;
+
+	private Path cp;
+
+	@Before
+	public void setUp() throws Exception {
+		ctx     = TestCorpus.quietContext();
+		files   = TestCorpus.files(20);
+		affixes = TestCorpus.load(ctx, files);
+
+		cp = tmp.getRoot().toPath().resolve("run.checkpoint");
+	}
+
+	@Test
+	public void reopenedCheckpointHasEverySegment() throws Exception {
+		try (Checkpoint point = Checkpoint.open(cp)) {
+			for (int i = 0; i < 10; i++) point.completed(files.get(i), affixes.get(i));
+			point.save();
+
+			for (int i = 10; i < files.size(); i++) point.completed(files.get(i), affixes.get(i));
+			point.quarantined("BROKEN.DAT", "Took too long");
+		}
+
+		try (Checkpoint point = Checkpoint.open(cp)) {
+			assertFalse(point.droppedPartial);
+			assertEquals(files.size() + 1, point.restoredCount);
+
+			for (int i = 0; i < files.size(); i++) {
+				Checkpoint.Entry entry = point.get(files.get(i));
+
+				assertEquals(Checkpoint.Status.DONE, entry.status);
+				assertEquals(affixes.get(i).toLongString(ctx), entry.afx.toLongString(ctx));
+			}
+
+			Checkpoint.Entry broken = point.get("BROKEN.DAT");
+			assertEquals(Checkpoint.Status.QUARANTINED, broken.status);
+			assertEquals("Took too long", broken.reason);
+		}
+	}
+
+	@Test
+	public void halfWrittenSegmentIsDropped() throws Exception {
+		try (Checkpoint point = Checkpoint.open(cp)) {
+			for (int i = 0; i < 10; i++) point.completed(files.get(i), affixes.get(i));
+			point.save();
+		}
+
+		long goodSize = Files.size(cp);
+
+		try (Checkpoint point = Checkpoint.open(cp)) {
+			for (int i = 10; i < files.size(); i++) point.completed(files.get(i), affixes.get(i));
+		}
+
+		// Cut the last segment off part of the way through, like a killed run.
+		try (FileChannel channel = FileChannel.open(cp, StandardOpenOption.WRITE)) {
+			channel.truncate(goodSize + (Files.size(cp) - goodSize) / 2);
+		}
+
+		try (Checkpoint point = Checkpoint.open(cp)) {
+			assertTrue(point.droppedPartial);
+			assertEquals(10, point.restoredCount);
+
+			assertNotNull(point.get(files.get(9)));
+			assertNull(point.get(files.get(10)));
+		}
+	}
+}
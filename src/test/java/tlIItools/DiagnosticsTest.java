@@ -0,0 +1,90 @@
+package tlIItools;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+
+import java.util.*;
+
+import org.junit.*;
+
+/** Checks which diagnostics are folded together.
+ *
+ * @author Ben Culkin */
+public class DiagnosticsTest {
+	private Diagnostics diags;
+
+	@Before
+	public void setUp() {
+		diags = new Diagnostics(Diagnostics.DEFAULT_CAPACITY);
+	}
+
+	private static Diagnostic noDetails(String file, int line, String type, double min) {
+		return new Diagnostic(Diagnostic.Code.NO_DETAILS, file, line, null,
+				"", type, min, min, 0.0, "physical", -1, "");
+	}
+
+	@Test
+	public void renderWarningsAreFoldedByEffect() {
+		diags.add(noDetails("a/X.DAT", 9,  "BONUS", 40));
+		diags.add(noDetails("b/X.DAT", 9,  "BONUS", 40));
+		diags.add(noDetails("c/Y.DAT", 12, "BONUS", 40));
+		diags.add(noDetails("a/X.DAT", 9,  "BONUS", 200));
+
+		assertEquals(2, diags.size());
+		assertEquals(4, diags.total());
+
+		Diagnostic first = diags.records().get(0);
+		assertEquals("a/X.DAT:9", first.location());
+		assertEquals(3, diags.count(first));
+	}
+
+	@Test
+	public void loadProblemsAreKeptForEachPlace() {
+		diags.add(Diagnostic.Code.MALFORMED_NUMBER, "a/X.DAT", 4, "X", "<INTEGER>LEVEL", "x", "a/X.DAT");
+		diags.add(Diagnostic.Code.MALFORMED_NUMBER, "a/X.DAT", 4, "X", "<INTEGER>LEVEL", "x", "a/X.DAT");
+		diags.add(Diagnostic.Code.MALFORMED_NUMBER, "a/X.DAT", 7, "X", "<INTEGER>LEVEL", "x", "a/X.DAT");
+
+		assertEquals(2, diags.size());
+		assertEquals(2, diags.count(diags.records().get(0)));
+	}
+
+	@Test
+	public void foldedWarningsShowTheirSample() {
+		diags.add(noDetails("a/X.DAT", 9, "BONUS", 40));
+		diags.add(noDetails("b/X.DAT", 9, "BONUS", 40));
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		diags.printTo(new PrintStream(bytes, true));
+
+		assertTrue(bytes.toString(), bytes.toString().contains("[first at a/X.DAT:9] (x2)"));
+	}
+
+	@Test
+	public void writtenDiagnosticsAreAddedBack() throws Exception {
+		diags.add(noDetails("a/X.DAT", 9, "BONUS", 40));
+		diags.add(noDetails("b/X.DAT", 9, "BONUS", 40));
+		diags.add(Diagnostic.Code.AFFIX_TIMING, "a/X.DAT", -1, "X", "X", "a/X.DAT", 1234L, 0.5);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			diags.write(out);
+		}
+
+		Diagnostics merged = new Diagnostics(Diagnostics.DEFAULT_CAPACITY);
+		merged.add(noDetails("c/Y.DAT", 3, "BONUS", 40));
+		merged.addFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+		assertEquals(2, merged.size());
+		assertEquals(4, merged.total());
+
+		List<String> expected = new ArrayList<>();
+		diags.formatInto(expected);
+
+		List<String> actual = new ArrayList<>();
+		merged.formatInto(actual);
+
+		assertEquals(expected, actual);
+		assertEquals(3, merged.count(merged.records().get(0)));
+	}
+}
@@ -0,0 +1,93 @@
+package tlIItools;
+
+import static org.junit.Assert.*;
+
+import java.nio.file.*;
+
+import java.util.*;
+
+import org.junit.*;
+import org.junit.rules.*;
+
+/** Checks that the render cache gives the same descriptions and diagnostics
+ * as rendering every effect.
+ *
+ * @author Ben Culkin */
+public class EffectRenderCacheTest {
+	/* An affix with an effect that has no details, so it warns when rendered. */
+	private static final String NO_DETAILS_FILE = "affix-socketables/Affixes/ITEMS/SET_STRENGTH_BONUS.DAT";
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	private List<String> copies;
+
+	@Before
+	public void setUp() throws Exception {
+		copies = new ArrayList<>();
+
+		for (String dir : new String[] { "a", "b" }) {
+			Path copy = tmp.newFolder(dir).toPath().resolve("X.DAT");
+			Files.copy(Paths.get(NO_DETAILS_FILE), copy);
+
+			copies.add(copy.toString());
+		}
+	}
+
+	/* Describe the copies with a cache of some size, and get what was said.
+	 * Where each warning was recorded is added to a list as it comes up. */
+	private List<String> describe(int capacity, List<String> descriptions, List<String> recorded)
+			throws Exception
+	{
+		RunContext ctx = TestCorpus.quietContext();
+		ctx.diagnostics = new Diagnostics(Diagnostics.DEFAULT_CAPACITY) {
+			@Override
+			public void add(Diagnostic diag) {
+				recorded.add(diag.code + " " + diag.location());
+
+				super.add(diag);
+			}
+		};
+		ctx.renderCache = new EffectRenderCache(ctx, capacity);
+
+		for (Affix afx : TestCorpus.load(ctx, copies)) {
+			for (Effect eft : afx.effects) descriptions.add(eft.describe(ctx));
+		}
+
+		List<String> res = new ArrayList<>();
+		for (Diagnostic diag : ctx.diagnostics.records()) {
+			res.add(diag.code + " " + diag.location() + " x" + ctx.diagnostics.count(diag));
+		}
+
+		return res;
+	}
+
+	@Test
+	public void cacheDoesNotChangeDiagnostics() throws Exception {
+		List<String> uncachedText = new ArrayList<>();
+		List<String> cachedText   = new ArrayList<>();
+
+		List<String> uncachedRecorded = new ArrayList<>();
+		List<String> cachedRecorded   = new ArrayList<>();
+
+		List<String> uncached = describe(0, uncachedText, uncachedRecorded);
+		List<String> cached   = describe(EffectRenderCache.DEFAULT_CAPACITY, cachedText, cachedRecorded);
+
+		assertEquals(uncachedText, cachedText);
+		assertEquals(uncachedRecorded, cachedRecorded);
+		assertEquals(uncached, cached);
+	}
+
+	@Test
+	public void warningsAreChargedToEachFile() throws Exception {
+		List<String> recorded = new ArrayList<>();
+		List<String> diags    = describe(EffectRenderCache.DEFAULT_CAPACITY, new ArrayList<>(), recorded);
+
+		assertEquals(Arrays.asList(
+				"NO_DETAILS " + copies.get(0) + ":9",
+				"NO_DETAILS " + copies.get(1) + ":9"), recorded);
+
+		// The same problem with the same effect is only listed once.
+		assertEquals(Arrays.asList("NO_DETAILS " + copies.get(0) + ":9 x2"), diags);
+	}
+}
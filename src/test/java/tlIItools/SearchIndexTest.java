@@ -0,0 +1,216 @@
+package tlIItools;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.junit.*;
+
+import tlIItools.SearchIndex.*;
+
+/** Checks the search index against a plain scan of the affixes.
+ *
+ * @author Ben Culkin */
+public class SearchIndexTest {
+	private static final String[] QUERIES = {
+		"charm", "great cha", "fire", "ice damage", "poison", "of the",
+		"more", "mastery", "ele", "t", "zzzz"
+	};
+
+	private static RunContext  ctx;
+	private static List<Affix> affixes;
+
+	private static SearchIndex index;
+
+	@BeforeClass
+	public static void setUpClass() throws Exception {
+		ctx     = TestCorpus.quietContext();
+		affixes = TestCorpus.load(ctx, TestCorpus.files(TestCorpus.SIZE));
+
+		index = SearchIndex.build(ctx, affixes);
+	}
+
+	/* Get the normalized fields of an affix, the same ones the index uses. */
+	private static List<String> fields(Affix afx) {
+		List<String> fields = new ArrayList<>();
+
+		if (afx.intName     != null) fields.add(SearchIndex.normalize(afx.intName));
+		if (afx.affixPrefix != null) fields.add(SearchIndex.normalize(afx.affixPrefix));
+		if (afx.affixSuffix != null) fields.add(SearchIndex.normalize(afx.affixSuffix));
+
+		for (Effect eft : afx.effects) fields.add(SearchIndex.normalize(eft.describe(ctx)));
+
+		return fields;
+	}
+
+	/* Find the affixes a query should match, by looking at every one. */
+	private static Set<Integer> scan(String query, Mode mode) {
+		String text = SearchIndex.normalize(query);
+
+		Set<Integer> docs = new TreeSet<>();
+		for (int doc = 0; doc < affixes.size(); doc++) {
+			List<String> fields = fields(affixes.get(doc));
+
+			boolean matches;
+			if (mode == Mode.SUBSTRING) {
+				matches = fields.stream().anyMatch((field) -> field.contains(text));
+			} else {
+				Set<String> words = new HashSet<>();
+				for (String field : fields) words.addAll(Arrays.asList(field.split(" ")));
+
+				String[] queryWords = text.split(" ");
+
+				matches = true;
+				for (int w = 0; w < queryWords.length; w++) {
+					String word = queryWords[w];
+
+					if (w < queryWords.length - 1) {
+						matches &= words.contains(word);
+					} else {
+						matches &= words.stream().anyMatch((wrd) -> wrd.startsWith(word));
+					}
+				}
+			}
+
+			if (matches) docs.add(doc);
+		}
+
+		return docs;
+	}
+
+	private static Set<Integer> docs(Results res) {
+		Set<Integer> docs = new TreeSet<>();
+		for (Hit hit : res.hits) docs.add(hit.doc);
+
+		return docs;
+	}
+
+	@Test
+	public void substringMatchesScan() {
+		for (String query : QUERIES) {
+			Results res = index.search(query, Mode.SUBSTRING, affixes.size());
+
+			assertEquals(query, scan(query, Mode.SUBSTRING), docs(res));
+			assertEquals(query, res.hits.size(), res.total);
+		}
+	}
+
+	@Test
+	public void prefixMatchesScan() {
+		for (String query : QUERIES) {
+			Results res = index.search(query, Mode.PREFIX, affixes.size());
+
+			assertEquals(query, scan(query, Mode.PREFIX), docs(res));
+		}
+	}
+
+	@Test
+	public void phraseFindsAffixByItsPrefix() {
+		for (int doc = 0; doc < affixes.size(); doc++) {
+			Affix afx = affixes.get(doc);
+			if (afx.affixPrefix == null || SearchIndex.normalize(afx.affixPrefix).isEmpty()) continue;
+
+			Results res = index.search(afx.affixPrefix, Mode.PHRASE, affixes.size());
+
+			assertTrue(afx.affixPrefix, docs(res).contains(doc));
+		}
+	}
+
+	@Test
+	public void hitsAreBestFirstAndLimited() {
+		Results all = index.search("more", Mode.PREFIX, affixes.size());
+		Results top = index.search("more", Mode.PREFIX, 5);
+
+		assertEquals(all.total, top.total);
+		assertEquals(5, top.hits.size());
+
+		for (int i = 0; i < top.hits.size(); i++) {
+			assertEquals(all.hits.get(i).doc, top.hits.get(i).doc);
+
+			if (i > 0) assertTrue(top.hits.get(i - 1).score >= top.hits.get(i).score);
+		}
+	}
+
+	@Test
+	public void readIndexGivesSameResults() throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			index.write(out);
+		}
+
+		SearchIndex read = SearchIndex.read(new DataInputStream(
+				new ByteArrayInputStream(bytes.toByteArray())));
+
+		for (String query : QUERIES) {
+			for (Mode mode : Mode.values()) {
+				assertSameResults(query + " " + mode,
+						index.search(query, mode, 20), read.search(query, mode, 20));
+			}
+		}
+	}
+
+	@Test
+	public void threadsGetSameResults() throws Exception {
+		Map<String, Results> expected = new HashMap<>();
+		for (String query : QUERIES) expected.put(query, index.search(query, Mode.SUBSTRING, 20));
+
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+
+			for (int t = 0; t < 4; t++) {
+				futures.add(pool.submit(() -> {
+					for (int round = 0; round < 50; round++) {
+						for (String query : QUERIES) {
+							assertSameResults(query, expected.get(query),
+									index.search(query, Mode.SUBSTRING, 20));
+						}
+					}
+				}));
+			}
+
+			for (Future<?> future : futures) future.get();
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void newThreadForEachQueryGetsSameResults() throws Exception {
+		Map<String, Results> expected = new HashMap<>();
+		for (String query : QUERIES) expected.put(query, index.search(query, Mode.PREFIX, 20));
+
+		// Like the server, which runs every request on a thread of its own.
+		ExecutorService pool = Executors.newCachedThreadPool();
+		try {
+			List<Future<Results>> futures = new ArrayList<>();
+
+			for (int round = 0; round < 20; round++) {
+				for (String query : QUERIES) {
+					futures.add(pool.submit(() -> index.search(query, Mode.PREFIX, 20)));
+				}
+			}
+
+			for (int i = 0; i < futures.size(); i++) {
+				String query = QUERIES[i % QUERIES.length];
+
+				assertSameResults(query, expected.get(query), futures.get(i).get());
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	private static void assertSameResults(String msg, Results expected, Results actual) {
+		assertEquals(msg, expected.total, actual.total);
+		assertEquals(msg, expected.hits.size(), actual.hits.size());
+
+		for (int i = 0; i < expected.hits.size(); i++) {
+			assertEquals(msg, expected.hits.get(i).doc, actual.hits.get(i).doc);
+			assertEquals(msg, expected.hits.get(i).score, actual.hits.get(i).score, 0.0);
+		}
+	}
+}
@@ -0,0 +1,186 @@
+package tlIItools;
+
+import static org.junit.Assert.*;
+
+import java.nio.file.*;
+
+import java.util.*;
+
+import org.junit.*;
+import org.junit.rules.*;
+
+/** Checks that socketable units are read, inherit from the files they name
+ * as their base, and are joined to the affixes they grant.
+ *
+ * @author Ben Culkin */
+public class SocketableIndexTest {
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	private Path root;
+
+	@Before
+	public void setUp() throws Exception {
+		root = tmp.newFolder("units").toPath();
+
+		Files.createDirectories(root.resolve("ITEMS/SOCKETABLES"));
+	}
+
+	/* Write a unit file under the units directory. */
+	private void unit(String path, String... fields) throws Exception {
+		List<String> lines = new ArrayList<>();
+
+		lines.add("[UNIT]");
+		for (String field : fields) lines.add("\t" + field);
+		lines.add("[/UNIT]");
+
+		Files.write(root.resolve(path), lines);
+	}
+
+	private SocketableUnit named(SocketableIndex index, String name) {
+		for (SocketableUnit unit : index.units) {
+			if (name.equals(unit.name)) return unit;
+		}
+
+		fail("No unit named " + name);
+		return null;
+	}
+
+	private static Affix affix(String name) {
+		Affix afx = new Affix();
+		afx.intName = name;
+
+		return afx;
+	}
+
+	@Test
+	public void unitFieldsAreRead() throws Exception {
+		unit("ITEMS/SOCKETABLES/EMBER.DAT",
+				"<STRING>NAME:ember",
+				"<TRANSLATE>DISPLAYNAME:Ember",
+				"<STRING>UNITTYPE:EMBER",
+				"<INTEGER>MINLEVEL:10",
+				"<INTEGER>MAXLEVEL:20",
+				"<INTEGER>RARITY:50",
+				"<STRING>AFFIX:EMBER_FIRE",
+				"<STRING>AFFIX:EMBER_ICE");
+
+		SocketableIndex index = SocketableIndex.loadFrom(TestCorpus.quietContext(), root.toString());
+
+		assertEquals(Collections.emptyList(), index.errors);
+
+		SocketableUnit ember = named(index, "ember");
+		assertEquals("Ember", ember.displayName);
+		assertEquals("EMBER", ember.unitType);
+		assertEquals(10, ember.minLevel);
+		assertEquals(20, ember.maxLevel);
+		assertEquals(50, ember.rarity);
+		assertEquals(Arrays.asList("EMBER_FIRE", "EMBER_ICE"), ember.affixNames);
+	}
+
+	@Test
+	public void unitsAreJoinedToAffixes() throws Exception {
+		unit("ITEMS/SOCKETABLES/EMBER.DAT",
+				"<STRING>NAME:ember",
+				"<STRING>AFFIX:EMBER_FIRE",
+				"<STRING>AFFIX:EMBER_ICE");
+		unit("ITEMS/SOCKETABLES/SKULL.DAT",
+				"<STRING>NAME:skull",
+				"<STRING>AFFIX:ember_fire");
+
+		SocketableIndex index = SocketableIndex.loadFrom(TestCorpus.quietContext(), root.toString());
+
+		Affix fire = affix("EMBER_FIRE");
+		index.addAffix(fire);
+		index.addAffix(affix("UNSOCKETED"));
+
+		assertEquals(2, index.unitsFor("Ember_Fire").size());
+		assertEquals(Arrays.asList(fire), index.affixesFor(named(index, "skull")));
+
+		assertEquals(new TreeSet<>(Arrays.asList("EMBER_ICE")), index.missingAffixes());
+	}
+
+	@Test
+	public void unitInheritsFieldsItDoesNotSet() throws Exception {
+		unit("ITEMS/SOCKETABLES/EMBER_BASE.DAT",
+				"<STRING>NAME:ember_base",
+				"<STRING>UNITTYPE:EMBER",
+				"<INTEGER>MINLEVEL:10",
+				"<INTEGER>MAXLEVEL:20",
+				"<STRING>AFFIX:EMBER_FIRE");
+		unit("ITEMS/SOCKETABLES/EMBER_RANK2.DAT",
+				"<STRING>NAME:ember_rank2",
+				"<STRING>BASEFILE:media/units/items/socketables/ember_BASE.dat",
+				"<INTEGER>MAXLEVEL:30");
+
+		SocketableIndex index = SocketableIndex.loadFrom(TestCorpus.quietContext(), root.toString());
+
+		assertEquals(Collections.emptyList(), index.errors);
+
+		SocketableUnit rank2 = named(index, "ember_rank2");
+		assertEquals("EMBER", rank2.unitType);
+		assertEquals(10, rank2.minLevel);
+		assertEquals(30, rank2.maxLevel);
+		assertEquals(Arrays.asList("EMBER_FIRE"), rank2.affixNames);
+
+		assertEquals(2, index.unitsFor("EMBER_FIRE").size());
+	}
+
+	@Test
+	public void inheritanceIsTransitive() throws Exception {
+		unit("ITEMS/SOCKETABLES/A.DAT",
+				"<STRING>NAME:a",
+				"<STRING>UNITTYPE:GEM",
+				"<STRING>AFFIX:GEM_AFFIX");
+		unit("ITEMS/SOCKETABLES/B.DAT",
+				"<STRING>NAME:b",
+				"<STRING>BASEFILE:MEDIA\\UNITS\\ITEMS\\SOCKETABLES\\A.DAT",
+				"<INTEGER>RARITY:50");
+		unit("ITEMS/SOCKETABLES/C.DAT",
+				"<STRING>NAME:c",
+				"<STRING>BASEFILE:media/units/items/socketables/b.dat");
+
+		SocketableIndex index = SocketableIndex.loadFrom(TestCorpus.quietContext(), root.toString());
+
+		SocketableUnit c = named(index, "c");
+		assertEquals("GEM", c.unitType);
+		assertEquals(50, c.rarity);
+		assertEquals(Arrays.asList("GEM_AFFIX"), c.affixNames);
+	}
+
+	@Test
+	public void ownAffixesReplaceInheritedOnes() throws Exception {
+		unit("ITEMS/SOCKETABLES/BASE.DAT",
+				"<STRING>NAME:base",
+				"<STRING>AFFIX:BASE_AFFIX");
+		unit("ITEMS/SOCKETABLES/CHILD.DAT",
+				"<STRING>NAME:child",
+				"<STRING>BASEFILE:media/units/items/socketables/base.dat",
+				"<STRING>AFFIX:CHILD_AFFIX");
+
+		SocketableIndex index = SocketableIndex.loadFrom(TestCorpus.quietContext(), root.toString());
+
+		assertEquals(Arrays.asList("CHILD_AFFIX"), named(index, "child").affixNames);
+	}
+
+	@Test
+	public void missingAndCircularBasesAreReported() throws Exception {
+		unit("ITEMS/SOCKETABLES/ORPHAN.DAT",
+				"<STRING>NAME:orphan",
+				"<STRING>BASEFILE:media/units/items/socketables/nowhere.dat");
+		unit("ITEMS/SOCKETABLES/LOOP.DAT",
+				"<STRING>NAME:loop",
+				"<STRING>BASEFILE:media/units/items/socketables/loop.dat");
+
+		SocketableIndex index = SocketableIndex.loadFrom(TestCorpus.quietContext(), root.toString());
+
+		assertEquals(2, index.errors.size());
+
+		String errors = String.join("", index.errors);
+		assertTrue(errors, errors.contains("Couldn't find base file"));
+		assertTrue(errors, errors.contains("inherits from itself"));
+
+		// Units with a bad base are still listed, with their own fields.
+		assertNotNull(named(index, "orphan"));
+	}
+}
@@ -0,0 +1,108 @@
+package tlIItools;
+
+import java.io.*;
+
+import java.nio.charset.*;
+import java.nio.file.*;
+
+import java.util.*;
+
+/** Helpers for loading part of the affix corpus in tests.
+ *
+ * The corpus is the set of socketable affixes listed in afxsocketfiles.txt,
+ * which is found relative to the project directory.
+ *
+ * @author Ben Culkin */
+public class TestCorpus {
+	/** The number of files most tests load. */
+	public static final int SIZE = 150;
+
+	/** Get the names of the first few files in the corpus.
+	 *
+	 * @param count The number of files to get.
+	 *
+	 * @return The names of the files.
+	 *
+	 * @throws IOException If the corpus list can't be read. */
+	public static List<String> files(int count) throws IOException {
+		List<String> files = new ArrayList<>();
+
+		for (String ln : Files.readAllLines(Paths.get("afxsocketfiles.txt"))) {
+			if (ln.isBlank()) continue;
+
+			files.add(ln.trim());
+
+			if (files.size() == count) break;
+		}
+
+		return files;
+	}
+
+	/** Write the names of some files to a list file, in the format read by
+	 * '-r'.
+	 *
+	 * @param list The file to write to.
+	 * @param files The names of the files.
+	 *
+	 * @return The list file.
+	 *
+	 * @throws IOException If the list file can't be written. */
+	public static Path writeList(Path list, List<String> files) throws IOException {
+		return Files.write(list, files);
+	}
+
+	/** Create a run context that doesn't print anything.
+	 *
+	 * @return The new run context. */
+	public static RunContext quietContext() {
+		RunContext ctx = new RunContext();
+		ctx.diagnostics = Diagnostics.IGNORE;
+
+		PrintStream nowhere = new PrintStream(OutputStream.nullOutputStream());
+		ctx.normOut = nowhere;
+		ctx.errOut  = nowhere;
+
+		return ctx;
+	}
+
+	/** Load the affixes in some files, in order.
+	 *
+	 * @param ctx The run to load the affixes for.
+	 * @param files The files to load.
+	 *
+	 * @return The loaded affixes.
+	 *
+	 * @throws IOException If one of the files can't be read. */
+	public static List<Affix> load(RunContext ctx, List<String> files) throws IOException {
+		List<Affix> affixes = new ArrayList<>();
+
+		NameFileReader nfr = new NameFileReader();
+		for (String fName : files) affixes.add(AffixLister.loadAffixFile(ctx, nfr, fName));
+
+		return affixes;
+	}
+
+	/** Load a corpus from the files listed in a list file.
+	 *
+	 * @param ctx The run to load the affixes for.
+	 * @param list The list file.
+	 *
+	 * @return The loaded corpus. */
+	public static Corpus loadCorpus(RunContext ctx, Path list) {
+		NameFileReader nfr = new NameFileReader();
+		nfr.readFrom(list.toString());
+
+		return Corpus.load(ctx, nfr, 1);
+	}
+
+	/** Read a text file as a list of lines.
+	 *
+	 * @param file The file to read.
+	 *
+	 * @return The lines of the file.
+	 *
+	 * @throws IOException If the file can't be read. */
+	public static List<String> lines(Path file) throws IOException {
+		return Files.readAllLines(file, StandardCharsets.UTF_8);
+	}
+}